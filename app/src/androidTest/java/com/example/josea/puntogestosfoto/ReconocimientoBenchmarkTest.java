@@ -0,0 +1,77 @@
+package com.example.josea.puntogestosfoto;
+
+import android.content.Context;
+import android.gesture.Gesture;
+import android.gesture.GestureLibraries;
+import android.gesture.GestureLibrary;
+import android.gesture.GesturePoint;
+import android.gesture.GestureStroke;
+import android.gesture.Prediction;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compara en el dispositivo el tiempo de GestureLibrary.recognize con el de ReconocedorGestos sobre
+ * el fichero de gestos de la aplicación. Los tiempos se escriben en el log con la etiqueta "Benchmark".
+ */
+public class ReconocimientoBenchmarkTest extends InstrumentationTestCase {
+    private static final String TAG = "Benchmark";
+    private static final int ITERACIONES = 2000;
+
+    public void testReconocedorPropioFrenteAGestureLibrary() throws Exception {
+        Context ctx = getInstrumentation().getTargetContext();
+
+        GestureLibrary gestureLib = GestureLibraries.fromRawResource(ctx, R.raw.gestures);
+        assertTrue(gestureLib.load());
+
+        InputStream in = ctx.getResources().openRawResource(R.raw.gestures);
+        List<GestoGrabado> gestos;
+        try {
+            gestos = LectorGestos.leer(in);
+        } finally {
+            in.close();
+        }
+        ReconocedorGestos reconocedor = new ReconocedorGestos(PlantillasGestos.desdeGestos(gestos));
+        Predicciones predicciones = new Predicciones(4);
+
+        // Usamos como trazo de prueba la propia plantilla desplazada.
+        float[] puntos = gestos.get(0).trazos[0];
+        long[] tiempos = gestos.get(0).tiempos[0];
+        ArrayList<GesturePoint> lista = new ArrayList<GesturePoint>();
+        for (int i = 0; i < tiempos.length; i++) {
+            lista.add(new GesturePoint(puntos[i * 2] + 50, puntos[i * 2 + 1] + 20, tiempos[i]));
+        }
+        Gesture gesture = new Gesture();
+        gesture.addStroke(new GestureStroke(lista));
+        GestureStroke trazo = gesture.getStrokes().get(0);
+
+        ArrayList<Prediction> esperadas = gestureLib.recognize(gesture);
+        reconocedor.reconocer(trazo.points, trazo.points.length, predicciones);
+        assertEquals(esperadas.get(0).name, predicciones.nombre(0));
+        assertEquals(esperadas.get(0).score, predicciones.puntuacion(0), esperadas.get(0).score * 1e-3);
+
+        for (int i = 0; i < ITERACIONES; i++) {
+            gestureLib.recognize(gesture);
+            reconocedor.reconocer(trazo.points, trazo.points.length, predicciones);
+        }
+
+        long inicio = System.nanoTime();
+        for (int i = 0; i < ITERACIONES; i++) {
+            gestureLib.recognize(gesture);
+        }
+        long framework = System.nanoTime() - inicio;
+
+        inicio = System.nanoTime();
+        for (int i = 0; i < ITERACIONES; i++) {
+            reconocedor.reconocer(trazo.points, trazo.points.length, predicciones);
+        }
+        long propio = System.nanoTime() - inicio;
+
+        Log.i(TAG, "GestureLibrary.recognize: " + framework / ITERACIONES + " ns/trazo");
+        Log.i(TAG, "ReconocedorGestos.reconocer: " + propio / ITERACIONES + " ns/trazo");
+    }
+}
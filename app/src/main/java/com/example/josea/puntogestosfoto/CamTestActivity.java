@@ -24,26 +24,26 @@ Autores:
 */
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
 
 import android.os.Handler;
 import android.app.Activity;
 import android.content.Context;
-import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.gesture.Gesture;
 import android.gesture.GestureOverlayView;
-import android.gesture.Prediction;
+import android.gesture.GestureStroke;
 import android.hardware.Camera;
 import android.hardware.Camera.PictureCallback;
 import android.hardware.Camera.ShutterCallback;
-import android.net.Uri;
-import android.os.AsyncTask;
+import android.media.MediaScannerConnection;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.MotionEvent;
 import android.view.SurfaceView;
 import android.view.View;
 import android.view.ViewGroup.LayoutParams;
@@ -51,8 +51,6 @@ import android.view.Window;
 import android.view.WindowManager;
 import android.widget.FrameLayout;
 import android.widget.Toast;
-import android.gesture.GestureLibraries;
-import android.gesture.GestureLibrary;
 
 /**
  * Clase principal de la aplicación, cámara de fotos que hará una foto a los 3 segundos de reconocer el patrón dibujado en pantalla adecuado.
@@ -62,7 +60,8 @@ import android.gesture.GestureLibrary;
  *https://github.com/josnidhin/Android-Camera-Example
  *como base para la cámara.
  */
-public class CamTestActivity extends Activity implements GestureOverlayView.OnGesturePerformedListener {
+public class CamTestActivity extends Activity implements GestureOverlayView.OnGesturePerformedListener,
+        GestureOverlayView.OnGestureListener {
     /**
      * Variable usada para los mensajes de depuración.
      */
@@ -74,9 +73,24 @@ public class CamTestActivity extends Activity implements GestureOverlayView.OnGe
     Preview preview;
 
     /**
-     * Sensor de la cámara.
+     * Sesión de la cámara, la abre y la maneja en su propio hilo, ver su archivo para más información.
      */
-    Camera camera;
+    SesionCamara sesion;
+
+    /**
+     * Tiempo que se mantiene abierta la cámara al pausar la aplicación, para volver rápido si se vuelve enseguida.
+     */
+    private static final long GRACIA_CAMARA_MS = 3000;
+
+    /**
+     * Cámara que se usa.
+     */
+    private static final int ID_CAMARA = 0;
+
+    /**
+     * Negociador de la resolución, guarda la configuración elegida para no recalcularla en el siguiente arranque.
+     */
+    private NegociadorResolucion negociador;
 
     /**
      * Estructura para la actividad, asignada por la superclase.
@@ -89,9 +103,157 @@ public class CamTestActivity extends Activity implements GestureOverlayView.OnGe
     Context ctx;
 
     /**
-     * Estructura para los gestos.
+     * Puntuación mínima para dar un gesto por reconocido.
+     * Hemos elegido un score de 3 porque ni era lo suficiente sensible para que no detectará ningún gesto como parecido ni
+     * lo suficiente tosco para que detectara cualquier patrón como si fuera el nuestro, calculado haciendo pruebas.
+     */
+    private static final double UMBRAL_GESTO = 3.0;
+
+    /**
+     * Configuración del reconocimiento mientras se dibuja: diferencia de puntuación con el siguiente gesto para
+     * decidir antes de tiempo, puntuación parcial con la que se descarta una plantilla, evaluaciones seguidas que
+     * se debe mantener la decisión y recorrido en píxeles entre evaluaciones.
+     */
+    private static final double MARGEN_DECISION = 1.0;
+    private static final double PUNTUACION_PODA = 1.5;
+    private static final int EVALUACIONES_ESTABLES = 2;
+    private static final float PASO_EVALUACION = 10;
+
+    /**
+     * Hilo que reconoce los trazos, completos y mientras se dibujan, ver su archivo para más información.
+     */
+    private HiloReconocimiento reconocimiento;
+
+    /**
+     * Trazo en curso según el hilo de reconocimiento, si ya se ha reconocido mientras se dibujaba y el instante
+     * (uptimeMillis) en que se hizo.
+     */
+    private int trazoEnCurso;
+    private boolean trazoDecidido;
+    private long instanteDecision;
+
+    /**
+     * Grabación de los trazos para reproducirlos en la JVM (ver ReproductorTrazas). Solo se graba si se lanza la
+     * actividad con el extra EXTRA_ETIQUETA_TRAZAS, cuyo valor es la etiqueta de todos los trazos, por ejemplo:
+     * adb shell am start -n com.example.josea.puntogestosfoto/.CamTestActivity --es etiquetaTrazas foto
+     * Los gestos se añaden a trazas.pgt en la carpeta de la aplicación al pausarla o cuando se acumulan muchos.
+     */
+    static final String EXTRA_ETIQUETA_TRAZAS = "etiquetaTrazas";
+    private static final int BYTES_VOLCADO_TRAZAS = 64 * 1024;
+    private GrabadorTrazas grabador;
+    private String etiquetaTrazas;
+
+    /**
+     * Si al acabar la cuenta atrás se espera a que la escena quede quieta antes de disparar, para no sacar fotos
+     * movidas, y cuánto como mucho. Se desactiva lanzando la actividad con el extra esperarEstabilidad a false.
+     */
+    static final String EXTRA_ESPERAR_ESTABILIDAD = "esperarEstabilidad";
+    private static final long ESPERA_ESTABILIDAD_MS = 1500;
+    private boolean esperarEstabilidad;
+
+    /**
+     * Si los gestos se reconocen dibujados con cualquier giro, por ejemplo con el móvil en vertical aunque la
+     * actividad esté en horizontal. Por defecto se comparan sensibles a la orientación, como GestureLibrary; se
+     * activa lanzando la actividad con el extra invarianteGiro a true.
+     */
+    static final String EXTRA_INVARIANTE_GIRO = "invarianteGiro";
+    private int orientacionesGesto;
+
+    /**
+     * Configuración del escritor de fotos: fotos que pueden esperar en cola, fotos con las que se avisa a la
+     * galería y tiempo máximo que una foto espera para avisar a la galería.
+     */
+    private static final int CAPACIDAD_COLA_FOTOS = 8;
+    private static final int FOTOS_POR_LOTE = 8;
+    private static final long MS_POR_LOTE = 1000;
+
+    /**
+     * Catálogo de las fotos guardadas, en la carpeta privada de la aplicación. El escritor lo abre y, si hace
+     * falta, lo compacta en su hilo al empezar.
+     */
+    private static final String FICHERO_CATALOGO = "catalogo_fotos.pgc";
+
+    /**
+     * Nombre del gesto que hace una ráfaga en lugar de una foto, número de fotos de la ráfaga y memoria máxima
+     * para los JPEG de la ráfaga que todavía no se han escrito. Con 8 MB caben dos o tres fotos en vuelo, lo que
+     * basta para que la cámara y el disco trabajen a la vez sin agotar la memoria en móviles con poca.
+     */
+    private static final String GESTO_RAFAGA = "rafaga";
+    private static final int FOTOS_RAFAGA = 20;
+    private static final long MEMORIA_RAFAGA = 8 * 1024 * 1024;
+
+    /**
+     * Buffers reutilizables para los JPEG de la ráfaga.
+     */
+    private final PoolBuffers buffers = new PoolBuffers(MEMORIA_RAFAGA);
+
+    /**
+     * Estado de la ráfaga en curso: fotos que faltan por hacer, si se espera a que se libere memoria o sitio en la
+     * cola para la siguiente y el JPEG más grande visto, para saber cuánto hace falta antes de disparar.
+     */
+    private int fotosRestantes;
+    private boolean esperandoHueco;
+    private int mayorJpeg;
+
+    /**
+     * Medidas de la última ráfaga o foto: instante de la primera foto y del último disparo (nanoTime), fotos
+     * hechas y memoria máxima usada.
+     */
+    private long inicioRafaga;
+    private long instanteDisparo;
+    private int fotosHechas;
+    private long memoriaMaxima;
+
+    /**
+     * Escritor de las fotos en disco, ver su archivo para más información.
+     */
+    private EscritorFotos escritor;
+
+    /**
+     * Traza de las etapas de cada captura, desde el trazo hasta la galería. Se vuelca al log y a un fichero al
+     * pausar la aplicación. Número de eventos que se guardan y de ellos cuántos se escriben en el fichero.
+     */
+    private static final int EVENTOS_TRAZA = 1024;
+    private static final int EVENTOS_VOLCADOS = 256;
+    private final TrazaCaptura traza = new TrazaCaptura(EVENTOS_TRAZA);
+
+    /**
+     * Captura en la traza del trazo en curso y de la foto en curso, y eventos anotados en el último volcado.
+     */
+    private int capturaTrazo;
+    private int capturaFoto;
+
+    /**
+     * Gesto que pidió la foto en curso y su puntuación, se guardan dentro de cada foto.
+     */
+    private String gestoFoto;
+    private double puntuacionFoto;
+
+    /**
+     * Captura, gesto y puntuación de la cuenta atrás en curso. Pasan a ser los de la foto al lanzar la captura,
+     * no antes: la cuenta atrás puede empezar mientras la captura anterior aún está haciendo fotos.
      */
-    private GestureLibrary gestureLib;
+    private int capturaPendiente;
+    private String gestoPendiente;
+    private double puntuacionPendiente;
+    private long eventosVolcados;
+
+    /**
+     * Duración de cada paso de la cuenta atrás: "Foto en 3" al reconocer el gesto, "Foto en 2" a los 3 segundos,
+     * "Foto en 1" a los 5 y la foto a los 6. Los mensajes van por pasos restantes.
+     */
+    private static final long[] CUENTA_ATRAS = {3000, 2000, 1000};
+    private static final int[] MENSAJES_CUENTA_ATRAS = {R.string.Foto_en_1, R.string.Foto_en_2, R.string.Foto_en_3};
+
+    /**
+     * Planificador de la cuenta atrás, junta las peticiones de varios gestos y evita dos capturas a la vez.
+     */
+    private PlanificadorCaptura planificador;
+
+    /**
+     * Manejador del hilo principal, para volver a él desde la carga de las plantillas.
+     */
+    private Handler manejador;
 
     /**
      * Función que se llama al iniciar la aplicación, inicia todos los servicios necesarios.
@@ -102,6 +264,15 @@ public class CamTestActivity extends Activity implements GestureOverlayView.OnGe
         super.onCreate(savedInstanceState);
         ctx = this;
         act = this;
+        manejador = new Handler();
+        prepararPlanificador();
+        etiquetaTrazas = getIntent().getStringExtra(EXTRA_ETIQUETA_TRAZAS);
+        if (etiquetaTrazas != null) {
+            grabador = new GrabadorTrazas();
+        }
+        esperarEstabilidad = getIntent().getBooleanExtra(EXTRA_ESPERAR_ESTABILIDAD, true);
+        orientacionesGesto = getIntent().getBooleanExtra(EXTRA_INVARIANTE_GIRO, false)
+                ? UtilGestos.ORIENTACIONES_INVARIANTE : UtilGestos.ORIENTACIONES_SENSIBLE;
 
         //Ponemos que no nos aparezca el titulo de la aplicación en el layout.
         requestWindowFeature(Window.FEATURE_NO_TITLE);
@@ -109,11 +280,15 @@ public class CamTestActivity extends Activity implements GestureOverlayView.OnGe
 
         setContentView(R.layout.main);
 
+        prepararEscritor();
+        negociador = new NegociadorResolucion(new File(getFilesDir(), "perfiles_camara.properties"));
+
         // Iniciamos lo que se requiere para los gestos, importante iniciarlos antes que los de la cámara.
         PrepararGestos();
 
         // Iniciamos lo necesario para la cámara usando la clase Preview.
-        preview = new Preview(this, (SurfaceView)findViewById(R.id.surfaceView));
+        prepararSesion();
+        preview = new Preview(this, (SurfaceView)findViewById(R.id.surfaceView), sesion, negociador);
         preview.setLayoutParams(new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
         ((FrameLayout) findViewById(R.id.layout)).addView(preview);
         preview.setKeepScreenOn(true);
@@ -127,13 +302,11 @@ public class CamTestActivity extends Activity implements GestureOverlayView.OnGe
         super.onResume();
         int numCams = Camera.getNumberOfCameras();
         if(numCams > 0){
-            try{
-                camera = Camera.open(0);
-                camera.startPreview();
-                preview.setCamera(camera);
-            } catch (RuntimeException ex){
-                Toast.makeText(ctx, getString(R.string.camera_not_found), Toast.LENGTH_LONG).show();
-            }
+            // Se abre en el hilo de la sesión, preview recibe la cámara en sesionAbierta.
+            sesion.abrir(ID_CAMARA);
+            sesion.iniciarVista();
+        } else {
+            Toast.makeText(ctx, getString(R.string.camera_not_found), Toast.LENGTH_LONG).show();
         }
     }
 
@@ -142,12 +315,15 @@ public class CamTestActivity extends Activity implements GestureOverlayView.OnGe
      */
     @Override
     protected void onPause() {
-        if(camera != null) {
-            camera.stopPreview();
-            preview.setCamera(null);
-            camera.release();
-            camera = null;
-        }
+        // Una ráfaga a medias no sigue al volver.
+        fotosRestantes = 0;
+        esperandoHueco = false;
+        planificador.cancelarTodo();
+        // La cámara se mantiene abierta un tiempo por si se vuelve enseguida.
+        sesion.pausar();
+        guardarPerfiles();
+        volcarTraza();
+        guardarTrazas();
         super.onPause();
     }
 
@@ -156,12 +332,11 @@ public class CamTestActivity extends Activity implements GestureOverlayView.OnGe
      */
     @Override
     protected void onDestroy() {
-        if(camera != null) {
-            camera.stopPreview();
-            preview.setCamera(null);
-            camera.release();
-            camera = null;
-        }
+        preview.setCamera(ID_CAMARA, null);
+        sesion.cerrar();
+        reconocimiento.cerrar();
+        // Las fotos que queden en la cola se terminan de guardar en el hilo del escritor, cerrar no espera.
+        escritor.cerrar();
         super.onDestroy();
     }
 
@@ -170,18 +345,178 @@ public class CamTestActivity extends Activity implements GestureOverlayView.OnGe
      * Función que reinicia la cámara después de realizar una foto.
      */
     private void resetCam() {
-        camera.startPreview();
-        preview.setCamera(camera);
+        sesion.iniciarVista();
+    }
+
+    /**
+     * Función que guarda en segundo plano los perfiles de resolución nuevos.
+     */
+    private void guardarPerfiles() {
+        if (!negociador.cambiado()) {
+            return;
+        }
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    negociador.guardar();
+                } catch (IOException e) {
+                    Log.w(TAG, "No se han podido guardar los perfiles de la cámara", e);
+                }
+            }
+        }, "GuardaPerfiles").start();
+    }
+
+    /**
+     * Función que vuelca en segundo plano los histogramas de la traza al log y, con los últimos eventos, a
+     * traza_capturas.txt en la carpeta de la aplicación, si ha habido algo nuevo desde el último volcado.
+     */
+    private void volcarTraza() {
+        if (traza.eventosAnotados() == eventosVolcados) {
+            return;
+        }
+        eventosVolcados = traza.eventosAnotados();
+        File directorio = getExternalFilesDir(null);
+        final File fichero = new File(directorio != null ? directorio : getFilesDir(), "traza_capturas.txt");
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    StringBuilder texto = new StringBuilder();
+                    traza.volcar(texto, 0);
+                    for (String linea : texto.toString().split("\n")) {
+                        Log.i(TAG, linea);
+                    }
+                    traza.volcar(fichero, EVENTOS_VOLCADOS);
+                } catch (IOException e) {
+                    Log.w(TAG, "No se ha podido volcar la traza a " + fichero, e);
+                }
+            }
+        }, "VolcadoTraza").start();
+    }
+
+    /**
+     * Función que añade en segundo plano los trazos grabados a trazas.pgt en la carpeta de la aplicación.
+     */
+    private void guardarTrazas() {
+        if (grabador == null || grabador.pendientes() == 0) {
+            return;
+        }
+        File directorio = getExternalFilesDir(null);
+        final File fichero = new File(directorio != null ? directorio : getFilesDir(), "trazas.pgt");
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    grabador.volcar(fichero);
+                } catch (IOException e) {
+                    Log.w(TAG, "No se han podido guardar los trazos en " + fichero, e);
+                }
+            }
+        }, "GuardaTrazas").start();
+    }
+
+    /**
+     * Función que crea la sesión de la cámara y atiende sus avisos en el hilo principal.
+     */
+    private void prepararSesion() {
+        sesion = new SesionCamara(new SesionCamara.Oyente() {
+            public void estadoCambiado(SesionCamara.Estado anterior, SesionCamara.Estado nuevo) {
+                Log.d(TAG, "Cámara: " + anterior + " -> " + nuevo);
+                if (nuevo == SesionCamara.Estado.CERRADA || nuevo == SesionCamara.Estado.ERROR) {
+                    preview.setCamera(ID_CAMARA, null);
+                }
+            }
+
+            public void abierta(ParametrosCamara parametros, boolean enCaliente) {
+                preview.setCamera(ID_CAMARA, parametros);
+            }
+
+            public void errorAlAbrir(RuntimeException e) {
+                Log.e(TAG, "No se ha podido abrir la cámara", e);
+                Toast.makeText(ctx, getString(R.string.camera_not_found), Toast.LENGTH_LONG).show();
+            }
+
+            public void primerFotograma(long ms, boolean enCaliente) {
+                Log.d(TAG, "Desde abrir hasta el primer fotograma: " + ms + " ms" + (enCaliente ? " (en caliente)" : ""));
+            }
+        }, GRACIA_CAMARA_MS);
     }
 
     /**
-     * Función para actualizar la galeria de fotos del dispositivo.
-     * @param file fichero con el que se actualizará la galería
+     * Tarea para cuando la sesión no puede hacer la foto pedida, deja libre al planificador.
      */
-    private void refreshGallery(File file) {
-        Intent mediaScanIntent = new Intent( Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
-        mediaScanIntent.setData(Uri.fromFile(file));
-        sendBroadcast(mediaScanIntent);
+    private final Runnable fotoFallida = new Runnable() {
+        public void run() {
+            fotosRestantes = 0;
+            esperandoHueco = false;
+            planificador.capturaTerminada();
+        }
+    };
+
+    /**
+     * Función que crea el planificador de la cuenta atrás sobre el manejador del hilo principal.
+     */
+    private void prepararPlanificador() {
+        PlanificadorCaptura.Temporizador temporizador = new PlanificadorCaptura.Temporizador() {
+            public void programar(Runnable tarea, long retraso) {
+                manejador.postDelayed(tarea, retraso);
+            }
+
+            public void cancelar(Runnable tarea) {
+                manejador.removeCallbacks(tarea);
+            }
+        };
+        planificador = new PlanificadorCaptura(temporizador, new PlanificadorCaptura.Oyente() {
+            public void tic(int restantes) {
+                if (restantes <= MENSAJES_CUENTA_ATRAS.length) {
+                    Toast.makeText(ctx, getString(MENSAJES_CUENTA_ATRAS[restantes - 1]), Toast.LENGTH_SHORT).show();
+                }
+            }
+
+            public void capturar(int fotos) {
+                CamTestActivity.this.capturar(fotos);
+            }
+        }, CUENTA_ATRAS, PlanificadorCaptura.Politica.IGNORAR);
+    }
+
+    /**
+     * Función que crea el escritor de fotos en la carpeta de la aplicación.
+     * La galería se actualiza por lotes con MediaScannerConnection en lugar de un broadcast por foto, y cada foto
+     * se apunta en el catálogo.
+     */
+    private void prepararEscritor() {
+        File dir = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/app_gesto_foto");
+        escritor = new EscritorFotos(dir, CAPACIDAD_COLA_FOTOS, FOTOS_POR_LOTE, MS_POR_LOTE,
+                new EscritorFotos.Escaner() {
+                    public void escanear(String[] rutas) {
+                        MediaScannerConnection.scanFile(getApplicationContext(), rutas, null, null);
+                    }
+                },
+                new EscritorFotos.Oyente() {
+                    public void fotoGuardada(EscritorFotos.FotoGuardada foto, long latenciaNanos) {
+                        Log.d(TAG, "Foto guardada en " + foto.fichero.getAbsolutePath() + " en " + latenciaNanos / 1000000
+                                + " ms, cola: " + escritor.profundidad() + ", escritura media: "
+                                + escritor.escrituraMediaMs() + " ms, máxima: " + escritor.escrituraMaximaMs() + " ms");
+                        Log.d(TAG, "JPEG de " + foto.ancho + "x" + foto.alto + ", orientación " + foto.orientacion
+                                + ", miniatura de " + foto.longitudMiniatura + " bytes en la posición "
+                                + foto.inicioMiniatura);
+                    }
+
+                    public void errorAlGuardar(File fichero, IOException e) {
+                        Log.e(TAG, "No se ha podido guardar " + fichero.getAbsolutePath(), e);
+                    }
+
+                    public void datosLibres(byte[] datos) {
+                        buffers.devolver(datos);
+                        manejador.post(new Runnable() {
+                            public void run() {
+                                if (esperandoHueco) {
+                                    esperandoHueco = false;
+                                    dispararRafaga();
+                                }
+                            }
+                        });
+                    }
+                }, traza, new CatalogoFotos(new File(getFilesDir(), FICHERO_CATALOGO), true));
+        escritor.iniciar();
     }
 
     /**
@@ -189,6 +524,7 @@ public class CamTestActivity extends Activity implements GestureOverlayView.OnGe
      */
     ShutterCallback shutterCallback = new ShutterCallback() {
         public void onShutter() {
+            traza.anotar(capturaFoto, TrazaCaptura.Etapa.OBTURADOR);
         }
     };
 
@@ -206,74 +542,207 @@ public class CamTestActivity extends Activity implements GestureOverlayView.OnGe
      */
     PictureCallback jpegCallback = new PictureCallback() {
         public void onPictureTaken(byte[] data, Camera camera) {
-            new SaveImageTask().execute(data);
+            traza.anotar(capturaFoto, TrazaCaptura.Etapa.JPEG);
+            // Los datos son nuestros, la cámara no los reutiliza, así que se encolan sin copiarlos.
+            if (!escritor.encolarCaptura(data, data.length, capturaFoto, metadatosFoto())) {
+                Log.w(TAG, "Cola de escritura llena, se descarta la foto");
+                Toast.makeText(ctx, getString(R.string.Cola_llena), Toast.LENGTH_SHORT).show();
+            }
             resetCam();
-            Log.d(TAG, "onPictureTaken - jpeg");
+            planificador.capturaTerminada();
+            anotarMemoria();
+            Log.d(TAG, "onPictureTaken - jpeg, foto individual en " + (System.nanoTime() - instanteDisparo) / 1000000
+                    + " ms, memoria usada: " + memoriaMaxima / 1024 + " KB");
         }
     };
 
     /**
-     * Clase para guardar correctamente la imagen.
+     * Estructura para las fotos de la ráfaga: copia el JPEG a un buffer del pool para no retener el de la cámara
+     * mientras se escribe, reanuda la vista previa y dispara la siguiente foto sin esperar a la escritura.
      */
-    private class SaveImageTask extends AsyncTask<byte[], Void, Void> {
-
-        /**
-         * Función para que al hacer la foto la almacene correctamente.
-         * @param data parámetro que contiene los datos de la imagen
-         * @return
-         */
-        @Override
-        protected Void doInBackground(byte[]... data) {
-            // Inicializamos el flujo de salida.
-            FileOutputStream outStream = null;
-
-            // guardamos la imagen en la sd.
-            try {
-                File sdCard = Environment.getExternalStorageDirectory();
-
-                //Si no existe el directorio donde se almacenan las fotos de la aplicación se crea
-                File dir = new File (sdCard.getAbsolutePath() + "/app_gesto_foto");
-                dir.mkdirs();
-
-                //Iniciamos el nombre que tendra el fichero y lo creamos.
-                String fileName = String.format("%d.jpg", System.currentTimeMillis());
-                File outFile = new File(dir, fileName);
+    PictureCallback jpegRafagaCallback = new PictureCallback() {
+        public void onPictureTaken(byte[] data, Camera camera) {
+            traza.anotar(capturaFoto, TrazaCaptura.Etapa.JPEG);
+            mayorJpeg = Math.max(mayorJpeg, data.length);
+            byte[] buffer = buffers.obtener(data.length);
+            if (buffer != null) {
+                System.arraycopy(data, 0, buffer, 0, data.length);
+            } else {
+                // Foto mayor que las anteriores y sin hueco en el pool, se guarda el array de la cámara.
+                buffer = data;
+            }
+            if (!escritor.encolarCaptura(buffer, data.length, capturaFoto, metadatosFoto())) {
+                buffers.devolver(buffer);
+                Log.w(TAG, "Cola de escritura llena, se descarta la foto de la ráfaga");
+            }
+            fotosHechas++;
+            anotarMemoria();
+
+            if (fotosRestantes > 0) {
+                sesion.iniciarVista();
+                dispararRafaga();
+            } else {
+                terminarRafaga();
+            }
+        }
+    };
 
-                //Guardamos el flujo en en el fichero de salida.
-                outStream = new FileOutputStream(outFile);
-                outStream.write(data[0]);
-                outStream.flush();
-                outStream.close();
+    /**
+     * Función que da los datos de la captura que se guardan dentro de la foto. La cabecera del JPEG no se lee
+     * aquí, la lee el escritor una sola vez al guardar.
+     * @return gesto, puntuación e instante de la foto
+     */
+    private MetadatosCaptura metadatosFoto() {
+        return new MetadatosCaptura(gestoFoto, puntuacionFoto, System.currentTimeMillis());
+    }
 
-                Log.d(TAG, "onPictureTaken - wrote bytes: " + data.length + " to " + outFile.getAbsolutePath());
+    /**
+     * Función que empieza una ráfaga de fotos.
+     * @param fotos número de fotos de la ráfaga
+     */
+    private void empezarRafaga(int fotos) {
+        fotosRestantes = fotos;
+        fotosHechas = 0;
+        memoriaMaxima = 0;
+        inicioRafaga = System.nanoTime();
+        dispararRafaga();
+    }
 
-                //Actualizamos la galeria con el nuevo fichero.
-                refreshGallery(outFile);
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
-            } finally {
-            }
-            return null;
+    /**
+     * Función que hace la siguiente foto de la ráfaga si hay memoria y sitio en la cola; si no, espera a que el
+     * escritor libere un buffer. Solo se espera si hay alguna foto en vuelo que avise con datosLibres: sin ninguna,
+     * un JPEG mayor que todo el presupuesto se dispara igual y se guarda con el array de la cámara. Si la cámara
+     * se ha cerrado la ráfaga termina aquí, para no dejar al planificador capturando.
+     */
+    private void dispararRafaga() {
+        if (fotosRestantes == 0) {
+            return;
+        }
+        if (!sesion.abierta()) {
+            fotosRestantes = 0;
+            esperandoHueco = false;
+            planificador.capturaTerminada();
+            return;
         }
+        boolean enVuelo = buffers.enUso() > 0 || escritor.profundidad() > 0;
+        if ((enVuelo && !buffers.hayHueco(mayorJpeg)) || escritor.profundidad() >= CAPACIDAD_COLA_FOTOS) {
+            esperandoHueco = true;
+            return;
+        }
+        fotosRestantes--;
+        // La primera foto sigue la captura del gesto, las demás se trazan cada una por separado.
+        if (fotosHechas > 0) {
+            capturaFoto = traza.nuevaCaptura();
+        }
+        traza.anotar(capturaFoto, TrazaCaptura.Etapa.DISPARO);
+        sesion.hacerFoto(shutterCallback, rawCallback, jpegRafagaCallback, fotoFallida);
+    }
 
+    /**
+     * Función que deja la cámara como estaba y anota el ritmo de fotos y la memoria usados por la ráfaga.
+     */
+    private void terminarRafaga() {
+        resetCam();
+        planificador.capturaTerminada();
+        double segundos = (System.nanoTime() - inicioRafaga) / 1e9;
+        Log.d(TAG, "Ráfaga de " + fotosHechas + " fotos en " + segundos + " s: " + fotosHechas / segundos
+                + " fotos/s, memoria usada máxima: " + memoriaMaxima / 1024 + " KB, buffers en vuelo máximos: "
+                + buffers.maximoEnUso() / 1024 + " KB, buffers creados: " + buffers.creados());
+    }
+
+    /**
+     * Función que anota la memoria usada por la aplicación si es la mayor vista.
+     */
+    private void anotarMemoria() {
+        Runtime runtime = Runtime.getRuntime();
+        memoriaMaxima = Math.max(memoriaMaxima, runtime.totalMemory() - runtime.freeMemory());
     }
 
     /**
      * Función llamada por onCreate para inicializar correctamente lo necesario para el analizador de gestos.
+     * Las plantillas se cargan en segundo plano y los trazos se reconocen en el hilo de reconocimiento, que
+     * guarda el último trazo dibujado mientras tanto.
      */
     public void PrepararGestos(){
         GestureOverlayView gestureOverlayView = new GestureOverlayView(this);
         View inflate = getLayoutInflater().inflate(R.layout.main, null);
         gestureOverlayView.addView(inflate);
         gestureOverlayView.addOnGesturePerformedListener(this);
-        gestureLib = GestureLibraries.fromRawResource(this, R.raw.gestures);
-
-        if (!gestureLib.load()) {
-            finish();
-        }
+        gestureOverlayView.addOnGestureListener(this);
         setContentView(gestureOverlayView);
+
+        reconocimiento = new HiloReconocimiento(UMBRAL_GESTO, new Executor() {
+            public void execute(Runnable tarea) {
+                manejador.post(tarea);
+            }
+        }, new HiloReconocimiento.Oyente() {
+            public void gestoReconocido(int trazo, String nombre, double puntuacion, boolean mientrasSeDibuja,
+                                        long latenciaNanos) {
+                if (trazo != trazoEnCurso) {
+                    // Decisión de un trazo anterior, no debe cortar el que se está dibujando.
+                    return;
+                }
+                if (mientrasSeDibuja) {
+                    trazoDecidido = true;
+                    instanteDecision = SystemClock.uptimeMillis();
+                }
+                Log.d(TAG, "Gesto " + nombre + (mientrasSeDibuja ? " reconocido mientras se dibuja" : " reconocido")
+                        + " con " + puntuacion + ", latencia " + latenciaNanos / 1000 + " us");
+                traza.anotar(capturaTrazo, TrazaCaptura.Etapa.RECONOCIDO);
+                // Con una cuenta atrás en curso el gesto se ignora (Politica.IGNORAR); si no, empieza una nueva
+                // aunque haya una captura en marcha, y sus datos se guardan hasta que se lance.
+                if (!planificador.enCuentaAtras()) {
+                    capturaPendiente = capturaTrazo;
+                    gestoPendiente = nombre;
+                    puntuacionPendiente = puntuacion;
+                }
+                planificador.solicitar(fotosDelGesto(nombre));
+            }
+        });
+        reconocimiento.iniciar();
+
+        final File fichero = new File(getFilesDir(), "gestos.pgf");
+        final AlmacenPlantillas.FuenteGestos fuente = new AlmacenPlantillas.FuenteGestos() {
+            public InputStream abrir() {
+                return getResources().openRawResource(R.raw.gestures);
+            }
+        };
+
+        new Thread(new Runnable() {
+            public void run() {
+                // Si se actualiza la aplicación puede haber cambiado R.raw.gestures y hay que volver a convertirlo.
+                long huella = 0;
+                try {
+                    huella = getPackageManager().getPackageInfo(getPackageName(), 0).lastUpdateTime;
+                } catch (PackageManager.NameNotFoundException e) {
+                    Log.w(TAG, "No se ha encontrado la información del paquete", e);
+                }
+
+                try {
+                    // Los perfiles de la cámara también se leen aquí, si se calcula alguno antes se mantiene.
+                    negociador.cargar();
+                } catch (IOException e) {
+                    Log.w(TAG, "No se han podido leer los perfiles de la cámara", e);
+                }
+
+                try {
+                    // El índice y los prefijos se construyen también aquí para no hacerlo en el hilo principal.
+                    PlantillasGestos plantillas = AlmacenPlantillas.cargar(fichero, huella, orientacionesGesto,
+                            fuente);
+                    IndicePlantillas indice = new IndicePlantillas(plantillas);
+                    reconocimiento.ponerReconocedores(new ReconocedorGestos(indice, UMBRAL_GESTO),
+                            new ReconocedorIncremental(plantillas, UMBRAL_GESTO, MARGEN_DECISION, PUNTUACION_PODA,
+                                    EVALUACIONES_ESTABLES, PASO_EVALUACION));
+                } catch (IOException e) {
+                    Log.e(TAG, "No se han podido cargar los gestos", e);
+                    manejador.post(new Runnable() {
+                        public void run() {
+                            finish();
+                        }
+                    });
+                }
+            }
+        }, "CargaPlantillas").start();
     }
 
     /**
@@ -282,43 +751,142 @@ public class CamTestActivity extends Activity implements GestureOverlayView.OnGe
      * @param gesture parámetro que almacena el gesto realizado en pantalla por el usuario
      */
     public void onGesturePerformed (GestureOverlayView overlay, Gesture gesture){
-        //Manejador para hacer que tome la foto en 3 segundos
-        Handler mhandler = new Handler();
-
-        //Lista que guarda lo parecido que es el patrón hecho en pantalla por el usuario con el almacenado por la aplicación.
-        ArrayList<Prediction> predictions = gestureLib.recognize(gesture);
-
-        for (Prediction prediction : predictions) {
-            // Comprobamos si alguno de los gestos introducidos por pantalla es parecido al nuestro.
-            // Hemos elegido un score de 3 porque ni era lo suficiente sensible para que no detectará ningún gesto como parecido ni
-            // lo suficiente tosco para que detectara cualquier patrón como si fuera el nuestro, calculado haciendo pruebas.
-            if (prediction.score > 3.0) {
-                //Mostramos un mensaje en pantalla
-                Toast.makeText(this,getString(R.string.Foto_en_3) , Toast.LENGTH_SHORT).show();
-
-                //Hacemos la foto cuando pasan 3 segundos con cuenta atras.
-                mhandler.postDelayed(new Runnable() {
-                    public void run() {
-                        Handler mhandler = new Handler();
-                        Toast.makeText(ctx,getString(R.string.Foto_en_2) , Toast.LENGTH_SHORT).show();
-
-                        mhandler.postDelayed(new Runnable() {
-                            public void run() {
-                                Handler mhandler = new Handler();
-                                Toast.makeText(ctx, getString(R.string.Foto_en_1), Toast.LENGTH_SHORT).show();
+        if (gesture.getStrokesCount() == 0) {
+            return;
+        }
 
-                                mhandler.postDelayed(new Runnable() {
-                                    public void run() {
+        if (trazoDecidido) {
+            // Ya se reconoció mientras se dibujaba, solo anotamos cuánto se ha adelantado.
+            Log.d(TAG, "Gesto reconocido " + (SystemClock.uptimeMillis() - instanteDecision)
+                    + " ms antes que onGesturePerformed");
+            trazoDecidido = false;
+            return;
+        }
 
-                                        Toast.makeText(ctx, "Foto Realizada!", Toast.LENGTH_SHORT).show();
-                                        camera.takePicture(shutterCallback, rawCallback, jpegCallback);
-                                    }
-                                }, 1000);
-                            }
-                        }, 2000);
-                    }
-                }, 3000);
+        //Igual que GestureLibrary sólo se compara el primer trazo, el hilo de reconocimiento se queda una copia.
+        GestureStroke trazo = gesture.getStrokes().get(0);
+        reconocimiento.terminarTrazo(trazo.points);
+    }
+
+    /**
+     * Función llamada al empezar un trazo, descarta lo pendiente del anterior y empieza el reconocimiento
+     * mientras se dibuja.
+     * @param overlay vista donde se dibuja el gesto
+     * @param event evento del primer punto
+     */
+    public void onGestureStarted(GestureOverlayView overlay, MotionEvent event) {
+        trazoDecidido = false;
+        capturaTrazo = traza.nuevaCaptura();
+        traza.anotar(capturaTrazo, TrazaCaptura.Etapa.TRAZO);
+        trazoEnCurso = reconocimiento.empezarTrazo(event.getEventTime());
+        if (grabador != null) {
+            grabador.empezarGesto(event.getEventTime());
+        }
+        onGesture(overlay, event);
+    }
+
+    /**
+     * Función llamada con cada movimiento del dedo, pasa los puntos nuevos al hilo de reconocimiento, que
+     * inicia la cuenta atrás sin esperar al final del trazo si ya está seguro.
+     * @param overlay vista donde se dibuja el gesto
+     * @param event evento con los puntos nuevos, incluidos los históricos agrupados en él
+     */
+    public void onGesture(GestureOverlayView overlay, MotionEvent event) {
+        if (grabador != null) {
+            // Se graba el trazo entero aunque ya se haya decidido.
+            for (int h = 0; h < event.getHistorySize(); h++) {
+                grabador.anadirPunto(event.getHistoricalX(h), event.getHistoricalY(h),
+                        event.getHistoricalEventTime(h));
             }
+            grabador.anadirPunto(event.getX(), event.getY(), event.getEventTime());
+        }
+        if (trazoDecidido) {
+            return;
+        }
+        for (int h = 0; h < event.getHistorySize(); h++) {
+            reconocimiento.anadirPunto(event.getHistoricalX(h), event.getHistoricalY(h),
+                    event.getHistoricalEventTime(h));
+        }
+        reconocimiento.anadirPunto(event.getX(), event.getY(), event.getEventTime());
+    }
+
+    /**
+     * Función llamada al levantar el dedo, anota cuánto antes se reconoció el gesto y termina su grabación.
+     * @param overlay vista donde se dibuja el gesto
+     * @param event evento del último punto
+     */
+    public void onGestureEnded(GestureOverlayView overlay, MotionEvent event) {
+        if (trazoDecidido) {
+            Log.d(TAG, "Gesto reconocido " + (event.getEventTime() - instanteDecision) + " ms antes de levantar el dedo");
+        }
+        if (grabador != null) {
+            grabador.terminarGesto(etiquetaTrazas);
+            if (grabador.pendientes() > BYTES_VOLCADO_TRAZAS) {
+                guardarTrazas();
+            }
+        }
+    }
+
+    /**
+     * Función llamada si se cancela el trazo, no se graba.
+     * @param overlay vista donde se dibuja el gesto
+     * @param event evento de la cancelación
+     */
+    public void onGestureCancelled(GestureOverlayView overlay, MotionEvent event) {
+        if (grabador != null) {
+            grabador.descartarGesto();
+        }
+    }
+
+    /**
+     * @param nombre nombre del gesto reconocido
+     * @return fotos que se hacen con ese gesto
+     */
+    private static int fotosDelGesto(String nombre) {
+        return GESTO_RAFAGA.equals(nombre) ? FOTOS_RAFAGA : 1;
+    }
+
+    /**
+     * Función llamada por el planificador al terminar la cuenta atrás, espera si hace falta a que la escena quede
+     * quieta y hace la foto o la ráfaga.
+     * @param fotos número de fotos a hacer
+     */
+    private void capturar(final int fotos) {
+        capturaFoto = capturaPendiente;
+        gestoFoto = gestoPendiente;
+        puntuacionFoto = puntuacionPendiente;
+        if (!sesion.abierta()) {
+            planificador.capturaTerminada();
+            return;
+        }
+        if (!esperarEstabilidad) {
+            disparar(fotos);
+            return;
+        }
+        sesion.esperarEstabilidad(ESPERA_ESTABILIDAD_MS, new Runnable() {
+            public void run() {
+                disparar(fotos);
+            }
+        });
+    }
+
+    /**
+     * Función que hace la foto o la ráfaga, si la cámara sigue abierta.
+     * @param fotos número de fotos a hacer
+     */
+    private void disparar(int fotos) {
+        if (!sesion.abierta()) {
+            planificador.capturaTerminada();
+            return;
+        }
+        Toast.makeText(ctx, getString(R.string.Foto_realizada), Toast.LENGTH_SHORT).show();
+        if (fotos > 1) {
+            empezarRafaga(fotos);
+            return;
         }
+        instanteDisparo = System.nanoTime();
+        memoriaMaxima = 0;
+        traza.anotar(capturaFoto, TrazaCaptura.Etapa.DISPARO);
+        sesion.hacerFoto(shutterCallback, rawCallback, jpegCallback, fotoFallida);
     }
-}
\ No newline at end of file
+}
@@ -5,14 +5,11 @@ package com.example.josea.puntogestosfoto;
  */
 import android.content.Context;
 import android.hardware.Camera;
-import android.hardware.Camera.Size;
-import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.view.View;
 import android.view.ViewGroup;
 
-import java.io.IOException;
 import java.util.List;
 
 /**
@@ -31,23 +28,47 @@ class Preview extends ViewGroup implements SurfaceHolder.Callback {
     // Interfaz para controlar el tamaño de la "superficie"(surfaceview) asignada y el formato; editar píxeles en la "superficie", y monitorizar cambios en la misma.
     SurfaceHolder mHolder;
 
-    // Estructura para guardar el tamaño que está usando la cámara.
-    Size mPreviewSize;
+    // Estructura para guardar la configuración que está usando la cámara: vista previa, foto y FPS.
+    NegociadorResolucion.Perfil mPerfil;
 
-    // Lista de tamaños que soporta nuestra cámara.
-    List<Size> mSupportedPreviewSizes;
+    // Tamaños y rangos de FPS que soporta nuestra cámara.
+    NegociadorResolucion.Capacidades mCapacidades;
 
-    // Activamos el sensor de la cámara.
-    Camera mCamera;
+    // Identificador de la cámara abierta.
+    int mIdCamara;
+
+    // Elige la configuración y la recuerda por cámara y tamaño de la vista.
+    NegociadorResolucion mNegociador;
+
+    // Sesión que maneja la cámara en su propio hilo, todas las operaciones sobre la cámara pasan por ella.
+    SesionCamara mSesion;
+
+    // Si la cámara está abierta y si la superficie ya tiene tamaño.
+    boolean mAbierta;
+    boolean mSuperficieLista;
+
+    // Tamaño con el que se negoció mPerfil, -1 si hay que volver a negociar.
+    int mAnchoNegociado = -1;
+    int mAltoNegociado = -1;
+
+    // Último perfil pasado a la sesión desde que se abrió la cámara, para no volver a pasarle el mismo.
+    NegociadorResolucion.Perfil mPerfilAplicado;
+
+    // Rectángulo de la vista previa, solo se calcula cuando cambia el tamaño de la vista o el de la vista previa.
+    final EncuadreVista mEncuadre = new EncuadreVista();
 
     /**
      * Constructor de la clase, se le asignará lo necesario de la aplicación que use esta clase para poder manejar el surfaceview.
      * @param context parámetro donde se le pasará el contexto de la aplicación que lo use.
      * @param sv parámetro donde se le pasará el objeto surfaceview de la aplicación que lo use.
+     * @param sesion sesión de la cámara que se mostrará.
+     * @param negociador negociador de la resolución de la vista previa y la foto.
      */
-    Preview(Context context, SurfaceView sv) {
+    Preview(Context context, SurfaceView sv, SesionCamara sesion, NegociadorResolucion negociador) {
         super(context);
 
+        mSesion = sesion;
+        mNegociador = negociador;
         mSurfaceView = sv;
         mHolder = mSurfaceView.getHolder();
         mHolder.addCallback(this);
@@ -55,32 +76,41 @@ class Preview extends ViewGroup implements SurfaceHolder.Callback {
     }
 
     /**
-     * Función para asignar la cámara.
-     * @param camera parámetro que se le pasará para asignar la cámara que use la aplicación
+     * Función llamada cuando la sesión abre la cámara, o con null cuando se deja de usar.
+     * @param idCamara identificador de la cámara abierta
+     * @param params parámetros de la cámara leídos por la sesión al abrirla
      */
-    public void setCamera(Camera camera) {
-    	mCamera = camera;
+    public void setCamera(int idCamara, ParametrosCamara params) {
+        mAbierta = params != null;
+        mIdCamara = idCamara;
+        mPerfilAplicado = null;
+        mAnchoNegociado = -1;
 
         //Comprobamos que la cámara está activa.
-    	if (mCamera != null) {
-            // Si está activa se guarda los tamaños de pantalla que soporta en nuestra lista de tamaños
-    		mSupportedPreviewSizes = mCamera.getParameters().getSupportedPreviewSizes();
+        if (params != null) {
+            // Si está activa se guarda los tamaños y FPS que soporta
+            mCapacidades = NegociadorResolucion.Capacidades.desde(params);
 
             // Iniciamos un layout.
-    		requestLayout();
-
-    		// Obtenemos los parámetros de la cámara.
-    		Camera.Parameters params = mCamera.getParameters();
+            requestLayout();
 
             // Obtenemos una lista con los modos de enfoque soportados por la cámara
-    		List<String> focusModes = params.getSupportedFocusModes();
-    		if (focusModes.contains(Camera.Parameters.FOCUS_MODE_AUTO)) {
-    			// Cambiamos el modo de enfoque
-    			params.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
-    			// Cambiamos los parámetros de la cámara
-    			mCamera.setParameters(params);
-    		}
-    	}
+            List<String> focusModes = params.lista(ParametrosCamara.MODOS_ENFOQUE);
+            if (focusModes.contains(Camera.Parameters.FOCUS_MODE_AUTO)) {
+                mSesion.ajustar(new SesionCamara.Ajuste() {
+                    public void ajustar(ParametrosCamara parametros) {
+                        // Cambiamos el modo de enfoque, se aplica junto con el tamaño de la vista previa
+                        parametros.poner(ParametrosCamara.MODO_ENFOQUE, Camera.Parameters.FOCUS_MODE_AUTO);
+                    }
+                });
+            }
+
+            // La cámara se abre en segundo plano, puede que la superficie ya tuviera su tamaño.
+            if (mSuperficieLista && getMeasuredWidth() > 0 && getMeasuredHeight() > 0) {
+                negociar(getMeasuredWidth(), getMeasuredHeight());
+                aplicarTamanoVista();
+            }
+        }
     }
 
     /**
@@ -98,11 +128,23 @@ class Preview extends ViewGroup implements SurfaceHolder.Callback {
         final int height = resolveSize(getSuggestedMinimumHeight(), heightMeasureSpec);
         setMeasuredDimension(width, height);
 
-        if (mSupportedPreviewSizes != null) {
-            mPreviewSize = getOptimalPreviewSize(mSupportedPreviewSizes, width, height);
+        if (mCapacidades != null && (width != mAnchoNegociado || height != mAltoNegociado)) {
+            negociar(width, height);
         }
     }
 
+    /**
+     * Función que elige el perfil para un tamaño de la vista. El negociador solo recorre las listas la primera vez
+     * para cada tamaño, pero aun así arma la clave en cada llamada, por eso solo se le llama si cambia el tamaño.
+     * @param width ancho de la vista
+     * @param height alto de la vista
+     */
+    private void negociar(int width, int height) {
+        mPerfil = mNegociador.negociar(mIdCamara, mCapacidades, width, height);
+        mAnchoNegociado = width;
+        mAltoNegociado = height;
+    }
+
     /**
      * Función para asignar los parámetros correctos al layout.
      * Según la documentación de android en:
@@ -112,29 +154,14 @@ class Preview extends ViewGroup implements SurfaceHolder.Callback {
      */
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
-        if (changed && getChildCount() > 0) {
+        if (getChildCount() > 0) {
             final View child = getChildAt(0);
 
-            final int width = r - l;
-            final int height = b - t;
-
-            int previewWidth = width;
-            int previewHeight = height;
-            if (mPreviewSize != null) {
-                previewWidth = mPreviewSize.width;
-                previewHeight = mPreviewSize.height;
-            }
-
-            // Center the child SurfaceView within the parent.
-            if (width * previewHeight > height * previewWidth) {
-                final int scaledChildWidth = previewWidth * height / previewHeight;
-                child.layout((width - scaledChildWidth) / 2, 0,
-                        (width + scaledChildWidth) / 2, height);
-            } else {
-                final int scaledChildHeight = previewHeight * width / previewWidth;
-                child.layout(0, (height - scaledChildHeight) / 2,
-                        width, (height + scaledChildHeight) / 2);
-            }
+            // Center the child SurfaceView within the parent. Se mira aunque la vista no haya cambiado de tamaño,
+            // el perfil puede llegar después del primer layout; el cálculo solo se repite si cambia algún tamaño.
+            final NegociadorResolucion.Perfil perfil = mPerfil;
+            mEncuadre.ajustar(r - l, b - t, perfil != null ? perfil.anchoVista : 0, perfil != null ? perfil.altoVista : 0);
+            child.layout(mEncuadre.izquierda(), mEncuadre.arriba(), mEncuadre.derecha(), mEncuadre.abajo());
         }
     }
 
@@ -143,15 +170,9 @@ class Preview extends ViewGroup implements SurfaceHolder.Callback {
      * @param holder parámetro para asignar el controlador
      */
     public void surfaceCreated(SurfaceHolder holder) {
-        // The Surface has been created, acquire the camera and tell it where
-        // to draw.
-        try {
-            if (mCamera != null) {
-                mCamera.setPreviewDisplay(holder);
-            }
-        } catch (IOException exception) {
-            Log.e(TAG, "IOException caused by setPreviewDisplay()", exception);
-        }
+        // The Surface has been created, tell the camera session where
+        // to draw (it is kept until the camera is open).
+        mSesion.ponerSuperficie(holder);
     }
 
     /**
@@ -159,50 +180,10 @@ class Preview extends ViewGroup implements SurfaceHolder.Callback {
      * @param holder controlador, no se usa pero su cabecera debe ser ésta.
      */
     public void surfaceDestroyed(SurfaceHolder holder) {
-        // Surface will be destroyed when we return, so stop the preview.
-        if (mCamera != null) {
-            mCamera.stopPreview();
-        }
-    }
-
-    /**
-     * Función usada para obtener las dimensiones optimas, llamada por la función onMeasure.
-     * @param sizes lista con las dimensiones soportadas por el dispositivo
-     * @param w anchura que se obtiene en la función onMeasure usada para calcular la dimensión optima
-     * @param h altura que se obtiene en la función onMeasure usada para calcular la dimensión optima
-     * @return
-     */
-    private Size getOptimalPreviewSize(List<Size> sizes, int w, int h) {
-        final double ASPECT_TOLERANCE = 0.1;
-        double targetRatio = (double) w / h;
-        if (sizes == null) return null;
-
-        Size optimalSize = null;
-        double minDiff = Double.MAX_VALUE;
-
-        int targetHeight = h;
-
-        // Try to find an size match aspect ratio and size
-        for (Size size : sizes) {
-            double ratio = (double) size.width / size.height;
-            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
-            if (Math.abs(size.height - targetHeight) < minDiff) {
-                optimalSize = size;
-                minDiff = Math.abs(size.height - targetHeight);
-            }
-        }
-
-        // Cannot find the one match the aspect ratio, ignore the requirement
-        if (optimalSize == null) {
-            minDiff = Double.MAX_VALUE;
-            for (Size size : sizes) {
-                if (Math.abs(size.height - targetHeight) < minDiff) {
-                    optimalSize = size;
-                    minDiff = Math.abs(size.height - targetHeight);
-                }
-            }
-        }
-        return optimalSize;
+        // Surface will be destroyed when we return, so stop the preview
+        // and wait for the camera to release it.
+        mSuperficieLista = false;
+        mSesion.quitarSuperficie();
     }
 
     /**
@@ -213,13 +194,34 @@ class Preview extends ViewGroup implements SurfaceHolder.Callback {
      * @param h parámetro que representa la altura, no usado pero necesario en la cabecera
      */
     public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) {
-    	if(mCamera != null) {
-    		Camera.Parameters parameters = mCamera.getParameters();
-    		parameters.setPreviewSize(mPreviewSize.width, mPreviewSize.height);
-    		requestLayout();
-
-    		mCamera.setParameters(parameters);
-    		mCamera.startPreview();
-    	}
+        mSuperficieLista = true;
+        if (mAbierta) {
+            // El tamaño de la superficie lo pone onLayout, pedir otro layout aquí solo repetiría la pasada.
+            aplicarTamanoVista();
+        }
+    }
+
+    /**
+     * Función que pasa la configuración elegida a la cámara y la inicia, en el hilo de la sesión. Si el perfil
+     * es el mismo que ya se pasó no se vuelve a pasar, y la sesión no reinicia una vista previa que ya está en
+     * marcha con los mismos parámetros.
+     */
+    private void aplicarTamanoVista() {
+        final NegociadorResolucion.Perfil perfil = mPerfil;
+        if (perfil != null && !perfil.equals(mPerfilAplicado)) {
+            mPerfilAplicado = perfil;
+            mSesion.ajustar(new SesionCamara.Ajuste() {
+                public void ajustar(ParametrosCamara parametros) {
+                    parametros.ponerTamano(ParametrosCamara.TAMANO_VISTA_PREVIA, perfil.anchoVista, perfil.altoVista);
+                    if (perfil.anchoFoto > 0) {
+                        parametros.ponerTamano(ParametrosCamara.TAMANO_FOTO, perfil.anchoFoto, perfil.altoFoto);
+                    }
+                    if (perfil.fpsMaximo > 0) {
+                        parametros.poner(ParametrosCamara.RANGO_FPS, perfil.fpsMinimo + "," + perfil.fpsMaximo);
+                    }
+                }
+            });
+        }
+        mSesion.iniciarVista();
     }
-}
\ No newline at end of file
+}
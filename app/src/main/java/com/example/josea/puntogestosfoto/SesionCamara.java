@@ -0,0 +1,674 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.hardware.Camera.PictureCallback;
+import android.hardware.Camera.ShutterCallback;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+/**
+ * Clase que maneja la cámara desde un hilo propio para no bloquear el hilo principal.
+ *
+ * Todas las operaciones sobre la cámara (abrir, parámetros, vista previa, fotos y liberar) se ejecutan en orden
+ * en el hilo de la sesión, y los avisos al resto de la aplicación se hacen en el hilo principal. La superficie y
+ * si se quiere vista previa se recuerdan, así se pueden pedir antes de que la cámara termine de abrirse.
+ *
+ * Los parámetros se leen una vez al abrir y se guardan en un ParametrosCamara. Los ajustes se apuntan sobre esa
+ * copia y se aplican juntos con un solo setParameters, justo antes de la siguiente vista previa o foto, y solo si
+ * cambia algún valor. Se cuentan las llamadas a getParameters y setParameters de cada apertura.
+ *
+ * Al pausar la cámara no se libera enseguida: se para la vista previa y se espera un tiempo de gracia; si se
+ * vuelve a abrir antes, se reutiliza sin pagar otra vez Camera.open.
+ *
+ * Antes de una foto se puede esperar a que la escena quede quieta mirando los fotogramas de la vista previa
+ * (ver PuertaEstabilidad), para no hacerla mientras se mueve el móvil.
+ */
+final class SesionCamara {
+    /**
+     * Estados de la sesión.
+     */
+    enum Estado {
+        /** Sin cámara. */
+        CERRADA,
+        /** Abriendo la cámara en el hilo de la sesión. */
+        ABRIENDO,
+        /** Cámara abierta y lista para usarse. */
+        ABIERTA,
+        /** Pausada, la cámara sigue abierta hasta que pase el tiempo de gracia. */
+        EN_GRACIA,
+        /** No se ha podido abrir la cámara. */
+        ERROR
+    }
+
+    /**
+     * Interfaz para recibir los avisos de la sesión, siempre en el hilo principal.
+     */
+    interface Oyente {
+        /**
+         * @param anterior estado anterior
+         * @param nuevo estado nuevo
+         */
+        void estadoCambiado(Estado anterior, Estado nuevo);
+
+        /**
+         * Función llamada al quedar la cámara lista después de abrir.
+         * @param parametros copia de los parámetros de la cámara, para consultar los valores soportados
+         * @param enCaliente true si se ha reutilizado la cámara sin volver a abrirla
+         */
+        void abierta(ParametrosCamara parametros, boolean enCaliente);
+
+        /**
+         * @param e error al abrir la cámara
+         */
+        void errorAlAbrir(RuntimeException e);
+
+        /**
+         * Función llamada con el primer fotograma de la vista previa después de abrir.
+         * @param ms milisegundos desde que se pidió abrir
+         * @param enCaliente true si se ha reutilizado la cámara sin volver a abrirla
+         */
+        void primerFotograma(long ms, boolean enCaliente);
+    }
+
+    /**
+     * Interfaz para cambiar parámetros de la cámara, se ejecuta en el hilo de la sesión.
+     */
+    interface Ajuste {
+        /**
+         * @param parametros parámetros donde apuntar los cambios con poner
+         */
+        void ajustar(ParametrosCamara parametros);
+    }
+
+    private static final String TAG = "SesionCamara";
+
+    /**
+     * Tiempo máximo que espera el hilo principal a las operaciones síncronas.
+     */
+    private static final long ESPERA_MAXIMA_MS = 2000;
+
+    /**
+     * Configuración de la espera a que la escena quede quieta: píxeles entre muestras de luminancia, diferencia
+     * media máxima en niveles de un fotograma quieto, fotogramas quietos seguidos necesarios y buffers del anillo.
+     * Con ruido normal del sensor la diferencia de una escena quieta ronda 2 y un temblor de un píxel pasa de 5.
+     */
+    private static final int PASO_ESTABILIDAD = 8;
+    private static final double UMBRAL_ESTABILIDAD = 4;
+    private static final int FOTOGRAMAS_ESTABLES = 3;
+    private static final int BUFFERS_ESTABILIDAD = 3;
+
+    private final Oyente oyente;
+    private final long graciaMs;
+    private final HandlerThread hilo;
+    private final Handler manejadorSesion;
+    private final Handler manejadorPrincipal;
+
+    /**
+     * Estado actual, lo escribe el hilo de la sesión y se puede leer desde cualquiera.
+     */
+    private volatile Estado estado = Estado.CERRADA;
+
+    /**
+     * Cámara, superficie y si se quiere la vista previa. Solo se usan en el hilo de la sesión.
+     */
+    private Camera camara;
+    private int idCamara = -1;
+    private Camera.Parameters parametros;
+    private ParametrosCamara cache;
+    private boolean aplicacionProgramada;
+
+    /**
+     * Llamadas a getParameters y setParameters desde la última vez que se pidió abrir.
+     */
+    private volatile int lecturas;
+    private volatile int escrituras;
+    private SurfaceHolder superficie;
+    private boolean vistaPedida;
+
+    /**
+     * Si la vista previa está en marcha, y veces que se ha arrancado y que se ha evitado arrancarla porque ya lo
+     * estaba con los mismos parámetros, desde la última vez que se pidió abrir.
+     */
+    private boolean vistaEnMarcha;
+    private volatile int arranquesVista;
+    private volatile int arranquesEvitados;
+
+    /**
+     * Instante (nanoTime) en que se pidió abrir, si se espera el primer fotograma y si la apertura fue en caliente.
+     */
+    private long inicioApertura;
+    private boolean esperandoFotograma;
+    private boolean aperturaEnCaliente;
+
+    /**
+     * Espera a que la escena quede quieta antes de disparar, se crea con el tamaño de la vista previa la primera
+     * vez que se usa y se reutiliza con sus buffers mientras no cambie. Solo se usa en el hilo de la sesión.
+     */
+    private PuertaEstabilidad puerta;
+
+    /**
+     * Temporizador sobre el hilo de la sesión para el tiempo máximo de la espera.
+     */
+    private final PlanificadorCaptura.Temporizador temporizadorSesion = new PlanificadorCaptura.Temporizador() {
+        public void programar(Runnable tarea, long retraso) {
+            manejadorSesion.postDelayed(tarea, retraso);
+        }
+
+        public void cancelar(Runnable tarea) {
+            manejadorSesion.removeCallbacks(tarea);
+        }
+    };
+
+    /**
+     * Callback de los fotogramas durante la espera, devuelve cada buffer a la cámara mientras se siga esperando.
+     */
+    private final Camera.PreviewCallback alFotograma = new Camera.PreviewCallback() {
+        public void onPreviewFrame(byte[] data, Camera camera) {
+            if (puerta != null && puerta.fotograma(data)) {
+                camera.addCallbackBuffer(data);
+            }
+        }
+    };
+
+    /**
+     * Tarea que libera la cámara al acabar el tiempo de gracia.
+     */
+    private final Runnable liberarTrasGracia = new Runnable() {
+        public void run() {
+            liberar();
+        }
+    };
+
+    /**
+     * Constructor de la clase, arranca el hilo de la sesión. Se debe crear desde el hilo principal.
+     * @param oyente quien recibe los avisos
+     * @param graciaMs milisegundos que se mantiene abierta la cámara al pausar
+     */
+    SesionCamara(Oyente oyente, long graciaMs) {
+        this.oyente = oyente;
+        this.graciaMs = graciaMs;
+        this.manejadorPrincipal = new Handler(Looper.getMainLooper());
+        this.hilo = new HandlerThread("SesionCamara");
+        hilo.start();
+        this.manejadorSesion = new Handler(hilo.getLooper());
+    }
+
+    /**
+     * @return estado actual de la sesión
+     */
+    Estado estado() {
+        return estado;
+    }
+
+    /**
+     * @return true si la cámara está abierta y se puede usar
+     */
+    boolean abierta() {
+        return estado == Estado.ABIERTA;
+    }
+
+    /**
+     * Función que abre la cámara, o la recupera si está en el tiempo de gracia.
+     * @param id identificador de la cámara
+     */
+    void abrir(final int id) {
+        final long inicio = System.nanoTime();
+        manejadorSesion.post(new Runnable() {
+            public void run() {
+                inicioApertura = inicio;
+                esperandoFotograma = true;
+                lecturas = 0;
+                escrituras = 0;
+                arranquesVista = 0;
+                arranquesEvitados = 0;
+                manejadorSesion.removeCallbacks(liberarTrasGracia);
+                if (camara != null && idCamara == id) {
+                    aperturaEnCaliente = true;
+                } else {
+                    liberar();
+                    aperturaEnCaliente = false;
+                    cambiarEstado(Estado.ABRIENDO);
+                    try {
+                        camara = Camera.open(id);
+                        idCamara = id;
+                        leerParametros();
+                    } catch (final RuntimeException e) {
+                        camara = null;
+                        cambiarEstado(Estado.ERROR);
+                        manejadorPrincipal.post(new Runnable() {
+                            public void run() {
+                                oyente.errorAlAbrir(e);
+                            }
+                        });
+                        return;
+                    }
+                    Log.d(TAG, "Cámara abierta en " + (System.nanoTime() - inicio) / 1000000 + " ms");
+                }
+                if (superficie != null) {
+                    ponerSuperficieEnCamara();
+                }
+                if (vistaPedida) {
+                    empezarVista();
+                }
+                cambiarEstado(Estado.ABIERTA);
+                final ParametrosCamara leidos = new ParametrosCamara(cache.aplanar());
+                final boolean enCaliente = aperturaEnCaliente;
+                manejadorPrincipal.post(new Runnable() {
+                    public void run() {
+                        oyente.abierta(leidos, enCaliente);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Función que para la vista previa y libera la cámara cuando pase el tiempo de gracia si no se vuelve a abrir.
+     */
+    void pausar() {
+        manejadorSesion.post(new Runnable() {
+            public void run() {
+                vistaPedida = false;
+                esperandoFotograma = false;
+                if (camara == null) {
+                    return;
+                }
+                dejarDeEsperar();
+                camara.stopPreview();
+                vistaEnMarcha = false;
+                Log.d(TAG, "Llamadas a la cámara desde que se abrió: " + lecturas + " getParameters, "
+                        + escrituras + " setParameters, " + arranquesVista + " startPreview ("
+                        + arranquesEvitados + " evitados)");
+                cambiarEstado(Estado.EN_GRACIA);
+                manejadorSesion.postDelayed(liberarTrasGracia, graciaMs);
+            }
+        });
+    }
+
+    /**
+     * Función que libera la cámara enseguida y termina el hilo de la sesión. Después no se puede volver a usar.
+     */
+    void cerrar() {
+        manejadorSesion.removeCallbacks(liberarTrasGracia);
+        manejadorSesion.post(new Runnable() {
+            public void run() {
+                liberar();
+                hilo.quit();
+            }
+        });
+    }
+
+    /**
+     * Función que indica la superficie donde mostrar la vista previa, se aplica al abrir si aún no está abierta.
+     * @param holder superficie creada
+     */
+    void ponerSuperficie(final SurfaceHolder holder) {
+        manejadorSesion.post(new Runnable() {
+            public void run() {
+                superficie = holder;
+                if (camara != null) {
+                    ponerSuperficieEnCamara();
+                }
+            }
+        });
+    }
+
+    /**
+     * Función que deja de usar la superficie. Espera a que la cámara la suelte, ya que la superficie se destruye
+     * al volver de surfaceDestroyed.
+     */
+    void quitarSuperficie() {
+        final CountDownLatch hecho = new CountDownLatch(1);
+        manejadorSesion.post(new Runnable() {
+            public void run() {
+                superficie = null;
+                if (camara != null) {
+                    camara.stopPreview();
+                    vistaEnMarcha = false;
+                    try {
+                        camara.setPreviewDisplay(null);
+                    } catch (IOException e) {
+                        Log.e(TAG, "IOException caused by setPreviewDisplay()", e);
+                    }
+                }
+                hecho.countDown();
+            }
+        });
+        esperar(hecho);
+    }
+
+    /**
+     * Función que inicia la vista previa, o la deja pedida para cuando se abra la cámara. En el tiempo de gracia
+     * no hace nada: una foto que termina después de pausar no debe volver a poner la vista previa en marcha con la
+     * aplicación en segundo plano; al volver se pide otra vez después de abrir.
+     */
+    void iniciarVista() {
+        manejadorSesion.post(new Runnable() {
+            public void run() {
+                if (estado == Estado.EN_GRACIA) {
+                    return;
+                }
+                vistaPedida = true;
+                if (camara != null) {
+                    empezarVista();
+                }
+            }
+        });
+    }
+
+    /**
+     * Función que cambia parámetros de la cámara en el hilo de la sesión, si está abierta. Los cambios se
+     * aplican antes de la siguiente vista previa o foto, o al vaciarse la cola de la sesión.
+     * @param ajuste cambios a apuntar
+     */
+    void ajustar(final Ajuste ajuste) {
+        manejadorSesion.post(new Runnable() {
+            public void run() {
+                if (camara == null) {
+                    return;
+                }
+                ajuste.ajustar(cache);
+                if (cache.hayCambios() && !aplicacionProgramada) {
+                    aplicacionProgramada = true;
+                    manejadorSesion.post(aplicarProgramados);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return llamadas a getParameters desde la última vez que se pidió abrir
+     */
+    int lecturasParametros() {
+        return lecturas;
+    }
+
+    /**
+     * @return llamadas a setParameters desde la última vez que se pidió abrir
+     */
+    int escriturasParametros() {
+        return escrituras;
+    }
+
+    /**
+     * @return veces que se ha arrancado la vista previa desde la última vez que se pidió abrir
+     */
+    int arranquesVista() {
+        return arranquesVista;
+    }
+
+    /**
+     * @return veces que no se ha arrancado la vista previa porque ya estaba en marcha con los mismos parámetros
+     */
+    int arranquesEvitados() {
+        return arranquesEvitados;
+    }
+
+    /**
+     * Función que hace una foto. Los callbacks se llaman en el hilo principal. La vista previa se para al hacer
+     * la foto, hay que volver a iniciarla después.
+     * @param shutter callback del disparo
+     * @param raw callback de la imagen sin procesar
+     * @param jpeg callback del JPEG
+     * @param siFalla tarea que se ejecuta en el hilo principal si no se puede hacer la foto
+     */
+    void hacerFoto(final ShutterCallback shutter, final PictureCallback raw, final PictureCallback jpeg,
+                   final Runnable siFalla) {
+        manejadorSesion.post(new Runnable() {
+            public void run() {
+                if (camara == null) {
+                    manejadorPrincipal.post(siFalla);
+                    return;
+                }
+                aplicarParametros();
+                try {
+                    // La cámara se abrió en este hilo, sus callbacks llegan aquí y se pasan al principal.
+                    camara.takePicture(shutter == null ? null : new ShutterCallback() {
+                        public void onShutter() {
+                            manejadorPrincipal.post(new Runnable() {
+                                public void run() {
+                                    shutter.onShutter();
+                                }
+                            });
+                        }
+                    }, alPrincipal(raw), alPrincipal(jpeg));
+                    vistaPedida = false;
+                    vistaEnMarcha = false;
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "No se ha podido hacer la foto", e);
+                    manejadorPrincipal.post(siFalla);
+                }
+            }
+        });
+    }
+
+    /**
+     * Función que espera a que la escena de la vista previa quede quieta, como mucho el tiempo indicado, y después
+     * ejecuta la tarea en el hilo principal. Los fotogramas se reciben con setPreviewCallbackWithBuffer en el
+     * anillo de buffers de la puerta, así la cámara no reserva un array por fotograma. Si no hay vista previa en
+     * NV21 la tarea se ejecuta enseguida; si se pausa la sesión durante la espera, no se ejecuta.
+     * @param esperaMaxima milisegundos máximos de espera
+     * @param listo tarea que hace la foto
+     */
+    void esperarEstabilidad(final long esperaMaxima, final Runnable listo) {
+        manejadorSesion.post(new Runnable() {
+            public void run() {
+                if (camara == null || !vistaPedida || parametros.getPreviewFormat() != ImageFormat.NV21) {
+                    manejadorPrincipal.post(listo);
+                    return;
+                }
+                Camera.Size tamano = parametros.getPreviewSize();
+                if (puerta == null || !puerta.sirve(tamano.width, tamano.height)) {
+                    puerta = new PuertaEstabilidad(temporizadorSesion, new EstabilidadEscena(tamano.width,
+                            tamano.height, PASO_ESTABILIDAD, UMBRAL_ESTABILIDAD, FOTOGRAMAS_ESTABLES),
+                            BUFFERS_ESTABILIDAD);
+                }
+                // La cola de buffers de la cámara se vacía al quitar el callback, se llena en cada espera.
+                for (byte[] buffer : puerta.buffers()) {
+                    camara.addCallbackBuffer(buffer);
+                }
+                camara.setPreviewCallbackWithBuffer(alFotograma);
+                final long inicio = System.nanoTime();
+                puerta.esperar(new PuertaEstabilidad.Oyente() {
+                    public void abierta(boolean estable, int fotogramas) {
+                        camara.setPreviewCallbackWithBuffer(null);
+                        Log.d(TAG, (estable ? "Escena quieta" : "La escena no se ha quedado quieta") + " tras "
+                                + (System.nanoTime() - inicio) / 1000000 + " ms y " + fotogramas
+                                + " fotogramas, diferencia " + puerta.detector().ultimaDiferencia() + ", esperas: "
+                                + puerta.estables() + " quietas, " + puerta.agotadas() + " agotadas");
+                        manejadorPrincipal.post(listo);
+                    }
+                }, esperaMaxima);
+            }
+        });
+    }
+
+    /**
+     * Función que cancela la espera a que la escena quede quieta, si la hay. Se ejecuta en el hilo de la sesión.
+     */
+    private void dejarDeEsperar() {
+        if (puerta != null && puerta.esperando()) {
+            puerta.cancelar();
+            camara.setPreviewCallbackWithBuffer(null);
+        }
+    }
+
+    /**
+     * Función que envuelve un PictureCallback para llamarlo en el hilo principal.
+     */
+    private PictureCallback alPrincipal(final PictureCallback callback) {
+        if (callback == null) {
+            return null;
+        }
+        return new PictureCallback() {
+            public void onPictureTaken(final byte[] data, final Camera camera) {
+                manejadorPrincipal.post(new Runnable() {
+                    public void run() {
+                        callback.onPictureTaken(data, camera);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Función que inicia la vista previa y, si es la primera desde que se pidió abrir, mide cuándo llega el
+     * primer fotograma. Si ya está en marcha y no hay parámetros que cambiar no hace nada, así los
+     * surfaceChanged y los layouts repetidos no la paran; si hay cambios la para antes de aplicarlos, porque
+     * el tamaño de la vista previa no se puede cambiar con ella en marcha. Se ejecuta en el hilo de la sesión.
+     */
+    private void empezarVista() {
+        if (vistaEnMarcha) {
+            if (!cache.hayCambios() && !esperandoFotograma) {
+                arranquesEvitados++;
+                return;
+            }
+            camara.stopPreview();
+            vistaEnMarcha = false;
+        }
+        aplicarParametros();
+        if (esperandoFotograma) {
+            esperandoFotograma = false;
+            final long inicio = inicioApertura;
+            final boolean enCaliente = aperturaEnCaliente;
+            camara.setOneShotPreviewCallback(new Camera.PreviewCallback() {
+                public void onPreviewFrame(byte[] data, Camera camera) {
+                    final long ms = (System.nanoTime() - inicio) / 1000000;
+                    Log.d(TAG, "Primer fotograma a los " + ms + " ms de pedir abrir" + (enCaliente ? " (en caliente)" : ""));
+                    manejadorPrincipal.post(new Runnable() {
+                        public void run() {
+                            oyente.primerFotograma(ms, enCaliente);
+                        }
+                    });
+                }
+            });
+        }
+        camara.startPreview();
+        vistaEnMarcha = true;
+        arranquesVista++;
+    }
+
+    /**
+     * Tarea que aplica los cambios apuntados si nadie lo ha hecho antes.
+     */
+    private final Runnable aplicarProgramados = new Runnable() {
+        public void run() {
+            aplicacionProgramada = false;
+            if (camara != null) {
+                aplicarParametros();
+            }
+        }
+    };
+
+    /**
+     * Función que lee los parámetros de la cámara y renueva la copia. Se ejecuta en el hilo de la sesión.
+     */
+    private void leerParametros() {
+        parametros = camara.getParameters();
+        lecturas++;
+        cache = new ParametrosCamara(parametros.flatten());
+    }
+
+    /**
+     * Función que aplica con un solo setParameters los cambios apuntados, si hay alguno. Si la cámara los
+     * rechaza se vuelven a leer sus parámetros. Se ejecuta en el hilo de la sesión.
+     */
+    private void aplicarParametros() {
+        if (!cache.hayCambios()) {
+            return;
+        }
+        int numCambios = cache.numCambios();
+        parametros.unflatten(cache.aplicarCambios());
+        try {
+            camara.setParameters(parametros);
+            escrituras++;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "La cámara ha rechazado " + numCambios + " cambios de parámetros", e);
+            escrituras++;
+            leerParametros();
+        }
+    }
+
+    /**
+     * Función que pasa la superficie a la cámara. Se ejecuta en el hilo de la sesión.
+     */
+    private void ponerSuperficieEnCamara() {
+        try {
+            camara.setPreviewDisplay(superficie);
+        } catch (IOException e) {
+            Log.e(TAG, "IOException caused by setPreviewDisplay()", e);
+        }
+    }
+
+    /**
+     * Función que libera la cámara si está abierta. Se ejecuta en el hilo de la sesión.
+     */
+    private void liberar() {
+        if (camara == null) {
+            return;
+        }
+        dejarDeEsperar();
+        camara.stopPreview();
+        vistaEnMarcha = false;
+        camara.release();
+        camara = null;
+        idCamara = -1;
+        parametros = null;
+        cache = null;
+        cambiarEstado(Estado.CERRADA);
+    }
+
+    /**
+     * Función que cambia el estado y lo avisa en el hilo principal. Se ejecuta en el hilo de la sesión.
+     */
+    private void cambiarEstado(final Estado nuevo) {
+        final Estado anterior = estado;
+        if (anterior == nuevo) {
+            return;
+        }
+        estado = nuevo;
+        manejadorPrincipal.post(new Runnable() {
+            public void run() {
+                oyente.estadoCambiado(anterior, nuevo);
+            }
+        });
+    }
+
+    /**
+     * Función que espera desde el hilo principal a que termine una operación síncrona.
+     */
+    private static void esperar(CountDownLatch hecho) {
+        try {
+            if (!hecho.await(ESPERA_MAXIMA_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "La cámara no ha respondido a tiempo");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.example.josea.puntogestosfoto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Medida del catálogo de fotos con muchas fotos: abrirlo, consultar un día, añadir una foto y compactarlo
+ * después de borrar un tercio. Como referencia, lo que cuesta solo listar un directorio con el mismo número de
+ * ficheros y mirar su tamaño, que es lo mínimo que haría falta sin catálogo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CatalogoBenchmark {
+    private static final long DIA = 24L * 3600 * 1000;
+
+    @Param({"100000"})
+    public int fotos;
+
+    private File completo;
+    private File fragmentado;
+    private CatalogoFotos abierto;
+    private long primera;
+    private long ultima;
+    private long siguienteInstante;
+    private long consulta;
+
+    /**
+     * Fotos de un año, a ráfagas, con y sin datos del gesto y la miniatura.
+     */
+    @Setup
+    public void preparar() throws IOException {
+        completo = File.createTempFile("catalogo", ".pgc");
+        fragmentado = File.createTempFile("fragmentado", ".pgc");
+        CatalogoFotos catalogo = new CatalogoFotos(completo, false);
+        catalogo.abrir();
+        Random aleatorio = new Random(1);
+        long instante = 1451606400000L;
+        primera = instante;
+        for (int i = 0; i < fotos; i++) {
+            instante += aleatorio.nextInt(10) == 0 ? 365 * DIA * 10 / fotos : aleatorio.nextInt(2000);
+            MetadatosCaptura metadatos = i % 4 == 0 ? null
+                    : new MetadatosCaptura(i % 4 == 1 ? "rafaga" : "foto", aleatorio.nextDouble() * 10, instante);
+            catalogo.anadir(String.format("IMG_%08d.jpg", i), 500000 + aleatorio.nextInt(2000000), instante + 300,
+                    metadatos, i % 2 == 0 ? 200 : -1, 6000);
+        }
+        ultima = instante;
+        catalogo.cerrar();
+
+        copiar(completo, fragmentado);
+        catalogo = new CatalogoFotos(fragmentado, false);
+        catalogo.abrir();
+        for (long id = 1; id <= fotos; id += 3) {
+            catalogo.eliminar(id);
+        }
+        catalogo.cerrar();
+
+        abierto = new CatalogoFotos(File.createTempFile("abierto", ".pgc"), false);
+        copiar(completo, abierto.fichero());
+        abierto.abrir();
+        siguienteInstante = ultima;
+        consulta = primera + (ultima - primera) / 2;
+    }
+
+    @TearDown
+    public void borrar() throws IOException {
+        abierto.cerrar();
+        abierto.fichero().delete();
+        completo.delete();
+        fragmentado.delete();
+    }
+
+    private static void copiar(File origen, File destino) throws IOException {
+        FileInputStream in = new FileInputStream(origen);
+        FileOutputStream out = new FileOutputStream(destino);
+        try {
+            FileChannel canal = in.getChannel();
+            canal.transferTo(0, canal.size(), out.getChannel());
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    @Benchmark
+    public int abrir() throws IOException {
+        CatalogoFotos catalogo = new CatalogoFotos(completo, false);
+        catalogo.abrir();
+        int tamano = catalogo.tamano();
+        catalogo.cerrar();
+        return tamano;
+    }
+
+    @Benchmark
+    public List<CatalogoFotos.Foto> consultarUnDia() {
+        return abierto.entre(consulta, consulta + DIA);
+    }
+
+    @Benchmark
+    public CatalogoFotos.Foto anadir() throws IOException {
+        siguienteInstante += 1000;
+        return abierto.anadir("IMG_nueva.jpg", 1000000, siguienteInstante + 300, null, 200, 6000);
+    }
+
+    /**
+     * Compactación del catálogo con un tercio de bajas, sobre una copia nueva cada vez.
+     */
+    @State(Scope.Thread)
+    public static class Compactacion {
+        CatalogoFotos catalogo;
+
+        @Setup(Level.Invocation)
+        public void copiar(CatalogoBenchmark benchmark) throws IOException {
+            catalogo = new CatalogoFotos(File.createTempFile("compactar", ".pgc"), false);
+            CatalogoBenchmark.copiar(benchmark.fragmentado, catalogo.fichero());
+            catalogo.abrir();
+        }
+
+        @TearDown(Level.Invocation)
+        public void borrar() throws IOException {
+            catalogo.cerrar();
+            catalogo.fichero().delete();
+        }
+    }
+
+    @Benchmark
+    public long compactar(Compactacion compactacion) throws IOException {
+        compactacion.catalogo.compactar();
+        return compactacion.catalogo.bytesFichero();
+    }
+
+    /**
+     * Directorio con tantos ficheros vacíos como fotos tiene el catálogo.
+     */
+    @State(Scope.Benchmark)
+    public static class Directorio {
+        File directorio;
+
+        @Setup
+        public void crear(CatalogoBenchmark benchmark) throws IOException {
+            directorio = File.createTempFile("fotos", "");
+            if (!directorio.delete() || !directorio.mkdir()) {
+                throw new IOException("No se ha podido crear " + directorio);
+            }
+            for (int i = 0; i < benchmark.fotos; i++) {
+                new File(directorio, String.format("IMG_%08d.jpg", i)).createNewFile();
+            }
+        }
+
+        @TearDown
+        public void borrar() {
+            for (File fichero : directorio.listFiles()) {
+                fichero.delete();
+            }
+            directorio.delete();
+        }
+    }
+
+    @Benchmark
+    public long recorrerDirectorio(Directorio directorio) {
+        long total = 0;
+        for (File fichero : directorio.directorio.listFiles()) {
+            total += fichero.length();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.example.josea.puntogestosfoto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Medida de cómo crece el coste de reconocer un trazo completo con el número de plantillas, de 10 a 10.000
+ * muestras sintéticas (10 gestos por operador y 5 muestras por gesto), con búsqueda lineal o con índice. Con
+ * menos de IndicePlantillas.MINIMO_PLANTILLAS el índice compara todas las plantillas, como la búsqueda lineal.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EscalaBenchmark {
+    private static final double UMBRAL = 3.0;
+    private static final int NUM_TRAZOS = 32;
+
+    @Param({"lineal", "indice"})
+    public String busqueda;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int plantillas;
+
+    private ReconocedorGestos reconocedor;
+    private final Predicciones predicciones = new Predicciones(3);
+    private final float[][] trazos = new float[NUM_TRAZOS][];
+    private int siguiente;
+
+    @Setup
+    public void preparar() {
+        Random aleatorio = new Random(1);
+        List<float[]> prototipos = new ArrayList<float[]>();
+        PlantillasGestos biblioteca = PlantillasGestos.desdeGestos(
+                Recursos.biblioteca(plantillas, 10, 5, prototipos, aleatorio));
+        reconocedor = "indice".equals(busqueda)
+                ? new ReconocedorGestos(new IndicePlantillas(biblioteca), UMBRAL)
+                : new ReconocedorGestos(biblioteca);
+        for (int i = 0; i < NUM_TRAZOS; i++) {
+            trazos[i] = Recursos.variante(prototipos.get(aleatorio.nextInt(prototipos.size())), aleatorio);
+        }
+    }
+
+    @Benchmark
+    public int trazoCompleto() {
+        float[] trazo = trazos[siguiente++ & (NUM_TRAZOS - 1)];
+        return reconocedor.reconocer(trazo, trazo.length, predicciones);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Medida de la escritura de un JPEG con EscritorFotos.escribir, el mismo código que usa el escritor: con
+ * FileOutputStream o con FileChannel, y con o sin esperar a que esté en disco. Se rota entre unos pocos
+ * ficheros para medir también la sustitución de su contenido.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class EscrituraBenchmark {
+    private static final int NUM_FICHEROS = 8;
+
+    @Param({"FLUJO", "CANAL"})
+    public String escritura;
+
+    @Param({"false", "true"})
+    public boolean forzar;
+
+    /**
+     * Tamaño del JPEG: una foto de 2 MP y una de 8 MP aproximadamente.
+     */
+    @Param({"600000", "2500000"})
+    public int tamano;
+
+    private EscritorFotos.Escritura modo;
+    private File directorio;
+    private final File[] ficheros = new File[NUM_FICHEROS];
+    private byte[] datos;
+    private int siguiente;
+
+    @Setup
+    public void preparar() throws IOException {
+        modo = EscritorFotos.Escritura.valueOf(escritura);
+        directorio = File.createTempFile("escritura", "");
+        if (!directorio.delete() || !directorio.mkdir()) {
+            throw new IOException("No se ha podido crear " + directorio);
+        }
+        for (int i = 0; i < NUM_FICHEROS; i++) {
+            ficheros[i] = new File(directorio, i + ".jpg");
+        }
+        // Datos aleatorios, como un JPEG, para que ninguna capa pueda comprimirlos.
+        datos = new byte[tamano];
+        new Random(1).nextBytes(datos);
+    }
+
+    @TearDown
+    public void borrar() {
+        for (File fichero : ficheros) {
+            fichero.delete();
+        }
+        directorio.delete();
+    }
+
+    @Benchmark
+    public void escribir() throws IOException {
+        EscritorFotos.escribir(ficheros[siguiente++ & (NUM_FICHEROS - 1)], datos, tamano, modo, forzar);
+    }
+}
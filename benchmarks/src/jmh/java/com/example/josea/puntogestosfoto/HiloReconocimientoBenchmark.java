@@ -0,0 +1,179 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.example.josea.puntogestosfoto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Medida del hilo de reconocimiento con las plantillas de R.raw.gestures y con 10.000 sintéticas. Se muestrea
+ * cada llamada del hilo principal (un punto, o el trazo completo al levantar el dedo) con HiloReconocimiento y
+ * reconociendo en el propio hilo, como se hacía antes; el máximo y los percentiles altos son los que provocan
+ * saltos en la interfaz. También se muestrea la latencia desde que se levanta el dedo hasta que la decisión llega
+ * al Executor principal.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HiloReconocimientoBenchmark {
+    /**
+     * Los mismos parámetros que CamTestActivity.
+     */
+    private static final double UMBRAL = 3.0;
+    private static final int NUM_TRAZOS = 32;
+
+    @Param({"aplicacion", "10000"})
+    public String plantillas;
+
+    private HiloReconocimiento hilo;
+    private ReconocedorGestos reconocedor;
+    private ReconocedorIncremental incremental;
+    private final Predicciones predicciones = new Predicciones(1);
+    private final float[][] trazos = new float[NUM_TRAZOS][];
+
+    /**
+     * Trazo y punto siguientes de las llamadas del hilo principal; un punto igual al número de puntos del trazo
+     * es la llamada del trazo completo.
+     */
+    private int siguiente;
+    private int punto;
+    private boolean decidido;
+
+    @Setup
+    public void preparar() throws IOException {
+        Random aleatorio = new Random(1);
+        List<float[]> prototipos = new ArrayList<float[]>();
+        List<GestoGrabado> gestos;
+        if ("aplicacion".equals(plantillas)) {
+            gestos = Recursos.gestos();
+            for (GestoGrabado gesto : gestos) {
+                prototipos.add(gesto.trazos[0]);
+            }
+        } else {
+            gestos = Recursos.biblioteca(Integer.parseInt(plantillas), 10, 5, prototipos, aleatorio);
+        }
+        PlantillasGestos biblioteca = PlantillasGestos.desdeGestos(gestos);
+        reconocedor = new ReconocedorGestos(new IndicePlantillas(biblioteca), UMBRAL);
+        incremental = new ReconocedorIncremental(biblioteca, UMBRAL, 1.0, 1.5, 2, 10);
+        for (int i = 0; i < NUM_TRAZOS; i++) {
+            trazos[i] = Recursos.variante(prototipos.get(aleatorio.nextInt(prototipos.size())), aleatorio);
+        }
+
+        // Las decisiones se entregan en el propio hilo de reconocimiento, aquí no hay nadie que las use.
+        hilo = new HiloReconocimiento(UMBRAL, new Executor() {
+            public void execute(Runnable tarea) {
+                tarea.run();
+            }
+        }, new HiloReconocimiento.Oyente() {
+            public void gestoReconocido(int trazo, String nombre, double puntuacion, boolean mientrasSeDibuja,
+                                        long latenciaNanos) {
+            }
+        });
+        hilo.ponerReconocedores(new ReconocedorGestos(new IndicePlantillas(biblioteca), UMBRAL),
+                new ReconocedorIncremental(biblioteca, UMBRAL, 1.0, 1.5, 2, 10));
+        hilo.iniciar();
+    }
+
+    @TearDown
+    public void cerrar() throws InterruptedException {
+        hilo.cerrar();
+        hilo.esperarFin();
+    }
+
+    /**
+     * Llamada del hilo principal con HiloReconocimiento: solo copia el punto o el trazo.
+     */
+    @Benchmark
+    public int llamadaConHilo() {
+        float[] trazo = trazos[siguiente];
+        if (punto == 0) {
+            hilo.empezarTrazo(0);
+        }
+        if (punto < trazo.length / 2) {
+            hilo.anadirPunto(trazo[punto * 2], trazo[punto * 2 + 1], punto * 10);
+            punto++;
+        } else {
+            hilo.terminarTrazo(trazo);
+            punto = 0;
+            siguiente = (siguiente + 1) & (NUM_TRAZOS - 1);
+        }
+        return punto;
+    }
+
+    /**
+     * Llamada del hilo principal reconociendo en él: cada punto pasa por el reconocedor incremental hasta que
+     * decide y, si no ha decidido, el trazo completo por el reconocedor.
+     */
+    @Benchmark
+    public int llamadaSinHilo() {
+        float[] trazo = trazos[siguiente];
+        int resultado = 0;
+        if (punto == 0) {
+            incremental.empezar(0);
+            decidido = false;
+        }
+        if (punto < trazo.length / 2) {
+            if (!decidido) {
+                decidido = incremental.anadirPunto(trazo[punto * 2], trazo[punto * 2 + 1], punto * 10);
+            }
+            punto++;
+        } else {
+            if (!decidido) {
+                resultado = reconocedor.reconocer(trazo, trazo.length, predicciones);
+            }
+            punto = 0;
+            siguiente = (siguiente + 1) & (NUM_TRAZOS - 1);
+        }
+        return resultado;
+    }
+
+    /**
+     * Trazo entero con HiloReconocimiento, con todos los puntos de golpe, hasta que queda resuelto: casi todo el
+     * tiempo es la espera desde que se levanta el dedo hasta que la decisión llega al Executor principal.
+     */
+    @Benchmark
+    public long latenciaDecision() {
+        float[] trazo = trazos[siguiente];
+        siguiente = (siguiente + 1) & (NUM_TRAZOS - 1);
+        long atendidos = hilo.atendidos();
+        hilo.empezarTrazo(0);
+        for (int i = 0; i < trazo.length / 2; i++) {
+            hilo.anadirPunto(trazo[i * 2], trazo[i * 2 + 1], i * 10);
+        }
+        hilo.terminarTrazo(trazo);
+        while (hilo.atendidos() == atendidos) {
+            Thread.yield();
+        }
+        return atendidos;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Medida del reconocimiento mientras se dibuja con las plantillas de R.raw.gestures: todos los puntos de un trazo
+ * hasta que el reconocedor incremental decide.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IncrementalBenchmark {
+    /**
+     * Los mismos parámetros que CamTestActivity.
+     */
+    private static final double UMBRAL = 3.0;
+    private static final int NUM_TRAZOS = 32;
+
+    private ReconocedorIncremental incremental;
+    private final float[][] trazos = new float[NUM_TRAZOS][];
+    private int siguiente;
+
+    @Setup
+    public void preparar() throws IOException {
+        List<GestoGrabado> gestos = Recursos.gestos();
+        PlantillasGestos plantillas = PlantillasGestos.desdeGestos(gestos);
+        incremental = new ReconocedorIncremental(plantillas, UMBRAL, 1.0, 1.5, 2, 10);
+        Random aleatorio = new Random(1);
+        for (int i = 0; i < NUM_TRAZOS; i++) {
+            trazos[i] = Recursos.variante(gestos.get(i % gestos.size()).trazos[0], aleatorio);
+        }
+    }
+
+    @Benchmark
+    public int puntoAPunto() {
+        float[] trazo = trazos[siguiente++ & (NUM_TRAZOS - 1)];
+        incremental.empezar(0);
+        for (int i = 0; i < trazo.length / 2; i++) {
+            if (incremental.anadirPunto(trazo[i * 2], trazo[i * 2 + 1], i * 10)) {
+                break;
+            }
+        }
+        return incremental.etiquetaDecidida();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.example.josea.puntogestosfoto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Medida de la lectura de la cabecera de las fotos con SegmentosJpeg y de su escritura con los datos de la
+ * captura en XMP, frente a escribirlas tal cual, a meter el segmento copiando la foto en un array nuevo y a
+ * decodificar la imagen, que es lo que haría falta para sacar la miniatura y el tamaño sin leer la cabecera.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JpegBenchmark {
+    /**
+     * Tamaño de la foto: 2 MP y 8 MP.
+     */
+    @Param({"1600x1200", "3264x2448"})
+    public String tamano;
+
+    private byte[] jpeg;
+    private MetadatosCaptura metadatos;
+    private File fichero;
+
+    @Setup
+    public void preparar() throws IOException {
+        String[] partes = tamano.split("x");
+        jpeg = Recursos.jpeg(Integer.parseInt(partes[0]), Integer.parseInt(partes[1]), new Random(1));
+        metadatos = new MetadatosCaptura("foto", 3.5, System.currentTimeMillis());
+        fichero = File.createTempFile("foto", ".jpg");
+    }
+
+    @TearDown
+    public void borrar() {
+        fichero.delete();
+    }
+
+    @Benchmark
+    public SegmentosJpeg cabecera() {
+        return SegmentosJpeg.analizar(ByteBuffer.wrap(jpeg));
+    }
+
+    @Benchmark
+    public ByteBuffer miniatura() {
+        return SegmentosJpeg.analizar(ByteBuffer.wrap(jpeg)).miniatura();
+    }
+
+    @Benchmark
+    public void escribirTalCual() throws IOException {
+        EscritorFotos.escribir(fichero, jpeg, jpeg.length, EscritorFotos.Escritura.CANAL, false);
+    }
+
+    @Benchmark
+    public void escribirConMetadatos() throws IOException {
+        EscritorFotos.escribirConMetadatos(fichero, jpeg, jpeg.length, metadatos, false);
+    }
+
+    /**
+     * Lo mismo que escribirConMetadatos pero juntando las partes en un array nuevo antes de escribir.
+     */
+    @Benchmark
+    public void escribirCopiando() throws IOException {
+        ByteBuffer[] partes = SegmentosJpeg.analizar(ByteBuffer.wrap(jpeg)).conSegmento(metadatos.segmentoXmp());
+        int total = 0;
+        for (ByteBuffer parte : partes) {
+            total += parte.remaining();
+        }
+        ByteBuffer copia = ByteBuffer.allocate(total);
+        for (ByteBuffer parte : partes) {
+            copia.put(parte);
+        }
+        EscritorFotos.escribir(fichero, copia.array(), total, EscritorFotos.Escritura.CANAL, false);
+    }
+
+    @Benchmark
+    public int decodificar() throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(jpeg)).getWidth();
+    }
+}
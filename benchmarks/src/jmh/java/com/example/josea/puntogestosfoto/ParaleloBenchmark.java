@@ -0,0 +1,79 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Medida del reconocimiento en paralelo por fragmentos con bibliotecas de varios operadores (10 gestos por
+ * operador y 20 muestras por gesto), con 1, 2, 4 y 8 hilos. La aceleración es el tiempo con 1 hilo entre el
+ * tiempo con n; no puede pasar del número de núcleos de la máquina.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParaleloBenchmark {
+    private static final double UMBRAL = 3.0;
+    private static final int NUM_TRAZOS = 32;
+
+    @Param({"1", "2", "4", "8"})
+    public int hilos;
+
+    @Param({"2000", "20000"})
+    public int plantillas;
+
+    private ReconocedorParalelo reconocedor;
+    private final Predicciones predicciones = new Predicciones(3);
+    private final float[][] trazos = new float[NUM_TRAZOS][];
+    private int siguiente;
+
+    @Setup
+    public void preparar() {
+        Random aleatorio = new Random(1);
+        List<float[]> prototipos = new ArrayList<float[]>();
+        List<GestoGrabado> gestos = Recursos.biblioteca(plantillas, 10, 20, prototipos, aleatorio);
+        reconocedor = new ReconocedorParalelo(PlantillasGestos.desdeGestos(gestos), UMBRAL, hilos);
+        for (int i = 0; i < NUM_TRAZOS; i++) {
+            trazos[i] = Recursos.variante(prototipos.get(aleatorio.nextInt(prototipos.size())), aleatorio);
+        }
+    }
+
+    @TearDown
+    public void cerrar() {
+        reconocedor.cerrar();
+    }
+
+    @Benchmark
+    public int reconocer() {
+        float[] trazo = trazos[siguiente++ & (NUM_TRAZOS - 1)];
+        return reconocedor.reconocer(trazo, trazo.length, predicciones);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.example.josea.puntogestosfoto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Medida de la comparación lineal de un trazo con todas las plantillas guardadas en float o en enteros de 16
+ * bits, con las plantillas de R.raw.gestures y con bibliotecas sintéticas grandes. Las plantillas se guardan en
+ * un fichero y se mapean, igual que en la aplicación. La memoria de cada una es un registro de 132 bytes en
+ * float y de 68 en enteros.
+ *
+ * reconocer mide el reconocimiento completo, donde pesan también el arcotangente y el arcocoseno de cada
+ * plantilla; productos solo recorre las plantillas acumulando los productos, que es lo que depende de la memoria.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PrecisionBenchmark {
+    private static final int NUM_TRAZOS = 32;
+
+    @Param({"FLOAT", "ENTERO16"})
+    public String precision;
+
+    /**
+     * "gestures" para las plantillas de la aplicación o el número de plantillas sintéticas.
+     */
+    @Param({"gestures", "10000", "100000"})
+    public String plantillas;
+
+    private File fichero;
+    private PlantillasGestos mapeadas;
+    private ReconocedorGestos reconocedor;
+    private final float[] muestra = new float[UtilGestos.LONGITUD_VECTOR];
+    private final float[] productos = new float[2];
+    private final Predicciones predicciones = new Predicciones(3);
+    private final float[][] trazos = new float[NUM_TRAZOS][];
+    private int siguiente;
+
+    @Setup
+    public void preparar() throws IOException {
+        Random aleatorio = new Random(1);
+        List<float[]> prototipos = new ArrayList<float[]>();
+        if ("gestures".equals(plantillas)) {
+            for (GestoGrabado gesto : Recursos.gestos()) {
+                prototipos.add(gesto.trazos[0]);
+            }
+            fichero = guardar(PlantillasGestos.desdeGestos(Recursos.gestos()));
+        } else {
+            fichero = guardar(PlantillasGestos.desdeGestos(
+                    Recursos.biblioteca(Integer.parseInt(plantillas), 10, 20, prototipos, aleatorio)));
+        }
+        mapeadas = AlmacenPlantillas.mapear(fichero);
+        reconocedor = new ReconocedorGestos(mapeadas);
+        for (int i = 0; i < NUM_TRAZOS; i++) {
+            trazos[i] = Recursos.variante(prototipos.get(aleatorio.nextInt(prototipos.size())), aleatorio);
+        }
+    }
+
+    private File guardar(PlantillasGestos floats) throws IOException {
+        File destino = File.createTempFile("plantillas", ".pgf");
+        AlmacenPlantillas.guardar(floats.conPrecision(PlantillasGestos.Precision.valueOf(precision)), destino);
+        return destino;
+    }
+
+    @TearDown
+    public void borrar() {
+        fichero.delete();
+    }
+
+    @Benchmark
+    public int reconocer() {
+        float[] trazo = trazos[siguiente++ & (NUM_TRAZOS - 1)];
+        return reconocedor.reconocer(trazo, trazo.length, predicciones);
+    }
+
+    @Benchmark
+    public float productos() {
+        float[] trazo = trazos[siguiente++ & (NUM_TRAZOS - 1)];
+        UtilGestos.vectorizar(trazo, trazo.length, muestra);
+        float total = 0;
+        for (int p = 0; p < mapeadas.tamano(); p++) {
+            productos[0] = 0;
+            productos[1] = 0;
+            mapeadas.productos(p, muestra, 0, UtilGestos.LONGITUD_VECTOR, productos);
+            total += productos[0];
+        }
+        return total;
+    }
+}
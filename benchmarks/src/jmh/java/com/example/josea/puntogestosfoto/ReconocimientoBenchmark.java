@@ -0,0 +1,90 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Medida del reconocimiento del trazo completo, lo que se hace al levantar el dedo, con las plantillas de
+ * R.raw.gestures: con búsqueda lineal (como GestureLibrary) o con índice, y sensible a la orientación (como
+ * GestureLibrary) o invariante al giro. Los trazos de prueba están girados hasta media vuelta.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReconocimientoBenchmark {
+    /**
+     * Los mismos parámetros que CamTestActivity.
+     */
+    private static final double UMBRAL = 3.0;
+    private static final int NUM_TRAZOS = 32;
+
+    @Param({"lineal", "indice"})
+    public String busqueda;
+
+    @Param({"sensible", "invariante"})
+    public String orientacion;
+
+    private ReconocedorGestos reconocedor;
+    private final Predicciones predicciones = new Predicciones(3);
+    private final float[][] trazos = new float[NUM_TRAZOS][];
+    private int siguiente;
+
+    @Setup
+    public void preparar() throws IOException {
+        List<GestoGrabado> gestos = Recursos.gestos();
+        PlantillasGestos plantillas = PlantillasGestos.desdeGestos(gestos, 0, "invariante".equals(orientacion)
+                ? UtilGestos.ORIENTACIONES_INVARIANTE : UtilGestos.ORIENTACIONES_SENSIBLE);
+        reconocedor = "indice".equals(busqueda)
+                ? new ReconocedorGestos(new IndicePlantillas(plantillas), UMBRAL)
+                : new ReconocedorGestos(plantillas);
+        Random aleatorio = new Random(1);
+        for (int i = 0; i < NUM_TRAZOS; i++) {
+            float[] trazo = Recursos.variante(gestos.get(i % gestos.size()).trazos[0], aleatorio);
+            trazos[i] = girar(trazo, (aleatorio.nextDouble() * 2 - 1) * Math.PI);
+        }
+    }
+
+    private static float[] girar(float[] trazo, double angulo) {
+        float cos = (float) Math.cos(angulo), sin = (float) Math.sin(angulo);
+        float[] resultado = new float[trazo.length];
+        for (int i = 0; i < trazo.length; i += 2) {
+            resultado[i] = trazo[i] * cos - trazo[i + 1] * sin;
+            resultado[i + 1] = trazo[i] * sin + trazo[i + 1] * cos;
+        }
+        return resultado;
+    }
+
+    @Benchmark
+    public int trazoCompleto() {
+        float[] trazo = trazos[siguiente++ & (NUM_TRAZOS - 1)];
+        return reconocedor.reconocer(trazo, trazo.length, predicciones);
+    }
+}
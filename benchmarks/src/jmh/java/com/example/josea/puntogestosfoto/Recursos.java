@@ -0,0 +1,200 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Datos comunes de las medidas: el fichero de gestos de la aplicación, las capacidades de cámara de los tests,
+ * variantes de trazos como si se hubieran vuelto a dibujar, bibliotecas sintéticas grandes y fotos JPEG.
+ */
+final class Recursos {
+    private Recursos() {
+    }
+
+    /**
+     * Función que abre un recurso.
+     * @param nombre ruta del recurso, por ejemplo "/gestures"
+     * @return flujo del recurso
+     * @throws IOException si no existe
+     */
+    static InputStream abrir(String nombre) throws IOException {
+        InputStream in = Recursos.class.getResourceAsStream(nombre);
+        if (in == null) {
+            throw new FileNotFoundException(nombre);
+        }
+        return in;
+    }
+
+    /**
+     * @return gestos de R.raw.gestures
+     * @throws IOException si no se pueden leer
+     */
+    static List<GestoGrabado> gestos() throws IOException {
+        InputStream in = abrir("/gestures");
+        try {
+            return LectorGestos.leer(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param movil nombre del fichero de capacidades, sin extensión
+     * @return parámetros de la cámara de ese móvil, como los da Camera.Parameters.flatten()
+     * @throws IOException si no se pueden leer
+     */
+    static ParametrosCamara parametros(String movil) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(abrir("/capacidades/" + movil + ".txt"), "UTF-8"));
+        try {
+            return new ParametrosCamara(in.readLine());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Función que crea una variante de un trazo: otra escala, otra posición y unos píxeles de ruido en cada punto.
+     * @param trazo puntos intercalados (x, y) del trazo original
+     * @param aleatorio generador, con semilla fija para que las medidas se puedan repetir
+     * @return puntos de la variante
+     */
+    static float[] variante(float[] trazo, Random aleatorio) {
+        float escala = 0.6f + aleatorio.nextFloat() * 0.6f;
+        float dx = aleatorio.nextFloat() * 200;
+        float dy = aleatorio.nextFloat() * 200;
+        float[] resultado = new float[trazo.length];
+        for (int i = 0; i < trazo.length; i += 2) {
+            resultado[i] = trazo[i] * escala + dx + (aleatorio.nextFloat() * 2 - 1) * 2;
+            resultado[i + 1] = trazo[i + 1] * escala + dy + (aleatorio.nextFloat() * 2 - 1) * 2;
+        }
+        return resultado;
+    }
+
+    /**
+     * Función que crea un trazo al azar que gira poco a poco, como un gesto dibujado a mano.
+     * @param aleatorio generador, con semilla fija para que las medidas se puedan repetir
+     * @return puntos intercalados del trazo
+     */
+    static float[] prototipo(Random aleatorio) {
+        int puntos = 40 + aleatorio.nextInt(40);
+        float[] trazo = new float[puntos * 2];
+        double rumbo = aleatorio.nextDouble() * Math.PI * 2;
+        double giro = 0;
+        float x = 400, y = 300;
+        for (int i = 0; i < puntos; i++) {
+            trazo[i * 2] = x;
+            trazo[i * 2 + 1] = y;
+            if (i % 8 == 0) {
+                giro = (aleatorio.nextDouble() - 0.5) * 0.6;
+            }
+            rumbo += giro;
+            x += (float) (Math.cos(rumbo) * 8);
+            y += (float) (Math.sin(rumbo) * 8);
+        }
+        return trazo;
+    }
+
+    /**
+     * Función que crea una biblioteca con los gestos de varios operadores: cada uno graba sus propios gestos y
+     * varias muestras de cada gesto.
+     * @param numPlantillas número total de muestras
+     * @param gestosPorOperador gestos distintos de cada operador
+     * @param muestrasPorGesto muestras de cada gesto
+     * @param prototipos lista donde se añade el prototipo de cada gesto
+     * @param aleatorio generador, con semilla fija para que las medidas se puedan repetir
+     * @return muestras de la biblioteca
+     */
+    static List<GestoGrabado> biblioteca(int numPlantillas, int gestosPorOperador, int muestrasPorGesto,
+                                         List<float[]> prototipos, Random aleatorio) {
+        List<GestoGrabado> gestos = new ArrayList<GestoGrabado>();
+        float[] prototipo = null;
+        for (int i = 0; i < numPlantillas; i++) {
+            int gesto = i / muestrasPorGesto;
+            if (i % muestrasPorGesto == 0) {
+                prototipo = prototipo(aleatorio);
+                prototipos.add(prototipo);
+            }
+            float[] trazo = variante(prototipo, aleatorio);
+            String nombre = "operador" + gesto / gestosPorOperador + "/gesto" + gesto % gestosPorOperador;
+            gestos.add(new GestoGrabado(nombre, i, new float[][]{trazo}, new long[][]{new long[trazo.length / 2]}));
+        }
+        return gestos;
+    }
+
+    /**
+     * Función que crea un JPEG como los de la cámara: una imagen con ruido para que ocupe como una foto real
+     * (unos 2 MB a 8 MP), codificada con ImageIO, con un segmento EXIF con orientación y una miniatura de
+     * 160x120 en lugar del JFIF.
+     * @param ancho ancho de la foto
+     * @param alto alto de la foto
+     * @param aleatorio generador, con semilla fija para que las medidas se puedan repetir
+     * @return JPEG con EXIF
+     * @throws IOException si ImageIO no puede codificar
+     */
+    static byte[] jpeg(int ancho, int alto, Random aleatorio) throws IOException {
+        byte[] imagen = codificar(ancho, alto, aleatorio);
+        byte[] miniatura = codificar(160, 120, aleatorio);
+        // TIFF big endian: cabecera, IFD0 con la orientación e IFD1 con la posición y longitud de la miniatura.
+        ByteBuffer tiff = ByteBuffer.allocate(8 + 18 + 30 + miniatura.length);
+        tiff.putShort((short) 0x4D4D).putShort((short) 42).putInt(8);
+        tiff.putShort((short) 1).putShort((short) 0x0112).putShort((short) 3).putInt(1).putInt(6 << 16).putInt(26);
+        tiff.putShort((short) 2);
+        tiff.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(56);
+        tiff.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(miniatura.length);
+        tiff.putInt(0).put(miniatura);
+
+        int resto = 4 + ((imagen[4] & 0xFF) << 8 | (imagen[5] & 0xFF));
+        ByteBuffer jpeg = ByteBuffer.allocate(4 + 8 + tiff.capacity() + imagen.length - resto);
+        jpeg.putShort((short) 0xFFD8).putShort((short) 0xFFE1).putShort((short) (8 + tiff.capacity()));
+        jpeg.put(new byte[]{'E', 'x', 'i', 'f', 0, 0}).put(tiff.array());
+        jpeg.put(imagen, resto, imagen.length - resto);
+        return jpeg.array();
+    }
+
+    private static byte[] codificar(int ancho, int alto, Random aleatorio) throws IOException {
+        BufferedImage imagen = new BufferedImage(ancho, alto, BufferedImage.TYPE_INT_RGB);
+        int[] fila = new int[ancho];
+        for (int y = 0; y < alto; y++) {
+            for (int x = 0; x < ancho; x++) {
+                int ruido = aleatorio.nextInt();
+                int r = (x * 192 / ancho + (ruido & 0x3F)) & 0xFF;
+                int g = (y * 192 / alto + (ruido >> 8 & 0x3F)) & 0xFF;
+                fila[x] = r << 16 | g << 8 | (ruido >> 16 & 0x3F);
+            }
+            imagen.setRGB(0, y, ancho, 1, fila, 0, ancho);
+        }
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        if (!ImageIO.write(imagen, "jpg", salida)) {
+            throw new IOException("No hay codificador JPEG");
+        }
+        return salida.toByteArray();
+    }
+}
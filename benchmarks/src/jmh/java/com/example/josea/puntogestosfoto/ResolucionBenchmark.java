@@ -0,0 +1,88 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Medida de la elección de la resolución (lo que antes hacía Preview.getOptimalPreviewSize) con las listas de
+ * tamaños y rangos de FPS de móviles de gama alta, media y baja, para varios tamaños de vista.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ResolucionBenchmark {
+    /**
+     * Tamaños de vista intercalados (ancho, alto), de pantallas habituales.
+     */
+    private static final int[] VISTAS = {1920, 1080, 1280, 800, 800, 480, 640, 480};
+
+    @Param({"gama_alta_16x9", "gama_media_4x3", "gama_baja"})
+    public String movil;
+
+    private String aplanados;
+    private NegociadorResolucion.Capacidades capacidades;
+    private NegociadorResolucion negociador;
+    private int siguiente;
+
+    @Setup
+    public void preparar() throws IOException {
+        ParametrosCamara parametros = Recursos.parametros(movil);
+        aplanados = parametros.aplanar();
+        capacidades = NegociadorResolucion.Capacidades.desde(parametros);
+        // No se llega a guardar, el fichero solo hace falta para construirlo.
+        negociador = new NegociadorResolucion(new File(System.getProperty("java.io.tmpdir"), "perfiles.properties"));
+    }
+
+    /**
+     * Elección conjunta de vista previa, foto y FPS, sin memoria.
+     */
+    @Benchmark
+    public NegociadorResolucion.Perfil elegir() {
+        int i = (siguiente++ & 3) * 2;
+        return NegociadorResolucion.elegir(capacidades, VISTAS[i], VISTAS[i + 1]);
+    }
+
+    /**
+     * Elección a través del negociador, que la recuerda para cada cámara y tamaño de vista.
+     */
+    @Benchmark
+    public NegociadorResolucion.Perfil negociarRecordado() {
+        int i = (siguiente++ & 3) * 2;
+        return negociador.negociar(0, capacidades, VISTAS[i], VISTAS[i + 1]);
+    }
+
+    /**
+     * Lectura de las capacidades desde el texto de Camera.Parameters.flatten(), lo que se hace al abrir la cámara.
+     */
+    @Benchmark
+    public NegociadorResolucion.Capacidades leerCapacidades() {
+        return NegociadorResolucion.Capacidades.desde(new ParametrosCamara(aplanados));
+    }
+}
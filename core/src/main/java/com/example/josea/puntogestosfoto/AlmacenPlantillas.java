@@ -0,0 +1,170 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Clase que guarda y carga las plantillas en su formato binario (ver PlantillasGestos). La primera vez se
+ * convierten desde el fichero de gestos de Android y se guardan; las siguientes basta con mapear el fichero.
+ *
+ * También se puede usar desde la línea de comandos para convertir un fichero de gestos:
+ * java AlmacenPlantillas gestures plantillas.pgf [invariante]
+ */
+final class AlmacenPlantillas {
+    /**
+     * Interfaz para abrir el fichero de gestos original solo cuando hace falta convertirlo.
+     */
+    interface FuenteGestos {
+        /**
+         * @return flujo con el fichero de gestos, lo cierra quien llama
+         * @throws IOException si no se puede abrir
+         */
+        InputStream abrir() throws IOException;
+    }
+
+    private AlmacenPlantillas() {
+    }
+
+    /**
+     * Función que carga las plantillas del fichero binario si existe y corresponde a la huella, y si no las
+     * convierte desde la fuente y guarda el fichero para la próxima vez. Hace E/S, no llamar desde el hilo principal.
+     * @param fichero fichero binario de plantillas
+     * @param huella valor que identifica la versión de la fuente, por ejemplo la fecha de instalación de la aplicación
+     * @param fuente fuente del fichero de gestos original
+     * @return plantillas cargadas
+     * @throws IOException si no se puede leer la fuente
+     */
+    static PlantillasGestos cargar(File fichero, long huella, FuenteGestos fuente) throws IOException {
+        return cargar(fichero, huella, UtilGestos.ORIENTACIONES_SENSIBLE, fuente);
+    }
+
+    /**
+     * Función que carga las plantillas con un modo de orientación. Si el fichero binario se guardó con otro modo
+     * se vuelven a convertir, así las plantillas giradas se calculan una vez y no en cada arranque.
+     * @param fichero fichero binario de plantillas
+     * @param huella valor que identifica la versión de la fuente
+     * @param orientaciones UtilGestos.ORIENTACIONES_SENSIBLE o UtilGestos.ORIENTACIONES_INVARIANTE
+     * @param fuente fuente del fichero de gestos original
+     * @return plantillas cargadas
+     * @throws IOException si no se puede leer la fuente
+     */
+    static PlantillasGestos cargar(File fichero, long huella, int orientaciones, FuenteGestos fuente)
+            throws IOException {
+        if (fichero.isFile()) {
+            try {
+                PlantillasGestos plantillas = mapear(fichero);
+                if (plantillas.huella() == huella && plantillas.orientaciones() == orientaciones) {
+                    return plantillas;
+                }
+            } catch (IOException e) {
+                // El fichero está corrupto, se vuelve a generar.
+            }
+        }
+
+        PlantillasGestos plantillas;
+        InputStream in = fuente.abrir();
+        try {
+            plantillas = PlantillasGestos.desdeGestos(LectorGestos.leer(in), huella, orientaciones);
+        } finally {
+            in.close();
+        }
+
+        try {
+            guardar(plantillas, fichero);
+        } catch (IOException e) {
+            // Si no se puede guardar se sigue con las plantillas en memoria, se intentará en el próximo arranque.
+        }
+        return plantillas;
+    }
+
+    /**
+     * Función que mapea en memoria un fichero binario de plantillas.
+     * @param fichero fichero a mapear
+     * @return plantillas sobre la memoria mapeada
+     * @throws IOException si no se puede leer o no tiene un formato válido
+     */
+    static PlantillasGestos mapear(File fichero) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(fichero, "r");
+        try {
+            FileChannel canal = raf.getChannel();
+            MappedByteBuffer buffer = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            // El mapeo sigue siendo válido después de cerrar el fichero.
+            return PlantillasGestos.desdeBuffer(buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Función que guarda las plantillas en un fichero. Se escribe en un temporal y se renombra, así nunca
+     * queda un fichero a medias aunque se mate la aplicación.
+     * @param plantillas plantillas a guardar
+     * @param fichero fichero destino
+     * @throws IOException si no se puede escribir
+     */
+    static void guardar(PlantillasGestos plantillas, File fichero) throws IOException {
+        File temporal = new File(fichero.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temporal);
+        try {
+            FileChannel canal = out.getChannel();
+            ByteBuffer datos = plantillas.datos();
+            while (datos.hasRemaining()) {
+                canal.write(datos);
+            }
+            canal.force(true);
+        } finally {
+            out.close();
+        }
+        if (!temporal.renameTo(fichero)) {
+            temporal.delete();
+            throw new IOException("No se ha podido renombrar " + temporal + " a " + fichero);
+        }
+    }
+
+    /**
+     * Conversor de línea de comandos de un fichero de gestos de Android al formato binario.
+     * @param args fichero de gestos de entrada, fichero binario de salida y opcionalmente "invariante" para
+     *             plantillas que reconocen el gesto con cualquier giro
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3 || (args.length == 3 && !"invariante".equals(args[2]))) {
+            System.err.println("Uso: AlmacenPlantillas <fichero de gestos> <fichero de plantillas> [invariante]");
+            System.exit(1);
+        }
+        int orientaciones = args.length == 3
+                ? UtilGestos.ORIENTACIONES_INVARIANTE : UtilGestos.ORIENTACIONES_SENSIBLE;
+        InputStream in = new FileInputStream(args[0]);
+        PlantillasGestos plantillas;
+        try {
+            plantillas = PlantillasGestos.desdeGestos(LectorGestos.leer(in), 0, orientaciones);
+        } finally {
+            in.close();
+        }
+        guardar(plantillas, new File(args[1]));
+        System.out.println(plantillas.tamano() + " plantillas de " + plantillas.numEtiquetas() + " gestos guardadas en " + args[1]);
+    }
+}
@@ -0,0 +1,556 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.example.josea.puntogestosfoto;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Clase que lleva el catálogo de las fotos guardadas, para listarlas sin recorrer el directorio ni abrir cada
+ * fichero.
+ *
+ * El catálogo es un fichero al que solo se añaden registros: altas de fotos y bajas. Cada registro lleva su
+ * longitud y un CRC32, y se escribe al final del fichero, así una escritura cortada por un cierre inesperado
+ * solo puede estropear el último registro. Al abrir se mapea el fichero en memoria y se recorren los registros
+ * hasta el primero incompleto o con el CRC mal; lo que haya detrás se corta. Las fotos se guardan en memoria
+ * ordenadas por el instante de la captura, para consultar rangos de tiempo con una búsqueda binaria.
+ *
+ * Las bajas y las altas de fotos dadas de baja ocupan sitio sin servir de nada; compactar reescribe el fichero
+ * con las fotos que quedan, en un temporal que se renombra. Conviene hacerlo al arrancar si necesitaCompactar.
+ *
+ * Se puede usar desde varios hilos. Hasta que se abre está vacío.
+ */
+final class CatalogoFotos {
+    /**
+     * Datos de una foto del catálogo.
+     */
+    static final class Foto {
+        /** Identificador de la foto en el catálogo. */
+        final long id;
+        /** Nombre del fichero dentro del directorio de fotos. */
+        final String fichero;
+        /** Bytes del fichero. */
+        final long tamano;
+        /** Milisegundos desde 1970 en que se hizo la foto y en que quedó guardada. */
+        final long instanteCaptura;
+        final long instanteGuardado;
+        /** Gesto que disparó la foto y su puntuación, null y NaN si no se sabe. */
+        final String gesto;
+        final double puntuacion;
+        /** Posición y longitud de la miniatura EXIF dentro del fichero, -1 y 0 si no tiene. */
+        final int inicioMiniatura;
+        final int longitudMiniatura;
+
+        Foto(long id, String fichero, long tamano, long instanteCaptura, long instanteGuardado, String gesto,
+             double puntuacion, int inicioMiniatura, int longitudMiniatura) {
+            this.id = id;
+            this.fichero = fichero;
+            this.tamano = tamano;
+            this.instanteCaptura = instanteCaptura;
+            this.instanteGuardado = instanteGuardado;
+            this.gesto = gesto;
+            this.puntuacion = puntuacion;
+            this.inicioMiniatura = inicioMiniatura;
+            this.longitudMiniatura = longitudMiniatura;
+        }
+    }
+
+    /**
+     * Cabecera del fichero: "PGFC" y versión del formato.
+     */
+    static final int MAGICO = 0x50474643;
+    static final short VERSION = 1;
+    static final int TAMANO_CABECERA = 6;
+
+    /**
+     * Tipos de registro y bytes de cada registro antes de los datos: longitud de los datos y CRC32.
+     */
+    private static final byte ALTA = 'A';
+    private static final byte BAJA = 'B';
+    private static final int CABECERA_REGISTRO = 8;
+
+    /**
+     * Longitud máxima de los datos de un registro, cualquier longitud mayor es un registro estropeado.
+     */
+    private static final int MAXIMO_REGISTRO = 4 * 1024;
+
+    /**
+     * Parte del fichero que puede ser basura antes de que convenga compactar, y mínimo de bytes para hacerlo.
+     */
+    private static final double BASURA_MAXIMA = 0.25;
+    private static final long BASURA_MINIMA = 64 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File fichero;
+    private final boolean forzar;
+
+    /**
+     * Fotos ordenadas por instante de captura (y por orden de alta si coinciden) y por identificador.
+     */
+    private final List<Foto> porInstante = new ArrayList<Foto>();
+    private final Map<Long, Foto> porId = new HashMap<Long, Foto>();
+
+    private RandomAccessFile raf;
+    private FileChannel canal;
+
+    /**
+     * Final de los registros válidos, donde se escribe el siguiente.
+     */
+    private long fin;
+    private long siguienteId = 1;
+
+    /**
+     * Bytes de los registros de las fotos que siguen en el catálogo, y bytes cortados al abrir.
+     */
+    private long bytesVivos;
+    private long bytesCortados;
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Constructor de la clase, no lee el fichero hasta abrir.
+     * @param fichero fichero del catálogo, se crea al abrir si no existe
+     * @param forzar si cada registro se fuerza a disco antes de volver, para no perderlo si se apaga el móvil
+     */
+    CatalogoFotos(File fichero, boolean forzar) {
+        this.fichero = fichero;
+        this.forzar = forzar;
+    }
+
+    /**
+     * @return fichero del catálogo
+     */
+    File fichero() {
+        return fichero;
+    }
+
+    /**
+     * Función que abre el catálogo y carga sus fotos. Si el final del fichero está estropeado se corta. Hace
+     * E/S, no llamar desde el hilo principal.
+     * @throws IOException si no se puede leer o no es un catálogo
+     */
+    synchronized void abrir() throws IOException {
+        if (canal != null) {
+            return;
+        }
+        raf = new RandomAccessFile(fichero, "rw");
+        canal = raf.getChannel();
+        try {
+            cargar();
+        } catch (IOException e) {
+            cerrar();
+            throw e;
+        }
+    }
+
+    /**
+     * Función que cierra el fichero. Las consultas siguen funcionando pero no se pueden añadir fotos.
+     * @throws IOException si falla el cierre
+     */
+    synchronized void cerrar() throws IOException {
+        if (raf != null) {
+            raf.close();
+            raf = null;
+            canal = null;
+        }
+    }
+
+    /**
+     * Función que añade una foto guardada.
+     * @param nombre nombre del fichero de la foto
+     * @param tamano bytes del fichero
+     * @param instanteGuardado milisegundos desde 1970 en que quedó guardada
+     * @param metadatos gesto, puntuación e instante de la captura, null si no se saben
+     * @param inicioMiniatura posición de la miniatura EXIF en el fichero, -1 si no tiene
+     * @param longitudMiniatura bytes de la miniatura
+     * @return foto añadida, con su identificador
+     * @throws IOException si no se puede escribir el registro
+     */
+    synchronized Foto anadir(String nombre, long tamano, long instanteGuardado, MetadatosCaptura metadatos,
+                             int inicioMiniatura, int longitudMiniatura) throws IOException {
+        comprobarAbierto();
+        Foto foto = new Foto(siguienteId, nombre, tamano,
+                metadatos == null ? instanteGuardado : metadatos.instante(), instanteGuardado,
+                metadatos == null ? null : metadatos.gesto(), metadatos == null ? Double.NaN : metadatos.puntuacion(),
+                inicioMiniatura, inicioMiniatura < 0 ? 0 : longitudMiniatura);
+        bytesVivos += escribir(alta(foto));
+        siguienteId++;
+        indexar(foto);
+        return foto;
+    }
+
+    /**
+     * Función que da de baja una foto, por ejemplo porque se ha borrado su fichero.
+     * @param id identificador de la foto
+     * @return false si no estaba en el catálogo
+     * @throws IOException si no se puede escribir el registro
+     */
+    synchronized boolean eliminar(long id) throws IOException {
+        comprobarAbierto();
+        Foto foto = porId.get(id);
+        if (foto == null) {
+            return false;
+        }
+        ByteBuffer datos = ByteBuffer.allocate(9);
+        datos.put(BAJA).putLong(id).flip();
+        escribir(datos);
+        bytesVivos -= CABECERA_REGISTRO + alta(foto).remaining();
+        porId.remove(id);
+        porInstante.remove(posicion(foto));
+        return true;
+    }
+
+    /**
+     * @param id identificador de la foto
+     * @return foto con ese identificador, o null si no está
+     */
+    synchronized Foto buscar(long id) {
+        return porId.get(id);
+    }
+
+    /**
+     * Función que da las fotos hechas en un intervalo de tiempo.
+     * @param desde milisegundos desde 1970, incluido
+     * @param hasta milisegundos desde 1970, excluido
+     * @return fotos del intervalo ordenadas por instante de captura
+     */
+    synchronized List<Foto> entre(long desde, long hasta) {
+        List<Foto> fotos = new ArrayList<Foto>();
+        for (int i = primeraDesde(desde); i < porInstante.size() && porInstante.get(i).instanteCaptura < hasta; i++) {
+            fotos.add(porInstante.get(i));
+        }
+        return fotos;
+    }
+
+    /**
+     * @return número de fotos en el catálogo
+     */
+    synchronized int tamano() {
+        return porInstante.size();
+    }
+
+    /**
+     * @return bytes del fichero
+     */
+    synchronized long bytesFichero() {
+        return fin;
+    }
+
+    /**
+     * @return bytes del final del fichero que se cortaron al abrir por estar estropeados
+     */
+    synchronized long bytesCortados() {
+        return bytesCortados;
+    }
+
+    /**
+     * @return true si más de la cuarta parte del fichero son registros que ya no sirven
+     */
+    synchronized boolean necesitaCompactar() {
+        long basura = fin - TAMANO_CABECERA - bytesVivos;
+        return basura >= BASURA_MINIMA && basura > (fin - TAMANO_CABECERA) * BASURA_MAXIMA;
+    }
+
+    /**
+     * Función que reescribe el catálogo solo con las fotos que quedan, en un temporal que sustituye al fichero.
+     * Si falla, el catálogo sigue como estaba.
+     * @throws IOException si no se puede escribir o renombrar el temporal
+     */
+    synchronized void compactar() throws IOException {
+        comprobarAbierto();
+        File temporal = new File(fichero.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temporal);
+        long escritos;
+        try {
+            FileChannel salida = out.getChannel();
+            // Por orden de identificador, el mismo en que se dieron de alta.
+            List<Foto> fotos = new ArrayList<Foto>(porId.size());
+            for (long id = 1; id < siguienteId && fotos.size() < porId.size(); id++) {
+                Foto foto = porId.get(id);
+                if (foto != null) {
+                    fotos.add(foto);
+                }
+            }
+            ByteBuffer bloque = ByteBuffer.allocate(64 * 1024);
+            bloque.putInt(MAGICO).putShort(VERSION);
+            escritos = TAMANO_CABECERA;
+            for (Foto foto : fotos) {
+                ByteBuffer registro = registro(alta(foto));
+                if (registro.remaining() > bloque.remaining()) {
+                    volcar(bloque, salida);
+                }
+                escritos += registro.remaining();
+                bloque.put(registro);
+            }
+            volcar(bloque, salida);
+            salida.force(true);
+        } catch (IOException e) {
+            out.close();
+            temporal.delete();
+            throw e;
+        }
+        out.close();
+
+        cerrar();
+        boolean renombrado = temporal.renameTo(fichero);
+        // Se vuelve a abrir el fichero que haya quedado, las fotos en memoria valen para los dos.
+        raf = new RandomAccessFile(fichero, "rw");
+        canal = raf.getChannel();
+        if (!renombrado) {
+            temporal.delete();
+            throw new IOException("No se ha podido renombrar " + temporal + " a " + fichero);
+        }
+        fin = escritos;
+        bytesVivos = escritos - TAMANO_CABECERA;
+    }
+
+    /**
+     * Función que recorre el fichero mapeado y carga las fotos, cortando el final estropeado.
+     */
+    private void cargar() throws IOException {
+        long tamano = canal.size();
+        if (tamano < TAMANO_CABECERA) {
+            // Fichero nuevo, o cortado antes de terminar la cabecera.
+            ByteBuffer cabecera = ByteBuffer.allocate(TAMANO_CABECERA);
+            cabecera.putInt(MAGICO).putShort(VERSION).flip();
+            canal.truncate(0);
+            while (cabecera.hasRemaining()) {
+                canal.write(cabecera, cabecera.position());
+            }
+            fin = TAMANO_CABECERA;
+            bytesCortados = tamano;
+            return;
+        }
+
+        MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, tamano);
+        if (mapa.getInt(0) != MAGICO) {
+            throw new IOException("No es un catálogo de fotos: " + fichero);
+        }
+        if (mapa.getShort(4) != VERSION) {
+            throw new IOException("Versión de catálogo no soportada: " + mapa.getShort(4));
+        }
+
+        byte[] datos = new byte[MAXIMO_REGISTRO];
+        Map<Long, Integer> longitudes = new HashMap<Long, Integer>();
+        long p = TAMANO_CABECERA;
+        while (p + CABECERA_REGISTRO <= tamano) {
+            int longitud = mapa.getInt((int) p);
+            int esperado = mapa.getInt((int) p + 4);
+            if (longitud <= 0 || longitud > MAXIMO_REGISTRO || p + CABECERA_REGISTRO + longitud > tamano) {
+                break;
+            }
+            mapa.position((int) p + CABECERA_REGISTRO);
+            mapa.get(datos, 0, longitud);
+            crc.reset();
+            crc.update(datos, 0, longitud);
+            if ((int) crc.getValue() != esperado || !aplicar(ByteBuffer.wrap(datos, 0, longitud), longitudes)) {
+                break;
+            }
+            p += CABECERA_REGISTRO + longitud;
+        }
+
+        fin = p;
+        bytesCortados = tamano - p;
+        for (int longitud : longitudes.values()) {
+            bytesVivos += CABECERA_REGISTRO + longitud;
+        }
+        if (bytesCortados > 0) {
+            canal.truncate(fin);
+            canal.force(true);
+        }
+    }
+
+    /**
+     * Función que aplica un registro leído al abrir.
+     * @param datos datos del registro
+     * @param longitudes longitud del registro de alta de cada foto viva
+     * @return false si el registro no es válido
+     */
+    private boolean aplicar(ByteBuffer datos, Map<Long, Integer> longitudes) {
+        int longitud = datos.remaining();
+        try {
+            byte tipo = datos.get();
+            long id = datos.getLong();
+            if (tipo == BAJA) {
+                Foto foto = porId.remove(id);
+                if (foto != null) {
+                    porInstante.remove(posicion(foto));
+                    longitudes.remove(id);
+                }
+            } else if (tipo == ALTA) {
+                long instanteCaptura = datos.getLong();
+                long instanteGuardado = datos.getLong();
+                long tamano = datos.getLong();
+                double puntuacion = datos.getDouble();
+                int inicioMiniatura = datos.getInt();
+                int longitudMiniatura = datos.getInt();
+                String nombre = leerTexto(datos);
+                String gesto = leerTexto(datos);
+                if (nombre == null || datos.hasRemaining() || porId.containsKey(id)) {
+                    return false;
+                }
+                indexar(new Foto(id, nombre, tamano, instanteCaptura, instanteGuardado, gesto, puntuacion,
+                        inicioMiniatura, longitudMiniatura));
+                longitudes.put(id, longitud);
+            } else {
+                return false;
+            }
+            siguienteId = Math.max(siguienteId, id + 1);
+            return true;
+        } catch (BufferUnderflowException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return datos del registro de alta de una foto
+     */
+    private static ByteBuffer alta(Foto foto) {
+        byte[] nombre = foto.fichero.getBytes(UTF8);
+        byte[] gesto = foto.gesto == null ? null : foto.gesto.getBytes(UTF8);
+        ByteBuffer datos = ByteBuffer.allocate(1 + 5 * 8 + 2 * 4 + 2 + nombre.length + 2
+                + (gesto == null ? 0 : gesto.length));
+        datos.put(ALTA).putLong(foto.id).putLong(foto.instanteCaptura).putLong(foto.instanteGuardado)
+                .putLong(foto.tamano).putDouble(foto.puntuacion).putInt(foto.inicioMiniatura)
+                .putInt(foto.longitudMiniatura);
+        escribirTexto(datos, nombre);
+        escribirTexto(datos, gesto);
+        if (datos.position() > MAXIMO_REGISTRO) {
+            throw new IllegalArgumentException("Nombre o gesto demasiado largo para el catálogo");
+        }
+        datos.flip();
+        return datos;
+    }
+
+    /**
+     * @return registro completo con longitud y CRC32 de los datos
+     */
+    private ByteBuffer registro(ByteBuffer datos) {
+        crc.reset();
+        crc.update(datos.array(), datos.arrayOffset() + datos.position(), datos.remaining());
+        ByteBuffer registro = ByteBuffer.allocate(CABECERA_REGISTRO + datos.remaining());
+        registro.putInt(datos.remaining()).putInt((int) crc.getValue()).put(datos).flip();
+        return registro;
+    }
+
+    /**
+     * Función que añade un registro al final del fichero.
+     * @return bytes escritos
+     */
+    private int escribir(ByteBuffer datos) throws IOException {
+        ByteBuffer registro = registro(datos);
+        int longitud = registro.remaining();
+        long posicion = fin;
+        while (registro.hasRemaining()) {
+            posicion += canal.write(registro, posicion);
+        }
+        if (forzar) {
+            canal.force(false);
+        }
+        fin = posicion;
+        return longitud;
+    }
+
+    private static void volcar(ByteBuffer bloque, FileChannel salida) throws IOException {
+        bloque.flip();
+        while (bloque.hasRemaining()) {
+            salida.write(bloque);
+        }
+        bloque.clear();
+    }
+
+    private static void escribirTexto(ByteBuffer datos, byte[] texto) {
+        if (texto == null) {
+            datos.putShort((short) -1);
+        } else {
+            datos.putShort((short) texto.length).put(texto);
+        }
+    }
+
+    private static String leerTexto(ByteBuffer datos) {
+        int longitud = datos.getShort();
+        if (longitud < 0) {
+            return null;
+        }
+        if (longitud > datos.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String texto = new String(datos.array(), datos.arrayOffset() + datos.position(), longitud, UTF8);
+        datos.position(datos.position() + longitud);
+        return texto;
+    }
+
+    private void indexar(Foto foto) {
+        porId.put(foto.id, foto);
+        // Las fotos suelen llegar en orden, casi siempre se añaden al final.
+        int ultima = porInstante.size() - 1;
+        if (ultima < 0 || porInstante.get(ultima).instanteCaptura <= foto.instanteCaptura) {
+            porInstante.add(foto);
+        } else {
+            porInstante.add(primeraDesde(foto.instanteCaptura + 1), foto);
+        }
+    }
+
+    /**
+     * @return posición de la primera foto con instante de captura mayor o igual que el dado
+     */
+    private int primeraDesde(long instante) {
+        int bajo = 0;
+        int alto = porInstante.size();
+        while (bajo < alto) {
+            int medio = (bajo + alto) >>> 1;
+            if (porInstante.get(medio).instanteCaptura < instante) {
+                bajo = medio + 1;
+            } else {
+                alto = medio;
+            }
+        }
+        return bajo;
+    }
+
+    /**
+     * @return posición de la foto en porInstante
+     */
+    private int posicion(Foto foto) {
+        for (int i = primeraDesde(foto.instanteCaptura); i < porInstante.size(); i++) {
+            if (porInstante.get(i) == foto) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Foto " + foto.id + " fuera del índice");
+    }
+
+    private void comprobarAbierto() {
+        if (canal == null) {
+            throw new IllegalStateException("El catálogo no está abierto");
+        }
+    }
+}
@@ -0,0 +1,464 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Clase que reduce las muestras de cada gesto a unas pocas representativas. El coste de reconocer crece con el
+ * número de plantillas aunque muchas sean casi iguales, así que las muestras de cada nombre se agrupan por la
+ * distancia entre sus trazos (la misma que usa el reconocedor) y de cada grupo se queda su medoide: la muestra
+ * con menor distancia total al resto del grupo. A diferencia de una media, el medoide es un trazo que se dibujó
+ * de verdad y se puede volver a guardar en el fichero de gestos.
+ *
+ * También se puede usar desde la línea de comandos (o con ./gradlew :core:compactarGestos) para compactar un
+ * fichero de gestos e informar de los aciertos frente al coste con muestras que se apartan para probar:
+ * java CompactadorGestos gestures gestures_compactado [--maximo N | --perdida P] [--prueba gestos] [--cada N]
+ */
+final class CompactadorGestos {
+    /**
+     * Puntuación mínima para dar un gesto por reconocido, la misma que usa CamTestActivity.
+     */
+    static final double UMBRAL = 3.0;
+
+    /**
+     * Límite de intercambios al refinar los medoides, en la práctica se converge en unos pocos.
+     */
+    private static final int MAXIMO_INTERCAMBIOS = 100;
+
+    /**
+     * Resultado de reconocer un conjunto de prueba.
+     */
+    static final class Evaluacion {
+        /**
+         * Número de plantillas de la biblioteca evaluada.
+         */
+        final int plantillas;
+
+        /**
+         * Trazos de prueba reconocidos con su nombre, que no llegan al umbral y que se confunden con otro gesto.
+         */
+        final int aciertos;
+        final int rechazados;
+        final int confundidos;
+
+        Evaluacion(int plantillas, int aciertos, int rechazados, int confundidos) {
+            this.plantillas = plantillas;
+            this.aciertos = aciertos;
+            this.rechazados = rechazados;
+            this.confundidos = confundidos;
+        }
+
+        /**
+         * @return número de trazos de prueba
+         */
+        int pruebas() {
+            return aciertos + rechazados + confundidos;
+        }
+
+        /**
+         * @return fracción de trazos de prueba reconocidos con su nombre, 1 si no hay pruebas
+         */
+        double tasaAciertos() {
+            return pruebas() == 0 ? 1 : aciertos / (double) pruebas();
+        }
+    }
+
+    private CompactadorGestos() {
+    }
+
+    /**
+     * Función que deja como mucho un número de muestras de cada gesto, los medoides de sus grupos. Se quitan las
+     * muestras sin recorrido, que PlantillasGestos descartaría igualmente.
+     * @param gestos muestras de todos los gestos
+     * @param maximoPorGesto número máximo de muestras que se quedan de cada nombre
+     * @return muestras elegidas, agrupadas por nombre y en el orden original dentro de cada nombre
+     */
+    static List<GestoGrabado> compactar(List<GestoGrabado> gestos, int maximoPorGesto) {
+        if (maximoPorGesto <= 0) {
+            throw new IllegalArgumentException("El máximo de muestras por gesto debe ser positivo");
+        }
+        List<GestoGrabado> resultado = new ArrayList<GestoGrabado>();
+        for (List<GestoGrabado> muestras : porNombre(validos(gestos)).values()) {
+            if (muestras.size() <= maximoPorGesto) {
+                resultado.addAll(muestras);
+                continue;
+            }
+            float[][] vectores = new float[muestras.size()][UtilGestos.LONGITUD_VECTOR];
+            for (int i = 0; i < vectores.length; i++) {
+                float[] trazo = muestras.get(i).trazos[0];
+                UtilGestos.vectorizar(trazo, trazo.length, vectores[i]);
+            }
+            int[] elegidos = medoides(distancias(vectores), maximoPorGesto);
+            Arrays.sort(elegidos);
+            for (int i : elegidos) {
+                resultado.add(muestras.get(i));
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Función que busca el menor número de muestras por gesto con el que la tasa de aciertos en las pruebas no
+     * baja más de lo permitido respecto a usar todas las muestras. La tasa crece casi siempre con el número de
+     * muestras, así que se busca por bisección.
+     * @param entrenamiento muestras que se compactan
+     * @param prueba muestras con las que se mide la tasa de aciertos
+     * @param perdidaMaxima pérdida de tasa de aciertos admitida, por ejemplo 0.01 para un punto
+     * @return número de muestras por gesto
+     */
+    static int maximoParaPerdida(List<GestoGrabado> entrenamiento, List<GestoGrabado> prueba, double perdidaMaxima) {
+        int mayor = 1;
+        for (List<GestoGrabado> muestras : porNombre(validos(entrenamiento)).values()) {
+            mayor = Math.max(mayor, muestras.size());
+        }
+        double objetivo = evaluar(validos(entrenamiento), prueba).tasaAciertos() - perdidaMaxima;
+        int desde = 1;
+        int hasta = mayor;
+        while (desde < hasta) {
+            int medio = (desde + hasta) >>> 1;
+            if (evaluar(compactar(entrenamiento, medio), prueba).tasaAciertos() >= objetivo) {
+                hasta = medio;
+            } else {
+                desde = medio + 1;
+            }
+        }
+        return desde;
+    }
+
+    /**
+     * Función que aparta una de cada n muestras de cada nombre para probar. Los nombres con menos de n muestras
+     * se quedan enteros para compactar, así ninguno se queda sin plantillas.
+     * @param gestos muestras de todos los gestos
+     * @param cada una de cada cuántas muestras se aparta, al menos 2
+     * @param entrenamiento lista donde se añaden las muestras que se compactan
+     * @param prueba lista donde se añaden las muestras apartadas
+     */
+    static void dividir(List<GestoGrabado> gestos, int cada, List<GestoGrabado> entrenamiento,
+                        List<GestoGrabado> prueba) {
+        if (cada < 2) {
+            throw new IllegalArgumentException("Hay que apartar como mucho una de cada dos muestras");
+        }
+        for (List<GestoGrabado> muestras : porNombre(gestos).values()) {
+            for (int i = 0; i < muestras.size(); i++) {
+                (i % cada == cada - 1 ? prueba : entrenamiento).add(muestras.get(i));
+            }
+        }
+    }
+
+    /**
+     * Función que reconoce el primer trazo de cada muestra de prueba con una biblioteca, comparando con todas
+     * sus plantillas igual que GestureLibrary.
+     * @param biblioteca muestras de las que se crean las plantillas
+     * @param prueba muestras a reconocer
+     * @return aciertos, rechazos y confusiones
+     */
+    static Evaluacion evaluar(List<GestoGrabado> biblioteca, List<GestoGrabado> prueba) {
+        PlantillasGestos plantillas = PlantillasGestos.desdeGestos(biblioteca);
+        ReconocedorGestos reconocedor = new ReconocedorGestos(plantillas);
+        Predicciones predicciones = new Predicciones(1);
+        int aciertos = 0;
+        int rechazados = 0;
+        int confundidos = 0;
+        for (GestoGrabado gesto : prueba) {
+            float[] trazo = gesto.trazos.length > 0 ? gesto.trazos[0] : new float[0];
+            if (reconocedor.reconocer(trazo, trazo.length, predicciones) == 0
+                    || predicciones.puntuacion(0) < UMBRAL) {
+                rechazados++;
+            } else if (predicciones.nombre(0).equals(gesto.nombre)) {
+                aciertos++;
+            } else {
+                confundidos++;
+            }
+        }
+        return new Evaluacion(plantillas.tamano(), aciertos, rechazados, confundidos);
+    }
+
+    /**
+     * Función que mide lo que se tarda en reconocer cada trazo de prueba con una biblioteca. Se repite hasta
+     * tener una medida estable y se queda con la vuelta más rápida.
+     * @param biblioteca muestras de las que se crean las plantillas
+     * @param prueba muestras a reconocer
+     * @return microsegundos por trazo
+     */
+    static double microsegundosPorTrazo(List<GestoGrabado> biblioteca, List<GestoGrabado> prueba) {
+        ReconocedorGestos reconocedor = new ReconocedorGestos(PlantillasGestos.desdeGestos(biblioteca));
+        Predicciones predicciones = new Predicciones(1);
+        List<float[]> trazos = new ArrayList<float[]>();
+        for (GestoGrabado gesto : validos(prueba)) {
+            trazos.add(gesto.trazos[0]);
+        }
+        if (trazos.isEmpty()) {
+            return 0;
+        }
+        long mejor = Long.MAX_VALUE;
+        long total = 0;
+        for (int vuelta = 0; vuelta < 5 || (total < 200000000L && vuelta < 1000); vuelta++) {
+            long inicio = System.nanoTime();
+            for (float[] trazo : trazos) {
+                reconocedor.reconocer(trazo, trazo.length, predicciones);
+            }
+            long duracion = System.nanoTime() - inicio;
+            mejor = Math.min(mejor, duracion);
+            total += duracion;
+        }
+        return mejor / 1000.0 / trazos.size();
+    }
+
+    /**
+     * Función que elige k medoides: primero uno a uno el que más reduce la distancia total de cada muestra a su
+     * medoide más cercano, y después se intercambia un medoide por otra muestra mientras la mejore (PAM).
+     * @param distancias matriz simétrica de distancias entre las muestras
+     * @param k número de medoides, menor que el número de muestras
+     * @return índices de las muestras elegidas
+     */
+    static int[] medoides(float[][] distancias, int k) {
+        final int n = distancias.length;
+        int[] medoides = new int[k];
+        boolean[] elegida = new boolean[n];
+        float[] cercana = new float[n];
+        Arrays.fill(cercana, Float.MAX_VALUE);
+        for (int m = 0; m < k; m++) {
+            int mejor = -1;
+            double mejorCoste = Double.MAX_VALUE;
+            for (int c = 0; c < n; c++) {
+                if (elegida[c]) {
+                    continue;
+                }
+                double coste = 0;
+                for (int j = 0; j < n; j++) {
+                    coste += Math.min(cercana[j], distancias[c][j]);
+                }
+                if (coste < mejorCoste) {
+                    mejorCoste = coste;
+                    mejor = c;
+                }
+            }
+            medoides[m] = mejor;
+            elegida[mejor] = true;
+            for (int j = 0; j < n; j++) {
+                cercana[j] = Math.min(cercana[j], distancias[mejor][j]);
+            }
+        }
+
+        // Para cada muestra, su medoide más cercano y la distancia al segundo: así el coste de cambiar un
+        // medoide se calcula en una pasada por las muestras.
+        int[] masCercano = new int[n];
+        float[] segunda = new float[n];
+        for (int intercambio = 0; intercambio < MAXIMO_INTERCAMBIOS; intercambio++) {
+            double costeActual = 0;
+            for (int j = 0; j < n; j++) {
+                float primera = Float.MAX_VALUE;
+                segunda[j] = Float.MAX_VALUE;
+                for (int m = 0; m < k; m++) {
+                    float d = distancias[medoides[m]][j];
+                    if (d < primera) {
+                        segunda[j] = primera;
+                        primera = d;
+                        masCercano[j] = m;
+                    } else if (d < segunda[j]) {
+                        segunda[j] = d;
+                    }
+                }
+                cercana[j] = primera;
+                costeActual += primera;
+            }
+
+            double mejorCoste = costeActual;
+            int mejorMedoide = -1;
+            int mejorSustituta = -1;
+            for (int m = 0; m < k; m++) {
+                for (int c = 0; c < n; c++) {
+                    if (elegida[c]) {
+                        continue;
+                    }
+                    double coste = 0;
+                    for (int j = 0; j < n; j++) {
+                        float resto = masCercano[j] == m ? segunda[j] : cercana[j];
+                        coste += Math.min(resto, distancias[c][j]);
+                    }
+                    if (coste < mejorCoste - 1e-6) {
+                        mejorCoste = coste;
+                        mejorMedoide = m;
+                        mejorSustituta = c;
+                    }
+                }
+            }
+            if (mejorMedoide < 0) {
+                break;
+            }
+            elegida[medoides[mejorMedoide]] = false;
+            elegida[mejorSustituta] = true;
+            medoides[mejorMedoide] = mejorSustituta;
+        }
+        return medoides;
+    }
+
+    /**
+     * Función que calcula la distancia entre cada par de vectores, la misma que usa el reconocedor.
+     * @param vectores vectores calculados con UtilGestos.vectorizar
+     * @return matriz simétrica de distancias en radianes
+     */
+    static float[][] distancias(float[][] vectores) {
+        final int n = vectores.length;
+        float[][] distancias = new float[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                float a = 0;
+                float b = 0;
+                float[] u = vectores[i];
+                float[] v = vectores[j];
+                for (int p = 0; p < UtilGestos.LONGITUD_VECTOR; p += 2) {
+                    a += u[p] * v[p] + u[p + 1] * v[p + 1];
+                    b += u[p] * v[p + 1] - u[p + 1] * v[p];
+                }
+                float d = UtilGestos.distanciaDesdeProductos(a, b, UtilGestos.ORIENTACIONES_SENSIBLE);
+                distancias[i][j] = d;
+                distancias[j][i] = d;
+            }
+        }
+        return distancias;
+    }
+
+    /**
+     * @return las muestras cuyo primer trazo se puede vectorizar
+     */
+    private static List<GestoGrabado> validos(List<GestoGrabado> gestos) {
+        List<GestoGrabado> resultado = new ArrayList<GestoGrabado>();
+        float[] vector = new float[UtilGestos.LONGITUD_VECTOR];
+        for (GestoGrabado gesto : gestos) {
+            if (gesto.trazos.length > 0 && UtilGestos.vectorizar(gesto.trazos[0], gesto.trazos[0].length, vector)) {
+                resultado.add(gesto);
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * @return las muestras agrupadas por nombre, en el orden en que aparece cada nombre por primera vez
+     */
+    private static Map<String, List<GestoGrabado>> porNombre(List<GestoGrabado> gestos) {
+        Map<String, List<GestoGrabado>> grupos = new LinkedHashMap<String, List<GestoGrabado>>();
+        for (GestoGrabado gesto : gestos) {
+            List<GestoGrabado> muestras = grupos.get(gesto.nombre);
+            if (muestras == null) {
+                muestras = new ArrayList<GestoGrabado>();
+                grupos.put(gesto.nombre, muestras);
+            }
+            muestras.add(gesto);
+        }
+        return grupos;
+    }
+
+    private static List<GestoGrabado> leer(String fichero) throws IOException {
+        InputStream in = new FileInputStream(fichero);
+        try {
+            return LectorGestos.leer(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Compactador de línea de comandos. Se prueba con el fichero indicado en --prueba o, si no, con una de cada
+     * --cada muestras (5 por defecto) del propio fichero. Sin --maximo se busca el menor número de muestras que
+     * no pierde más de --perdida (0.01 por defecto) de tasa de aciertos. El fichero de salida se compacta desde
+     * todas las muestras de la entrada.
+     * @param args fichero de gestos de entrada, fichero de gestos de salida y opciones
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length % 2 != 0) {
+            uso();
+        }
+        int maximo = 0;
+        double perdida = 0.01;
+        String ficheroPrueba = null;
+        int cada = 5;
+        for (int i = 2; i < args.length; i += 2) {
+            if ("--maximo".equals(args[i])) {
+                maximo = Integer.parseInt(args[i + 1]);
+            } else if ("--perdida".equals(args[i])) {
+                perdida = Double.parseDouble(args[i + 1]);
+            } else if ("--prueba".equals(args[i])) {
+                ficheroPrueba = args[i + 1];
+            } else if ("--cada".equals(args[i])) {
+                cada = Integer.parseInt(args[i + 1]);
+            } else {
+                uso();
+            }
+        }
+
+        List<GestoGrabado> gestos = leer(args[0]);
+        List<GestoGrabado> entrenamiento = new ArrayList<GestoGrabado>();
+        List<GestoGrabado> prueba = new ArrayList<GestoGrabado>();
+        if (ficheroPrueba != null) {
+            entrenamiento.addAll(gestos);
+            prueba.addAll(leer(ficheroPrueba));
+        } else {
+            dividir(gestos, cada, entrenamiento, prueba);
+        }
+        if (maximo <= 0) {
+            maximo = maximoParaPerdida(entrenamiento, prueba, perdida);
+        }
+
+        System.out.println(String.format(Locale.US, "%d muestras de %d gestos: %d para compactar y %d de prueba",
+                gestos.size(), porNombre(gestos).size(), entrenamiento.size(), prueba.size()));
+        if (prueba.isEmpty()) {
+            System.out.println("Ningún gesto tiene muestras suficientes para apartar, usar --prueba para medir aciertos");
+        }
+        System.out.println(String.format(Locale.US, "%8s %10s %9s %9s %9s %9s",
+                "maximo", "plantillas", "aciertos", "rechazos", "errores", "us/trazo"));
+        List<Integer> maximos = new ArrayList<Integer>();
+        for (int k = 1; k < maximo; k += Math.max(1, k / 2)) {
+            maximos.add(k);
+        }
+        maximos.add(maximo);
+        for (int k : maximos) {
+            informar(String.valueOf(k), compactar(entrenamiento, k), prueba);
+        }
+        informar("todas", validos(entrenamiento), prueba);
+
+        List<GestoGrabado> compactado = compactar(gestos, maximo);
+        EscritorGestos.guardar(compactado, new File(args[1]));
+        System.out.println(String.format(Locale.US, "Como mucho %d muestras por gesto: %d de %d guardadas en %s",
+                maximo, compactado.size(), gestos.size(), args[1]));
+    }
+
+    private static void informar(String maximo, List<GestoGrabado> biblioteca, List<GestoGrabado> prueba) {
+        Evaluacion evaluacion = evaluar(biblioteca, prueba);
+        double pruebas = Math.max(1, evaluacion.pruebas());
+        System.out.println(String.format(Locale.US, "%8s %10d %8.1f%% %8.1f%% %8.1f%% %9.2f", maximo,
+                evaluacion.plantillas, evaluacion.aciertos * 100 / pruebas, evaluacion.rechazados * 100 / pruebas,
+                evaluacion.confundidos * 100 / pruebas, microsegundosPorTrazo(biblioteca, prueba)));
+    }
+
+    private static void uso() {
+        System.err.println("Uso: CompactadorGestos <fichero de gestos> <fichero de salida> [--maximo N | "
+                + "--perdida P] [--prueba <fichero de gestos>] [--cada N]");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+/**
+ * Clase que calcula dónde va la vista previa dentro de su contenedor para que se vea entera, centrada y sin
+ * deformarse. Recuerda el último cálculo y solo lo repite cuando cambia el tamaño del contenedor o el de la vista
+ * previa, no en cada pasada de medida o de layout. No se puede usar desde varios hilos.
+ */
+final class EncuadreVista {
+    /**
+     * Último tamaño del contenedor y de la vista previa con el que se calculó, ancho -1 si todavía ninguno.
+     */
+    private int ancho = -1, alto, anchoVista, altoVista;
+
+    /**
+     * Rectángulo de la vista previa dentro del contenedor.
+     */
+    private int izquierda, arriba, derecha, abajo;
+
+    /**
+     * Veces que se ha calculado de verdad.
+     */
+    private int calculos;
+
+    /**
+     * Función que ajusta el encuadre a un tamaño de contenedor y de vista previa. Si la vista previa no tiene
+     * tamaño ocupa todo el contenedor.
+     * @param ancho ancho del contenedor
+     * @param alto alto del contenedor
+     * @param anchoVista ancho de la vista previa, 0 si todavía no se sabe
+     * @param altoVista alto de la vista previa, 0 si todavía no se sabe
+     * @return true si el rectángulo ha cambiado desde la llamada anterior
+     */
+    boolean ajustar(int ancho, int alto, int anchoVista, int altoVista) {
+        if (anchoVista <= 0 || altoVista <= 0) {
+            anchoVista = ancho;
+            altoVista = alto;
+        }
+        if (ancho == this.ancho && alto == this.alto && anchoVista == this.anchoVista
+                && altoVista == this.altoVista) {
+            return false;
+        }
+        this.ancho = ancho;
+        this.alto = alto;
+        this.anchoVista = anchoVista;
+        this.altoVista = altoVista;
+        calculos++;
+
+        int izquierda = 0, arriba = 0, derecha = ancho, abajo = alto;
+        if (anchoVista > 0 && altoVista > 0) {
+            // Bandas a los lados si el contenedor es más ancho que la vista previa, arriba y abajo si no.
+            if ((long) ancho * altoVista > (long) alto * anchoVista) {
+                int anchoEscalado = (int) ((long) anchoVista * alto / altoVista);
+                izquierda = (ancho - anchoEscalado) / 2;
+                derecha = (ancho + anchoEscalado) / 2;
+            } else {
+                int altoEscalado = (int) ((long) altoVista * ancho / anchoVista);
+                arriba = (alto - altoEscalado) / 2;
+                abajo = (alto + altoEscalado) / 2;
+            }
+        }
+        boolean cambia = izquierda != this.izquierda || arriba != this.arriba || derecha != this.derecha
+                || abajo != this.abajo;
+        this.izquierda = izquierda;
+        this.arriba = arriba;
+        this.derecha = derecha;
+        this.abajo = abajo;
+        return cambia;
+    }
+
+    int izquierda() {
+        return izquierda;
+    }
+
+    int arriba() {
+        return arriba;
+    }
+
+    int derecha() {
+        return derecha;
+    }
+
+    int abajo() {
+        return abajo;
+    }
+
+    /**
+     * @return veces que se ha calculado el rectángulo, sin contar las llamadas con los mismos tamaños
+     */
+    int calculos() {
+        return calculos;
+    }
+}
@@ -0,0 +1,702 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clase que guarda las fotos en disco desde un único hilo propio, sustituye a SaveImageTask.
+ *
+ * Las fotos se encolan en una cola de tamaño fijo; si está llena encolar devuelve false para que quien hace
+ * las fotos pueda esperar. Cada foto se escribe con un FileChannel en un fichero temporal, se fuerza a disco y
+ * se renombra, así en la galería nunca aparece una foto a medias. Los nombres se basan en la hora pero nunca se
+ * repiten aunque se hagan varias fotos en el mismo milisegundo.
+ *
+ * La galería no se avisa foto a foto: las rutas se acumulan y se pasan al Escaner de una vez cuando hay
+ * fotosPorLote o cuando pasan msPorLote desde la primera pendiente.
+ *
+ * Si se da una TrazaCaptura, cada foto encolada con su captura anota las etapas GUARDADA y GALERIA.
+ *
+ * La cabecera de cada foto se recorre una vez con SegmentosJpeg, sin decodificar la imagen: el tamaño, la
+ * orientación y la posición de la miniatura EXIF en el fichero guardado se pasan al oyente en una FotoGuardada.
+ * Las fotos encoladas con MetadatosCaptura se escriben con un segmento XMP más: el fichero se escribe en una sola
+ * escritura agrupada con la cabecera, el segmento y el resto de la foto, sin copiar los datos de la imagen.
+ *
+ * Si se da un CatalogoFotos, el hilo del escritor lo abre al empezar, lo compacta si hace falta y añade cada
+ * foto guardada con su tamaño, los datos de la captura y la posición de la miniatura EXIF en el fichero.
+ */
+final class EscritorFotos {
+    /**
+     * Interfaz para avisar a la galería de fotos nuevas (MediaScannerConnection en Android).
+     */
+    interface Escaner {
+        /**
+         * @param rutas rutas absolutas de las fotos nuevas
+         */
+        void escanear(String[] rutas);
+    }
+
+    /**
+     * Interfaz para saber el resultado de cada foto. Se llama desde el hilo del escritor.
+     */
+    interface Oyente {
+        /**
+         * @param foto fichero donde ha quedado la foto y datos leídos de su cabecera
+         * @param latenciaNanos tiempo desde que se encoló hasta que quedó en disco
+         */
+        void fotoGuardada(FotoGuardada foto, long latenciaNanos);
+
+        /**
+         * @param fichero fichero que se intentaba escribir
+         * @param e error producido
+         */
+        void errorAlGuardar(File fichero, IOException e);
+
+        /**
+         * Función llamada cuando el escritor ya no usa los datos de una foto, se haya guardado o no,
+         * para poder reutilizar el buffer.
+         * @param datos datos pasados a encolar
+         */
+        void datosLibres(byte[] datos);
+    }
+
+    /**
+     * Datos de una foto guardada, leídos de la cabecera del JPEG al guardarla. La miniatura se da como posición
+     * en el fichero guardado y no como vista de los datos de la cámara, que se reutilizan después de guardar.
+     */
+    static final class FotoGuardada {
+        /** Fichero donde ha quedado la foto y sus bytes. */
+        final File fichero;
+        final long tamano;
+        /** Ancho y alto de la imagen, 0 si los datos no son un JPEG. */
+        final int ancho;
+        final int alto;
+        /** Orientación EXIF (1 a 8), SegmentosJpeg.ORIENTACION_NORMAL si no está indicada. */
+        final int orientacion;
+        /** Posición y longitud de la miniatura EXIF dentro del fichero, -1 y 0 si no tiene. */
+        final int inicioMiniatura;
+        final int longitudMiniatura;
+
+        FotoGuardada(File fichero, long tamano, int ancho, int alto, int orientacion, int inicioMiniatura,
+                     int longitudMiniatura) {
+            this.fichero = fichero;
+            this.tamano = tamano;
+            this.ancho = ancho;
+            this.alto = alto;
+            this.orientacion = orientacion;
+            this.inicioMiniatura = inicioMiniatura;
+            this.longitudMiniatura = longitudMiniatura;
+        }
+
+        /**
+         * Función que lee la miniatura EXIF del fichero guardado, sin leer el resto de la foto.
+         * @return JPEG de la miniatura, o null si la foto no tiene
+         * @throws IOException si no se puede leer el fichero
+         */
+        byte[] leerMiniatura() throws IOException {
+            if (longitudMiniatura <= 0) {
+                return null;
+            }
+            RandomAccessFile raf = new RandomAccessFile(fichero, "r");
+            try {
+                byte[] miniatura = new byte[longitudMiniatura];
+                raf.seek(inicioMiniatura);
+                raf.readFully(miniatura);
+                return miniatura;
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * Formas de escribir el fichero de una foto: con FileOutputStream.write o con FileChannel.write. El escritor
+     * usa CANAL forzando a disco; las demás combinaciones están para compararlas en las medidas.
+     */
+    enum Escritura {
+        FLUJO, CANAL
+    }
+
+    /**
+     * Foto pendiente de escribir.
+     */
+    private static final class Peticion {
+        final byte[] datos;
+        final int longitud;
+        final int captura;
+        final MetadatosCaptura metadatos;
+        final String nombre;
+        final long encolada;
+
+        Peticion(byte[] datos, int longitud, int captura, MetadatosCaptura metadatos, String nombre, long encolada) {
+            this.datos = datos;
+            this.longitud = longitud;
+            this.captura = captura;
+            this.metadatos = metadatos;
+            this.nombre = nombre;
+            this.encolada = encolada;
+        }
+    }
+
+    /**
+     * Petición especial que indica al hilo que termine.
+     */
+    private static final Peticion FIN = new Peticion(null, 0, 0, null, null, 0);
+
+    private final File directorio;
+    private final BlockingQueue<Peticion> cola;
+    private final int fotosPorLote;
+    private final long nanosPorLote;
+    private final Escaner escaner;
+    private final Oyente oyente;
+    private final TrazaCaptura traza;
+    private final CatalogoFotos catalogo;
+    private final Thread hilo;
+
+    /**
+     * Si se ha pedido cerrar: ya no se encolan fotos y el hilo termina en cuanto vacíe la cola.
+     */
+    private volatile boolean cerrando;
+
+    /**
+     * Si el catálogo se ha podido abrir. Solo lo usa el hilo del escritor.
+     */
+    private boolean catalogoAbierto;
+
+    /**
+     * Último instante usado para un nombre, para que los nombres sean siempre crecientes.
+     */
+    private final AtomicLong ultimoNombre = new AtomicLong();
+
+    /**
+     * Rutas pendientes de pasar a la galería y cuándo se añadió la primera. Solo las usa el hilo del escritor.
+     */
+    private final List<String> lote = new ArrayList<String>();
+    private final List<Integer> capturasLote = new ArrayList<Integer>();
+    private long inicioLote;
+
+    /**
+     * Estadísticas, las escribe solo el hilo del escritor.
+     */
+    private volatile long guardadas;
+    private volatile long errores;
+    private volatile long latenciaTotal;
+    private volatile long latenciaMaxima;
+    private volatile long escrituraTotal;
+    private volatile long escrituraMaxima;
+
+    /**
+     * Constructor de la clase, el hilo no empieza hasta llamar a iniciar.
+     * @param directorio directorio donde se guardan las fotos, se crea si no existe
+     * @param capacidad número máximo de fotos en cola
+     * @param fotosPorLote número de fotos con las que se avisa a la galería
+     * @param msPorLote tiempo máximo que una foto espera para avisar a la galería
+     * @param escaner aviso a la galería
+     * @param oyente resultado de cada foto
+     */
+    EscritorFotos(File directorio, int capacidad, int fotosPorLote, long msPorLote, Escaner escaner, Oyente oyente) {
+        this(directorio, capacidad, fotosPorLote, msPorLote, escaner, oyente, null);
+    }
+
+    /**
+     * Constructor de la clase con traza de las capturas, el hilo no empieza hasta llamar a iniciar.
+     * @param directorio directorio donde se guardan las fotos, se crea si no existe
+     * @param capacidad número máximo de fotos en cola
+     * @param fotosPorLote número de fotos con las que se avisa a la galería
+     * @param msPorLote tiempo máximo que una foto espera para avisar a la galería
+     * @param escaner aviso a la galería
+     * @param oyente resultado de cada foto
+     * @param traza traza donde se anota cuándo se guarda cada foto y cuándo se pasa a la galería, puede ser null
+     */
+    EscritorFotos(File directorio, int capacidad, int fotosPorLote, long msPorLote, Escaner escaner, Oyente oyente,
+                  TrazaCaptura traza) {
+        this(directorio, capacidad, fotosPorLote, msPorLote, escaner, oyente, traza, null);
+    }
+
+    /**
+     * Constructor de la clase con traza y catálogo de las fotos, el hilo no empieza hasta llamar a iniciar.
+     * @param directorio directorio donde se guardan las fotos, se crea si no existe
+     * @param capacidad número máximo de fotos en cola
+     * @param fotosPorLote número de fotos con las que se avisa a la galería
+     * @param msPorLote tiempo máximo que una foto espera para avisar a la galería
+     * @param escaner aviso a la galería
+     * @param oyente resultado de cada foto
+     * @param traza traza donde se anota cuándo se guarda cada foto y cuándo se pasa a la galería, puede ser null
+     * @param catalogo catálogo sin abrir donde se añade cada foto guardada, puede ser null
+     */
+    EscritorFotos(File directorio, int capacidad, int fotosPorLote, long msPorLote, Escaner escaner, Oyente oyente,
+                  TrazaCaptura traza, CatalogoFotos catalogo) {
+        this.directorio = directorio;
+        this.cola = new ArrayBlockingQueue<Peticion>(capacidad);
+        this.fotosPorLote = fotosPorLote;
+        this.nanosPorLote = TimeUnit.MILLISECONDS.toNanos(msPorLote);
+        this.escaner = escaner;
+        this.oyente = oyente;
+        this.traza = traza;
+        this.catalogo = catalogo;
+        this.hilo = new Thread(new Runnable() {
+            public void run() {
+                bucle();
+            }
+        }, "EscritorFotos");
+    }
+
+    /**
+     * Función que arranca el hilo del escritor.
+     */
+    void iniciar() {
+        hilo.start();
+    }
+
+    /**
+     * Función que encola una foto sin esperar.
+     * @param datos contenido JPEG de la foto, no se debe modificar hasta que se guarde
+     * @param longitud bytes válidos en datos
+     * @return false si la cola está llena y la foto no se ha encolado
+     */
+    boolean encolar(byte[] datos, int longitud) {
+        return encolarCaptura(datos, longitud, 0);
+    }
+
+    /**
+     * Función que encola sin esperar la foto de una captura que se está trazando.
+     * @param datos contenido JPEG de la foto, no se debe modificar hasta que se guarde
+     * @param longitud bytes válidos en datos
+     * @param captura identificador de la captura en la traza, 0 si no se traza
+     * @return false si la cola está llena y la foto no se ha encolado
+     */
+    boolean encolarCaptura(byte[] datos, int longitud, int captura) {
+        return encolarCaptura(datos, longitud, captura, null);
+    }
+
+    /**
+     * Función que encola sin esperar la foto de una captura con los datos que se guardan dentro de ella.
+     * @param datos contenido JPEG de la foto, no se debe modificar hasta que se guarde
+     * @param longitud bytes válidos en datos
+     * @param captura identificador de la captura en la traza, 0 si no se traza
+     * @param metadatos datos de la captura que se añaden como XMP, null para guardar la foto tal cual
+     * @return false si la cola está llena y la foto no se ha encolado
+     */
+    boolean encolarCaptura(byte[] datos, int longitud, int captura, MetadatosCaptura metadatos) {
+        return !cerrando && cola.offer(new Peticion(datos, longitud, captura, metadatos, siguienteNombre(),
+                System.nanoTime()));
+    }
+
+    /**
+     * Función que encola una foto esperando como mucho el tiempo indicado si la cola está llena.
+     * @param datos contenido JPEG de la foto, no se debe modificar hasta que se guarde
+     * @param longitud bytes válidos en datos
+     * @param espera milisegundos máximos de espera
+     * @return false si la cola ha seguido llena y la foto no se ha encolado
+     * @throws InterruptedException si se interrumpe la espera
+     */
+    boolean encolar(byte[] datos, int longitud, long espera) throws InterruptedException {
+        return !cerrando && cola.offer(new Peticion(datos, longitud, 0, null, siguienteNombre(), System.nanoTime()),
+                espera, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Función que pide al hilo que termine después de guardar las fotos encoladas y avisar a la galería.
+     * No espera nunca, se puede llamar desde el hilo principal: si la cola está llena, el hilo termina al vaciarla.
+     */
+    void cerrar() {
+        cerrando = true;
+        cola.offer(FIN);
+    }
+
+    /**
+     * Función que espera a que el hilo termine después de cerrar.
+     * @throws InterruptedException si se interrumpe la espera
+     */
+    void esperarFin() throws InterruptedException {
+        hilo.join();
+    }
+
+    /**
+     * @return fotos esperando en la cola
+     */
+    int profundidad() {
+        return cola.size();
+    }
+
+    /**
+     * @return fotos guardadas correctamente
+     */
+    long guardadas() {
+        return guardadas;
+    }
+
+    /**
+     * @return fotos que no se han podido guardar
+     */
+    long errores() {
+        return errores;
+    }
+
+    /**
+     * @return tiempo medio en milisegundos desde que se encola una foto hasta que queda en disco
+     */
+    double latenciaMediaMs() {
+        long n = guardadas;
+        return n == 0 ? 0 : latenciaTotal / 1e6 / n;
+    }
+
+    /**
+     * @return tiempo máximo en milisegundos desde que se encola una foto hasta que queda en disco
+     */
+    double latenciaMaximaMs() {
+        return latenciaMaxima / 1e6;
+    }
+
+    /**
+     * @return tiempo medio en milisegundos de la escritura (sin la espera en cola)
+     */
+    double escrituraMediaMs() {
+        long n = guardadas;
+        return n == 0 ? 0 : escrituraTotal / 1e6 / n;
+    }
+
+    /**
+     * @return tiempo máximo en milisegundos de la escritura (sin la espera en cola)
+     */
+    double escrituraMaximaMs() {
+        return escrituraMaxima / 1e6;
+    }
+
+    /**
+     * Función que da el siguiente nombre de foto: los milisegundos actuales, o uno más que el anterior si coinciden.
+     */
+    private String siguienteNombre() {
+        while (true) {
+            long anterior = ultimoNombre.get();
+            long instante = Math.max(System.currentTimeMillis(), anterior + 1);
+            if (ultimoNombre.compareAndSet(anterior, instante)) {
+                return instante + ".jpg";
+            }
+        }
+    }
+
+    /**
+     * Bucle del hilo del escritor.
+     */
+    private void bucle() {
+        // Si no se puede crear, el error se avisa con la primera foto.
+        directorio.mkdirs();
+        abrirCatalogo();
+        try {
+            while (true) {
+                Peticion peticion;
+                if (lote.isEmpty()) {
+                    peticion = cola.take();
+                } else {
+                    long restante = inicioLote + nanosPorLote - System.nanoTime();
+                    peticion = restante > 0 ? cola.poll(restante, TimeUnit.NANOSECONDS) : null;
+                }
+
+                if (peticion == null) {
+                    avisarGaleria();
+                } else if (peticion == FIN) {
+                    break;
+                } else {
+                    try {
+                        guardar(peticion);
+                    } catch (RuntimeException e) {
+                        // Un fallo en una foto no puede parar el hilo, las siguientes se quedarían en la cola.
+                        errores++;
+                        avisarError(new File(directorio, peticion.nombre), inesperado(e));
+                    } finally {
+                        liberar(peticion);
+                    }
+                    if (lote.size() >= fotosPorLote) {
+                        avisarGaleria();
+                    }
+                }
+                if (cerrando && cola.isEmpty()) {
+                    // Se pidió cerrar con la cola llena y no cupo FIN.
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        avisarGaleria();
+    }
+
+    /**
+     * Función que escribe una foto en un temporal, la fuerza a disco y la renombra.
+     */
+    private void guardar(Peticion peticion) {
+        long inicio = System.nanoTime();
+        File destino = new File(directorio, peticion.nombre);
+        for (int i = 1; destino.exists(); i++) {
+            // Solo puede pasar si el reloj ha ido hacia atrás desde la última vez que se usó la aplicación.
+            destino = new File(directorio, peticion.nombre.replace(".jpg", "_" + i + ".jpg"));
+        }
+        File temporal = new File(directorio, "." + destino.getName() + ".tmp");
+
+        SegmentosJpeg segmentos = null;
+        ByteBuffer segmento = null;
+        long tamano = peticion.longitud;
+        try {
+            segmentos = analizar(peticion.datos, peticion.longitud);
+            segmento = segmentos != null && peticion.metadatos != null ? peticion.metadatos.segmentoXmp() : null;
+            if (segmento != null) {
+                tamano = escribir(temporal, segmentos.conSegmento(segmento), true);
+            } else {
+                escribir(temporal, peticion.datos, peticion.longitud, Escritura.CANAL, true);
+            }
+            if (!temporal.renameTo(destino)) {
+                throw new IOException("No se ha podido renombrar " + temporal + " a " + destino);
+            }
+        } catch (IOException e) {
+            temporal.delete();
+            errores++;
+            avisarError(destino, e);
+            return;
+        } catch (RuntimeException e) {
+            temporal.delete();
+            errores++;
+            avisarError(destino, inesperado(e));
+            return;
+        }
+
+        long fin = System.nanoTime();
+        long latencia = fin - peticion.encolada;
+        long escritura = fin - inicio;
+        latenciaTotal += latencia;
+        latenciaMaxima = Math.max(latenciaMaxima, latencia);
+        escrituraTotal += escritura;
+        escrituraMaxima = Math.max(escrituraMaxima, escritura);
+        guardadas++;
+
+        if (traza != null) {
+            traza.anotar(peticion.captura, TrazaCaptura.Etapa.GUARDADA, fin);
+        }
+        if (lote.isEmpty()) {
+            inicioLote = fin;
+        }
+        lote.add(destino.getAbsolutePath());
+        capturasLote.add(peticion.captura);
+        FotoGuardada foto = segmentos == null ? new FotoGuardada(destino, tamano, 0, 0,
+                SegmentosJpeg.ORIENTACION_NORMAL, -1, 0)
+                : new FotoGuardada(destino, tamano, segmentos.ancho(), segmentos.alto(), segmentos.orientacion(),
+                segmentos.posicionMiniatura(segmento), segmentos.longitudMiniatura());
+        if (catalogoAbierto) {
+            catalogar(foto, peticion.metadatos);
+        }
+        try {
+            oyente.fotoGuardada(foto, latencia);
+        } catch (RuntimeException e) {
+            // La foto ya está guardada y contada, el fallo es del oyente.
+            avisarError(destino, inesperado(e));
+        }
+    }
+
+    /**
+     * Función que abre el catálogo y lo compacta si tiene mucho espacio sin usar. Si no se puede abrir, se
+     * avisa y las fotos se guardan sin catálogo.
+     */
+    private void abrirCatalogo() {
+        if (catalogo == null) {
+            return;
+        }
+        try {
+            catalogo.abrir();
+            catalogoAbierto = true;
+            if (catalogo.necesitaCompactar()) {
+                catalogo.compactar();
+            }
+        } catch (IOException e) {
+            avisarError(catalogo.fichero(), e);
+        } catch (RuntimeException e) {
+            // Un catálogo dañado tampoco puede dejar al escritor sin hilo.
+            catalogoAbierto = false;
+            avisarError(catalogo.fichero(), inesperado(e));
+        }
+    }
+
+    /**
+     * Función que añade una foto guardada al catálogo.
+     * @param foto foto guardada con los datos de su cabecera
+     * @param metadatos datos de la captura, puede ser null
+     */
+    private void catalogar(FotoGuardada foto, MetadatosCaptura metadatos) {
+        try {
+            catalogo.anadir(foto.fichero.getName(), foto.tamano, System.currentTimeMillis(), metadatos,
+                    foto.inicioMiniatura, foto.longitudMiniatura);
+        } catch (IOException e) {
+            avisarError(catalogo.fichero(), e);
+        } catch (RuntimeException e) {
+            // Por ejemplo un nombre de gesto demasiado largo, la foto ya está guardada.
+            avisarError(catalogo.fichero(), inesperado(e));
+        }
+    }
+
+    /**
+     * Función que pasa un error al oyente. Si el propio oyente falla no se puede avisar a nadie más, pero el hilo
+     * sigue con las demás fotos.
+     */
+    private void avisarError(File fichero, IOException e) {
+        try {
+            oyente.errorAlGuardar(fichero, e);
+        } catch (RuntimeException ignorada) {
+            // Nada más que hacer.
+        }
+    }
+
+    /**
+     * Función que devuelve los datos de una petición al oyente, haya ido bien o no.
+     */
+    private void liberar(Peticion peticion) {
+        try {
+            oyente.datosLibres(peticion.datos);
+        } catch (RuntimeException e) {
+            avisarError(new File(directorio, peticion.nombre), inesperado(e));
+        }
+    }
+
+    /**
+     * Función que envuelve un error inesperado para pasarlo al oyente como los de entrada y salida.
+     */
+    private static IOException inesperado(RuntimeException e) {
+        return new IOException("Error inesperado: " + e, e);
+    }
+
+    /**
+     * Función que escribe datos en un fichero, creándolo o sustituyendo su contenido.
+     * @param fichero fichero destino
+     * @param datos datos a escribir
+     * @param longitud bytes válidos en datos
+     * @param escritura forma de escribir
+     * @param forzar si se espera a que los datos estén en disco (fsync) antes de volver
+     * @throws IOException si falla la escritura
+     */
+    static void escribir(File fichero, byte[] datos, int longitud, Escritura escritura, boolean forzar)
+            throws IOException {
+        FileOutputStream out = new FileOutputStream(fichero);
+        try {
+            if (escritura == Escritura.CANAL) {
+                FileChannel canal = out.getChannel();
+                ByteBuffer buffer = ByteBuffer.wrap(datos, 0, longitud);
+                while (buffer.hasRemaining()) {
+                    canal.write(buffer);
+                }
+                if (forzar) {
+                    canal.force(true);
+                }
+            } else {
+                out.write(datos, 0, longitud);
+                if (forzar) {
+                    out.getFD().sync();
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Función que escribe un JPEG en un fichero con los datos de la captura en un segmento XMP, con una sola
+     * escritura agrupada y sin copiar la imagen. Si los datos no son un JPEG se escriben tal cual.
+     * @param fichero fichero destino
+     * @param datos contenido JPEG de la foto
+     * @param longitud bytes válidos en datos
+     * @param metadatos datos de la captura
+     * @param forzar si se espera a que los datos estén en disco (fsync) antes de volver
+     * @throws IOException si falla la escritura
+     */
+    static void escribirConMetadatos(File fichero, byte[] datos, int longitud, MetadatosCaptura metadatos,
+                                     boolean forzar) throws IOException {
+        SegmentosJpeg segmentos = analizar(datos, longitud);
+        if (segmentos == null) {
+            escribir(fichero, datos, longitud, Escritura.CANAL, forzar);
+        } else {
+            escribir(fichero, segmentos.conSegmento(metadatos.segmentoXmp()), forzar);
+        }
+    }
+
+    /**
+     * @return cabecera del JPEG, o null si los datos no son un JPEG
+     */
+    private static SegmentosJpeg analizar(byte[] datos, int longitud) {
+        try {
+            return SegmentosJpeg.analizar(ByteBuffer.wrap(datos, 0, longitud));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Función que escribe varias partes en un fichero con escrituras agrupadas.
+     * @return bytes escritos
+     */
+    private static long escribir(File fichero, ByteBuffer[] partes, boolean forzar) throws IOException {
+        long total = 0;
+        for (ByteBuffer parte : partes) {
+            total += parte.remaining();
+        }
+        FileOutputStream out = new FileOutputStream(fichero);
+        try {
+            FileChannel canal = out.getChannel();
+            long pendientes = total;
+            while (pendientes > 0) {
+                pendientes -= canal.write(partes);
+            }
+            if (forzar) {
+                canal.force(true);
+            }
+        } finally {
+            out.close();
+        }
+        return total;
+    }
+
+    /**
+     * Función que pasa a la galería las fotos pendientes de una vez.
+     */
+    private void avisarGaleria() {
+        if (lote.isEmpty()) {
+            return;
+        }
+        try {
+            escaner.escanear(lote.toArray(new String[lote.size()]));
+            if (traza != null) {
+                long instante = System.nanoTime();
+                for (int i = 0; i < capturasLote.size(); i++) {
+                    traza.anotar(capturasLote.get(i), TrazaCaptura.Etapa.GALERIA, instante);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Las fotos están guardadas, solo faltarán en la galería hasta que se vuelva a escanear la carpeta.
+            avisarError(directorio, inesperado(e));
+        }
+        lote.clear();
+        capturasLote.clear();
+    }
+}
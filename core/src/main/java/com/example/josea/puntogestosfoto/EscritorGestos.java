@@ -0,0 +1,102 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Clase que escribe gestos en el formato del fichero de Gesture Builder (ver LectorGestos), de forma que el
+ * resultado se puede poner en R.raw.gestures y cargarlo con GestureLibraries.fromRawResource.
+ */
+final class EscritorGestos {
+    private EscritorGestos() {
+    }
+
+    /**
+     * Función que escribe los gestos en el flujo, no lo cierra. Las muestras con el mismo nombre se agrupan en
+     * una entrada, en el orden en que aparece cada nombre por primera vez.
+     * @param gestos gestos a escribir
+     * @param salida flujo donde se escriben
+     * @throws IOException si no se puede escribir
+     */
+    static void escribir(List<GestoGrabado> gestos, OutputStream salida) throws IOException {
+        Map<String, List<GestoGrabado>> entradas = new LinkedHashMap<String, List<GestoGrabado>>();
+        for (GestoGrabado gesto : gestos) {
+            List<GestoGrabado> muestras = entradas.get(gesto.nombre);
+            if (muestras == null) {
+                muestras = new ArrayList<GestoGrabado>();
+                entradas.put(gesto.nombre, muestras);
+            }
+            muestras.add(gesto);
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(salida));
+        out.writeShort(LectorGestos.VERSION);
+        out.writeInt(entradas.size());
+        for (Map.Entry<String, List<GestoGrabado>> entrada : entradas.entrySet()) {
+            out.writeUTF(entrada.getKey());
+            out.writeInt(entrada.getValue().size());
+            for (GestoGrabado gesto : entrada.getValue()) {
+                out.writeLong(gesto.id);
+                out.writeInt(gesto.trazos.length);
+                for (int k = 0; k < gesto.trazos.length; k++) {
+                    float[] puntos = gesto.trazos[k];
+                    long[] tiempos = gesto.tiempos[k];
+                    out.writeInt(puntos.length / 2);
+                    for (int p = 0; p < puntos.length / 2; p++) {
+                        out.writeFloat(puntos[p * 2]);
+                        out.writeFloat(puntos[p * 2 + 1]);
+                        out.writeLong(tiempos[p]);
+                    }
+                }
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Función que guarda los gestos en un fichero. Se escribe en un temporal y se renombra, así nunca queda un
+     * fichero a medias.
+     * @param gestos gestos a guardar
+     * @param fichero fichero destino
+     * @throws IOException si no se puede escribir
+     */
+    static void guardar(List<GestoGrabado> gestos, File fichero) throws IOException {
+        File temporal = new File(fichero.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temporal);
+        try {
+            escribir(gestos, out);
+            out.getChannel().force(true);
+        } finally {
+            out.close();
+        }
+        if (!temporal.renameTo(fichero)) {
+            temporal.delete();
+            throw new IOException("No se ha podido renombrar " + temporal + " a " + fichero);
+        }
+    }
+}
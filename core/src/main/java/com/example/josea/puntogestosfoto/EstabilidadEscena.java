@@ -0,0 +1,178 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.example.josea.puntogestosfoto;
+
+/**
+ * Clase que decide si la escena de la vista previa está quieta comparando la luminancia de fotogramas NV21
+ * seguidos.
+ *
+ * De cada fotograma solo se lee el plano Y, y de él un píxel de cada PASO x PASO. La puntuación es la media
+ * de la diferencia absoluta entre las muestras de un fotograma y las del anterior, después de quitar el cambio
+ * de brillo medio para que la exposición automática no cuente como movimiento. La escena se da por quieta
+ * cuando la puntuación no pasa del umbral en varios fotogramas seguidos.
+ *
+ * Las muestras se guardan en dos arrays reservados en el constructor que se intercambian en cada fotograma,
+ * así analizar no reserva memoria y se puede llamar con cada fotograma de la cámara. No es segura entre hilos.
+ */
+final class EstabilidadEscena {
+    private final int ancho;
+    private final int alto;
+    private final int paso;
+    private final double umbral;
+    private final int fotogramasEstables;
+
+    /**
+     * Muestras del fotograma actual y del anterior, y la suma de las del anterior.
+     */
+    private int[] actual;
+    private int[] anterior;
+    private long sumaAnterior;
+    private boolean hayAnterior;
+
+    private double diferencia = Double.NaN;
+    private int seguidos;
+    private int analizados;
+
+    /**
+     * Constructor de la clase.
+     * @param ancho ancho de la vista previa en píxeles
+     * @param alto alto de la vista previa en píxeles
+     * @param paso distancia en píxeles entre muestras, en horizontal y en vertical
+     * @param umbral diferencia media máxima, en niveles de luminancia, para considerar quieto un fotograma
+     * @param fotogramasEstables fotogramas quietos seguidos necesarios para dar la escena por quieta
+     */
+    EstabilidadEscena(int ancho, int alto, int paso, double umbral, int fotogramasEstables) {
+        if (ancho <= 0 || alto <= 0 || paso <= 0 || paso > ancho || paso > alto) {
+            throw new IllegalArgumentException("Tamaño " + ancho + "x" + alto + " o paso " + paso + " no válidos");
+        }
+        if (fotogramasEstables <= 0) {
+            throw new IllegalArgumentException("Hace falta al menos un fotograma quieto");
+        }
+        this.ancho = ancho;
+        this.alto = alto;
+        this.paso = paso;
+        this.umbral = umbral;
+        this.fotogramasEstables = fotogramasEstables;
+        int muestras = ((ancho - paso / 2 + paso - 1) / paso) * ((alto - paso / 2 + paso - 1) / paso);
+        actual = new int[muestras];
+        anterior = new int[muestras];
+    }
+
+    /**
+     * @param ancho ancho en píxeles
+     * @param alto alto en píxeles
+     * @return bytes de un fotograma NV21 de ese tamaño: el plano Y y el VU intercalado a mitad de resolución
+     */
+    static int bytesNv21(int ancho, int alto) {
+        return ancho * alto + 2 * ((ancho + 1) / 2) * ((alto + 1) / 2);
+    }
+
+    /**
+     * Función que analiza el siguiente fotograma.
+     * @param nv21 fotograma en formato NV21, del tamaño indicado en el constructor
+     * @return true si la escena está quieta desde hace los fotogramas pedidos
+     */
+    boolean analizar(byte[] nv21) {
+        if (nv21.length < ancho * alto) {
+            throw new IllegalArgumentException("Fotograma de " + nv21.length + " bytes, hacen falta " + ancho * alto);
+        }
+        int[] muestras = actual;
+        long suma = 0;
+        int k = 0;
+        for (int y = paso / 2; y < alto; y += paso) {
+            int fila = y * ancho;
+            for (int x = paso / 2; x < ancho; x += paso) {
+                int v = nv21[fila + x] & 0xFF;
+                muestras[k++] = v;
+                suma += v;
+            }
+        }
+        analizados++;
+
+        if (hayAnterior) {
+            // Con enteros: sum |k (a - b) - (sumaA - sumaB)| / k^2 es la media de |a - b - cambio medio|.
+            long cambio = suma - sumaAnterior;
+            long total = 0;
+            for (int i = 0; i < k; i++) {
+                long d = (long) k * (muestras[i] - anterior[i]) - cambio;
+                total += d < 0 ? -d : d;
+            }
+            diferencia = total / ((double) k * k);
+            seguidos = diferencia <= umbral ? seguidos + 1 : 0;
+        }
+
+        actual = anterior;
+        anterior = muestras;
+        sumaAnterior = suma;
+        hayAnterior = true;
+        return estable();
+    }
+
+    /**
+     * @return true si los últimos fotogramas analizados están quietos
+     */
+    boolean estable() {
+        return seguidos >= fotogramasEstables;
+    }
+
+    /**
+     * Función que olvida los fotogramas anteriores, para empezar otra espera.
+     */
+    void reiniciar() {
+        hayAnterior = false;
+        diferencia = Double.NaN;
+        seguidos = 0;
+        analizados = 0;
+    }
+
+    /**
+     * @return diferencia media del último fotograma con el anterior, NaN si solo se ha analizado uno
+     */
+    double ultimaDiferencia() {
+        return diferencia;
+    }
+
+    /**
+     * @return fotogramas analizados desde que se creó o se reinició
+     */
+    int analizados() {
+        return analizados;
+    }
+
+    /**
+     * @return número de píxeles que se leen de cada fotograma
+     */
+    int numMuestras() {
+        return actual.length;
+    }
+
+    /**
+     * @return ancho de los fotogramas en píxeles
+     */
+    int ancho() {
+        return ancho;
+    }
+
+    /**
+     * @return alto de los fotogramas en píxeles
+     */
+    int alto() {
+        return alto;
+    }
+}
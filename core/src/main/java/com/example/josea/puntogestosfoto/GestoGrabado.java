@@ -0,0 +1,58 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+/**
+ * Clase que representa una muestra de gesto tal y como se guarda en el fichero de gestos de Android
+ * (R.raw.gestures), sin depender de las clases de android.gesture.
+ */
+final class GestoGrabado {
+    /**
+     * Nombre con el que se guardó el gesto, por ejemplo "foto".
+     */
+    final String nombre;
+
+    /**
+     * Identificador del gesto dentro del fichero.
+     */
+    final long id;
+
+    /**
+     * Trazos del gesto, cada uno con sus puntos intercalados (x0, y0, x1, y1, ...).
+     */
+    final float[][] trazos;
+
+    /**
+     * Marcas de tiempo de cada punto de cada trazo, en milisegundos.
+     */
+    final long[][] tiempos;
+
+    /**
+     * Constructor de la clase.
+     * @param nombre nombre del gesto
+     * @param id identificador del gesto
+     * @param trazos puntos intercalados de cada trazo
+     * @param tiempos marcas de tiempo de cada punto de cada trazo
+     */
+    GestoGrabado(String nombre, long id, float[][] trazos, long[][] tiempos) {
+        this.nombre = nombre;
+        this.id = id;
+        this.trazos = trazos;
+        this.tiempos = tiempos;
+    }
+}
@@ -0,0 +1,281 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Clase que graba los trazos que se dibujan en la aplicación para poder reproducirlos después fuera del móvil
+ * (ver LectorTrazas y ReproductorTrazas).
+ *
+ * Los puntos se copian en buffers propios sin reservar memoria y al terminar cada gesto se codifica en un buffer
+ * de registros pendientes; volcar() los escribe en disco desde otro hilo.
+ *
+ * Formato (varint: enteros sin signo en grupos de 7 bits, el menos significativo primero; zigzag: enteros con
+ * signo de forma que los valores pequeños ocupan poco):
+ * cabecera: mágico (int big-endian) y versión (byte);
+ * por cada gesto: TIPO_GESTO (byte), instante del primer punto en ms (varint), etiqueta (varint con la longitud en
+ * bytes y el texto en UTF-8), número de trazos (varint) y por cada trazo: número de puntos (varint) y por cada
+ * punto: ms desde el punto anterior (varint) y desplazamiento en x e y desde el punto anterior en 1/ESCALA
+ * píxeles (zigzag). El primer punto de cada gesto se mide desde el instante del gesto y desde (0, 0).
+ *
+ * La etiqueta es el gesto que quería hacer el usuario, un nombre que no está en la biblioteca si no quería hacer
+ * ninguno, o vacía si no se sabe.
+ */
+final class GrabadorTrazas {
+    /**
+     * Número mágico del formato, "PGTT".
+     */
+    static final int MAGICO = 0x50475454;
+
+    /**
+     * Versión del formato.
+     */
+    static final byte VERSION = 1;
+
+    /**
+     * Marca del comienzo de cada gesto.
+     */
+    static final byte TIPO_GESTO = 'G';
+
+    /**
+     * Fracciones de píxel en que se guardan las coordenadas.
+     */
+    static final int ESCALA = 16;
+
+    /**
+     * Capacidad inicial en puntos del buffer del gesto en curso, crece si hace falta.
+     */
+    private static final int PUNTOS_INICIALES = 256;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Gesto en curso, solo lo usa el hilo que dibuja: puntos intercalados, tiempos y, por cada trazo, número de
+     * puntos acumulados hasta su final.
+     */
+    private float[] puntos = new float[PUNTOS_INICIALES * 2];
+    private long[] tiempos = new long[PUNTOS_INICIALES];
+    private int[] finTrazos = new int[4];
+    private int numPuntos;
+    private int numTrazos;
+    private long instante;
+    private boolean enCurso;
+
+    /**
+     * Registros codificados pendientes de volcar, protegidos por this. Los volcados se ordenan con escritura.
+     */
+    private final Object escritura = new Object();
+    private byte[] pendientes = new byte[4096];
+    private int numPendientes;
+    private long gestosGrabados;
+
+    /**
+     * Función que escribe la cabecera del formato.
+     * @param salida flujo donde se escribe
+     * @throws IOException si no se puede escribir
+     */
+    static void escribirCabecera(OutputStream salida) throws IOException {
+        salida.write(new byte[]{(byte) (MAGICO >>> 24), (byte) (MAGICO >>> 16), (byte) (MAGICO >>> 8), (byte) MAGICO,
+                VERSION});
+    }
+
+    /**
+     * Función que empieza un gesto nuevo, descartando el anterior si no se terminó.
+     * @param instante instante del primer punto, en milisegundos
+     */
+    void empezarGesto(long instante) {
+        this.instante = instante;
+        numPuntos = 0;
+        numTrazos = 0;
+        enCurso = true;
+    }
+
+    /**
+     * Función que empieza un trazo dentro del gesto en curso. El primer punto de un gesto empieza un trazo si no
+     * se ha llamado.
+     */
+    void empezarTrazo() {
+        if (!enCurso) {
+            return;
+        }
+        if (numTrazos == finTrazos.length) {
+            int[] nuevos = new int[numTrazos * 2];
+            System.arraycopy(finTrazos, 0, nuevos, 0, numTrazos);
+            finTrazos = nuevos;
+        }
+        finTrazos[numTrazos++] = numPuntos;
+    }
+
+    /**
+     * Función que añade un punto al último trazo del gesto en curso.
+     * @param x coordenada x en píxeles
+     * @param y coordenada y en píxeles
+     * @param tiempo instante del punto, en milisegundos
+     */
+    void anadirPunto(float x, float y, long tiempo) {
+        if (!enCurso) {
+            return;
+        }
+        if (numTrazos == 0) {
+            empezarTrazo();
+        }
+        if (numPuntos == tiempos.length) {
+            float[] nuevosPuntos = new float[puntos.length * 2];
+            long[] nuevosTiempos = new long[tiempos.length * 2];
+            System.arraycopy(puntos, 0, nuevosPuntos, 0, numPuntos * 2);
+            System.arraycopy(tiempos, 0, nuevosTiempos, 0, numPuntos);
+            puntos = nuevosPuntos;
+            tiempos = nuevosTiempos;
+        }
+        puntos[numPuntos * 2] = x;
+        puntos[numPuntos * 2 + 1] = y;
+        tiempos[numPuntos] = tiempo;
+        numPuntos++;
+        finTrazos[numTrazos - 1] = numPuntos;
+    }
+
+    /**
+     * Función que termina el gesto en curso y lo deja pendiente de volcar. Un gesto sin puntos no se graba.
+     * @param etiqueta gesto que se quería hacer, vacía si no se sabe
+     */
+    synchronized void terminarGesto(String etiqueta) {
+        if (!enCurso) {
+            return;
+        }
+        enCurso = false;
+        if (numPuntos == 0) {
+            return;
+        }
+        byte[] texto = etiqueta.getBytes(UTF8);
+        // Como mucho 10 bytes por varint largo y 5 por cada int.
+        asegurar(1 + 10 + 5 + texto.length + 5 + numTrazos * 5 + numPuntos * 20);
+        pendientes[numPendientes++] = TIPO_GESTO;
+        escribirVarint(instante);
+        escribirVarint(texto.length);
+        System.arraycopy(texto, 0, pendientes, numPendientes, texto.length);
+        numPendientes += texto.length;
+        escribirVarint(numTrazos);
+
+        long tiempoAnterior = instante;
+        int xAnterior = 0;
+        int yAnterior = 0;
+        int p = 0;
+        for (int t = 0; t < numTrazos; t++) {
+            escribirVarint(finTrazos[t] - p);
+            for (; p < finTrazos[t]; p++) {
+                int x = Math.round(puntos[p * 2] * ESCALA);
+                int y = Math.round(puntos[p * 2 + 1] * ESCALA);
+                // Los eventos de Android nunca van hacia atrás, pero un tiempo negativo no se podría guardar.
+                escribirVarint(Math.max(0, tiempos[p] - tiempoAnterior));
+                escribirVarint(zigzag(x - xAnterior));
+                escribirVarint(zigzag(y - yAnterior));
+                tiempoAnterior = Math.max(tiempoAnterior, tiempos[p]);
+                xAnterior = x;
+                yAnterior = y;
+            }
+        }
+        gestosGrabados++;
+    }
+
+    /**
+     * Función que descarta el gesto en curso, por ejemplo si se cancela.
+     */
+    void descartarGesto() {
+        enCurso = false;
+    }
+
+    /**
+     * @return bytes pendientes de volcar
+     */
+    synchronized int pendientes() {
+        return numPendientes;
+    }
+
+    /**
+     * @return gestos grabados desde que se creó, volcados o no
+     */
+    synchronized long gestosGrabados() {
+        return gestosGrabados;
+    }
+
+    /**
+     * Función que escribe los gestos pendientes en un flujo, sin cabecera, y los olvida. El hilo que dibuja no
+     * espera a la escritura, solo al cambio de buffer.
+     * @param salida flujo donde se escriben
+     * @throws IOException si no se puede escribir, los gestos se pierden
+     */
+    void volcar(OutputStream salida) throws IOException {
+        synchronized (escritura) {
+            byte[] datos;
+            int n;
+            synchronized (this) {
+                datos = pendientes;
+                n = numPendientes;
+                pendientes = new byte[datos.length];
+                numPendientes = 0;
+            }
+            salida.write(datos, 0, n);
+        }
+    }
+
+    /**
+     * Función que añade los gestos pendientes al final de un fichero, escribiendo antes la cabecera si está
+     * vacío. Hace E/S, no llamar desde el hilo principal.
+     * @param fichero fichero de trazas
+     * @throws IOException si no se puede escribir, los gestos se pierden
+     */
+    void volcar(File fichero) throws IOException {
+        synchronized (escritura) {
+            FileOutputStream out = new FileOutputStream(fichero, true);
+            try {
+                if (out.getChannel().size() == 0) {
+                    escribirCabecera(out);
+                }
+                volcar(out);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private static long zigzag(int valor) {
+        return ((valor << 1) ^ (valor >> 31)) & 0xFFFFFFFFL;
+    }
+
+    private void escribirVarint(long valor) {
+        while ((valor & ~0x7FL) != 0) {
+            pendientes[numPendientes++] = (byte) ((valor & 0x7F) | 0x80);
+            valor >>>= 7;
+        }
+        pendientes[numPendientes++] = (byte) valor;
+    }
+
+    private void asegurar(int bytes) {
+        if (numPendientes + bytes > pendientes.length) {
+            byte[] nuevos = new byte[Math.max(pendientes.length * 2, numPendientes + bytes)];
+            System.arraycopy(pendientes, 0, nuevos, 0, numPendientes);
+            pendientes = nuevos;
+        }
+    }
+}
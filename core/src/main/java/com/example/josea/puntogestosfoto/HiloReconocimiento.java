@@ -0,0 +1,421 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Clase que reconoce los trazos en un hilo propio para no ocupar el hilo principal mientras se dibuja.
+ *
+ * El hilo principal solo copia los puntos: los de cada movimiento a un buffer del trazo en curso y, al levantar
+ * el dedo, el trazo completo. No hay cola de peticiones, el último trazo gana: al empezar uno nuevo se descarta
+ * lo pendiente del anterior, y si el trazo ya ha terminado los puntos sin evaluar del reconocedor incremental se
+ * saltan y se reconoce directamente el trazo completo. Un resultado calculado para un trazo que ya no es el
+ * último también se descarta, al calcularlo y otra vez en el hilo principal antes de pasarlo al oyente, ya que
+ * el trazo siguiente puede empezar mientras la decisión espera en el Executor.
+ *
+ * Al hilo principal solo se pasa la decisión final, una vez por trazo y solo si se ha reconocido un gesto, a
+ * través de un Executor (en Android, un Handler del hilo principal).
+ */
+final class HiloReconocimiento {
+    /**
+     * Interfaz para recibir el gesto reconocido. Se llama desde el Executor principal.
+     */
+    interface Oyente {
+        /**
+         * @param trazo trazo reconocido, el que devolvió empezarTrazo; siempre es el último empezado
+         * @param nombre nombre del gesto reconocido
+         * @param puntuacion puntuación del gesto
+         * @param mientrasSeDibuja true si se ha reconocido antes de levantar el dedo
+         * @param latenciaNanos tiempo desde que llegó el último punto usado hasta la entrega
+         */
+        void gestoReconocido(int trazo, String nombre, double puntuacion, boolean mientrasSeDibuja,
+                             long latenciaNanos);
+    }
+
+    /**
+     * Interfaz del reconocedor del trazo completo, ReconocedorGestos o ReconocedorParalelo.
+     */
+    interface ReconocedorTrazo {
+        /**
+         * Función que reconoce un trazo.
+         * @param puntos puntos intercalados (x, y) del trazo
+         * @param numValores número de valores válidos en puntos
+         * @param destino donde se escriben las mejores predicciones, ordenadas de mayor a menor puntuación
+         * @return número de predicciones escritas en destino
+         */
+        int reconocer(float[] puntos, int numValores, Predicciones destino);
+    }
+
+    /**
+     * Capacidad inicial en puntos del buffer del trazo en curso, crece si hace falta.
+     */
+    private static final int PUNTOS_INICIALES = 256;
+
+    private final double umbral;
+    private final Executor principal;
+    private final Oyente oyente;
+    private final Thread hilo;
+
+    /**
+     * Estado compartido con el hilo principal, protegido por this.
+     * trazo cuenta los trazos empezados; puntos, tiempos e instantes guardan el trazo en curso; completo es el
+     * trazo terminado pendiente de reconocer.
+     */
+    private ReconocedorTrazo reconocedor;
+    private ReconocedorIncremental incremental;
+    private int trazo;
+    private long inicioTrazo;
+    private float[] puntos = new float[PUNTOS_INICIALES * 2];
+    private long[] tiempos = new long[PUNTOS_INICIALES];
+    private int numPuntos;
+    private long instanteUltimoPunto;
+    private float[] completo;
+    private long instanteCompleto;
+    private boolean cerrado;
+    private long descartados;
+
+    /**
+     * Aviso al hilo de reconocimiento de que ha llegado algo más nuevo que los puntos que está evaluando, para
+     * que deje el lote a medias. Se lee sin cerrojo.
+     */
+    private volatile boolean interrumpir;
+
+    /**
+     * Estado del hilo de reconocimiento: trazo que lleva el reconocedor incremental, puntos ya evaluados de ese
+     * trazo, si ya se decidió y copia local de los puntos a evaluar. Solo lo cambia este hilo, con el cerrojo
+     * tomado salvo lote y tiemposLote.
+     */
+    private int trazoEvaluado = -1;
+    private int evaluados;
+    private boolean decidido;
+    private float[] lote = new float[PUNTOS_INICIALES * 2];
+    private long[] tiemposLote = new long[PUNTOS_INICIALES];
+    private final Predicciones predicciones = new Predicciones(1);
+
+    /**
+     * Estadísticas, las escribe solo el hilo de reconocimiento.
+     */
+    private volatile long completos;
+    private volatile long atendidos;
+    private volatile long decisiones;
+    private volatile long latenciaTotal;
+    private volatile long latenciaMaxima;
+    private volatile long reconocimientoMaximo;
+
+    /**
+     * Constructor de la clase, el hilo no empieza hasta llamar a iniciar.
+     * @param umbral puntuación mínima para dar un trazo completo por reconocido
+     * @param principal ejecutor del hilo al que se entregan las decisiones
+     * @param oyente receptor de las decisiones
+     */
+    HiloReconocimiento(double umbral, Executor principal, Oyente oyente) {
+        this.umbral = umbral;
+        this.principal = principal;
+        this.oyente = oyente;
+        this.hilo = new Thread(new Runnable() {
+            public void run() {
+                bucle();
+            }
+        }, "Reconocimiento");
+    }
+
+    /**
+     * Función que arranca el hilo de reconocimiento.
+     */
+    void iniciar() {
+        hilo.start();
+    }
+
+    /**
+     * Función que pide al hilo que termine, sin esperar, descartando lo pendiente.
+     */
+    synchronized void cerrar() {
+        cerrado = true;
+        notifyAll();
+    }
+
+    /**
+     * Función que espera a que el hilo termine después de cerrar.
+     * @throws InterruptedException si se interrumpe la espera
+     */
+    void esperarFin() throws InterruptedException {
+        hilo.join();
+    }
+
+    /**
+     * Función que pasa los reconocedores al hilo, se puede llamar desde cualquier hilo y después ya no se deben
+     * usar fuera. Los trazos dibujados antes se reconocen en cuanto llegan.
+     * @param reconocedor reconocedor del trazo completo
+     * @param incremental reconocedor mientras se dibuja sobre las mismas plantillas
+     */
+    synchronized void ponerReconocedores(ReconocedorTrazo reconocedor, ReconocedorIncremental incremental) {
+        this.reconocedor = reconocedor;
+        this.incremental = incremental;
+        notifyAll();
+    }
+
+    /**
+     * Función que empieza un trazo nuevo, descartando lo que quede pendiente del anterior. Se llama desde el
+     * hilo del Executor principal.
+     * @param tiempo instante del primer punto, en milisegundos
+     * @return identificador del trazo, el que se pasa al oyente si se reconoce
+     */
+    synchronized int empezarTrazo(long tiempo) {
+        // Si el trazo anterior ya se decidió mientras se dibujaba, lo que quede de él ya no hacía falta.
+        boolean enCurso = trazo == trazoEvaluado;
+        if (!(enCurso && decidido) && (completo != null || (enCurso && evaluados < numPuntos))) {
+            descartados++;
+        }
+        completo = null;
+        interrumpir = true;
+        trazo++;
+        inicioTrazo = tiempo;
+        numPuntos = 0;
+        notifyAll();
+        return trazo;
+    }
+
+    /**
+     * Función que añade un punto al trazo en curso.
+     * @param x coordenada x del punto
+     * @param y coordenada y del punto
+     * @param tiempo instante del punto, en milisegundos
+     */
+    synchronized void anadirPunto(float x, float y, long tiempo) {
+        if (numPuntos == tiempos.length) {
+            float[] nuevosPuntos = new float[puntos.length * 2];
+            long[] nuevosTiempos = new long[tiempos.length * 2];
+            System.arraycopy(puntos, 0, nuevosPuntos, 0, numPuntos * 2);
+            System.arraycopy(tiempos, 0, nuevosTiempos, 0, numPuntos);
+            puntos = nuevosPuntos;
+            tiempos = nuevosTiempos;
+        }
+        puntos[numPuntos * 2] = x;
+        puntos[numPuntos * 2 + 1] = y;
+        tiempos[numPuntos++] = tiempo;
+        instanteUltimoPunto = System.nanoTime();
+        notifyAll();
+    }
+
+    /**
+     * Función que termina el trazo en curso y pide reconocerlo completo, salvo que ya se reconociera mientras
+     * se dibujaba.
+     * @param trazoCompleto puntos intercalados (x, y) del trazo, se copian
+     */
+    void terminarTrazo(float[] trazoCompleto) {
+        float[] copia = trazoCompleto.clone();
+        synchronized (this) {
+            if (completo != null) {
+                descartados++;
+            }
+            completo = copia;
+            instanteCompleto = System.nanoTime();
+            interrumpir = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return peticiones descartadas porque llegó un trazo más nuevo antes de atenderlas
+     */
+    synchronized long descartados() {
+        return descartados;
+    }
+
+    /**
+     * @return trazos completos reconocidos, con o sin gesto
+     */
+    long completos() {
+        return completos;
+    }
+
+    /**
+     * @return trazos ya resueltos, mientras se dibujaban o completos y con o sin gesto; cada trazo se cuenta una
+     * vez, después de pasar su decisión al Executor
+     */
+    long atendidos() {
+        return atendidos;
+    }
+
+    /**
+     * @return decisiones pasadas al hilo principal, incluidas las que allí se descartan por llegar tarde
+     */
+    long decisiones() {
+        return decisiones;
+    }
+
+    /**
+     * @return tiempo medio en milisegundos desde el último punto usado hasta entregar la decisión al Executor
+     */
+    double latenciaMediaMs() {
+        long n = decisiones;
+        return n == 0 ? 0 : latenciaTotal / 1e6 / n;
+    }
+
+    /**
+     * @return tiempo máximo en milisegundos desde el último punto usado hasta entregar la decisión al Executor
+     */
+    double latenciaMaximaMs() {
+        return latenciaMaxima / 1e6;
+    }
+
+    /**
+     * @return tiempo máximo en milisegundos que ha costado reconocer un trazo completo
+     */
+    double reconocimientoMaximoMs() {
+        return reconocimientoMaximo / 1e6;
+    }
+
+    /**
+     * Función que indica si hay algo que hacer, con el cerrojo tomado.
+     */
+    private boolean hayTrabajo() {
+        if (completo != null && reconocedor != null) {
+            return true;
+        }
+        return incremental != null && (trazo != trazoEvaluado || (!decidido && evaluados < numPuntos));
+    }
+
+    /**
+     * Bucle del hilo de reconocimiento.
+     */
+    private void bucle() {
+        while (true) {
+            ReconocedorTrazo reconocedorTrazo;
+            ReconocedorIncremental incrementalTrazo;
+            int trazoActual;
+            long inicio;
+            int desde = 0;
+            int hasta = 0;
+            float[] trazoCompleto = null;
+            long instante;
+            synchronized (this) {
+                try {
+                    while (!cerrado && !hayTrabajo()) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (cerrado) {
+                    return;
+                }
+                interrumpir = false;
+
+                reconocedorTrazo = reconocedor;
+                incrementalTrazo = incremental;
+                trazoActual = trazo;
+                inicio = inicioTrazo;
+                boolean nuevo = trazoEvaluado != trazo;
+                if (nuevo) {
+                    trazoEvaluado = trazo;
+                    evaluados = 0;
+                    decidido = false;
+                }
+
+                if (completo != null && reconocedor != null) {
+                    // El dedo ya se ha levantado: los puntos sin evaluar ya no importan, gana el trazo completo.
+                    trazoCompleto = completo;
+                    instante = instanteCompleto;
+                    completo = null;
+                    evaluados = numPuntos;
+                } else {
+                    desde = nuevo ? 0 : evaluados;
+                    hasta = decidido || incremental == null ? desde : numPuntos;
+                    if (hasta * 2 > lote.length) {
+                        lote = new float[puntos.length];
+                        tiemposLote = new long[tiempos.length];
+                    }
+                    System.arraycopy(puntos, desde * 2, lote, desde * 2, (hasta - desde) * 2);
+                    System.arraycopy(tiempos, desde, tiemposLote, desde, hasta - desde);
+                    evaluados = hasta;
+                    instante = instanteUltimoPunto;
+                }
+            }
+
+            if (trazoCompleto != null) {
+                if (!decidido) {
+                    reconocerCompleto(reconocedorTrazo, trazoActual, trazoCompleto, instante);
+                }
+            } else {
+                if (desde == 0 && hasta > 0) {
+                    incrementalTrazo.empezar(inicio);
+                }
+                boolean decision = false;
+                for (int i = desde; i < hasta && !decision && !interrumpir; i++) {
+                    decision = incrementalTrazo.anadirPunto(lote[i * 2], lote[i * 2 + 1], tiemposLote[i]);
+                }
+                if (decision) {
+                    synchronized (this) {
+                        decidido = true;
+                    }
+                    PlantillasGestos plantillas = incrementalTrazo.plantillas();
+                    entregar(trazoActual, plantillas.nombre(incrementalTrazo.etiquetaDecidida()),
+                            incrementalTrazo.puntuacionDecidida(), true, instante);
+                    atendidos++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Función que reconoce un trazo completo y entrega el gesto si supera el umbral.
+     */
+    private void reconocerCompleto(ReconocedorTrazo reconocedorTrazo, int trazoActual, float[] trazoCompleto,
+                                   long instante) {
+        long inicio = System.nanoTime();
+        int numPredicciones = reconocedorTrazo.reconocer(trazoCompleto, trazoCompleto.length, predicciones);
+        reconocimientoMaximo = Math.max(reconocimientoMaximo, System.nanoTime() - inicio);
+        completos++;
+        if (numPredicciones > 0 && predicciones.puntuacion(0) > umbral) {
+            entregar(trazoActual, predicciones.nombre(0), predicciones.puntuacion(0), false, instante);
+        }
+        atendidos++;
+    }
+
+    /**
+     * Función que pasa una decisión al hilo principal si su trazo sigue siendo el último.
+     */
+    private void entregar(final int trazoDecidido, final String nombre, final double puntuacion,
+                          final boolean mientrasSeDibuja, final long instante) {
+        synchronized (this) {
+            if (trazoDecidido != trazo) {
+                descartados++;
+                return;
+            }
+        }
+        long latencia = System.nanoTime() - instante;
+        latenciaTotal += latencia;
+        latenciaMaxima = Math.max(latenciaMaxima, latencia);
+        decisiones++;
+        principal.execute(new Runnable() {
+            public void run() {
+                // Los trazos se empiezan en este mismo hilo, así que si sigue siendo el último aquí, lo es.
+                synchronized (HiloReconocimiento.this) {
+                    if (trazoDecidido != trazo) {
+                        descartados++;
+                        return;
+                    }
+                }
+                oyente.gestoReconocido(trazoDecidido, nombre, puntuacion, mientrasSeDibuja,
+                        System.nanoTime() - instante);
+            }
+        });
+    }
+}
@@ -0,0 +1,138 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de duraciones en nanosegundos que se puede anotar desde varios hilos sin bloquear ni reservar memoria.
+ *
+ * Las cubetas son logarítmicas con 16 subdivisiones por potencia de dos, así el error relativo de los
+ * percentiles es como mucho del 6,25% con cualquier escala, desde microsegundos hasta segundos. El máximo, la
+ * suma y la cuenta son exactos.
+ */
+final class Histograma {
+    /**
+     * Bits de cada potencia de dos que se usan para subdividirla.
+     */
+    private static final int BITS_SUBCUBETA = 4;
+    private static final int SUBCUBETAS = 1 << BITS_SUBCUBETA;
+
+    /**
+     * Número de cubetas para cubrir cualquier long positivo.
+     */
+    private static final int NUM_CUBETAS = (64 - BITS_SUBCUBETA) * SUBCUBETAS;
+
+    private final AtomicLongArray cuentas = new AtomicLongArray(NUM_CUBETAS);
+    private final AtomicLong cuenta = new AtomicLong();
+    private final AtomicLong suma = new AtomicLong();
+    private final AtomicLong maximo = new AtomicLong();
+
+    /**
+     * Función que anota un valor.
+     * @param valor duración en nanosegundos, los negativos cuentan como 0
+     */
+    void anotar(long valor) {
+        if (valor < 0) {
+            valor = 0;
+        }
+        cuentas.incrementAndGet(cubeta(valor));
+        suma.addAndGet(valor);
+        cuenta.incrementAndGet();
+        long anterior = maximo.get();
+        while (valor > anterior && !maximo.compareAndSet(anterior, valor)) {
+            anterior = maximo.get();
+        }
+    }
+
+    /**
+     * @return número de valores anotados
+     */
+    long cuenta() {
+        return cuenta.get();
+    }
+
+    /**
+     * @return valor máximo anotado
+     */
+    long maximo() {
+        return maximo.get();
+    }
+
+    /**
+     * @return media de los valores anotados, 0 si no hay ninguno
+     */
+    double media() {
+        long n = cuenta.get();
+        return n == 0 ? 0 : suma.get() / (double) n;
+    }
+
+    /**
+     * Función que calcula un percentil. Si se está anotando a la vez el resultado puede no incluir los últimos
+     * valores.
+     * @param percentil percentil entre 0 y 100
+     * @return valor por debajo del cual están al menos ese porcentaje de valores, redondeado hacia arriba al
+     * límite de su cubeta y nunca mayor que el máximo; 0 si no hay valores
+     */
+    long percentil(double percentil) {
+        long n = cuenta.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rango = Math.max(1, (long) Math.ceil(percentil / 100 * n));
+        long acumulado = 0;
+        for (int i = 0; i < NUM_CUBETAS; i++) {
+            acumulado += cuentas.get(i);
+            if (acumulado >= rango) {
+                return Math.min(limiteSuperior(i), maximo.get());
+            }
+        }
+        return maximo.get();
+    }
+
+    /**
+     * Función que calcula la cubeta de un valor.
+     * @param valor valor no negativo
+     * @return índice de la cubeta
+     */
+    static int cubeta(long valor) {
+        if (valor < SUBCUBETAS) {
+            return (int) valor;
+        }
+        int exponente = 63 - Long.numberOfLeadingZeros(valor);
+        int desplazamiento = exponente - BITS_SUBCUBETA;
+        return (desplazamiento + 1) * SUBCUBETAS + (int) ((valor >>> desplazamiento) & (SUBCUBETAS - 1));
+    }
+
+    /**
+     * Función que calcula el mayor valor que cae en una cubeta.
+     * @param cubeta índice de la cubeta
+     * @return límite superior incluido
+     */
+    static long limiteSuperior(int cubeta) {
+        int grupo = cubeta / SUBCUBETAS;
+        long sub = cubeta % SUBCUBETAS;
+        if (grupo == 0) {
+            return sub;
+        }
+        int desplazamiento = grupo - 1;
+        long inferior = (SUBCUBETAS + sub) << desplazamiento;
+        return inferior + (1L << desplazamiento) - 1;
+    }
+}
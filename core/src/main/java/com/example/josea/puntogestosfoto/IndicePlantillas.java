@@ -0,0 +1,286 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+/**
+ * Índice sobre las plantillas para no tener que comparar el trazo con todas ellas cuando hay muchas.
+ *
+ * Primera etapa: cada plantilla se coloca en una celda según cuatro características globales baratas de su
+ * vector (longitud del recorrido, distancia entre el primer y el último punto, elongación y giro entre la
+ * dirección inicial y la final). Todas son invariantes a la escala, a la posición y a la rotación, ya que el
+ * reconocedor tolera rotaciones y el aspecto o los ángulos absolutos descartarían gestos válidos. Al reconocer
+ * solo se miran las celdas cercanas a las del trazo, con coste constante.
+ *
+ * Segunda etapa: para los candidatos, el reconocedor acota la distancia con los productos parciales de los
+ * primeros valores del vector y la norma del resto (desigualdad de Cauchy-Schwarz), y abandona la plantilla en
+ * cuanto la cota supera la distancia máxima admitida. Esta etapa es exacta, la primera es aproximada y su
+ * margen se controla con las tolerancias. Por eso el reconocedor no usa la primera etapa con menos de
+ * MINIMO_PLANTILLAS plantillas, donde no ahorra casi nada, y repasa todas si los candidatos no dan ningún gesto.
+ *
+ * Es inmutable, se puede compartir entre varios reconocedores.
+ */
+final class IndicePlantillas {
+    /**
+     * Número de características globales de cada vector.
+     */
+    static final int NUM_CARACTERISTICAS = 4;
+
+    /**
+     * Posiciones del vector en las que se comprueba la cota durante la comparación.
+     */
+    static final int[] CORTES = {8, 16};
+
+    /**
+     * Número de plantillas por debajo del cual se comparan todas con la cascada de cotas sin mirar las celdas.
+     */
+    static final int MINIMO_PLANTILLAS = 256;
+
+    /**
+     * Tolerancias por defecto de cada característica, medidas con trazos reales escalados, desplazados,
+     * girados y con ruido de unos píxeles respecto a su plantilla.
+     */
+    static final float[] TOLERANCIAS = {0.13f, 0.09f, 0.08f, 0.45f};
+
+    /**
+     * Valores del vector (tres puntos) sobre los que se mide la dirección inicial y la final.
+     */
+    private static final int TRAMO_GIRO = 6;
+
+    /**
+     * Número de celdas en cada dimensión.
+     */
+    private static final int CASILLAS = 8;
+
+    /**
+     * Plantillas indexadas.
+     */
+    private final PlantillasGestos plantillas;
+
+    /**
+     * Tolerancia de cada característica al buscar candidatos.
+     */
+    private final float[] tolerancias;
+
+    /**
+     * Valor mínimo y ancho de celda de cada característica.
+     */
+    private final float[] minimos = new float[NUM_CARACTERISTICAS];
+    private final float[] anchos = new float[NUM_CARACTERISTICAS];
+
+    /**
+     * Posición en miembros donde empieza cada celda (la última posición marca el final).
+     */
+    private final int[] inicioCelda;
+
+    /**
+     * Índices de las plantillas ordenados por celda.
+     */
+    private final int[] miembros;
+
+    /**
+     * Norma del vector de cada plantilla a partir de cada corte, CORTES.length valores por plantilla.
+     */
+    private final float[] restos;
+
+    /**
+     * Constructor con las tolerancias por defecto.
+     * @param plantillas plantillas a indexar
+     */
+    IndicePlantillas(PlantillasGestos plantillas) {
+        this(plantillas, TOLERANCIAS);
+    }
+
+    /**
+     * Constructor de la clase.
+     * @param plantillas plantillas a indexar
+     * @param tolerancias tolerancia de cada característica, mayor tolerancia revisa más plantillas
+     */
+    IndicePlantillas(PlantillasGestos plantillas, float[] tolerancias) {
+        if (tolerancias.length != NUM_CARACTERISTICAS) {
+            throw new IllegalArgumentException("Hacen falta " + NUM_CARACTERISTICAS + " tolerancias");
+        }
+        this.plantillas = plantillas;
+        this.tolerancias = tolerancias.clone();
+
+        int n = plantillas.tamano();
+        float[] vector = new float[UtilGestos.LONGITUD_VECTOR];
+        float[] todas = new float[n * NUM_CARACTERISTICAS];
+        float[] caracteristicas = new float[NUM_CARACTERISTICAS];
+        float[] maximos = new float[NUM_CARACTERISTICAS];
+        for (int c = 0; c < NUM_CARACTERISTICAS; c++) {
+            minimos[c] = Float.MAX_VALUE;
+            maximos[c] = -Float.MAX_VALUE;
+        }
+
+        restos = new float[n * CORTES.length];
+        for (int p = 0; p < n; p++) {
+            plantillas.vector(p, vector);
+            caracteristicas(vector, caracteristicas);
+            for (int c = 0; c < NUM_CARACTERISTICAS; c++) {
+                todas[p * NUM_CARACTERISTICAS + c] = caracteristicas[c];
+                minimos[c] = Math.min(minimos[c], caracteristicas[c]);
+                maximos[c] = Math.max(maximos[c], caracteristicas[c]);
+            }
+            for (int k = 0; k < CORTES.length; k++) {
+                restos[p * CORTES.length + k] = normaDesde(vector, CORTES[k]);
+            }
+        }
+        for (int c = 0; c < NUM_CARACTERISTICAS; c++) {
+            // Con pocas plantillas el rango puede ser nulo, el ancho mínimo es la tolerancia.
+            anchos[c] = Math.max((maximos[c] - minimos[c]) / CASILLAS, this.tolerancias[c]);
+            if (anchos[c] <= 0) {
+                anchos[c] = 1;
+            }
+        }
+
+        // Reparto de las plantillas en celdas, contando primero cuántas caen en cada una.
+        int numCeldas = 1;
+        for (int c = 0; c < NUM_CARACTERISTICAS; c++) {
+            numCeldas *= CASILLAS;
+        }
+        int[] celdaDe = new int[n];
+        inicioCelda = new int[numCeldas + 1];
+        for (int p = 0; p < n; p++) {
+            int celda = 0;
+            for (int c = 0; c < NUM_CARACTERISTICAS; c++) {
+                celda = celda * CASILLAS + casilla(c, todas[p * NUM_CARACTERISTICAS + c]);
+            }
+            celdaDe[p] = celda;
+            inicioCelda[celda + 1]++;
+        }
+        for (int i = 0; i < numCeldas; i++) {
+            inicioCelda[i + 1] += inicioCelda[i];
+        }
+        miembros = new int[n];
+        int[] siguiente = new int[numCeldas];
+        System.arraycopy(inicioCelda, 0, siguiente, 0, numCeldas);
+        for (int p = 0; p < n; p++) {
+            miembros[siguiente[celdaDe[p]]++] = p;
+        }
+    }
+
+    /**
+     * @return plantillas indexadas
+     */
+    PlantillasGestos plantillas() {
+        return plantillas;
+    }
+
+    /**
+     * Función que busca las plantillas de las celdas cercanas a unas características.
+     * @param caracteristicas características del trazo, calculadas con caracteristicas()
+     * @param destino buffer donde se escriben los índices de los candidatos, de tamaño plantillas().tamano()
+     * @return número de candidatos escritos en destino
+     */
+    int candidatos(float[] caracteristicas, int[] destino) {
+        // Rango de casillas a revisar en cada dimensión, guardados en variables para no reservar memoria.
+        int d0 = casilla(0, caracteristicas[0] - tolerancias[0]), h0 = casilla(0, caracteristicas[0] + tolerancias[0]);
+        int d1 = casilla(1, caracteristicas[1] - tolerancias[1]), h1 = casilla(1, caracteristicas[1] + tolerancias[1]);
+        int d2 = casilla(2, caracteristicas[2] - tolerancias[2]), h2 = casilla(2, caracteristicas[2] + tolerancias[2]);
+        int d3 = casilla(3, caracteristicas[3] - tolerancias[3]), h3 = casilla(3, caracteristicas[3] + tolerancias[3]);
+
+        int cuenta = 0;
+        for (int c0 = d0; c0 <= h0; c0++) {
+            for (int c1 = d1; c1 <= h1; c1++) {
+                for (int c2 = d2; c2 <= h2; c2++) {
+                    int base = ((c0 * CASILLAS + c1) * CASILLAS + c2) * CASILLAS;
+                    int desde = inicioCelda[base + d3];
+                    int hasta = inicioCelda[base + h3 + 1];
+                    System.arraycopy(miembros, desde, destino, cuenta, hasta - desde);
+                    cuenta += hasta - desde;
+                }
+            }
+        }
+        return cuenta;
+    }
+
+    /**
+     * @param plantilla índice de la plantilla
+     * @param corte índice en CORTES
+     * @return norma del vector de la plantilla a partir de CORTES[corte]
+     */
+    float resto(int plantilla, int corte) {
+        return restos[plantilla * CORTES.length + corte];
+    }
+
+    /**
+     * Función que calcula la norma de un vector a partir de una posición.
+     * @param vector vector
+     * @param desde primera posición incluida
+     * @return norma de los valores desde esa posición
+     */
+    static float normaDesde(float[] vector, int desde) {
+        float suma = 0;
+        for (int i = desde; i < UtilGestos.LONGITUD_VECTOR; i++) {
+            suma += vector[i] * vector[i];
+        }
+        return (float) Math.sqrt(suma);
+    }
+
+    /**
+     * Función que calcula las características globales de un vector normalizado.
+     * @param vector vector calculado con UtilGestos.vectorizar
+     * @param destino buffer de NUM_CARACTERISTICAS valores
+     */
+    static void caracteristicas(float[] vector, float[] destino) {
+        final int ultimo = UtilGestos.LONGITUD_VECTOR - 2;
+
+        float longitud = 0;
+        float sxx = 0, syy = 0, sxy = 0;
+        for (int i = 0; i <= ultimo; i += 2) {
+            float x = vector[i];
+            float y = vector[i + 1];
+            if (i > 0) {
+                longitud += (float) Math.hypot(x - vector[i - 2], y - vector[i - 1]);
+            }
+            // El vector ya está centrado en su centroide.
+            sxx += x * x;
+            syy += y * y;
+            sxy += x * y;
+        }
+
+        float cierre = (float) Math.hypot(vector[ultimo] - vector[0], vector[ultimo + 1] - vector[1]);
+
+        // Relación entre los ejes principales, a partir de los autovalores de la covarianza.
+        float mitad = (sxx + syy) / 2;
+        float raiz = (float) Math.sqrt((sxx - syy) * (sxx - syy) / 4 + sxy * sxy);
+        float elongacion = mitad + raiz > 0 ? (float) Math.sqrt(Math.max(0, mitad - raiz) / (mitad + raiz)) : 0;
+
+        // Las direcciones se miden sobre varios puntos para que no dependan del ruido de un solo segmento.
+        float ix = vector[TRAMO_GIRO] - vector[0], iy = vector[TRAMO_GIRO + 1] - vector[1];
+        float fx = vector[ultimo] - vector[ultimo - TRAMO_GIRO], fy = vector[ultimo + 1] - vector[ultimo - TRAMO_GIRO + 1];
+        float normas = (float) (Math.hypot(ix, iy) * Math.hypot(fx, fy));
+        float giro = normas > 0 ? (float) Math.acos(Math.max(-1, Math.min(1, (ix * fx + iy * fy) / normas))) : 0;
+
+        destino[0] = longitud;
+        destino[1] = cierre;
+        destino[2] = elongacion;
+        destino[3] = giro;
+    }
+
+    /**
+     * Función que calcula la casilla de un valor de una característica, los valores fuera de rango van a los extremos.
+     */
+    private int casilla(int caracteristica, float valor) {
+        int casilla = (int) Math.floor((valor - minimos[caracteristica]) / anchos[caracteristica]);
+        if (casilla < 0) {
+            return 0;
+        }
+        return casilla >= CASILLAS ? CASILLAS - 1 : casilla;
+    }
+}
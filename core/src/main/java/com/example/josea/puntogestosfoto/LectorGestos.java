@@ -0,0 +1,89 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Clase que lee el fichero de gestos generado por Gesture Builder (el mismo formato que usa GestureStore),
+ * para poder usar las plantillas fuera de Android, por ejemplo en los tests.
+ *
+ * Formato (big-endian, igual que DataOutputStream):
+ * versión (short), número de entradas (int) y por cada entrada: nombre (UTF), número de gestos (int)
+ * y por cada gesto: id (long), número de trazos (int) y por cada trazo: número de puntos (int)
+ * y por cada punto: x (float), y (float), tiempo (long).
+ */
+final class LectorGestos {
+    /**
+     * Única versión del formato que existe.
+     */
+    static final short VERSION = 1;
+
+    private LectorGestos() {
+    }
+
+    /**
+     * Función que lee todos los gestos del flujo, no lo cierra.
+     * @param entrada flujo con el contenido del fichero de gestos
+     * @return lista con todas las muestras de gestos del fichero
+     * @throws IOException si el fichero está mal formado o no se puede leer
+     */
+    static List<GestoGrabado> leer(InputStream entrada) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(entrada));
+
+        short version = in.readShort();
+        if (version != VERSION) {
+            throw new IOException("Versión de fichero de gestos no soportada: " + version);
+        }
+
+        List<GestoGrabado> gestos = new ArrayList<GestoGrabado>();
+        int entradas = in.readInt();
+        for (int i = 0; i < entradas; i++) {
+            String nombre = in.readUTF();
+            int numGestos = in.readInt();
+            for (int j = 0; j < numGestos; j++) {
+                long id = in.readLong();
+                int numTrazos = in.readInt();
+                float[][] trazos = new float[numTrazos][];
+                long[][] tiempos = new long[numTrazos][];
+                for (int k = 0; k < numTrazos; k++) {
+                    int numPuntos = in.readInt();
+                    if (numPuntos < 0) {
+                        throw new IOException("Número de puntos negativo en el gesto " + nombre);
+                    }
+                    float[] puntos = new float[numPuntos * 2];
+                    long[] t = new long[numPuntos];
+                    for (int p = 0; p < numPuntos; p++) {
+                        puntos[p * 2] = in.readFloat();
+                        puntos[p * 2 + 1] = in.readFloat();
+                        t[p] = in.readLong();
+                    }
+                    trazos[k] = puntos;
+                    tiempos[k] = t;
+                }
+                gestos.add(new GestoGrabado(nombre, id, trazos, tiempos));
+            }
+        }
+        return gestos;
+    }
+}
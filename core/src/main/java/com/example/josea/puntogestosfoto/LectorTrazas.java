@@ -0,0 +1,213 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Clase que lee un fichero de trazas grabado con GrabadorTrazas gesto a gesto, sin cargarlo entero. Los buffers
+ * del gesto actual se reutilizan, así que se pueden leer miles de gestos sin reservar memoria para cada uno.
+ *
+ * Si el fichero termina a mitad de un gesto (se mató la aplicación mientras se volcaba), ese gesto se ignora y
+ * truncado() lo indica.
+ */
+final class LectorTrazas {
+    private final InputStream in;
+
+    /**
+     * Gesto actual: etiqueta, instante, puntos intercalados y tiempos de todos sus trazos seguidos, y por cada
+     * trazo, número de puntos acumulados hasta su final.
+     */
+    private String etiqueta;
+    private long instante;
+    private float[] puntos = new float[512];
+    private long[] tiempos = new long[256];
+    private int[] finTrazos = new int[4];
+    private int numTrazos;
+    private byte[] texto = new byte[32];
+    private boolean truncado;
+
+    /**
+     * Constructor de la clase, lee y comprueba la cabecera. No cierra el flujo.
+     * @param entrada flujo con el fichero de trazas
+     * @throws IOException si no es un fichero de trazas o no se puede leer
+     */
+    LectorTrazas(InputStream entrada) throws IOException {
+        in = new BufferedInputStream(entrada);
+        int magico = 0;
+        for (int i = 0; i < 4; i++) {
+            magico = magico << 8 | leerByte();
+        }
+        if (magico != GrabadorTrazas.MAGICO) {
+            throw new IOException("No es un fichero de trazas");
+        }
+        int version = leerByte();
+        if (version != GrabadorTrazas.VERSION) {
+            throw new IOException("Versión de fichero de trazas no soportada: " + version);
+        }
+    }
+
+    /**
+     * Función que lee el siguiente gesto.
+     * @return false si no quedan más gestos
+     * @throws IOException si el fichero está mal formado o no se puede leer
+     */
+    boolean siguiente() throws IOException {
+        int tipo = in.read();
+        if (tipo < 0) {
+            return false;
+        }
+        if (tipo != GrabadorTrazas.TIPO_GESTO) {
+            throw new IOException("Registro de traza no válido: " + tipo);
+        }
+        try {
+            leerGesto();
+            return true;
+        } catch (EOFException e) {
+            truncado = true;
+            return false;
+        }
+    }
+
+    /**
+     * @return gesto que se quería hacer, vacía si no se sabe
+     */
+    String etiqueta() {
+        return etiqueta;
+    }
+
+    /**
+     * @return instante del primer punto en ms
+     */
+    long instante() {
+        return instante;
+    }
+
+    /**
+     * @return número de trazos del gesto actual
+     */
+    int numTrazos() {
+        return numTrazos;
+    }
+
+    /**
+     * @param trazo índice del trazo
+     * @return índice del primer punto del trazo en puntos() y tiempos()
+     */
+    int inicioTrazo(int trazo) {
+        return trazo == 0 ? 0 : finTrazos[trazo - 1];
+    }
+
+    /**
+     * @param trazo índice del trazo
+     * @return número de puntos del trazo
+     */
+    int numPuntos(int trazo) {
+        return finTrazos[trazo] - inicioTrazo(trazo);
+    }
+
+    /**
+     * @return puntos intercalados (x, y) de todos los trazos del gesto actual, válido hasta la siguiente lectura
+     */
+    float[] puntos() {
+        return puntos;
+    }
+
+    /**
+     * @return instante en ms de cada punto del gesto actual, válido hasta la siguiente lectura
+     */
+    long[] tiempos() {
+        return tiempos;
+    }
+
+    /**
+     * @return true si el fichero terminaba a mitad de un gesto
+     */
+    boolean truncado() {
+        return truncado;
+    }
+
+    private void leerGesto() throws IOException {
+        instante = leerVarint();
+        int longitud = (int) leerVarint();
+        if (longitud > texto.length) {
+            texto = new byte[longitud];
+        }
+        for (int i = 0; i < longitud; i++) {
+            texto[i] = (byte) leerByte();
+        }
+        etiqueta = new String(texto, 0, longitud, "UTF-8");
+
+        numTrazos = (int) leerVarint();
+        if (numTrazos > finTrazos.length) {
+            finTrazos = new int[numTrazos];
+        }
+        long tiempo = instante;
+        int x = 0;
+        int y = 0;
+        int p = 0;
+        for (int t = 0; t < numTrazos; t++) {
+            int numPuntos = (int) leerVarint();
+            if (p + numPuntos > tiempos.length) {
+                long[] nuevosTiempos = new long[Math.max(tiempos.length * 2, p + numPuntos)];
+                float[] nuevosPuntos = new float[nuevosTiempos.length * 2];
+                System.arraycopy(tiempos, 0, nuevosTiempos, 0, p);
+                System.arraycopy(puntos, 0, nuevosPuntos, 0, p * 2);
+                tiempos = nuevosTiempos;
+                puntos = nuevosPuntos;
+            }
+            for (int i = 0; i < numPuntos; i++, p++) {
+                tiempo += leerVarint();
+                x += deshacerZigzag(leerVarint());
+                y += deshacerZigzag(leerVarint());
+                tiempos[p] = tiempo;
+                puntos[p * 2] = x / (float) GrabadorTrazas.ESCALA;
+                puntos[p * 2 + 1] = y / (float) GrabadorTrazas.ESCALA;
+            }
+            finTrazos[t] = p;
+        }
+    }
+
+    private static int deshacerZigzag(long valor) {
+        int v = (int) valor;
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private long leerVarint() throws IOException {
+        long valor = 0;
+        for (int desplazamiento = 0; desplazamiento < 64; desplazamiento += 7) {
+            int b = leerByte();
+            valor |= (long) (b & 0x7F) << desplazamiento;
+            if ((b & 0x80) == 0) {
+                return valor;
+            }
+        }
+        throw new IOException("Entero mal formado en el fichero de trazas");
+    }
+
+    private int leerByte() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.example.josea.puntogestosfoto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Clase con los datos de la captura que se guardan dentro de cada foto: gesto que la disparó, su puntuación y
+ * el instante de la foto.
+ *
+ * Se guardan como XMP en un segmento APP1, que leen las galerías y los programas de fotos, con la fecha en
+ * xmp:CreateDate y el resto en atributos propios de la aplicación.
+ */
+final class MetadatosCaptura {
+    /**
+     * Espacio de nombres de los atributos propios en el XMP.
+     */
+    static final String ESPACIO = "http://josea.example.com/puntogestosfoto/1.0/";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String gesto;
+    private final double puntuacion;
+    private final long instante;
+
+    /**
+     * Constructor de la clase.
+     * @param gesto nombre del gesto que disparó la foto
+     * @param puntuacion puntuación con la que se reconoció
+     * @param instante milisegundos desde 1970 en que se hizo la foto
+     */
+    MetadatosCaptura(String gesto, double puntuacion, long instante) {
+        this.gesto = gesto;
+        this.puntuacion = puntuacion;
+        this.instante = instante;
+    }
+
+    /**
+     * @return nombre del gesto que disparó la foto
+     */
+    String gesto() {
+        return gesto;
+    }
+
+    /**
+     * @return puntuación con la que se reconoció el gesto
+     */
+    double puntuacion() {
+        return puntuacion;
+    }
+
+    /**
+     * @return milisegundos desde 1970 en que se hizo la foto
+     */
+    long instante() {
+        return instante;
+    }
+
+    /**
+     * Función que crea el segmento APP1 con el XMP de estos datos, listo para SegmentosJpeg.conSegmento.
+     * @return segmento completo, desde el marcador
+     */
+    ByteBuffer segmentoXmp() {
+        SimpleDateFormat fecha = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        fecha.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String paquete = "<?xpacket begin=\"\uFEFF\" id=\"W5M0MpCehiHzreSzNTczkc9d\"?>"
+                + "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\">"
+                + "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">"
+                + "<rdf:Description rdf:about=\"\" xmlns:xmp=\"http://ns.adobe.com/xap/1.0/\""
+                + " xmlns:pgf=\"" + ESPACIO + "\""
+                + " xmp:CreateDate=\"" + fecha.format(new Date(instante)) + "\""
+                + " xmp:CreatorTool=\"PuntoGestoFoto\""
+                + " pgf:Gesto=\"" + escapar(gesto) + "\""
+                + " pgf:Puntuacion=\"" + String.format(Locale.US, "%.3f", puntuacion) + "\""
+                + " pgf:Instante=\"" + instante + "\"/>"
+                + "</rdf:RDF></x:xmpmeta><?xpacket end=\"w\"?>";
+        byte[] bytes = paquete.getBytes(UTF8);
+        int longitud = 2 + SegmentosJpeg.ID_XMP.length + bytes.length;
+        if (longitud > 0xFFFF) {
+            throw new IllegalArgumentException("Metadatos demasiado largos: " + longitud + " bytes");
+        }
+        ByteBuffer segmento = ByteBuffer.allocate(2 + longitud);
+        segmento.put((byte) 0xFF).put((byte) SegmentosJpeg.APP1).putShort((short) longitud);
+        segmento.put(SegmentosJpeg.ID_XMP).put(bytes);
+        segmento.flip();
+        return segmento;
+    }
+
+    /**
+     * Función que lee los datos de la aplicación de un paquete XMP.
+     * @param xmp paquete XMP, como lo da SegmentosJpeg.xmp; no se cambia su posición
+     * @return datos leídos, o null si el XMP no es de esta aplicación
+     */
+    static MetadatosCaptura leer(ByteBuffer xmp) {
+        ByteBuffer copia = xmp.duplicate();
+        byte[] bytes = new byte[copia.remaining()];
+        copia.get(bytes);
+        String paquete = new String(bytes, UTF8);
+        String gesto = atributo(paquete, "pgf:Gesto");
+        String puntuacion = atributo(paquete, "pgf:Puntuacion");
+        String instante = atributo(paquete, "pgf:Instante");
+        if (!paquete.contains(ESPACIO) || gesto == null || puntuacion == null || instante == null) {
+            return null;
+        }
+        try {
+            return new MetadatosCaptura(gesto, Double.parseDouble(puntuacion), Long.parseLong(instante));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return valor del atributo sin escapar, o null si no está
+     */
+    private static String atributo(String paquete, String nombre) {
+        String buscado = " " + nombre + "=\"";
+        int inicio = paquete.indexOf(buscado);
+        if (inicio < 0) {
+            return null;
+        }
+        inicio += buscado.length();
+        int fin = paquete.indexOf('"', inicio);
+        if (fin < 0) {
+            return null;
+        }
+        return paquete.substring(inicio, fin).replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+                .replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+    private static String escapar(String texto) {
+        return texto.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;")
+                .replace("'", "&apos;");
+    }
+}
@@ -0,0 +1,422 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Clase que elige juntos el tamaño de la vista previa, el tamaño de la foto y el rango de FPS de la vista previa.
+ *
+ * Cada combinación se puntúa con un coste (menor es mejor) que suma:
+ * - la diferencia de proporción entre la vista previa y la vista, y entre la foto y la vista previa,
+ * - lo lejos que está la altura de la vista previa de la de la vista,
+ * - la memoria de los buffers de la vista previa que pasa del presupuesto,
+ * - lo lejos que está la foto de la mayor que da la cámara, o del límite de píxeles si se ha puesto uno,
+ * - lo lejos que está el rango de FPS de 30 y si la vista previa a esos FPS pasa de lo que da el sensor.
+ *
+ * El resultado se guarda por cámara, tamaño de la vista, capacidades de la cámara y límite de la foto, en memoria
+ * y en un fichero, así en el siguiente arranque no hay que volver a recorrer las listas. Se puede usar desde
+ * varios hilos.
+ */
+final class NegociadorResolucion {
+    /**
+     * Tolerancia de proporción con la que una foto se considera de la misma forma que la vista previa.
+     */
+    static final double TOLERANCIA_ASPECTO = 0.1;
+
+    /**
+     * Buffers de vista previa que se reservan (NV21, 12 bits por píxel) y memoria máxima para ellos.
+     */
+    static final int BUFFERS_VISTA = 3;
+    static final long PRESUPUESTO_VISTA = 8L * 1024 * 1024;
+
+    /**
+     * Límite de píxeles de la foto que indica que no hay límite: se busca la mayor que da la cámara.
+     */
+    static final long SIN_LIMITE_FOTO = 0;
+
+    /**
+     * FPS objetivo (en milésimas, como Camera.Parameters) y píxeles por segundo que da el sensor en vista previa.
+     */
+    static final int FPS_OBJETIVO = 30000;
+    static final long CAPACIDAD_SENSOR = 1920L * 1080 * 30;
+
+    private static final double PESO_ASPECTO = 4;
+    private static final double PESO_TAMANO = 1;
+    private static final double PESO_MEMORIA = 2;
+    private static final double PESO_ASPECTO_FOTO = 3;
+    private static final double PESO_PIXELES_FOTO = 0.5;
+    private static final double PESO_FPS = 1;
+
+    /**
+     * Capacidades de una cámara: listas de tamaños y rangos con los valores intercalados.
+     */
+    static final class Capacidades {
+        final int[] tamanosVista;
+        final int[] tamanosFoto;
+        final int[] rangosFps;
+
+        /**
+         * Constructor de la clase.
+         * @param tamanosVista anchos y altos intercalados de la vista previa
+         * @param tamanosFoto anchos y altos intercalados de la foto
+         * @param rangosFps mínimos y máximos intercalados de FPS en milésimas
+         */
+        Capacidades(int[] tamanosVista, int[] tamanosFoto, int[] rangosFps) {
+            this.tamanosVista = tamanosVista;
+            this.tamanosFoto = tamanosFoto;
+            this.rangosFps = rangosFps;
+        }
+
+        /**
+         * @param parametros parámetros de la cámara
+         * @return capacidades leídas de los parámetros
+         */
+        static Capacidades desde(ParametrosCamara parametros) {
+            return new Capacidades(parametros.tamanos(ParametrosCamara.TAMANOS_VISTA_PREVIA),
+                    parametros.tamanos(ParametrosCamara.TAMANOS_FOTO),
+                    parametros.rangos(ParametrosCamara.RANGOS_FPS));
+        }
+
+        /**
+         * @return texto corto que cambia si cambia alguna lista, para no usar perfiles de otra versión del sistema
+         */
+        String huella() {
+            int h = Arrays.hashCode(tamanosVista);
+            h = 31 * h + Arrays.hashCode(tamanosFoto);
+            h = 31 * h + Arrays.hashCode(rangosFps);
+            return Integer.toHexString(h);
+        }
+    }
+
+    /**
+     * Configuración elegida. Los valores a 0 indican que la cámara no da esa lista y se deja el de por defecto.
+     */
+    static final class Perfil {
+        final int anchoVista, altoVista;
+        final int anchoFoto, altoFoto;
+        final int fpsMinimo, fpsMaximo;
+
+        Perfil(int anchoVista, int altoVista, int anchoFoto, int altoFoto, int fpsMinimo, int fpsMaximo) {
+            this.anchoVista = anchoVista;
+            this.altoVista = altoVista;
+            this.anchoFoto = anchoFoto;
+            this.altoFoto = altoFoto;
+            this.fpsMinimo = fpsMinimo;
+            this.fpsMaximo = fpsMaximo;
+        }
+
+        /**
+         * @return texto con el que se guarda, "1280x720;2048x1536;15000,30000"
+         */
+        String aTexto() {
+            return anchoVista + "x" + altoVista + ";" + anchoFoto + "x" + altoFoto + ";" + fpsMinimo + "," + fpsMaximo;
+        }
+
+        /**
+         * Dos perfiles son iguales si configuran la cámara igual, aunque uno se haya leído del fichero y el otro
+         * se haya negociado. Así se sabe si hace falta volver a aplicarlo.
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Perfil)) {
+                return false;
+            }
+            Perfil p = (Perfil) o;
+            return anchoVista == p.anchoVista && altoVista == p.altoVista && anchoFoto == p.anchoFoto
+                    && altoFoto == p.altoFoto && fpsMinimo == p.fpsMinimo && fpsMaximo == p.fpsMaximo;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new int[]{anchoVista, altoVista, anchoFoto, altoFoto, fpsMinimo, fpsMaximo});
+        }
+
+        /**
+         * @param texto texto guardado con aTexto
+         * @return perfil, o null si el texto no es válido
+         */
+        static Perfil desdeTexto(String texto) {
+            String[] partes = texto.split("[;x,]");
+            if (partes.length != 6) {
+                return null;
+            }
+            try {
+                int[] v = new int[6];
+                for (int i = 0; i < 6; i++) {
+                    v[i] = Integer.parseInt(partes[i]);
+                }
+                return new Perfil(v[0], v[1], v[2], v[3], v[4], v[5]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return aTexto();
+        }
+    }
+
+    /**
+     * Fichero donde se guardan los perfiles, null para no guardarlos.
+     */
+    private final File fichero;
+
+    /**
+     * Perfiles por clave (cámara, tamaño de la vista y huella de las capacidades).
+     */
+    private final Map<String, Perfil> perfiles = new HashMap<String, Perfil>();
+
+    /**
+     * Píxeles máximos de la foto, SIN_LIMITE_FOTO para la mayor que da la cámara.
+     */
+    private final long limitePixelesFoto;
+
+    /**
+     * Si hay perfiles nuevos sin guardar y veces que se han recorrido las listas.
+     */
+    private boolean cambiado;
+    private int calculados;
+
+    /**
+     * Constructor de la clase, con la foto más grande que dé la cámara. No lee el fichero hasta llamar a cargar.
+     * @param fichero fichero de perfiles, null para no guardarlos
+     */
+    NegociadorResolucion(File fichero) {
+        this(fichero, SIN_LIMITE_FOTO);
+    }
+
+    /**
+     * Constructor de la clase con un límite para la foto, por ejemplo para que las ráfagas ocupen menos memoria.
+     * No lee el fichero hasta llamar a cargar.
+     * @param fichero fichero de perfiles, null para no guardarlos
+     * @param limitePixelesFoto píxeles a los que se acerca la foto sin pasarse si puede, SIN_LIMITE_FOTO para
+     *                          la mayor que da la cámara
+     */
+    NegociadorResolucion(File fichero, long limitePixelesFoto) {
+        this.fichero = fichero;
+        this.limitePixelesFoto = limitePixelesFoto;
+    }
+
+    /**
+     * Función que da el perfil para una cámara y un tamaño de vista, calculándolo solo si no se conoce.
+     * @param idCamara identificador de la cámara
+     * @param capacidades capacidades de la cámara
+     * @param ancho anchura de la vista
+     * @param alto altura de la vista
+     * @return perfil elegido, null si la cámara no da tamaños de vista previa
+     */
+    synchronized Perfil negociar(int idCamara, Capacidades capacidades, int ancho, int alto) {
+        // El límite va en la clave: un perfil elegido con otro límite tiene otra foto.
+        String clave = idCamara + ":" + ancho + "x" + alto + ":" + capacidades.huella() + ":" + limitePixelesFoto;
+        Perfil perfil = perfiles.get(clave);
+        if (perfil == null) {
+            perfil = elegir(capacidades, ancho, alto, limitePixelesFoto);
+            if (perfil == null) {
+                return null;
+            }
+            calculados++;
+            perfiles.put(clave, perfil);
+            cambiado = true;
+        }
+        return perfil;
+    }
+
+    /**
+     * @return veces que se han recorrido las listas porque no se conocía el perfil
+     */
+    synchronized int calculados() {
+        return calculados;
+    }
+
+    /**
+     * @return true si hay perfiles que no están en el fichero
+     */
+    synchronized boolean cambiado() {
+        return cambiado;
+    }
+
+    /**
+     * Función que lee los perfiles del fichero, si no existe no hace nada. Los perfiles ya calculados se mantienen.
+     * @throws IOException si no se puede leer
+     */
+    synchronized void cargar() throws IOException {
+        if (fichero == null || !fichero.exists()) {
+            return;
+        }
+        Properties guardados = new Properties();
+        InputStream in = new FileInputStream(fichero);
+        try {
+            guardados.load(in);
+        } finally {
+            in.close();
+        }
+        for (String clave : guardados.stringPropertyNames()) {
+            Perfil perfil = Perfil.desdeTexto(guardados.getProperty(clave));
+            if (perfil != null && !perfiles.containsKey(clave)) {
+                perfiles.put(clave, perfil);
+            }
+        }
+    }
+
+    /**
+     * Función que guarda los perfiles en el fichero, si hay alguno nuevo.
+     * @throws IOException si no se puede escribir
+     */
+    synchronized void guardar() throws IOException {
+        if (fichero == null || !cambiado) {
+            return;
+        }
+        Properties guardados = new Properties();
+        for (Map.Entry<String, Perfil> entrada : perfiles.entrySet()) {
+            guardados.setProperty(entrada.getKey(), entrada.getValue().aTexto());
+        }
+        File temporal = new File(fichero.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temporal);
+        try {
+            guardados.store(out, "Perfiles de resolucion de la camara");
+            out.getChannel().force(true);
+        } finally {
+            out.close();
+        }
+        if (!temporal.renameTo(fichero)) {
+            temporal.delete();
+            throw new IOException("No se ha podido renombrar " + temporal + " a " + fichero);
+        }
+        cambiado = false;
+    }
+
+    /**
+     * Función que recorre todas las combinaciones y elige la de menor coste, con la foto más grande que dé la
+     * cámara.
+     * @param capacidades capacidades de la cámara
+     * @param ancho anchura de la vista
+     * @param alto altura de la vista
+     * @return perfil elegido, null si la cámara no da tamaños de vista previa o la vista no tiene tamaño
+     */
+    static Perfil elegir(Capacidades capacidades, int ancho, int alto) {
+        return elegir(capacidades, ancho, alto, SIN_LIMITE_FOTO);
+    }
+
+    /**
+     * Función que recorre todas las combinaciones y elige la de menor coste.
+     * @param capacidades capacidades de la cámara
+     * @param ancho anchura de la vista
+     * @param alto altura de la vista
+     * @param limitePixelesFoto píxeles a los que se acerca la foto, SIN_LIMITE_FOTO para la mayor que da la cámara
+     * @return perfil elegido, null si la cámara no da tamaños de vista previa o la vista no tiene tamaño
+     */
+    static Perfil elegir(Capacidades capacidades, int ancho, int alto, long limitePixelesFoto) {
+        int[] vistas = capacidades.tamanosVista;
+        int[] fotos = capacidades.tamanosFoto;
+        int[] rangos = capacidades.rangosFps;
+        if (vistas.length == 0 || ancho <= 0 || alto <= 0) {
+            return null;
+        }
+
+        // La foto objetivo es la mayor que da la cámara, o el límite si es menor.
+        long mayorFoto = 0;
+        for (int j = 0; j < fotos.length; j += 2) {
+            mayorFoto = Math.max(mayorFoto, (long) fotos[j] * fotos[j + 1]);
+        }
+        double pixelesObjetivo = limitePixelesFoto > SIN_LIMITE_FOTO ? Math.min(limitePixelesFoto, mayorFoto)
+                : mayorFoto;
+
+        double objetivo = (double) ancho / alto;
+        double mejorCoste = Double.MAX_VALUE;
+        int mejorVista = -1, mejorFoto = -1, mejorRango = -1;
+        for (int i = 0; i < vistas.length; i += 2) {
+            int w = vistas[i], h = vistas[i + 1];
+            double aspecto = (double) w / h;
+            double memoria = (double) w * h * 3 / 2 * BUFFERS_VISTA / PRESUPUESTO_VISTA;
+            double costeVista = PESO_ASPECTO * Math.abs(Math.log(aspecto / objetivo))
+                    + PESO_TAMANO * Math.abs(Math.log((double) h / alto))
+                    + PESO_MEMORIA * Math.max(0, memoria - 1);
+
+            int rango = -1;
+            if (rangos.length > 0) {
+                double mejorFps = Double.MAX_VALUE;
+                for (int k = 0; k < rangos.length; k += 2) {
+                    double coste = costeRango(rangos[k], rangos[k + 1], w, h);
+                    if (coste < mejorFps) {
+                        mejorFps = coste;
+                        rango = k;
+                    }
+                }
+                costeVista += PESO_FPS * mejorFps;
+            }
+            if (costeVista >= mejorCoste) {
+                continue;
+            }
+
+            int foto = -1;
+            double costeFoto = 0;
+            if (fotos.length > 0) {
+                costeFoto = Double.MAX_VALUE;
+                for (int j = 0; j < fotos.length; j += 2) {
+                    double coste = costeFoto(fotos[j], fotos[j + 1], aspecto, pixelesObjetivo);
+                    if (coste < costeFoto) {
+                        costeFoto = coste;
+                        foto = j;
+                    }
+                }
+            }
+            if (costeVista + costeFoto < mejorCoste) {
+                mejorCoste = costeVista + costeFoto;
+                mejorVista = i;
+                mejorFoto = foto;
+                mejorRango = rango;
+            }
+        }
+
+        return new Perfil(vistas[mejorVista], vistas[mejorVista + 1],
+                mejorFoto < 0 ? 0 : fotos[mejorFoto], mejorFoto < 0 ? 0 : fotos[mejorFoto + 1],
+                mejorRango < 0 ? 0 : rangos[mejorRango], mejorRango < 0 ? 0 : rangos[mejorRango + 1]);
+    }
+
+    /**
+     * Coste de un tamaño de foto: forma distinta de la vista previa (lo que se ve no sería lo que se guarda) y
+     * distancia al número de píxeles objetivo, pasarse cuesta el doble que quedarse corto.
+     */
+    private static double costeFoto(int w, int h, double aspectoVista, double pixelesObjetivo) {
+        double diferencia = Math.abs(Math.log((double) w / h / aspectoVista));
+        double aspecto = diferencia <= TOLERANCIA_ASPECTO ? diferencia : 1 + diferencia;
+        double pixeles = Math.log((double) w * h / pixelesObjetivo);
+        return PESO_ASPECTO_FOTO * aspecto + PESO_PIXELES_FOTO * (pixeles > 0 ? 2 * pixeles : -pixeles);
+    }
+
+    /**
+     * Coste de un rango de FPS para un tamaño de vista previa: distancia del máximo a FPS_OBJETIVO, preferencia
+     * por rangos amplios (con poca luz la cámara puede bajar los FPS) y exceso sobre lo que da el sensor.
+     */
+    private static double costeRango(int minimo, int maximo, int w, int h) {
+        double distancia = Math.abs(maximo - FPS_OBJETIVO) / (double) FPS_OBJETIVO;
+        double estrechez = maximo > 0 ? 0.1 * minimo / maximo : 0;
+        double exceso = (double) w * h * maximo / 1000 / CAPACIDAD_SENSOR;
+        return distancia + estrechez + Math.max(0, exceso - 1);
+    }
+}
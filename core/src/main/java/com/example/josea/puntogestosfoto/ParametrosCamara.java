@@ -0,0 +1,200 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Clase que guarda una copia de los parámetros de la cámara para no pedirlos a la cámara cada vez.
+ *
+ * Trabaja sobre el texto de Camera.Parameters.flatten() ("clave=valor;clave=valor"), así no depende de Android
+ * y se puede probar en la JVM. Los cambios se apuntan con poner y se aplican todos juntos con aplicarCambios, que
+ * devuelve el texto para Camera.Parameters.unflatten; si ningún valor cambia no hace falta llamar a setParameters.
+ *
+ * No es segura entre hilos, la usa solo el hilo de la sesión de la cámara.
+ */
+final class ParametrosCamara {
+    /**
+     * Claves de Camera.Parameters que usa la aplicación.
+     */
+    static final String TAMANO_VISTA_PREVIA = "preview-size";
+    static final String TAMANOS_VISTA_PREVIA = "preview-size-values";
+    static final String TAMANO_FOTO = "picture-size";
+    static final String TAMANOS_FOTO = "picture-size-values";
+    static final String MODO_ENFOQUE = "focus-mode";
+    static final String MODOS_ENFOQUE = "focus-mode-values";
+    static final String RANGO_FPS = "preview-fps-range";
+    static final String RANGOS_FPS = "preview-fps-range-values";
+
+    /**
+     * Valores actuales de la cámara, en el orden de flatten.
+     */
+    private final Map<String, String> valores = new LinkedHashMap<String, String>();
+
+    /**
+     * Cambios apuntados que todavía no se han aplicado.
+     */
+    private final Map<String, String> cambios = new LinkedHashMap<String, String>();
+
+    /**
+     * Constructor de la clase.
+     * @param aplanados texto de Camera.Parameters.flatten()
+     */
+    ParametrosCamara(String aplanados) {
+        for (String par : aplanados.split(";")) {
+            int igual = par.indexOf('=');
+            if (igual > 0) {
+                valores.put(par.substring(0, igual), par.substring(igual + 1));
+            }
+        }
+    }
+
+    /**
+     * @param clave clave del parámetro
+     * @return valor con los cambios pendientes incluidos, null si no existe
+     */
+    String valor(String clave) {
+        String cambiado = cambios.get(clave);
+        return cambiado != null ? cambiado : valores.get(clave);
+    }
+
+    /**
+     * Función que apunta un cambio, si el valor es el que ya tiene la cámara no se apunta.
+     * @param clave clave del parámetro
+     * @param valor valor nuevo
+     */
+    void poner(String clave, String valor) {
+        if (valor.equals(valores.get(clave))) {
+            cambios.remove(clave);
+        } else {
+            cambios.put(clave, valor);
+        }
+    }
+
+    /**
+     * @return true si hay algún cambio sin aplicar
+     */
+    boolean hayCambios() {
+        return !cambios.isEmpty();
+    }
+
+    /**
+     * @return número de parámetros cambiados sin aplicar
+     */
+    int numCambios() {
+        return cambios.size();
+    }
+
+    /**
+     * Función que aplica los cambios pendientes a la copia y devuelve el texto para pasar a la cámara.
+     * @return texto para Camera.Parameters.unflatten
+     */
+    String aplicarCambios() {
+        valores.putAll(cambios);
+        cambios.clear();
+        return aplanar();
+    }
+
+    /**
+     * Función que olvida los cambios pendientes, por ejemplo si la cámara los ha rechazado.
+     */
+    void descartarCambios() {
+        cambios.clear();
+    }
+
+    /**
+     * @return texto con los valores de la cámara sin los cambios pendientes, como Camera.Parameters.flatten()
+     */
+    String aplanar() {
+        StringBuilder texto = new StringBuilder();
+        for (Map.Entry<String, String> entrada : valores.entrySet()) {
+            if (texto.length() > 0) {
+                texto.append(';');
+            }
+            texto.append(entrada.getKey()).append('=').append(entrada.getValue());
+        }
+        return texto.toString();
+    }
+
+    /**
+     * @param clave clave de una lista de valores, como MODOS_ENFOQUE
+     * @return valores de la lista, vacía si no existe
+     */
+    List<String> lista(String clave) {
+        String valor = valor(clave);
+        if (valor == null || valor.length() == 0) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<String>(Arrays.asList(valor.split(",")));
+    }
+
+    /**
+     * @param clave clave de una lista de tamaños, como TAMANOS_VISTA_PREVIA
+     * @return anchos y altos intercalados, vacío si no existe
+     */
+    int[] tamanos(String clave) {
+        List<String> lista = lista(clave);
+        int[] tamanos = new int[lista.size() * 2];
+        int n = 0;
+        for (String tamano : lista) {
+            int x = tamano.indexOf('x');
+            if (x > 0) {
+                tamanos[n++] = Integer.parseInt(tamano.substring(0, x).trim());
+                tamanos[n++] = Integer.parseInt(tamano.substring(x + 1).trim());
+            }
+        }
+        return n == tamanos.length ? tamanos : Arrays.copyOf(tamanos, n);
+    }
+
+    /**
+     * @param clave clave de una lista de rangos "(min,max),(min,max)", como RANGOS_FPS
+     * @return mínimos y máximos intercalados, vacío si no existe
+     */
+    int[] rangos(String clave) {
+        String valor = valor(clave);
+        if (valor == null) {
+            return new int[0];
+        }
+        List<String> numeros = new ArrayList<String>();
+        for (String numero : valor.replace("(", "").replace(")", "").split(",")) {
+            if (numero.trim().length() > 0) {
+                numeros.add(numero.trim());
+            }
+        }
+        int[] rangos = new int[numeros.size() / 2 * 2];
+        for (int i = 0; i < rangos.length; i++) {
+            rangos[i] = Integer.parseInt(numeros.get(i));
+        }
+        return rangos;
+    }
+
+    /**
+     * Función que apunta un cambio de tamaño.
+     * @param clave clave del tamaño, como TAMANO_VISTA_PREVIA
+     * @param ancho anchura
+     * @param alto altura
+     */
+    void ponerTamano(String clave, int ancho, int alto) {
+        poner(clave, ancho + "x" + alto);
+    }
+}
@@ -0,0 +1,274 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+/**
+ * Clase que lleva la cuenta atrás antes de hacer la foto, sustituye a los Handler anidados de cada gesto.
+ *
+ * Solo hay una cuenta atrás a la vez y una sola tarea programada en el temporizador. Si se pide otra captura
+ * durante una cuenta atrás, según la política se ignora (devolviendo la cuenta atrás en curso, así varias
+ * peticiones del mismo trazo se juntan en una) o se reinicia la cuenta. Si la cuenta termina mientras la captura
+ * anterior no ha acabado, se espera a que acabe para no llamar a takePicture dos veces a la vez.
+ *
+ * No es segura entre hilos, se debe usar desde el hilo del temporizador (el hilo principal en Android).
+ */
+final class PlanificadorCaptura {
+    /**
+     * Qué hacer con una petición que llega durante una cuenta atrás.
+     */
+    enum Politica {
+        /** Se mantiene la cuenta atrás en curso. */
+        IGNORAR,
+        /** Se cancela la cuenta atrás en curso y empieza una nueva con la última petición. */
+        REINICIAR
+    }
+
+    /**
+     * Interfaz para programar tareas, con un Handler en Android y con un reloj virtual en los tests.
+     */
+    interface Temporizador {
+        /**
+         * @param tarea tarea a ejecutar
+         * @param retraso milisegundos hasta ejecutarla
+         */
+        void programar(Runnable tarea, long retraso);
+
+        /**
+         * @param tarea tarea programada que ya no se debe ejecutar
+         */
+        void cancelar(Runnable tarea);
+    }
+
+    /**
+     * Interfaz para mostrar la cuenta atrás y hacer las fotos.
+     */
+    interface Oyente {
+        /**
+         * @param restantes pasos que quedan para la foto, el primero es el número de intervalos
+         */
+        void tic(int restantes);
+
+        /**
+         * Función llamada al terminar la cuenta atrás. Al acabar la captura se debe llamar a capturaTerminada.
+         * @param fotos fotos pedidas
+         */
+        void capturar(int fotos);
+    }
+
+    /**
+     * Cuenta atrás pedida, sirve para cancelarla.
+     */
+    final class Token {
+        private final int fotos;
+
+        private Token(int fotos) {
+            this.fotos = fotos;
+        }
+
+        /**
+         * @return fotos que se harán al terminar la cuenta atrás
+         */
+        int fotos() {
+            return fotos;
+        }
+
+        /**
+         * @return true si la cuenta atrás sigue en curso o esperando a la captura anterior
+         */
+        boolean activo() {
+            return actual == this;
+        }
+
+        /**
+         * Función que cancela esta cuenta atrás si sigue activa.
+         * @return true si se ha cancelado
+         */
+        boolean cancelar() {
+            if (actual != this) {
+                return false;
+            }
+            temporizador.cancelar(paso);
+            actual = null;
+            esperandoCaptura = false;
+            return true;
+        }
+    }
+
+    private final Temporizador temporizador;
+    private final Oyente oyente;
+    private final long[] intervalos;
+    private final Politica politica;
+
+    /**
+     * Única tarea que se programa, avanza la cuenta atrás un paso.
+     */
+    private final Runnable paso = new Runnable() {
+        public void run() {
+            avanzar();
+        }
+    };
+
+    /**
+     * Cuenta atrás en curso (null si no hay), intervalo en el que va y si ya terminó y espera a la captura anterior.
+     */
+    private Token actual;
+    private int indice;
+    private boolean esperandoCaptura;
+
+    /**
+     * Si hay una captura en marcha, desde capturar hasta capturaTerminada.
+     */
+    private boolean capturando;
+
+    /**
+     * Contadores de peticiones recibidas, ignoradas por haber otra en curso, reinicios y capturas hechas.
+     */
+    private int peticiones;
+    private int ignoradas;
+    private int reinicios;
+    private int capturas;
+
+    /**
+     * Constructor de la clase.
+     * @param temporizador temporizador donde se programan los pasos
+     * @param oyente quien muestra la cuenta atrás y hace las fotos
+     * @param intervalos milisegundos de cada paso de la cuenta atrás, se llama a tic al empezar cada uno
+     * @param politica qué hacer con las peticiones durante una cuenta atrás
+     */
+    PlanificadorCaptura(Temporizador temporizador, Oyente oyente, long[] intervalos, Politica politica) {
+        if (intervalos.length == 0) {
+            throw new IllegalArgumentException("La cuenta atrás necesita al menos un intervalo");
+        }
+        this.temporizador = temporizador;
+        this.oyente = oyente;
+        this.intervalos = intervalos.clone();
+        this.politica = politica;
+    }
+
+    /**
+     * Función que pide una captura tras la cuenta atrás.
+     * @param fotos fotos a hacer
+     * @return cuenta atrás que hará las fotos, la que ya estaba en curso si la política es IGNORAR
+     */
+    Token solicitar(int fotos) {
+        peticiones++;
+        if (actual != null) {
+            if (politica == Politica.IGNORAR) {
+                ignoradas++;
+                return actual;
+            }
+            reinicios++;
+            actual.cancelar();
+        }
+
+        actual = new Token(fotos);
+        indice = 0;
+        oyente.tic(intervalos.length);
+        temporizador.programar(paso, intervalos[0]);
+        return actual;
+    }
+
+    /**
+     * Función que cancela la cuenta atrás en curso y olvida la captura en marcha, para cuando se pierde la cámara.
+     */
+    void cancelarTodo() {
+        if (actual != null) {
+            actual.cancelar();
+        }
+        capturando = false;
+    }
+
+    /**
+     * Función que indica que la captura ha terminado y la cámara puede hacer otra.
+     */
+    void capturaTerminada() {
+        capturando = false;
+        if (esperandoCaptura) {
+            esperandoCaptura = false;
+            lanzar();
+        }
+    }
+
+    /**
+     * @return true si hay una cuenta atrás en curso o esperando
+     */
+    boolean enCuentaAtras() {
+        return actual != null;
+    }
+
+    /**
+     * @return true si hay una captura en marcha
+     */
+    boolean capturando() {
+        return capturando;
+    }
+
+    /**
+     * @return peticiones recibidas
+     */
+    int peticiones() {
+        return peticiones;
+    }
+
+    /**
+     * @return peticiones ignoradas por llegar durante otra cuenta atrás
+     */
+    int ignoradas() {
+        return ignoradas;
+    }
+
+    /**
+     * @return cuentas atrás reiniciadas por otra petición
+     */
+    int reinicios() {
+        return reinicios;
+    }
+
+    /**
+     * @return capturas lanzadas
+     */
+    int capturas() {
+        return capturas;
+    }
+
+    /**
+     * Función que avanza un paso la cuenta atrás o lanza la captura si era el último.
+     */
+    private void avanzar() {
+        indice++;
+        if (indice < intervalos.length) {
+            oyente.tic(intervalos.length - indice);
+            temporizador.programar(paso, intervalos[indice]);
+        } else if (capturando) {
+            esperandoCaptura = true;
+        } else {
+            lanzar();
+        }
+    }
+
+    /**
+     * Función que termina la cuenta atrás en curso y hace la captura.
+     */
+    private void lanzar() {
+        Token token = actual;
+        actual = null;
+        capturando = true;
+        capturas++;
+        oyente.capturar(token.fotos);
+    }
+}
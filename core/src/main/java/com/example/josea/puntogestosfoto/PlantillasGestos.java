@@ -0,0 +1,497 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Clase que guarda las plantillas de gestos ya vectorizadas. En lugar de un objeto por plantilla se usa
+ * un único buffer en formato binario, el mismo que se guarda en disco, de forma que al cargar el fichero
+ * basta con mapearlo en memoria y no hay que interpretar nada (ver AlmacenPlantillas).
+ *
+ * Formato (little-endian):
+ * cabecera de TAMANO_CABECERA bytes: mágico (int), versión (short), longitud del vector (short), huella (long),
+ * número de nombres (int), número de plantillas (int), inicio de los nombres (int), inicio de los registros (int),
+ * orientaciones con las que se vectorizó (int, ver UtilGestos), bytes de cada valor del vector (int, ver Precision);
+ * índice de nombres: por cada uno su longitud en bytes (short) y el nombre en UTF-8;
+ * registros de Precision.tamanoRegistro bytes alineados a 4: etiqueta (int) y vector (LONGITUD_VECTOR valores).
+ */
+final class PlantillasGestos {
+    /**
+     * Cómo se guardan los valores de los vectores. Con FLOAT tal cual; con ENTERO16 en coma fija de 16 bits con
+     * 15 de fracción, que basta porque el vector está normalizado y todos sus valores están entre -1 y 1. Cada
+     * plantilla ocupa casi la mitad y el error de cada valor es menor que 1/65534. Sirve para bibliotecas grandes
+     * con poca memoria; en la JVM recorrerlas es algo más lento que con floats (ver PrecisionBenchmark).
+     */
+    enum Precision {
+        FLOAT(4), ENTERO16(2);
+
+        /**
+         * Bytes de cada valor del vector y de cada registro, con la etiqueta.
+         */
+        final int bytesPorValor;
+        final int tamanoRegistro;
+
+        Precision(int bytesPorValor) {
+            this.bytesPorValor = bytesPorValor;
+            this.tamanoRegistro = 4 + UtilGestos.LONGITUD_VECTOR * bytesPorValor;
+        }
+
+        /**
+         * @return precisión con esos bytes por valor, o null si no hay ninguna
+         */
+        static Precision deBytes(int bytesPorValor) {
+            for (Precision precision : values()) {
+                if (precision.bytesPorValor == bytesPorValor) {
+                    return precision;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Número mágico del formato, "PGFP".
+     */
+    static final int MAGICO = 0x50474650;
+
+    /**
+     * Versión del formato binario.
+     */
+    static final short VERSION = 3;
+
+    /**
+     * Tamaño en bytes de la cabecera.
+     */
+    static final int TAMANO_CABECERA = 40;
+
+    /**
+     * Valor de 1 en coma fija con Precision.ENTERO16, y lo que vale cada unidad.
+     */
+    private static final float ESCALA_ENTERO16 = 32767;
+    private static final float UNIDAD_ENTERO16 = 1 / ESCALA_ENTERO16;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Contenido binario completo de las plantillas.
+     */
+    private final ByteBuffer datos;
+
+    /**
+     * Vista de los registros como floats o, con Precision.ENTERO16, como ints con un punto (x, y) en cada uno; la
+     * otra es null. Están sobre la misma memoria que datos.
+     */
+    private final FloatBuffer registros;
+    private final IntBuffer registrosEnteros;
+
+    /**
+     * Precisión de los vectores y valores que ocupa cada registro en su vista.
+     */
+    private final Precision precision;
+    private final int valoresRegistro;
+
+    /**
+     * Posición en bytes del primer registro.
+     */
+    private final int inicioRegistros;
+
+    /**
+     * Número de plantillas.
+     */
+    private final int numPlantillas;
+
+    /**
+     * Nombres distintos de los gestos, la etiqueta de una plantilla es su posición en este array.
+     */
+    private final String[] nombres;
+
+    /**
+     * Valor que identifica el origen de las plantillas, para saber si el fichero guardado está desactualizado.
+     */
+    private final long huella;
+
+    /**
+     * Modo de orientación de los vectores, los trazos se deben vectorizar igual para compararlos.
+     */
+    private final int orientaciones;
+
+    /**
+     * Constructor de la clase, usar desdeGestos o desdeBuffer.
+     */
+    private PlantillasGestos(ByteBuffer datos, int inicioRegistros, int numPlantillas, String[] nombres, long huella,
+                             int orientaciones, Precision precision) {
+        this.datos = datos;
+        this.inicioRegistros = inicioRegistros;
+        this.numPlantillas = numPlantillas;
+        this.nombres = nombres;
+        this.huella = huella;
+        this.orientaciones = orientaciones;
+        this.precision = precision;
+        this.valoresRegistro = precision.tamanoRegistro / 4;
+
+        ByteBuffer vista = datos.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        vista.position(inicioRegistros);
+        ByteBuffer registrosBytes = vista.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.registros = precision == Precision.FLOAT ? registrosBytes.asFloatBuffer() : null;
+        this.registrosEnteros = precision == Precision.ENTERO16 ? registrosBytes.asIntBuffer() : null;
+    }
+
+    /**
+     * Función que crea las plantillas a partir de los gestos leídos del fichero. Igual que GestureStore en modo
+     * SEQUENCE_SENSITIVE sólo se usa el primer trazo de cada gesto; los gestos sin recorrido se descartan.
+     * @param gestos gestos leídos con LectorGestos
+     * @return plantillas listas para reconocer
+     */
+    static PlantillasGestos desdeGestos(List<GestoGrabado> gestos) {
+        return desdeGestos(gestos, 0);
+    }
+
+    /**
+     * Función que crea las plantillas a partir de los gestos leídos del fichero.
+     * @param gestos gestos leídos con LectorGestos
+     * @param huella valor que identifica el origen de los gestos, se guarda en la cabecera
+     * @return plantillas listas para reconocer
+     */
+    static PlantillasGestos desdeGestos(List<GestoGrabado> gestos, long huella) {
+        return desdeGestos(gestos, huella, UtilGestos.ORIENTACIONES_SENSIBLE);
+    }
+
+    /**
+     * Función que crea las plantillas a partir de los gestos leídos del fichero, con un modo de orientación.
+     * Con UtilGestos.ORIENTACIONES_INVARIANTE los vectores quedan girados a una orientación común al crearlos,
+     * así reconocer un trazo girado cuesta lo mismo que en el modo sensible a la orientación.
+     * @param gestos gestos leídos con LectorGestos
+     * @param huella valor que identifica el origen de los gestos, se guarda en la cabecera
+     * @param orientaciones UtilGestos.ORIENTACIONES_SENSIBLE o UtilGestos.ORIENTACIONES_INVARIANTE
+     * @return plantillas listas para reconocer
+     */
+    static PlantillasGestos desdeGestos(List<GestoGrabado> gestos, long huella, int orientaciones) {
+        if (!orientacionesValidas(orientaciones)) {
+            throw new IllegalArgumentException("Orientaciones no soportadas: " + orientaciones);
+        }
+        List<String> nombres = new ArrayList<String>();
+        int[] etiquetas = new int[gestos.size()];
+        float[] vectores = new float[gestos.size() * UtilGestos.LONGITUD_VECTOR];
+        float[] vector = new float[UtilGestos.LONGITUD_VECTOR];
+
+        int cuenta = 0;
+        for (GestoGrabado gesto : gestos) {
+            if (gesto.trazos.length == 0) {
+                continue;
+            }
+            float[] trazo = gesto.trazos[0];
+            if (!UtilGestos.vectorizar(trazo, trazo.length, vector, orientaciones)) {
+                continue;
+            }
+            int etiqueta = nombres.indexOf(gesto.nombre);
+            if (etiqueta < 0) {
+                etiqueta = nombres.size();
+                nombres.add(gesto.nombre);
+            }
+            etiquetas[cuenta] = etiqueta;
+            System.arraycopy(vector, 0, vectores, cuenta * UtilGestos.LONGITUD_VECTOR, UtilGestos.LONGITUD_VECTOR);
+            cuenta++;
+        }
+        return construir(nombres, etiquetas, vectores, cuenta, huella, orientaciones, Precision.FLOAT);
+    }
+
+    /**
+     * Función que da estas plantillas con otra precisión, en un buffer nuevo. Pasar de ENTERO16 a FLOAT no
+     * recupera lo que se perdió al redondear.
+     * @param nueva precisión de las plantillas que se devuelven
+     * @return estas mismas plantillas si ya tienen esa precisión, o una copia convertida
+     */
+    PlantillasGestos conPrecision(Precision nueva) {
+        if (nueva == precision) {
+            return this;
+        }
+        int[] etiquetas = new int[numPlantillas];
+        float[] vectores = new float[numPlantillas * UtilGestos.LONGITUD_VECTOR];
+        float[] vector = new float[UtilGestos.LONGITUD_VECTOR];
+        for (int p = 0; p < numPlantillas; p++) {
+            etiquetas[p] = etiqueta(p);
+            vector(p, vector);
+            System.arraycopy(vector, 0, vectores, p * UtilGestos.LONGITUD_VECTOR, UtilGestos.LONGITUD_VECTOR);
+        }
+        return construir(Arrays.asList(nombres), etiquetas, vectores, numPlantillas, huella, orientaciones, nueva);
+    }
+
+    /**
+     * Función que escribe el formato binario completo.
+     */
+    private static PlantillasGestos construir(List<String> nombres, int[] etiquetas, float[] vectores, int cuenta,
+                                              long huella, int orientaciones, Precision precision) {
+        // Calculamos el tamaño del índice de nombres para saber dónde empiezan los registros.
+        byte[][] nombresUtf8 = new byte[nombres.size()][];
+        int tamanoNombres = 0;
+        for (int i = 0; i < nombresUtf8.length; i++) {
+            nombresUtf8[i] = nombres.get(i).getBytes(UTF8);
+            tamanoNombres += 2 + nombresUtf8[i].length;
+        }
+        int inicioRegistros = (TAMANO_CABECERA + tamanoNombres + 3) & ~3;
+
+        ByteBuffer datos = ByteBuffer.allocate(inicioRegistros + cuenta * precision.tamanoRegistro)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        datos.putInt(MAGICO);
+        datos.putShort(VERSION);
+        datos.putShort((short) UtilGestos.LONGITUD_VECTOR);
+        datos.putLong(huella);
+        datos.putInt(nombresUtf8.length);
+        datos.putInt(cuenta);
+        datos.putInt(TAMANO_CABECERA);
+        datos.putInt(inicioRegistros);
+        datos.putInt(orientaciones);
+        datos.putInt(precision.bytesPorValor);
+        for (byte[] nombre : nombresUtf8) {
+            datos.putShort((short) nombre.length);
+            datos.put(nombre);
+        }
+        datos.position(inicioRegistros);
+        for (int p = 0; p < cuenta; p++) {
+            datos.putInt(etiquetas[p]);
+            for (int i = 0; i < UtilGestos.LONGITUD_VECTOR; i++) {
+                float valor = vectores[p * UtilGestos.LONGITUD_VECTOR + i];
+                if (precision == Precision.FLOAT) {
+                    datos.putFloat(valor);
+                } else {
+                    datos.putShort((short) Math.max(-ESCALA_ENTERO16, Math.min(ESCALA_ENTERO16,
+                            Math.round(valor * ESCALA_ENTERO16))));
+                }
+            }
+        }
+        datos.clear();
+
+        return new PlantillasGestos(datos, inicioRegistros, cuenta, nombres.toArray(new String[nombres.size()]), huella,
+                orientaciones, precision);
+    }
+
+    /**
+     * Función que crea las plantillas sobre un buffer con el formato binario, normalmente mapeado de un fichero.
+     * Sólo se leen la cabecera y los nombres, los registros se usan directamente desde el buffer.
+     * @param buffer buffer con el formato binario completo
+     * @return plantillas listas para reconocer
+     * @throws IOException si el buffer no tiene un formato válido
+     */
+    static PlantillasGestos desdeBuffer(ByteBuffer buffer) throws IOException {
+        ByteBuffer datos = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        datos.clear();
+        if (datos.capacity() < TAMANO_CABECERA || datos.getInt(0) != MAGICO) {
+            throw new IOException("No es un fichero de plantillas");
+        }
+        if (datos.getShort(4) != VERSION || datos.getShort(6) != UtilGestos.LONGITUD_VECTOR) {
+            throw new IOException("Versión de plantillas no soportada: " + datos.getShort(4));
+        }
+        long huella = datos.getLong(8);
+        int numNombres = datos.getInt(16);
+        int numPlantillas = datos.getInt(20);
+        int inicioNombres = datos.getInt(24);
+        int inicioRegistros = datos.getInt(28);
+        int orientaciones = datos.getInt(32);
+        if (!orientacionesValidas(orientaciones)) {
+            throw new IOException("Orientaciones no soportadas: " + orientaciones);
+        }
+        Precision precision = Precision.deBytes(datos.getInt(36));
+        if (precision == null) {
+            throw new IOException("Precisión no soportada: " + datos.getInt(36));
+        }
+        if (numNombres < 0 || numPlantillas < 0 || inicioNombres < TAMANO_CABECERA
+                || inicioRegistros < inicioNombres || (inicioRegistros & 3) != 0
+                || (long) inicioRegistros + (long) numPlantillas * precision.tamanoRegistro > datos.capacity()) {
+            throw new IOException("Fichero de plantillas truncado o corrupto");
+        }
+
+        String[] nombres = new String[numNombres];
+        int posicion = inicioNombres;
+        for (int i = 0; i < numNombres; i++) {
+            if (posicion + 2 > inicioRegistros) {
+                throw new IOException("Índice de nombres corrupto");
+            }
+            int longitud = datos.getShort(posicion) & 0xffff;
+            posicion += 2;
+            if (posicion + longitud > inicioRegistros) {
+                throw new IOException("Índice de nombres corrupto");
+            }
+            byte[] nombre = new byte[longitud];
+            datos.position(posicion);
+            datos.get(nombre);
+            nombres[i] = new String(nombre, UTF8);
+            posicion += longitud;
+        }
+        datos.clear();
+
+        // Las etiquetas se comprueban una vez aquí para no tener que hacerlo al reconocer.
+        for (int p = 0; p < numPlantillas; p++) {
+            int etiqueta = datos.getInt(inicioRegistros + p * precision.tamanoRegistro);
+            if (etiqueta < 0 || etiqueta >= numNombres) {
+                throw new IOException("Etiqueta fuera de rango en la plantilla " + p);
+            }
+        }
+
+        return new PlantillasGestos(datos, inicioRegistros, numPlantillas, nombres, huella, orientaciones, precision);
+    }
+
+    private static boolean orientacionesValidas(int orientaciones) {
+        return orientaciones == UtilGestos.ORIENTACIONES_SENSIBLE || orientaciones == UtilGestos.ORIENTACIONES_INVARIANTE;
+    }
+
+    /**
+     * @return copia de solo lectura del contenido binario, para guardarlo en un fichero
+     */
+    ByteBuffer datos() {
+        return datos.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return valor que identifica el origen de las plantillas
+     */
+    long huella() {
+        return huella;
+    }
+
+    /**
+     * @return modo de orientación de los vectores, UtilGestos.ORIENTACIONES_SENSIBLE o ORIENTACIONES_INVARIANTE
+     */
+    int orientaciones() {
+        return orientaciones;
+    }
+
+    /**
+     * @return cómo se guardan los valores de los vectores
+     */
+    Precision precision() {
+        return precision;
+    }
+
+    /**
+     * @return número de plantillas
+     */
+    int tamano() {
+        return numPlantillas;
+    }
+
+    /**
+     * @return número de nombres de gesto distintos
+     */
+    int numEtiquetas() {
+        return nombres.length;
+    }
+
+    /**
+     * @param etiqueta índice del nombre
+     * @return nombre del gesto con esa etiqueta
+     */
+    String nombre(int etiqueta) {
+        return nombres[etiqueta];
+    }
+
+    /**
+     * @param plantilla índice de la plantilla
+     * @return etiqueta de la plantilla
+     */
+    int etiqueta(int plantilla) {
+        return datos.getInt(inicioRegistros + plantilla * precision.tamanoRegistro);
+    }
+
+    /**
+     * Función que copia el vector de una plantilla.
+     * @param plantilla índice de la plantilla
+     * @param destino buffer de LONGITUD_VECTOR valores
+     */
+    void vector(int plantilla, float[] destino) {
+        int base = plantilla * valoresRegistro + 1;
+        if (registrosEnteros != null) {
+            for (int i = 0; i < UtilGestos.LONGITUD_VECTOR; i += 2) {
+                int punto = registrosEnteros.get(base + i / 2);
+                destino[i] = (short) punto * UNIDAD_ENTERO16;
+                destino[i + 1] = (punto >> 16) * UNIDAD_ENTERO16;
+            }
+            return;
+        }
+        for (int i = 0; i < UtilGestos.LONGITUD_VECTOR; i++) {
+            destino[i] = registros.get(base + i);
+        }
+    }
+
+    /**
+     * Función que calcula la distancia entre una plantilla y el vector de un trazo.
+     * @param plantilla índice de la plantilla
+     * @param muestra vector calculado con UtilGestos.vectorizar con las mismas orientaciones que las plantillas
+     * @param productos buffer de trabajo de dos valores
+     * @return distancia en radianes
+     */
+    float distancia(int plantilla, float[] muestra, float[] productos) {
+        productos[0] = 0;
+        productos[1] = 0;
+        productos(plantilla, muestra, 0, UtilGestos.LONGITUD_VECTOR, productos);
+        return UtilGestos.distanciaDesdeProductos(productos[0], productos[1], orientaciones);
+    }
+
+    /**
+     * Función que acumula el producto escalar y el cruzado entre una parte del vector de una plantilla y la
+     * misma parte del vector de un trazo. Permite comparar por tramos y abandonar la plantilla a medias.
+     * @param plantilla índice de la plantilla
+     * @param muestra vector del trazo
+     * @param desde primera posición del tramo, par
+     * @param hasta posición siguiente a la última del tramo, par
+     * @param productos buffer donde se acumulan el producto escalar (posición 0) y el cruzado (posición 1)
+     */
+    void productos(int plantilla, float[] muestra, int desde, int hasta, float[] productos) {
+        final int base = plantilla * valoresRegistro + 1;
+        if (registrosEnteros != null) {
+            productosEnteros(base, muestra, desde, hasta, productos);
+            return;
+        }
+        float a = productos[0];
+        float b = productos[1];
+        for (int i = desde; i < hasta; i += 2) {
+            float px = registros.get(base + i);
+            float py = registros.get(base + i + 1);
+            a += px * muestra[i] + py * muestra[i + 1];
+            b += px * muestra[i + 1] - py * muestra[i];
+        }
+        productos[0] = a;
+        productos[1] = b;
+    }
+
+    /**
+     * Igual que productos con los valores en coma fija: cada punto se lee de una vez, en little-endian x es la
+     * mitad baja, y se suman sin escalar para escalar solo el resultado.
+     */
+    private void productosEnteros(int base, float[] muestra, int desde, int hasta, float[] productos) {
+        float a = 0;
+        float b = 0;
+        for (int i = desde; i < hasta; i += 2) {
+            int punto = registrosEnteros.get(base + i / 2);
+            float px = (short) punto;
+            float py = punto >> 16;
+            a += px * muestra[i] + py * muestra[i + 1];
+            b += px * muestra[i + 1] - py * muestra[i];
+        }
+        productos[0] += a * UNIDAD_ENTERO16;
+        productos[1] += b * UNIDAD_ENTERO16;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Clase que reparte buffers para los JPEG de la ráfaga con un límite de memoria total.
+ *
+ * Los buffers se reutilizan entre fotos en lugar de reservar uno nuevo por foto y mantenerlo hasta que termina
+ * la escritura. Sus tamaños se redondean a GRANULARIDAD para que un buffer sirva para fotos algo mayores. Si no
+ * cabe un buffer más en el presupuesto obtener devuelve null y quien hace las fotos debe esperar a que se
+ * devuelva alguno. Se puede usar desde varios hilos.
+ */
+final class PoolBuffers {
+    /**
+     * Múltiplo al que se redondea el tamaño de los buffers.
+     */
+    static final int GRANULARIDAD = 64 * 1024;
+
+    /**
+     * Bytes máximos entre buffers libres y en uso.
+     */
+    private final long presupuesto;
+
+    /**
+     * Buffers del pool libres y todos los creados por él (libres o en uso).
+     */
+    private final List<byte[]> libres = new ArrayList<byte[]>();
+    private final List<byte[]> propios = new ArrayList<byte[]>();
+
+    private long reservados;
+    private long enUso;
+    private long maximoEnUso;
+    private int creados;
+
+    /**
+     * Constructor de la clase.
+     * @param presupuesto bytes máximos que pueden ocupar los buffers
+     */
+    PoolBuffers(long presupuesto) {
+        this.presupuesto = presupuesto;
+    }
+
+    /**
+     * Función que da un buffer de al menos el tamaño pedido.
+     * @param tamano bytes necesarios
+     * @return buffer, o null si no cabe en el presupuesto hasta que se devuelva alguno
+     */
+    synchronized byte[] obtener(int tamano) {
+        // El libre más pequeño que sirva.
+        int mejor = -1;
+        for (int i = 0; i < libres.size(); i++) {
+            int longitud = libres.get(i).length;
+            if (longitud >= tamano && (mejor < 0 || longitud < libres.get(mejor).length)) {
+                mejor = i;
+            }
+        }
+        if (mejor >= 0) {
+            return usar(libres.remove(mejor));
+        }
+
+        long necesario = redondear(tamano);
+        // Se descartan libres pequeños hasta que quepa uno nuevo.
+        while (reservados + necesario > presupuesto && !libres.isEmpty()) {
+            descartar(libres.remove(libres.size() - 1));
+        }
+        if (reservados + necesario > presupuesto) {
+            return null;
+        }
+        byte[] buffer = new byte[(int) necesario];
+        propios.add(buffer);
+        reservados += necesario;
+        creados++;
+        return usar(buffer);
+    }
+
+    /**
+     * Función que indica si obtener podría dar ahora un buffer del tamaño indicado.
+     * @param tamano bytes necesarios
+     */
+    synchronized boolean hayHueco(int tamano) {
+        for (byte[] libre : libres) {
+            if (libre.length >= tamano) {
+                return true;
+            }
+        }
+        return enUso + redondear(tamano) <= presupuesto;
+    }
+
+    /**
+     * Función que devuelve un buffer al pool, los que no son del pool se ignoran.
+     * @param buffer buffer obtenido con obtener
+     */
+    synchronized void devolver(byte[] buffer) {
+        if (!contiene(propios, buffer) || contiene(libres, buffer)) {
+            return;
+        }
+        enUso -= buffer.length;
+        libres.add(buffer);
+    }
+
+    /**
+     * @return bytes de los buffers que se están usando
+     */
+    synchronized long enUso() {
+        return enUso;
+    }
+
+    /**
+     * @return máximo de bytes en uso a la vez desde que se creó el pool
+     */
+    synchronized long maximoEnUso() {
+        return maximoEnUso;
+    }
+
+    /**
+     * @return bytes reservados entre buffers libres y en uso
+     */
+    synchronized long reservados() {
+        return reservados;
+    }
+
+    /**
+     * @return número de buffers creados, si es menor que el de fotos es que se han reutilizado
+     */
+    synchronized int creados() {
+        return creados;
+    }
+
+    private byte[] usar(byte[] buffer) {
+        enUso += buffer.length;
+        maximoEnUso = Math.max(maximoEnUso, enUso);
+        return buffer;
+    }
+
+    private void descartar(byte[] buffer) {
+        for (int i = 0; i < propios.size(); i++) {
+            if (propios.get(i) == buffer) {
+                propios.remove(i);
+                break;
+            }
+        }
+        reservados -= buffer.length;
+    }
+
+    private static long redondear(int tamano) {
+        return (tamano + GRANULARIDAD - 1L) / GRANULARIDAD * GRANULARIDAD;
+    }
+
+    /**
+     * Función que busca un buffer por identidad, las listas son cortas.
+     */
+    private static boolean contiene(List<byte[]> lista, byte[] buffer) {
+        for (byte[] b : lista) {
+            if (b == buffer) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+/**
+ * Clase que guarda las k mejores predicciones de un reconocimiento, ordenadas de mayor a menor puntuación.
+ * La reserva quien llama una sola vez y se reutiliza en cada trazo, en lugar del ArrayList de Prediction
+ * que crea GestureLibrary.recognize cada vez.
+ */
+final class Predicciones {
+    /**
+     * Etiqueta de cada predicción.
+     */
+    private final int[] etiquetas;
+
+    /**
+     * Puntuación de cada predicción (la misma escala que Prediction.score).
+     */
+    private final double[] puntuaciones;
+
+    /**
+     * Número de predicciones válidas.
+     */
+    private int tamano;
+
+    /**
+     * Plantillas con las que se calcularon las predicciones, para obtener los nombres.
+     */
+    private PlantillasGestos plantillas;
+
+    /**
+     * Constructor de la clase.
+     * @param capacidad número máximo de predicciones que se guardan (la k)
+     */
+    Predicciones(int capacidad) {
+        if (capacidad <= 0) {
+            throw new IllegalArgumentException("La capacidad debe ser positiva");
+        }
+        etiquetas = new int[capacidad];
+        puntuaciones = new double[capacidad];
+    }
+
+    /**
+     * Función que vacía las predicciones antes de un nuevo reconocimiento.
+     * @param plantillas plantillas con las que se va a reconocer
+     */
+    void reiniciar(PlantillasGestos plantillas) {
+        this.plantillas = plantillas;
+        tamano = 0;
+    }
+
+    /**
+     * Función que añade una predicción si está entre las k mejores, manteniendo el orden.
+     * @param etiqueta etiqueta de la predicción
+     * @param puntuacion puntuación de la predicción
+     */
+    void ofrecer(int etiqueta, double puntuacion) {
+        int capacidad = etiquetas.length;
+        if (tamano == capacidad && puntuacion <= puntuaciones[capacidad - 1]) {
+            return;
+        }
+        int i = tamano < capacidad ? tamano++ : capacidad - 1;
+        while (i > 0 && puntuaciones[i - 1] < puntuacion) {
+            etiquetas[i] = etiquetas[i - 1];
+            puntuaciones[i] = puntuaciones[i - 1];
+            i--;
+        }
+        etiquetas[i] = etiqueta;
+        puntuaciones[i] = puntuacion;
+    }
+
+    /**
+     * @return número de predicciones guardadas
+     */
+    int tamano() {
+        return tamano;
+    }
+
+    /**
+     * @return número máximo de predicciones que se guardan
+     */
+    int capacidad() {
+        return etiquetas.length;
+    }
+
+    /**
+     * @param i posición de la predicción, 0 es la mejor
+     * @return etiqueta de la predicción
+     */
+    int etiqueta(int i) {
+        return etiquetas[i];
+    }
+
+    /**
+     * @param i posición de la predicción, 0 es la mejor
+     * @return nombre del gesto de la predicción
+     */
+    String nombre(int i) {
+        return plantillas.nombre(etiquetas[i]);
+    }
+
+    /**
+     * @param i posición de la predicción, 0 es la mejor
+     * @return puntuación de la predicción
+     */
+    double puntuacion(int i) {
+        return puntuaciones[i];
+    }
+}
@@ -0,0 +1,173 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.example.josea.puntogestosfoto;
+
+/**
+ * Clase que retrasa el disparo hasta que la escena esté quieta, con un tiempo máximo de espera.
+ *
+ * Guarda un anillo de buffers NV21 reservados al crearla, para dárselos a la cámara con addCallbackBuffer y
+ * que la vista previa no reserve un array por fotograma. Cada fotograma recibido se pasa a fotograma, que lo
+ * analiza con EstabilidadEscena e indica si hay que devolver el buffer a la cámara. La puerta se abre una sola
+ * vez por espera: al quedar la escena quieta o al pasar el tiempo máximo, lo que ocurra antes.
+ *
+ * No es segura entre hilos, se debe usar desde el hilo del temporizador, que en Android es el mismo que recibe
+ * los fotogramas.
+ */
+final class PuertaEstabilidad {
+    /**
+     * Interfaz para saber cuándo se puede disparar.
+     */
+    interface Oyente {
+        /**
+         * Función llamada una vez por espera, al abrirse la puerta.
+         * @param estable true si la escena ha quedado quieta, false si se ha agotado el tiempo
+         * @param fotogramas fotogramas analizados durante la espera
+         */
+        void abierta(boolean estable, int fotogramas);
+    }
+
+    private final PlanificadorCaptura.Temporizador temporizador;
+    private final EstabilidadEscena detector;
+    private final byte[][] buffers;
+
+    /**
+     * Quien espera en este momento, null si la puerta no está esperando.
+     */
+    private Oyente oyente;
+
+    /**
+     * Esperas terminadas con la escena quieta y por tiempo.
+     */
+    private int estables;
+    private int agotadas;
+
+    /**
+     * Tarea que abre la puerta al pasar el tiempo máximo.
+     */
+    private final Runnable agotar = new Runnable() {
+        public void run() {
+            agotadas++;
+            abrir(false);
+        }
+    };
+
+    /**
+     * Constructor de la clase.
+     * @param temporizador temporizador donde se programa el tiempo máximo
+     * @param detector detector con el tamaño de la vista previa
+     * @param numBuffers buffers del anillo
+     */
+    PuertaEstabilidad(PlanificadorCaptura.Temporizador temporizador, EstabilidadEscena detector, int numBuffers) {
+        if (numBuffers <= 0) {
+            throw new IllegalArgumentException("Hace falta al menos un buffer");
+        }
+        this.temporizador = temporizador;
+        this.detector = detector;
+        buffers = new byte[numBuffers][EstabilidadEscena.bytesNv21(detector.ancho(), detector.alto())];
+    }
+
+    /**
+     * @return buffers del anillo, siempre los mismos, para dárselos a la cámara al empezar cada espera
+     */
+    byte[][] buffers() {
+        return buffers;
+    }
+
+    /**
+     * @param ancho ancho de la vista previa
+     * @param alto alto de la vista previa
+     * @return true si los buffers sirven para fotogramas de ese tamaño
+     */
+    boolean sirve(int ancho, int alto) {
+        return detector.ancho() == ancho && detector.alto() == alto;
+    }
+
+    /**
+     * Función que empieza a esperar a que la escena quede quieta. Si ya había una espera, se sustituye sin
+     * avisar a su oyente.
+     * @param oyente quien dispara al abrirse la puerta
+     * @param esperaMaxima milisegundos máximos de espera antes de abrir aunque la escena se mueva
+     */
+    void esperar(Oyente oyente, long esperaMaxima) {
+        temporizador.cancelar(agotar);
+        detector.reiniciar();
+        this.oyente = oyente;
+        temporizador.programar(agotar, esperaMaxima);
+    }
+
+    /**
+     * Función que analiza un fotograma de la vista previa.
+     * @param nv21 fotograma recibido en uno de los buffers
+     * @return true si se sigue esperando y el buffer se debe devolver a la cámara
+     */
+    boolean fotograma(byte[] nv21) {
+        if (oyente == null) {
+            return false;
+        }
+        if (detector.analizar(nv21)) {
+            temporizador.cancelar(agotar);
+            estables++;
+            abrir(true);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Función que deja de esperar sin avisar al oyente, para cuando se pierde la vista previa.
+     */
+    void cancelar() {
+        temporizador.cancelar(agotar);
+        oyente = null;
+    }
+
+    /**
+     * @return true si hay una espera en curso
+     */
+    boolean esperando() {
+        return oyente != null;
+    }
+
+    /**
+     * @return esperas terminadas con la escena quieta
+     */
+    int estables() {
+        return estables;
+    }
+
+    /**
+     * @return esperas terminadas por pasar el tiempo máximo
+     */
+    int agotadas() {
+        return agotadas;
+    }
+
+    /**
+     * @return detector usado para decidir si la escena está quieta
+     */
+    EstabilidadEscena detector() {
+        return detector;
+    }
+
+    private void abrir(boolean estable) {
+        Oyente aviso = oyente;
+        oyente = null;
+        aviso.abierta(estable, detector.analizados());
+    }
+}
@@ -0,0 +1,267 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+/**
+ * Clase que reconoce trazos contra las plantillas sin usar android.gesture, sustituye a GestureLibrary.recognize.
+ * Da las mismas puntuaciones que GestureLibrary (una por nombre de gesto, la de su mejor plantilla) pero no
+ * reserva memoria en cada llamada: los buffers de trabajo se crean una vez y el resultado se escribe en unas
+ * Predicciones que pasa quien llama.
+ *
+ * Con un IndicePlantillas solo se comparan los candidatos del índice y solo se devuelven los gestos que llegan
+ * a la puntuación mínima, lo que permite trabajar con miles de plantillas. Como la primera etapa del índice es
+ * aproximada, con pocas plantillas no se usa, y si sus candidatos no dan ningún gesto se repasan todas las
+ * plantillas con la cascada exacta; así el índice no deja sin gesto un trazo que la búsqueda lineal reconoce.
+ * El resultado sigue siendo aproximado: si algún candidato llega a la puntuación mínima no hay repaso, y otro
+ * gesto que también llegaría pero cuyas plantillas quedaron fuera de las celdas revisadas no aparece en las
+ * predicciones. El primero casi siempre coincide con el de la búsqueda lineal, los siguientes pueden faltar.
+ *
+ * No es seguro usar la misma instancia desde varios hilos a la vez.
+ */
+final class ReconocedorGestos implements HiloReconocimiento.ReconocedorTrazo {
+    /**
+     * Margen para los redondeos al comparar las cotas, así nunca se descarta una plantilla válida.
+     */
+    private static final float MARGEN_COTA = 1e-5f;
+
+    /**
+     * Plantillas contra las que se reconoce.
+     */
+    private final PlantillasGestos plantillas;
+
+    /**
+     * Índice de las plantillas, null para compararlas todas.
+     */
+    private final IndicePlantillas indice;
+
+    /**
+     * Puntuación mínima de las predicciones cuando se usa el índice.
+     */
+    private final double puntuacionMinima;
+
+    /**
+     * Buffer de trabajo con el vector del trazo que se está reconociendo.
+     */
+    private final float[] muestra = new float[UtilGestos.LONGITUD_VECTOR];
+
+    /**
+     * Buffer de trabajo con los productos escalar y cruzado.
+     */
+    private final float[] productos = new float[2];
+
+    /**
+     * Buffer de trabajo con la mejor puntuación de cada etiqueta.
+     */
+    private final double[] mejorPorEtiqueta;
+
+    /**
+     * Buffers de trabajo para la búsqueda con índice: coseno mínimo que debe alcanzar cada etiqueta,
+     * características del trazo, normas de su vector desde cada corte y candidatos.
+     */
+    private final float[] cosenoPorEtiqueta;
+    private final float[] caracteristicas = new float[IndicePlantillas.NUM_CARACTERISTICAS];
+    private final float[] restosMuestra = new float[IndicePlantillas.CORTES.length];
+    private final int[] candidatos;
+
+    /**
+     * Candidatos que dio el índice y plantillas comparadas por completo en el último reconocimiento.
+     */
+    private int ultimosCandidatos;
+    private int ultimasComparadas;
+
+    /**
+     * Constructor de la clase, compara el trazo con todas las plantillas.
+     * @param plantillas plantillas contra las que se reconocerá
+     */
+    ReconocedorGestos(PlantillasGestos plantillas) {
+        this(plantillas, null, 0);
+    }
+
+    /**
+     * Constructor de la clase que usa un índice para descartar plantillas.
+     * @param indice índice de las plantillas contra las que se reconocerá
+     * @param puntuacionMinima puntuación por debajo de la cual no interesa una predicción
+     */
+    ReconocedorGestos(IndicePlantillas indice, double puntuacionMinima) {
+        this(indice.plantillas(), indice, puntuacionMinima);
+    }
+
+    private ReconocedorGestos(PlantillasGestos plantillas, IndicePlantillas indice, double puntuacionMinima) {
+        this.plantillas = plantillas;
+        this.indice = indice;
+        this.puntuacionMinima = puntuacionMinima;
+        this.mejorPorEtiqueta = new double[plantillas.numEtiquetas()];
+        this.cosenoPorEtiqueta = new float[plantillas.numEtiquetas()];
+        this.candidatos = indice != null ? new int[plantillas.tamano()] : null;
+    }
+
+    /**
+     * @return plantillas que usa el reconocedor
+     */
+    PlantillasGestos plantillas() {
+        return plantillas;
+    }
+
+    /**
+     * @return número de candidatos que dio el índice en el último reconocimiento, o todas las plantillas si se
+     * compararon todas
+     */
+    int ultimosCandidatos() {
+        return ultimosCandidatos;
+    }
+
+    /**
+     * @return número de plantillas distintas comparadas por completo en el último reconocimiento
+     */
+    int ultimasComparadas() {
+        return ultimasComparadas;
+    }
+
+    /**
+     * Función que reconoce un trazo.
+     * @param puntos puntos intercalados (x, y) del trazo, por ejemplo GestureStroke.points
+     * @param numValores número de valores válidos en puntos
+     * @param destino donde se escriben las mejores predicciones, ordenadas de mayor a menor puntuación
+     * @return número de predicciones escritas en destino
+     */
+    @Override
+    public int reconocer(float[] puntos, int numValores, Predicciones destino) {
+        destino.reiniciar(plantillas);
+        ultimosCandidatos = 0;
+        ultimasComparadas = 0;
+        if (!UtilGestos.vectorizar(puntos, numValores, muestra, plantillas.orientaciones())) {
+            return 0;
+        }
+
+        for (int e = 0; e < mejorPorEtiqueta.length; e++) {
+            mejorPorEtiqueta[e] = -1;
+        }
+        if (indice == null) {
+            compararTodas();
+        } else {
+            compararCandidatos();
+        }
+        for (int e = 0; e < mejorPorEtiqueta.length; e++) {
+            if (mejorPorEtiqueta[e] >= 0) {
+                destino.ofrecer(e, mejorPorEtiqueta[e]);
+            }
+        }
+        return destino.tamano();
+    }
+
+    /**
+     * Función que compara la muestra con todas las plantillas, igual que GestureLibrary.
+     */
+    private void compararTodas() {
+        int n = plantillas.tamano();
+        for (int p = 0; p < n; p++) {
+            double puntuacion = UtilGestos.puntuacion(plantillas.distancia(p, muestra, productos));
+            int etiqueta = plantillas.etiqueta(p);
+            if (puntuacion > mejorPorEtiqueta[etiqueta]) {
+                mejorPorEtiqueta[etiqueta] = puntuacion;
+            }
+        }
+        ultimosCandidatos = n;
+        ultimasComparadas = n;
+    }
+
+    /**
+     * Función que compara la muestra con los candidatos del índice, o con todas las plantillas si son menos de
+     * IndicePlantillas.MINIMO_PLANTILLAS o si los candidatos no dan ningún gesto.
+     */
+    private void compararCandidatos() {
+        for (int k = 0; k < restosMuestra.length; k++) {
+            restosMuestra[k] = IndicePlantillas.normaDesde(muestra, IndicePlantillas.CORTES[k]);
+        }
+        float cosenoMinimo = (float) Math.cos(1 / puntuacionMinima);
+        for (int e = 0; e < cosenoPorEtiqueta.length; e++) {
+            cosenoPorEtiqueta[e] = cosenoMinimo;
+        }
+
+        int total = plantillas.tamano();
+        if (total < IndicePlantillas.MINIMO_PLANTILLAS) {
+            ultimosCandidatos = total;
+            ultimasComparadas = cascada(null, total);
+            return;
+        }
+
+        IndicePlantillas.caracteristicas(muestra, caracteristicas);
+        int n = indice.candidatos(caracteristicas, candidatos);
+        ultimosCandidatos = n;
+        ultimasComparadas = cascada(candidatos, n);
+        for (int e = 0; e < mejorPorEtiqueta.length; e++) {
+            if (mejorPorEtiqueta[e] >= 0) {
+                return;
+            }
+        }
+        // La primera etapa ha podido dejar fuera la plantilla buena, por ejemplo si el trazo se ha dibujado
+        // más ancho o más alto. Las cotas siguen descartando casi todas las plantillas en esta pasada. Como
+        // ninguna etiqueta ha mejorado, esta pasada vuelve a comparar por completo las mismas que la primera, así
+        // que sus cuentas son las de las plantillas distintas.
+        ultimosCandidatos = total;
+        ultimasComparadas = cascada(null, total);
+    }
+
+    /**
+     * Función que compara la muestra con unas plantillas, abandonando cada una en cuanto la cota demuestra que
+     * no puede superar a la mejor plantilla de su etiqueta ni a la puntuación mínima.
+     * @param lista índices de las plantillas a comparar, null para las n primeras
+     * @param n número de plantillas a comparar
+     * @return número de plantillas comparadas por completo
+     */
+    private int cascada(int[] lista, int n) {
+        int comparadas = 0;
+        for (int c = 0; c < n; c++) {
+            int p = lista != null ? lista[c] : c;
+            int etiqueta = plantillas.etiqueta(p);
+            float coseno = cosenoPorEtiqueta[etiqueta];
+
+            // La distancia nunca es menor que acos(sqrt(a² + b²)), y la parte que falta del producto
+            // no puede sumar más que el producto de las normas de lo que queda de cada vector.
+            productos[0] = 0;
+            productos[1] = 0;
+            int desde = 0;
+            boolean descartada = false;
+            for (int k = 0; k < IndicePlantillas.CORTES.length; k++) {
+                int hasta = IndicePlantillas.CORTES[k];
+                plantillas.productos(p, muestra, desde, hasta, productos);
+                desde = hasta;
+                float cota = (float) Math.sqrt(productos[0] * productos[0] + productos[1] * productos[1])
+                        + indice.resto(p, k) * restosMuestra[k];
+                if (cota + MARGEN_COTA < coseno) {
+                    descartada = true;
+                    break;
+                }
+            }
+            if (descartada) {
+                continue;
+            }
+
+            plantillas.productos(p, muestra, desde, UtilGestos.LONGITUD_VECTOR, productos);
+            comparadas++;
+            float distancia = UtilGestos.distanciaDesdeProductos(productos[0], productos[1],
+                    plantillas.orientaciones());
+            double puntuacion = UtilGestos.puntuacion(distancia);
+            if (puntuacion >= puntuacionMinima && puntuacion > mejorPorEtiqueta[etiqueta]) {
+                mejorPorEtiqueta[etiqueta] = puntuacion;
+                cosenoPorEtiqueta[etiqueta] = (float) Math.cos(distancia);
+            }
+        }
+        return comparadas;
+    }
+}
@@ -0,0 +1,383 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+/**
+ * Clase que reconoce el trazo mientras se está dibujando, para no esperar a que se levante el dedo y termine
+ * el desvanecimiento de GestureOverlayView.
+ *
+ * Como no se sabe qué parte del gesto se lleva dibujada, cada plantilla se precalcula también recortada a
+ * varias fracciones de su recorrido (FRACCIONES). Cada cierto recorrido del trazo se compara lo dibujado con
+ * todos los prefijos de las plantillas vivas y se guarda para cada una su distancia parcial (la del prefijo más
+ * parecido). Las plantillas cuya distancia parcial supera la de poda se descartan hasta el siguiente trazo.
+ *
+ * Se da el gesto por reconocido antes de tiempo cuando la mejor plantilla coincide completa (su mejor prefijo
+ * es el gesto entero), supera la puntuación mínima con un margen sobre la distancia parcial de cualquier otro
+ * gesto y se mantiene así durante varias evaluaciones seguidas.
+ *
+ * No reserva memoria por punto salvo si el trazo supera la capacidad inicial. No es seguro entre hilos.
+ */
+final class ReconocedorIncremental {
+    /**
+     * Fracciones del recorrido de cada plantilla con las que se compara el trazo parcial; la última es la completa.
+     */
+    static final float[] FRACCIONES = {0.25f, 0.375f, 0.5f, 0.625f, 0.75f, 0.875f, 1f};
+
+    /**
+     * Número mínimo de puntos para empezar a evaluar y a podar.
+     */
+    private static final int PUNTOS_MINIMOS = 8;
+
+    private static final int NUM_FRACCIONES = FRACCIONES.length;
+    private static final int COMPLETA = NUM_FRACCIONES - 1;
+    private static final int L = UtilGestos.LONGITUD_VECTOR;
+
+    /**
+     * Plantillas contra las que se reconoce.
+     */
+    private final PlantillasGestos plantillas;
+
+    /**
+     * Vectores de los prefijos de cada plantilla, NUM_FRACCIONES vectores seguidos por plantilla. Un prefijo sin
+     * recorrido se marca con NaN en su primer valor.
+     */
+    private final float[] prefijos;
+
+    /**
+     * Puntuación mínima para dar un gesto por reconocido.
+     */
+    private final double puntuacionMinima;
+
+    /**
+     * Diferencia de puntuación que debe sacar el mejor gesto al siguiente para decidir antes de tiempo.
+     */
+    private final double margen;
+
+    /**
+     * Distancia parcial a partir de la cual se descarta una plantilla.
+     */
+    private final float distanciaPoda;
+
+    /**
+     * Evaluaciones seguidas en las que se tiene que cumplir la condición para decidir.
+     */
+    private final int evaluacionesEstables;
+
+    /**
+     * Recorrido del trazo, en píxeles, entre dos evaluaciones.
+     */
+    private final float pasoEvaluacion;
+
+    /**
+     * Estado de cada plantilla durante el trazo: si sigue viva, su distancia parcial y la fracción con la que la obtuvo.
+     */
+    private final boolean[] vivas;
+    private final float[] distanciasParciales;
+    private final int[] mejoresFracciones;
+
+    /**
+     * Buffers de trabajo.
+     */
+    private final float[] muestra = new float[L];
+    private final double[] mejorPorEtiqueta;
+
+    /**
+     * Puntos del trazo en curso.
+     */
+    private float[] puntos;
+    private int numValores;
+    private long tiempoInicio;
+    private float recorrido;
+    private float recorridoEvaluado;
+
+    /**
+     * Resultado del trazo en curso.
+     */
+    private int estables;
+    private int candidatoEstable = -1;
+    private int etiquetaDecidida = -1;
+    private double puntuacionDecidida;
+    private long tiempoDecision;
+    private int numVivas;
+
+    /**
+     * Constructor de la clase.
+     * @param plantillas plantillas contra las que se reconoce
+     * @param puntuacionMinima puntuación mínima para dar un gesto por reconocido (la misma que al final del trazo)
+     * @param margen diferencia mínima de puntuación con el siguiente gesto para decidir antes de tiempo
+     * @param puntuacionPoda puntuación parcial por debajo de la cual se descarta una plantilla
+     * @param evaluacionesEstables evaluaciones seguidas que se debe mantener la decisión
+     * @param pasoEvaluacion recorrido en píxeles entre dos evaluaciones
+     */
+    ReconocedorIncremental(PlantillasGestos plantillas, double puntuacionMinima, double margen, double puntuacionPoda,
+                           int evaluacionesEstables, float pasoEvaluacion) {
+        this.plantillas = plantillas;
+        this.puntuacionMinima = puntuacionMinima;
+        this.margen = margen;
+        this.distanciaPoda = (float) (1 / puntuacionPoda);
+        this.evaluacionesEstables = evaluacionesEstables;
+        this.pasoEvaluacion = pasoEvaluacion;
+
+        int n = plantillas.tamano();
+        vivas = new boolean[n];
+        distanciasParciales = new float[n];
+        mejoresFracciones = new int[n];
+        mejorPorEtiqueta = new double[plantillas.numEtiquetas()];
+        puntos = new float[512];
+
+        prefijos = new float[n * NUM_FRACCIONES * L];
+        float[] vector = new float[L];
+        float[] recorte = new float[L + 2];
+        float[] prefijo = new float[L];
+        for (int p = 0; p < n; p++) {
+            plantillas.vector(p, vector);
+            for (int f = 0; f < NUM_FRACCIONES; f++) {
+                int destino = (p * NUM_FRACCIONES + f) * L;
+                if (f == COMPLETA) {
+                    System.arraycopy(vector, 0, prefijos, destino, L);
+                } else if (UtilGestos.vectorizar(recorte, recortar(vector, FRACCIONES[f], recorte), prefijo,
+                        plantillas.orientaciones())) {
+                    System.arraycopy(prefijo, 0, prefijos, destino, L);
+                } else {
+                    prefijos[destino] = Float.NaN;
+                }
+            }
+        }
+        empezar(0);
+    }
+
+    /**
+     * Función que recorta una polilínea a una fracción de su recorrido.
+     * @return número de valores escritos en destino
+     */
+    private static int recortar(float[] vector, float fraccion, float[] destino) {
+        float objetivo = UtilGestos.longitud(vector, L) * fraccion;
+        destino[0] = vector[0];
+        destino[1] = vector[1];
+        int escritos = 2;
+        float acumulado = 0;
+        for (int i = 2; i < L; i += 2) {
+            float tramo = (float) Math.hypot(vector[i] - vector[i - 2], vector[i + 1] - vector[i - 1]);
+            if (acumulado + tramo >= objetivo) {
+                float ratio = tramo > 0 ? (objetivo - acumulado) / tramo : 0;
+                destino[escritos++] = vector[i - 2] + ratio * (vector[i] - vector[i - 2]);
+                destino[escritos++] = vector[i - 1] + ratio * (vector[i + 1] - vector[i - 1]);
+                break;
+            }
+            acumulado += tramo;
+            destino[escritos++] = vector[i];
+            destino[escritos++] = vector[i + 1];
+        }
+        return escritos;
+    }
+
+    /**
+     * Función que prepara el reconocedor para un trazo nuevo.
+     * @param tiempo instante del primer punto, en milisegundos
+     */
+    void empezar(long tiempo) {
+        numValores = 0;
+        recorrido = 0;
+        recorridoEvaluado = 0;
+        tiempoInicio = tiempo;
+        estables = 0;
+        candidatoEstable = -1;
+        etiquetaDecidida = -1;
+        puntuacionDecidida = 0;
+        tiempoDecision = 0;
+        numVivas = vivas.length;
+        for (int p = 0; p < vivas.length; p++) {
+            vivas[p] = true;
+            distanciasParciales[p] = Float.MAX_VALUE;
+            mejoresFracciones[p] = -1;
+        }
+    }
+
+    /**
+     * Función que añade un punto al trazo en curso y lo evalúa si ha avanzado lo suficiente.
+     * @param x coordenada x del punto
+     * @param y coordenada y del punto
+     * @param tiempo instante del punto, en milisegundos
+     * @return true si con este punto se ha reconocido el gesto (solo la primera vez en cada trazo)
+     */
+    boolean anadirPunto(float x, float y, long tiempo) {
+        if (etiquetaDecidida >= 0) {
+            return false;
+        }
+        if (numValores + 2 > puntos.length) {
+            float[] nuevos = new float[puntos.length * 2];
+            System.arraycopy(puntos, 0, nuevos, 0, numValores);
+            puntos = nuevos;
+        }
+        if (numValores > 0) {
+            recorrido += (float) Math.hypot(x - puntos[numValores - 2], y - puntos[numValores - 1]);
+        }
+        puntos[numValores++] = x;
+        puntos[numValores++] = y;
+
+        if (numValores / 2 < PUNTOS_MINIMOS || recorrido - recorridoEvaluado < pasoEvaluacion) {
+            return false;
+        }
+        recorridoEvaluado = recorrido;
+        if (evaluar()) {
+            tiempoDecision = tiempo;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Función que compara el trazo parcial con los prefijos de las plantillas vivas y decide si ya está reconocido.
+     */
+    private boolean evaluar() {
+        if (!UtilGestos.vectorizar(puntos, numValores, muestra, plantillas.orientaciones())) {
+            return false;
+        }
+
+        for (int e = 0; e < mejorPorEtiqueta.length; e++) {
+            mejorPorEtiqueta[e] = 0;
+        }
+        int mejor = -1;
+        float distanciaMejor = Float.MAX_VALUE;
+        for (int p = 0; p < vivas.length; p++) {
+            if (!vivas[p]) {
+                continue;
+            }
+            float minima = Float.MAX_VALUE;
+            int fraccion = -1;
+            float completa = Float.MAX_VALUE;
+            for (int f = 0; f < NUM_FRACCIONES; f++) {
+                int desde = (p * NUM_FRACCIONES + f) * L;
+                if (Float.isNaN(prefijos[desde])) {
+                    continue;
+                }
+                float distancia = distancia(desde);
+                if (distancia < minima) {
+                    minima = distancia;
+                    fraccion = f;
+                }
+                if (f == COMPLETA) {
+                    completa = distancia;
+                }
+            }
+            distanciasParciales[p] = minima;
+            mejoresFracciones[p] = fraccion;
+            if (minima > distanciaPoda) {
+                vivas[p] = false;
+                numVivas--;
+                continue;
+            }
+
+            // Los demás gestos compiten con su mejor prefijo: si lo dibujado se parece al principio de otro gesto,
+            // puede que el usuario todavía lo esté dibujando y no se debe decidir.
+            int etiqueta = plantillas.etiqueta(p);
+            double puntuacion = UtilGestos.puntuacion(minima);
+            if (puntuacion > mejorPorEtiqueta[etiqueta]) {
+                mejorPorEtiqueta[etiqueta] = puntuacion;
+            }
+            if (completa < distanciaMejor) {
+                distanciaMejor = completa;
+                mejor = p;
+            }
+        }
+
+        if (mejor < 0 || mejoresFracciones[mejor] != COMPLETA) {
+            estables = 0;
+            return false;
+        }
+        int etiqueta = plantillas.etiqueta(mejor);
+        double puntuacion = UtilGestos.puntuacion(distanciaMejor);
+        double segunda = 0;
+        for (int e = 0; e < mejorPorEtiqueta.length; e++) {
+            if (e != etiqueta && mejorPorEtiqueta[e] > segunda) {
+                segunda = mejorPorEtiqueta[e];
+            }
+        }
+        if (puntuacion <= puntuacionMinima || puntuacion - segunda < margen) {
+            estables = 0;
+            return false;
+        }
+
+        estables = etiqueta == candidatoEstable ? estables + 1 : 1;
+        candidatoEstable = etiqueta;
+        if (estables < evaluacionesEstables) {
+            return false;
+        }
+        etiquetaDecidida = etiqueta;
+        puntuacionDecidida = puntuacion;
+        return true;
+    }
+
+    /**
+     * Función que calcula la distancia entre el trazo parcial y un prefijo.
+     */
+    private float distancia(int desde) {
+        float a = 0;
+        float b = 0;
+        for (int i = 0; i < L; i += 2) {
+            float px = prefijos[desde + i];
+            float py = prefijos[desde + i + 1];
+            a += px * muestra[i] + py * muestra[i + 1];
+            b += px * muestra[i + 1] - py * muestra[i];
+        }
+        return UtilGestos.distanciaDesdeProductos(a, b, plantillas.orientaciones());
+    }
+
+    /**
+     * @return plantillas que usa el reconocedor
+     */
+    PlantillasGestos plantillas() {
+        return plantillas;
+    }
+
+    /**
+     * @return etiqueta del gesto reconocido en el trazo en curso, -1 si todavía no se ha decidido
+     */
+    int etiquetaDecidida() {
+        return etiquetaDecidida;
+    }
+
+    /**
+     * @return puntuación del gesto reconocido en el trazo en curso
+     */
+    double puntuacionDecidida() {
+        return puntuacionDecidida;
+    }
+
+    /**
+     * @return milisegundos desde el primer punto hasta la decisión, -1 si todavía no se ha decidido
+     */
+    long tiempoHastaDecision() {
+        return etiquetaDecidida >= 0 ? tiempoDecision - tiempoInicio : -1;
+    }
+
+    /**
+     * @return número de plantillas que siguen vivas en el trazo en curso
+     */
+    int plantillasVivas() {
+        return numVivas;
+    }
+
+    /**
+     * @param plantilla índice de la plantilla
+     * @return distancia parcial de la plantilla en la última evaluación
+     */
+    float distanciaParcial(int plantilla) {
+        return distanciasParciales[plantilla];
+    }
+}
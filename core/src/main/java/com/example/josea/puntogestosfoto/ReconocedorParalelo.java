@@ -0,0 +1,374 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Clase que reconoce trazos repartiendo las plantillas en fragmentos que se comparan en paralelo, para bibliotecas
+ * grandes, por ejemplo con las plantillas de varios operadores. Cada fragmento es un rango contiguo de plantillas;
+ * uno se compara en el hilo que llama y el resto en un grupo fijo de hilos, uno por núcleo.
+ *
+ * Los fragmentos comparten cotas: el mejor coseno encontrado hasta ahora de cada gesto y un suelo, el k-ésimo
+ * mejor gesto de cualquier fragmento (k es la capacidad de las Predicciones). Igual que con IndicePlantillas,
+ * cada plantilla se abandona en cuanto los productos parciales demuestran que no puede superar a la mejor de su
+ * gesto ni entrar entre las k mejores. Las cotas son exactas, así que las predicciones son las mismas que
+ * compararlo todo, quitando las que no llegan a la puntuación mínima.
+ *
+ * No es seguro usar la misma instancia desde varios hilos a la vez. Hay que llamar a cerrar() al terminar.
+ */
+final class ReconocedorParalelo implements HiloReconocimiento.ReconocedorTrazo {
+    /**
+     * Margen para los redondeos al comparar las cotas, así nunca se descarta una plantilla válida.
+     */
+    private static final float MARGEN_COTA = 1e-5f;
+
+    private static final AtomicInteger HILOS_CREADOS = new AtomicInteger();
+
+    /**
+     * Plantillas contra las que se reconoce.
+     */
+    private final PlantillasGestos plantillas;
+
+    /**
+     * Puntuación mínima de las predicciones y coseno que le corresponde.
+     */
+    private final double puntuacionMinima;
+    private final float cosenoMinimo;
+
+    /**
+     * Norma del vector de cada plantilla a partir de cada corte de IndicePlantillas.CORTES.
+     */
+    private final float[] restos;
+
+    /**
+     * Hilos que comparan todos los fragmentos menos el primero, null si solo hay uno.
+     */
+    private final ExecutorService hilos;
+
+    private final Fragmento[] fragmentos;
+
+    /**
+     * Datos del reconocimiento en curso, que solo leen los fragmentos: vector del trazo, normas de su vector
+     * desde cada corte y número de predicciones que se piden.
+     */
+    private final float[] muestra = new float[UtilGestos.LONGITUD_VECTOR];
+    private final float[] restosMuestra = new float[IndicePlantillas.CORTES.length];
+    private int numMejores;
+
+    /**
+     * Cotas compartidas entre los fragmentos, como bits de float: mejor coseno de cada etiqueta y suelo.
+     */
+    private final AtomicIntegerArray cosenoPorEtiqueta;
+    private final AtomicInteger suelo = new AtomicInteger();
+
+    /**
+     * Fragmentos de los hilos que no han terminado, protegido por fin.
+     */
+    private final Object fin = new Object();
+    private int pendientes;
+
+    /**
+     * Constructor de la clase con un hilo por núcleo.
+     * @param plantillas plantillas contra las que se reconocerá
+     * @param puntuacionMinima puntuación por debajo de la cual no interesa una predicción, mayor que 0
+     */
+    ReconocedorParalelo(PlantillasGestos plantillas, double puntuacionMinima) {
+        this(plantillas, puntuacionMinima, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor de la clase.
+     * @param plantillas plantillas contra las que se reconocerá
+     * @param puntuacionMinima puntuación por debajo de la cual no interesa una predicción, mayor que 0
+     * @param numHilos número de fragmentos, contando el hilo que llama
+     */
+    ReconocedorParalelo(PlantillasGestos plantillas, double puntuacionMinima, int numHilos) {
+        if (puntuacionMinima <= 0) {
+            throw new IllegalArgumentException("La puntuación mínima debe ser positiva");
+        }
+        if (numHilos <= 0) {
+            throw new IllegalArgumentException("Hace falta al menos un hilo");
+        }
+        this.plantillas = plantillas;
+        this.puntuacionMinima = puntuacionMinima;
+        this.cosenoMinimo = (float) Math.cos(1 / puntuacionMinima);
+        this.cosenoPorEtiqueta = new AtomicIntegerArray(plantillas.numEtiquetas());
+
+        int n = plantillas.tamano();
+        final int[] cortes = IndicePlantillas.CORTES;
+        float[] vector = new float[UtilGestos.LONGITUD_VECTOR];
+        restos = new float[n * cortes.length];
+        for (int p = 0; p < n; p++) {
+            plantillas.vector(p, vector);
+            for (int k = 0; k < cortes.length; k++) {
+                restos[p * cortes.length + k] = IndicePlantillas.normaDesde(vector, cortes[k]);
+            }
+        }
+
+        fragmentos = new Fragmento[numHilos];
+        for (int f = 0; f < numHilos; f++) {
+            fragmentos[f] = new Fragmento((int) ((long) n * f / numHilos), (int) ((long) n * (f + 1) / numHilos));
+        }
+        hilos = numHilos > 1 ? Executors.newFixedThreadPool(numHilos - 1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable tarea) {
+                Thread hilo = new Thread(tarea, "Reconocimiento-" + HILOS_CREADOS.incrementAndGet());
+                hilo.setDaemon(true);
+                return hilo;
+            }
+        }) : null;
+    }
+
+    /**
+     * @return plantillas que usa el reconocedor
+     */
+    PlantillasGestos plantillas() {
+        return plantillas;
+    }
+
+    /**
+     * @return número de fragmentos en que se reparten las plantillas
+     */
+    int numFragmentos() {
+        return fragmentos.length;
+    }
+
+    /**
+     * @return plantillas comparadas por completo en el último reconocimiento, sumando todos los fragmentos
+     */
+    int ultimasComparadas() {
+        int total = 0;
+        for (Fragmento fragmento : fragmentos) {
+            total += fragmento.comparadas;
+        }
+        return total;
+    }
+
+    /**
+     * Función que reconoce un trazo. Bloquea hasta que terminan todos los fragmentos.
+     * @param puntos puntos intercalados (x, y) del trazo, por ejemplo GestureStroke.points
+     * @param numValores número de valores válidos en puntos
+     * @param destino donde se escriben las mejores predicciones, ordenadas de mayor a menor puntuación
+     * @return número de predicciones escritas en destino
+     */
+    @Override
+    public int reconocer(float[] puntos, int numValores, Predicciones destino) {
+        destino.reiniciar(plantillas);
+        if (!UtilGestos.vectorizar(puntos, numValores, muestra, plantillas.orientaciones())) {
+            return 0;
+        }
+        for (int k = 0; k < restosMuestra.length; k++) {
+            restosMuestra[k] = IndicePlantillas.normaDesde(muestra, IndicePlantillas.CORTES[k]);
+        }
+        numMejores = destino.capacidad();
+        int minimo = Float.floatToIntBits(cosenoMinimo);
+        for (int e = 0; e < cosenoPorEtiqueta.length(); e++) {
+            cosenoPorEtiqueta.set(e, minimo);
+        }
+        suelo.set(minimo);
+
+        // Lo escrito hasta aquí lo ven los hilos porque se publica al encolar cada fragmento.
+        synchronized (fin) {
+            pendientes = fragmentos.length - 1;
+        }
+        for (int f = 1; f < fragmentos.length; f++) {
+            hilos.execute(fragmentos[f]);
+        }
+        fragmentos[0].comparar();
+        esperarFragmentos();
+
+        for (int e = 0; e < cosenoPorEtiqueta.length(); e++) {
+            double mejor = -1;
+            for (Fragmento fragmento : fragmentos) {
+                mejor = Math.max(mejor, fragmento.mejorPorEtiqueta[e]);
+            }
+            if (mejor >= 0) {
+                destino.ofrecer(e, mejor);
+            }
+        }
+        return destino.tamano();
+    }
+
+    /**
+     * Función que para los hilos. Después no se puede seguir reconociendo.
+     */
+    void cerrar() {
+        if (hilos != null) {
+            hilos.shutdown();
+        }
+    }
+
+    /**
+     * Función que espera a que terminen los fragmentos de los hilos. Si interrumpen al que llama se sigue
+     * esperando, porque los fragmentos usan los buffers del reconocedor, y se deja la marca de interrupción.
+     */
+    private void esperarFragmentos() {
+        boolean interrumpido = false;
+        synchronized (fin) {
+            while (pendientes > 0) {
+                try {
+                    fin.wait();
+                } catch (InterruptedException e) {
+                    interrumpido = true;
+                }
+            }
+        }
+        if (interrumpido) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Función que sube una cota compartida si el valor nuevo es mayor.
+     */
+    private static void subir(AtomicIntegerArray cotas, int i, float valor) {
+        while (true) {
+            int actual = cotas.get(i);
+            if (Float.intBitsToFloat(actual) >= valor || cotas.compareAndSet(i, actual, Float.floatToIntBits(valor))) {
+                return;
+            }
+        }
+    }
+
+    private static void subir(AtomicInteger cota, float valor) {
+        while (true) {
+            int actual = cota.get();
+            if (Float.intBitsToFloat(actual) >= valor || cota.compareAndSet(actual, Float.floatToIntBits(valor))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Rango de plantillas que se compara en un mismo hilo, con sus propios buffers de trabajo.
+     */
+    private final class Fragmento implements Runnable {
+        private final int desde;
+        private final int hasta;
+
+        /**
+         * Mejor puntuación de cada etiqueta en este fragmento, -1 si ninguna llega a la mínima.
+         */
+        private final double[] mejorPorEtiqueta = new double[plantillas.numEtiquetas()];
+
+        /**
+         * Los mejores cosenos de etiquetas distintas de este fragmento, de mayor a menor, para calcular el suelo.
+         */
+        private final float[] mejoresCosenos = new float[plantillas.numEtiquetas()];
+        private final int[] mejoresEtiquetas = new int[plantillas.numEtiquetas()];
+        private int numMejoresLocales;
+
+        private final float[] productos = new float[2];
+        private int comparadas;
+
+        Fragmento(int desde, int hasta) {
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        public void run() {
+            try {
+                comparar();
+            } finally {
+                synchronized (fin) {
+                    if (--pendientes == 0) {
+                        fin.notifyAll();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Función que compara el trazo con las plantillas del fragmento.
+         */
+        void comparar() {
+            for (int e = 0; e < mejorPorEtiqueta.length; e++) {
+                mejorPorEtiqueta[e] = -1;
+            }
+            numMejoresLocales = 0;
+            comparadas = 0;
+            final int[] cortes = IndicePlantillas.CORTES;
+            for (int p = desde; p < hasta; p++) {
+                int etiqueta = plantillas.etiqueta(p);
+                float coseno = Math.max(Float.intBitsToFloat(cosenoPorEtiqueta.get(etiqueta)),
+                        Float.intBitsToFloat(suelo.get()));
+
+                // La misma cota que ReconocedorGestos con el índice.
+                productos[0] = 0;
+                productos[1] = 0;
+                int inicio = 0;
+                boolean descartada = false;
+                for (int k = 0; k < cortes.length; k++) {
+                    plantillas.productos(p, muestra, inicio, cortes[k], productos);
+                    inicio = cortes[k];
+                    float cota = (float) Math.sqrt(productos[0] * productos[0] + productos[1] * productos[1])
+                            + restos[p * cortes.length + k] * restosMuestra[k];
+                    if (cota + MARGEN_COTA < coseno) {
+                        descartada = true;
+                        break;
+                    }
+                }
+                if (descartada) {
+                    continue;
+                }
+
+                plantillas.productos(p, muestra, inicio, UtilGestos.LONGITUD_VECTOR, productos);
+                comparadas++;
+                float distancia = UtilGestos.distanciaDesdeProductos(productos[0], productos[1],
+                        plantillas.orientaciones());
+                double puntuacion = UtilGestos.puntuacion(distancia);
+                if (puntuacion >= puntuacionMinima && puntuacion > mejorPorEtiqueta[etiqueta]) {
+                    mejorPorEtiqueta[etiqueta] = puntuacion;
+                    float cosenoPlantilla = (float) Math.cos(distancia);
+                    subir(cosenoPorEtiqueta, etiqueta, cosenoPlantilla);
+                    mejorar(etiqueta, cosenoPlantilla);
+                }
+            }
+        }
+
+        /**
+         * Función que coloca el coseno nuevo de una etiqueta entre los mejores del fragmento y, si ya hay tantas
+         * etiquetas como predicciones se piden, sube el suelo compartido al peor de ellos.
+         */
+        private void mejorar(int etiqueta, float coseno) {
+            int i = 0;
+            while (i < numMejoresLocales && mejoresEtiquetas[i] != etiqueta) {
+                i++;
+            }
+            if (i == numMejoresLocales) {
+                numMejoresLocales++;
+            }
+            while (i > 0 && mejoresCosenos[i - 1] < coseno) {
+                mejoresCosenos[i] = mejoresCosenos[i - 1];
+                mejoresEtiquetas[i] = mejoresEtiquetas[i - 1];
+                i--;
+            }
+            mejoresCosenos[i] = coseno;
+            mejoresEtiquetas[i] = etiqueta;
+            if (numMejoresLocales >= numMejores) {
+                subir(suelo, mejoresCosenos[numMejores - 1]);
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Clase que reproduce trazos grabados con GrabadorTrazas a través del reconocedor, en la JVM, para elegir el umbral
+ * de puntuación con datos y detectar empeoramientos. Mide el rendimiento y la latencia de cada reconocimiento y,
+ * para cada umbral, la precisión (gestos aceptados que eran el que se quería hacer) y la exhaustividad (gestos
+ * que se querían hacer y se aceptan). Igual que la aplicación, un gesto se acepta si su puntuación supera el umbral.
+ *
+ * Solo cuentan para la precisión y la exhaustividad los gestos con etiqueta; los que tienen una etiqueta que no
+ * está en la biblioteca son trazos que no debían hacer nada.
+ *
+ * También se puede usar desde la línea de comandos (o con ./gradlew :core:reproducirTrazas):
+ * java ReproductorTrazas gestures trazas.pgt [más ficheros o carpetas] [--umbrales 2,3,4] [--indice]
+ * Por defecto reconoce con la búsqueda lineal, así el informe solo depende del umbral; con --indice usa el
+ * IndicePlantillas como la aplicación, para comprobar que el índice no cambia las decisiones.
+ */
+final class ReproductorTrazas {
+    /**
+     * Umbrales que se evalúan por defecto, alrededor del que usa CamTestActivity.
+     */
+    static final double[] UMBRALES = {1.5, 2, 2.5, 3, 3.5, 4, 5, 6, 8};
+
+    private final HiloReconocimiento.ReconocedorTrazo reconocedor;
+    private final Set<String> nombres = new HashSet<String>();
+    private final double[] umbrales;
+    private final Predicciones predicciones = new Predicciones(1);
+    private final Histograma latencias = new Histograma();
+
+    private int gestos;
+    private int positivos;
+    private int negativos;
+    private long nanosReconociendo;
+
+    /**
+     * Por cada umbral, gestos con etiqueta aceptados y aceptados con el nombre de su etiqueta.
+     */
+    private final int[] aceptados;
+    private final int[] aciertos;
+
+    /**
+     * Constructor de la clase.
+     * @param plantillas plantillas que usa el reconocedor, para saber qué etiquetas son gestos
+     * @param reconocedor reconocedor del trazo completo, con puntuación mínima no mayor que el menor umbral
+     * @param umbrales umbrales a evaluar
+     */
+    ReproductorTrazas(PlantillasGestos plantillas, HiloReconocimiento.ReconocedorTrazo reconocedor, double[] umbrales) {
+        this.reconocedor = reconocedor;
+        this.umbrales = umbrales.clone();
+        for (int e = 0; e < plantillas.numEtiquetas(); e++) {
+            nombres.add(plantillas.nombre(e));
+        }
+        aceptados = new int[umbrales.length];
+        aciertos = new int[umbrales.length];
+    }
+
+    /**
+     * Función que reconoce todos los gestos que quedan en un fichero de trazas. Igual que GestureLibrary solo se
+     * usa el primer trazo de cada gesto.
+     * @param lector lector del fichero
+     * @throws IOException si el fichero está mal formado o no se puede leer
+     */
+    void reproducir(LectorTrazas lector) throws IOException {
+        while (lector.siguiente()) {
+            long inicio = System.nanoTime();
+            int numPredicciones = lector.numTrazos() == 0 ? 0
+                    : reconocedor.reconocer(lector.puntos(), lector.numPuntos(0) * 2, predicciones);
+            long duracion = System.nanoTime() - inicio;
+            latencias.anotar(duracion);
+            nanosReconociendo += duracion;
+            gestos++;
+
+            String etiqueta = lector.etiqueta();
+            if (etiqueta.isEmpty()) {
+                continue;
+            }
+            if (nombres.contains(etiqueta)) {
+                positivos++;
+            } else {
+                negativos++;
+            }
+            if (numPredicciones == 0) {
+                continue;
+            }
+            boolean correcto = predicciones.nombre(0).equals(etiqueta);
+            for (int u = 0; u < umbrales.length; u++) {
+                if (predicciones.puntuacion(0) > umbrales[u]) {
+                    aceptados[u]++;
+                    if (correcto) {
+                        aciertos[u]++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return gestos reproducidos
+     */
+    int gestos() {
+        return gestos;
+    }
+
+    /**
+     * @return gestos con la etiqueta de un gesto de la biblioteca
+     */
+    int positivos() {
+        return positivos;
+    }
+
+    /**
+     * @return gestos con una etiqueta que no es ningún gesto de la biblioteca
+     */
+    int negativos() {
+        return negativos;
+    }
+
+    /**
+     * @return latencia de cada reconocimiento en nanosegundos
+     */
+    Histograma latencias() {
+        return latencias;
+    }
+
+    /**
+     * @return gestos reconocidos por segundo, solo contando el tiempo del reconocedor
+     */
+    double gestosPorSegundo() {
+        return nanosReconociendo == 0 ? 0 : gestos * 1e9 / nanosReconociendo;
+    }
+
+    /**
+     * @param umbral índice del umbral
+     * @return fracción de los gestos con etiqueta aceptados que eran el que se quería hacer, 1 si no se acepta
+     * ninguno
+     */
+    double precision(int umbral) {
+        return aceptados[umbral] == 0 ? 1 : aciertos[umbral] / (double) aceptados[umbral];
+    }
+
+    /**
+     * @param umbral índice del umbral
+     * @return fracción de los gestos de la biblioteca que se quería hacer que se aceptan con su nombre, 0 si no
+     * hay ninguno
+     */
+    double exhaustividad(int umbral) {
+        return positivos == 0 ? 0 : aciertos[umbral] / (double) positivos;
+    }
+
+    /**
+     * Función que escribe el informe: rendimiento, percentiles de latencia y precisión y exhaustividad por umbral.
+     * @param destino donde se escribe
+     * @throws IOException si no se puede escribir
+     */
+    void informe(Appendable destino) throws IOException {
+        destino.append(String.format(Locale.US, "%d gestos, %d de la biblioteca y %d que no debían hacer nada%n",
+                gestos, positivos, negativos));
+        destino.append(String.format(Locale.US, "%.0f gestos/s, latencia (us) media %.1f p50 %.1f p90 %.1f "
+                        + "p99 %.1f max %.1f%n", gestosPorSegundo(), latencias.media() / 1e3,
+                latencias.percentil(50) / 1e3, latencias.percentil(90) / 1e3, latencias.percentil(99) / 1e3,
+                latencias.maximo() / 1e3));
+        destino.append(String.format(Locale.US, "%7s %9s %10s %13s %9s%n",
+                "umbral", "aceptados", "precision", "exhaustividad", "F1"));
+        for (int u = 0; u < umbrales.length; u++) {
+            double p = precision(u);
+            double r = exhaustividad(u);
+            destino.append(String.format(Locale.US, "%7.2f %9d %10.3f %13.3f %9.3f%n", umbrales[u], aceptados[u], p,
+                    r, p + r == 0 ? 0 : 2 * p * r / (p + r)));
+        }
+    }
+
+    private static void anadirFicheros(File fichero, List<File> destino) {
+        if (!fichero.isDirectory()) {
+            destino.add(fichero);
+            return;
+        }
+        File[] contenido = fichero.listFiles();
+        if (contenido == null) {
+            return;
+        }
+        Arrays.sort(contenido);
+        for (File f : contenido) {
+            if (f.getName().endsWith(".pgt")) {
+                destino.add(f);
+            }
+        }
+    }
+
+    /**
+     * Reproductor de línea de comandos. Reconoce con la búsqueda lineal, salvo con --indice.
+     * @param args fichero de gestos, ficheros de trazas o carpetas con ficheros .pgt y opciones
+     */
+    public static void main(String[] args) throws IOException {
+        double[] umbrales = UMBRALES;
+        boolean indice = false;
+        List<File> trazas = new ArrayList<File>();
+        for (int i = 1; i < args.length; i++) {
+            if ("--umbrales".equals(args[i]) && i + 1 < args.length) {
+                String[] valores = args[++i].split(",");
+                umbrales = new double[valores.length];
+                for (int u = 0; u < valores.length; u++) {
+                    umbrales[u] = Double.parseDouble(valores[u]);
+                }
+            } else if ("--indice".equals(args[i])) {
+                indice = true;
+            } else {
+                anadirFicheros(new File(args[i]), trazas);
+            }
+        }
+        if (trazas.isEmpty()) {
+            System.err.println("Uso: ReproductorTrazas <fichero de gestos> <trazas o carpeta>... "
+                    + "[--umbrales 2,3,4] [--indice]");
+            System.exit(1);
+        }
+
+        PlantillasGestos plantillas;
+        InputStream in = new FileInputStream(args[0]);
+        try {
+            plantillas = PlantillasGestos.desdeGestos(LectorGestos.leer(in));
+        } finally {
+            in.close();
+        }
+        double minimo = Double.MAX_VALUE;
+        for (double umbral : umbrales) {
+            minimo = Math.min(minimo, umbral);
+        }
+        ReproductorTrazas reproductor = new ReproductorTrazas(plantillas, indice
+                ? new ReconocedorGestos(new IndicePlantillas(plantillas), minimo)
+                : new ReconocedorGestos(plantillas), umbrales);
+        for (File fichero : trazas) {
+            InputStream entrada = new FileInputStream(fichero);
+            try {
+                LectorTrazas lector = new LectorTrazas(entrada);
+                reproductor.reproducir(lector);
+                if (lector.truncado()) {
+                    System.err.println(fichero + " termina a mitad de un gesto, se ignora el último");
+                }
+            } finally {
+                entrada.close();
+            }
+        }
+        System.out.println("Reconocedor: " + (indice ? "índice de plantillas, como la aplicación"
+                : "búsqueda lineal") + ", " + plantillas.tamano() + " plantillas");
+        reproductor.informe(System.out);
+    }
+}
@@ -0,0 +1,365 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.example.josea.puntogestosfoto;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Clase que recorre los segmentos de la cabecera de un JPEG sin decodificar la imagen: tamaño, orientación
+ * EXIF, miniatura EXIF y segmento XMP.
+ *
+ * Solo se leen los segmentos hasta el comienzo de los datos de la imagen (SOS), unos pocos KB al principio
+ * del fichero, así el coste no depende del tamaño de la foto. La miniatura y el XMP se devuelven como vistas
+ * del mismo buffer, sin copiarlos. Con conSegmento se obtienen las partes para escribir la foto con un
+ * segmento nuevo en una sola escritura, también sin copiar los datos de la imagen.
+ *
+ * Un EXIF mal formado no impide leer el resto: se trata como si no hubiera EXIF.
+ */
+final class SegmentosJpeg {
+    /**
+     * Identificador al principio de un segmento APP1 con EXIF.
+     */
+    private static final byte[] ID_EXIF = {'E', 'x', 'i', 'f', 0, 0};
+
+    /**
+     * Identificador al principio de un segmento APP1 con XMP.
+     */
+    static final byte[] ID_XMP = ascii("http://ns.adobe.com/xap/1.0/\0");
+
+    /**
+     * Marcadores usados.
+     */
+    static final int SOI = 0xD8;
+    static final int EOI = 0xD9;
+    static final int SOS = 0xDA;
+    static final int APP0 = 0xE0;
+    static final int APP1 = 0xE1;
+
+    /**
+     * Etiquetas EXIF usadas: orientación en IFD0 y posición y longitud de la miniatura en IFD1.
+     */
+    private static final int ETIQUETA_ORIENTACION = 0x0112;
+    private static final int ETIQUETA_MINIATURA = 0x0201;
+    private static final int ETIQUETA_LONGITUD_MINIATURA = 0x0202;
+    private static final int TIPO_SHORT = 3;
+    private static final int TIPO_LONG = 4;
+
+    /**
+     * Orientación EXIF cuando no la hay: la imagen se ve tal cual.
+     */
+    static final int ORIENTACION_NORMAL = 1;
+
+    /**
+     * JPEG completo, con el orden de bytes de la cabecera; las posiciones son absolutas en este buffer.
+     */
+    private final ByteBuffer jpeg;
+    private final int inicio;
+    private final int fin;
+
+    private int ancho;
+    private int alto;
+    private boolean exif;
+    private int orientacion = ORIENTACION_NORMAL;
+    private int inicioMiniatura = -1;
+    private int finMiniatura;
+
+    /**
+     * Posición del segmento XMP (desde el marcador hasta el final), del comienzo de su paquete, del final de
+     * los segmentos APPn del principio, donde se inserta un segmento nuevo, y del marcador SOS.
+     */
+    private int inicioXmp = -1;
+    private int finXmp;
+    private int paqueteXmp;
+    private int insercion;
+    private int inicioImagen;
+
+    private SegmentosJpeg(ByteBuffer jpeg) {
+        this.jpeg = jpeg.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.inicio = jpeg.position();
+        this.fin = jpeg.limit();
+    }
+
+    /**
+     * Función que lee la cabecera de un JPEG. No cambia la posición ni el límite del buffer.
+     * @param jpeg JPEG entre la posición y el límite del buffer, por ejemplo ByteBuffer.wrap(datos, 0, longitud)
+     * @return segmentos de la cabecera
+     * @throws IllegalArgumentException si no es un JPEG o se acaba antes de los datos de la imagen
+     */
+    static SegmentosJpeg analizar(ByteBuffer jpeg) {
+        SegmentosJpeg segmentos = new SegmentosJpeg(jpeg);
+        segmentos.recorrer();
+        return segmentos;
+    }
+
+    /**
+     * @return ancho de la imagen en píxeles, del segmento SOF
+     */
+    int ancho() {
+        return ancho;
+    }
+
+    /**
+     * @return alto de la imagen en píxeles, del segmento SOF
+     */
+    int alto() {
+        return alto;
+    }
+
+    /**
+     * @return true si hay un segmento EXIF válido
+     */
+    boolean tieneExif() {
+        return exif;
+    }
+
+    /**
+     * @return orientación EXIF (1 a 8), ORIENTACION_NORMAL si no está indicada
+     */
+    int orientacion() {
+        return orientacion;
+    }
+
+    /**
+     * @return miniatura JPEG del EXIF como vista del buffer original, o null si no hay
+     */
+    ByteBuffer miniatura() {
+        return inicioMiniatura < 0 ? null : vista(inicioMiniatura, finMiniatura);
+    }
+
+    /**
+     * Función que da la posición de la miniatura en el JPEG que se escribe, tal cual o con un segmento nuevo.
+     * @param segmento segmento pasado a conSegmento, null si el JPEG se escribe tal cual
+     * @return bytes desde el principio del JPEG escrito hasta la miniatura, -1 si no hay
+     */
+    int posicionMiniatura(ByteBuffer segmento) {
+        if (inicioMiniatura < 0) {
+            return -1;
+        }
+        int posicion = inicioMiniatura - inicio;
+        if (segmento == null) {
+            return posicion;
+        }
+        int corte = inicioXmp >= 0 ? inicioXmp : insercion;
+        int reanudacion = inicioXmp >= 0 ? finXmp : insercion;
+        return inicioMiniatura >= reanudacion ? posicion + segmento.remaining() - (reanudacion - corte) : posicion;
+    }
+
+    /**
+     * @return bytes de la miniatura EXIF, 0 si no hay
+     */
+    int longitudMiniatura() {
+        return inicioMiniatura < 0 ? 0 : finMiniatura - inicioMiniatura;
+    }
+
+    /**
+     * @return paquete XMP como vista del buffer original, o null si no hay
+     */
+    ByteBuffer xmp() {
+        return inicioXmp < 0 ? null : vista(paqueteXmp, finXmp);
+    }
+
+    /**
+     * @return bytes de la cabecera, desde el principio del JPEG hasta los datos de la imagen
+     */
+    int bytesCabecera() {
+        return inicioImagen - inicio;
+    }
+
+    /**
+     * Función que da las partes del JPEG con un segmento nuevo, para escribirlas con una escritura agrupada
+     * (GatheringByteChannel.write). El segmento va después de los APPn del principio, así el EXIF sigue siendo
+     * el primero, y sustituye al XMP que hubiera. Las partes del JPEG son vistas del buffer original.
+     * @param segmento segmento completo, desde el marcador
+     * @return partes a escribir en orden
+     */
+    ByteBuffer[] conSegmento(ByteBuffer segmento) {
+        int corte = inicioXmp >= 0 ? inicioXmp : insercion;
+        int reanudacion = inicioXmp >= 0 ? finXmp : insercion;
+        return new ByteBuffer[]{vista(inicio, corte), segmento.duplicate(), vista(reanudacion, fin)};
+    }
+
+    /**
+     * Función que recorre los segmentos hasta SOS.
+     */
+    private void recorrer() {
+        if (fin - inicio < 4 || u8(inicio) != 0xFF || u8(inicio + 1) != SOI) {
+            throw new IllegalArgumentException("No es un JPEG");
+        }
+        int p = inicio + 2;
+        insercion = p;
+        boolean enAplicaciones = true;
+        while (p + 4 <= fin) {
+            if (u8(p) != 0xFF) {
+                throw new IllegalArgumentException("Marcador no válido en la posición " + (p - inicio));
+            }
+            int marcador = u8(p + 1);
+            if (marcador == 0xFF) {
+                // Byte de relleno antes del marcador.
+                p++;
+                continue;
+            }
+            if (marcador == 0x01 || (marcador >= 0xD0 && marcador <= SOI)) {
+                // Marcadores sin longitud.
+                p += 2;
+                continue;
+            }
+            if (marcador == EOI) {
+                break;
+            }
+            int finSegmento = p + 2 + u16(p + 2);
+            if (finSegmento < p + 4 || finSegmento > fin) {
+                throw new IllegalArgumentException("Segmento truncado en la posición " + (p - inicio));
+            }
+            if (marcador == SOS) {
+                inicioImagen = p;
+                return;
+            }
+            int datos = p + 4;
+            if (marcador >= APP0 && marcador <= 0xEF) {
+                if (marcador == APP1 && empiezaPor(datos, finSegmento, ID_EXIF)) {
+                    try {
+                        leerExif(vista(datos + ID_EXIF.length, finSegmento), datos + ID_EXIF.length);
+                    } catch (IndexOutOfBoundsException e) {
+                        // Desplazamientos fuera del segmento: se ignora lo que falte del EXIF.
+                    }
+                } else if (marcador == APP1 && empiezaPor(datos, finSegmento, ID_XMP)) {
+                    inicioXmp = p;
+                    finXmp = finSegmento;
+                    paqueteXmp = datos + ID_XMP.length;
+                }
+                if (enAplicaciones) {
+                    insercion = finSegmento;
+                }
+            } else {
+                enAplicaciones = false;
+                if (esSof(marcador)) {
+                    alto = u16(datos + 1);
+                    ancho = u16(datos + 3);
+                }
+            }
+            p = finSegmento;
+        }
+        throw new IllegalArgumentException("JPEG sin datos de imagen");
+    }
+
+    /**
+     * Función que lee la orientación del IFD0 y la miniatura del IFD1 de un EXIF.
+     * @param tiff cabecera TIFF del EXIF, las posiciones del EXIF son relativas a ella
+     * @param base posición absoluta de tiff en el JPEG
+     */
+    private void leerExif(ByteBuffer tiff, int base) {
+        if (tiff.remaining() < 8) {
+            return;
+        }
+        int orden = tiff.getShort(0);
+        if (orden == 0x4949) {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (orden != 0x4D4D) {
+            return;
+        }
+        if (tiff.getShort(2) != 42) {
+            return;
+        }
+
+        int ifd0 = tiff.getInt(4);
+        int entradas = tiff.getShort(ifd0) & 0xFFFF;
+        for (int i = 0; i < entradas; i++) {
+            int entrada = ifd0 + 2 + i * 12;
+            if ((tiff.getShort(entrada) & 0xFFFF) == ETIQUETA_ORIENTACION
+                    && (tiff.getShort(entrada + 2) & 0xFFFF) == TIPO_SHORT) {
+                int valor = tiff.getShort(entrada + 8) & 0xFFFF;
+                if (valor >= 1 && valor <= 8) {
+                    orientacion = valor;
+                }
+            }
+        }
+        exif = true;
+
+        int ifd1 = tiff.getInt(ifd0 + 2 + entradas * 12);
+        if (ifd1 <= 0) {
+            return;
+        }
+        int posicion = -1;
+        int longitud = -1;
+        entradas = tiff.getShort(ifd1) & 0xFFFF;
+        for (int i = 0; i < entradas; i++) {
+            int entrada = ifd1 + 2 + i * 12;
+            int etiqueta = tiff.getShort(entrada) & 0xFFFF;
+            int tipo = tiff.getShort(entrada + 2) & 0xFFFF;
+            if (tipo != TIPO_LONG) {
+                continue;
+            }
+            if (etiqueta == ETIQUETA_MINIATURA) {
+                posicion = tiff.getInt(entrada + 8);
+            } else if (etiqueta == ETIQUETA_LONGITUD_MINIATURA) {
+                longitud = tiff.getInt(entrada + 8);
+            }
+        }
+        if (posicion > 0 && longitud > 2 && posicion <= tiff.limit() - longitud
+                && u8(base + posicion) == 0xFF && u8(base + posicion + 1) == SOI) {
+            inicioMiniatura = base + posicion;
+            finMiniatura = inicioMiniatura + longitud;
+        }
+    }
+
+    /**
+     * @return true si el marcador es un SOF, que lleva el tamaño de la imagen (todos los 0xCn salvo DHT, JPG y DAC)
+     */
+    private static boolean esSof(int marcador) {
+        return marcador >= 0xC0 && marcador <= 0xCF && marcador != 0xC4 && marcador != 0xC8 && marcador != 0xCC;
+    }
+
+    private boolean empiezaPor(int posicion, int limite, byte[] prefijo) {
+        if (limite - posicion < prefijo.length) {
+            return false;
+        }
+        for (int i = 0; i < prefijo.length; i++) {
+            if (jpeg.get(posicion + i) != prefijo[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return vista de los bytes entre las dos posiciones absolutas, con posición 0
+     */
+    private ByteBuffer vista(int desde, int hasta) {
+        ByteBuffer vista = jpeg.duplicate();
+        vista.limit(hasta).position(desde);
+        return vista.slice();
+    }
+
+    private int u8(int posicion) {
+        return jpeg.get(posicion) & 0xFF;
+    }
+
+    private int u16(int posicion) {
+        return jpeg.getShort(posicion) & 0xFFFF;
+    }
+
+    private static byte[] ascii(String texto) {
+        byte[] bytes = new byte[texto.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) texto.charAt(i);
+        }
+        return bytes;
+    }
+}
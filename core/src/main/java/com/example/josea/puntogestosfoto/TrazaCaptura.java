@@ -0,0 +1,316 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Clase que traza por qué etapas pasa cada captura, desde que se empieza a dibujar el gesto hasta que la foto
+ * está en la galería, y cuánto tarda cada una.
+ *
+ * Cada captura tiene un identificador y cada etapa se anota con su instante. Los eventos se guardan en un
+ * buffer circular reservado al principio: anotar no bloquea ni reserva memoria, se puede llamar desde
+ * cualquier hilo y solo cuesta un incremento atómico y unas escrituras. Además, la duración de cada etapa
+ * desde la anterior de la misma captura va a un histograma por etapa, así las estadísticas no se pierden
+ * cuando el buffer da la vuelta. Para eso se recuerdan las marcas de las últimas CAPTURAS_EN_CURSO capturas;
+ * si hay más a la vez, las más antiguas dejan de sumar a los histogramas pero siguen en el buffer.
+ *
+ * En una ráfaga, la primera foto usa la captura del gesto y las demás una nueva cada una que empieza en
+ * DISPARO.
+ */
+final class TrazaCaptura {
+    /**
+     * Etapas de una captura, en orden. Cada una se mide desde la anterior.
+     */
+    enum Etapa {
+        /** Se empieza a dibujar el trazo. */
+        TRAZO(null),
+        /** El hilo principal recibe el gesto reconocido. */
+        RECONOCIDO(TRAZO),
+        /** Termina la cuenta atrás y se pide la foto. */
+        DISPARO(RECONOCIDO),
+        /** Llega el ShutterCallback. */
+        OBTURADOR(DISPARO),
+        /** Llega el JPEG. */
+        JPEG(OBTURADOR),
+        /** La foto está en disco. */
+        GUARDADA(JPEG),
+        /** La foto se pasa a la galería. */
+        GALERIA(GUARDADA);
+
+        final Etapa anterior;
+
+        Etapa(Etapa anterior) {
+            this.anterior = anterior;
+        }
+    }
+
+    /**
+     * Capturas de las que se recuerdan las marcas para los histogramas, potencia de dos.
+     */
+    static final int CAPTURAS_EN_CURSO = 64;
+
+    private static final Etapa[] ETAPAS = Etapa.values();
+    private static final int NUM_ETAPAS = ETAPAS.length;
+    private static final long SIN_MARCA = Long.MIN_VALUE;
+
+    /**
+     * Buffer circular: cada evento ocupa la misma posición en los tres arrays. publicados guarda el número de
+     * secuencia del evento escrito en cada posición, o -1 mientras se escribe, para que al leer se puedan
+     * descartar los eventos a medias o ya sobrescritos.
+     */
+    private final int mascara;
+    private final long[] instantes;
+    private final int[] capturas;
+    private final int[] etapas;
+    private final AtomicLongArray publicados;
+    private final AtomicLong siguiente = new AtomicLong();
+
+    /**
+     * Marcas de las capturas en curso: la captura que ocupa cada hueco y el instante de cada una de sus etapas.
+     */
+    private final AtomicIntegerArray duenos = new AtomicIntegerArray(CAPTURAS_EN_CURSO);
+    private final AtomicLongArray marcas = new AtomicLongArray(CAPTURAS_EN_CURSO * NUM_ETAPAS);
+    private final AtomicInteger ultimaCaptura = new AtomicInteger();
+
+    /**
+     * Histograma de cada etapa y del total desde el trazo hasta la galería.
+     */
+    private final Histograma[] porEtapa = new Histograma[NUM_ETAPAS];
+    private final Histograma total = new Histograma();
+
+    /**
+     * Instante de creación, los eventos se vuelcan relativos a él.
+     */
+    private final long origen = System.nanoTime();
+
+    /**
+     * Constructor de la clase.
+     * @param capacidad número de eventos que se guardan, se redondea a potencia de dos
+     */
+    TrazaCaptura(int capacidad) {
+        int tamano = Integer.highestOneBit(Math.max(capacidad - 1, 1)) << 1;
+        mascara = tamano - 1;
+        instantes = new long[tamano];
+        capturas = new int[tamano];
+        etapas = new int[tamano];
+        publicados = new AtomicLongArray(tamano);
+        for (int i = 0; i < tamano; i++) {
+            publicados.set(i, -1);
+        }
+        for (int e = 0; e < NUM_ETAPAS; e++) {
+            porEtapa[e] = new Histograma();
+        }
+        for (int i = 0; i < marcas.length(); i++) {
+            marcas.set(i, SIN_MARCA);
+        }
+    }
+
+    /**
+     * @return número de eventos que caben en el buffer
+     */
+    int capacidad() {
+        return mascara + 1;
+    }
+
+    /**
+     * Función que empieza una captura nueva.
+     * @return identificador de la captura, siempre positivo
+     */
+    int nuevaCaptura() {
+        int captura = ultimaCaptura.incrementAndGet() & Integer.MAX_VALUE;
+        int hueco = captura & (CAPTURAS_EN_CURSO - 1);
+        // Mientras se limpia el hueco la captura anterior y la nueva no anotan en los histogramas.
+        duenos.set(hueco, 0);
+        for (int e = 0; e < NUM_ETAPAS; e++) {
+            marcas.set(hueco * NUM_ETAPAS + e, SIN_MARCA);
+        }
+        duenos.set(hueco, captura);
+        return captura;
+    }
+
+    /**
+     * Función que anota que una captura ha llegado a una etapa en este momento.
+     * @param captura identificador dado por nuevaCaptura, 0 o negativo se ignora
+     * @param etapa etapa alcanzada
+     */
+    void anotar(int captura, Etapa etapa) {
+        anotar(captura, etapa, System.nanoTime());
+    }
+
+    /**
+     * Función que anota que una captura ha llegado a una etapa en un instante dado.
+     * @param captura identificador dado por nuevaCaptura, 0 o negativo se ignora
+     * @param etapa etapa alcanzada
+     * @param instante instante de System.nanoTime
+     */
+    void anotar(int captura, Etapa etapa, long instante) {
+        if (captura <= 0) {
+            return;
+        }
+        long secuencia = siguiente.getAndIncrement();
+        int posicion = (int) (secuencia & mascara);
+        publicados.set(posicion, -1);
+        instantes[posicion] = instante;
+        capturas[posicion] = captura;
+        etapas[posicion] = etapa.ordinal();
+        publicados.set(posicion, secuencia);
+
+        int hueco = captura & (CAPTURAS_EN_CURSO - 1);
+        if (duenos.get(hueco) != captura) {
+            return;
+        }
+        int base = hueco * NUM_ETAPAS;
+        marcas.set(base + etapa.ordinal(), instante);
+        if (etapa.anterior != null) {
+            long previo = marcas.get(base + etapa.anterior.ordinal());
+            if (previo != SIN_MARCA) {
+                porEtapa[etapa.ordinal()].anotar(instante - previo);
+            }
+        }
+        if (etapa == Etapa.GALERIA) {
+            long inicio = marcas.get(base + Etapa.TRAZO.ordinal());
+            if (inicio != SIN_MARCA) {
+                total.anotar(instante - inicio);
+            }
+        }
+    }
+
+    /**
+     * @param etapa etapa
+     * @return histograma de la duración de la etapa desde la anterior
+     */
+    Histograma histograma(Etapa etapa) {
+        return porEtapa[etapa.ordinal()];
+    }
+
+    /**
+     * @return histograma del tiempo desde el trazo hasta la galería
+     */
+    Histograma total() {
+        return total;
+    }
+
+    /**
+     * @return eventos anotados desde el principio, incluidos los que ya no están en el buffer
+     */
+    long eventosAnotados() {
+        return siguiente.get();
+    }
+
+    /**
+     * Función que copia los últimos eventos del buffer en orden de anotación, saltando los que se estén
+     * escribiendo en ese momento.
+     * @param capturasDestino captura de cada evento
+     * @param etapasDestino etapa de cada evento
+     * @param instantesDestino instante de cada evento
+     * @return número de eventos copiados, como mucho el tamaño de los arrays
+     */
+    int eventos(int[] capturasDestino, Etapa[] etapasDestino, long[] instantesDestino) {
+        long fin = siguiente.get();
+        long inicio = Math.max(0, fin - Math.min(capturasDestino.length, capacidad()));
+        int copiados = 0;
+        for (long secuencia = inicio; secuencia < fin; secuencia++) {
+            int posicion = (int) (secuencia & mascara);
+            if (publicados.get(posicion) != secuencia) {
+                continue;
+            }
+            int captura = capturas[posicion];
+            int etapa = etapas[posicion];
+            long instante = instantes[posicion];
+            // Si mientras se leía se ha sobrescrito, el número de secuencia ya no coincide.
+            if (publicados.get(posicion) != secuencia) {
+                continue;
+            }
+            capturasDestino[copiados] = captura;
+            etapasDestino[copiados] = ETAPAS[etapa];
+            instantesDestino[copiados] = instante;
+            copiados++;
+        }
+        return copiados;
+    }
+
+    /**
+     * Función que escribe los histogramas de cada etapa en milisegundos y, si se pide, los últimos eventos.
+     * @param destino donde se escribe el texto
+     * @param numEventos número máximo de eventos a escribir, 0 para ninguno
+     * @throws IOException si falla la escritura en destino
+     */
+    void volcar(Appendable destino, int numEventos) throws IOException {
+        destino.append(String.format(Locale.US, "%-10s %7s %9s %9s %9s %9s %9s%n",
+                "etapa(ms)", "n", "media", "p50", "p90", "p99", "max"));
+        for (Etapa etapa : ETAPAS) {
+            if (etapa.anterior != null) {
+                volcarHistograma(destino, etapa.name(), porEtapa[etapa.ordinal()]);
+            }
+        }
+        volcarHistograma(destino, "TOTAL", total);
+
+        if (numEventos > 0) {
+            int[] capturasEventos = new int[numEventos];
+            Etapa[] etapasEventos = new Etapa[numEventos];
+            long[] instantesEventos = new long[numEventos];
+            int n = eventos(capturasEventos, etapasEventos, instantesEventos);
+            destino.append(String.format(Locale.US, "%nultimos %d eventos (ms desde el inicio, captura, etapa)%n", n));
+            for (int i = 0; i < n; i++) {
+                destino.append(String.format(Locale.US, "%12.3f %8d %s%n",
+                        (instantesEventos[i] - origen) / 1e6, capturasEventos[i], etapasEventos[i].name()));
+            }
+        }
+    }
+
+    /**
+     * Función que vuelca la traza a un fichero. Se escribe en un temporal y se renombra para no dejar nunca
+     * un volcado a medias.
+     * @param fichero fichero destino
+     * @param numEventos número máximo de eventos a escribir, 0 para ninguno
+     * @throws IOException si no se puede escribir
+     */
+    void volcar(File fichero, int numEventos) throws IOException {
+        File temporal = new File(fichero.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temporal);
+        try {
+            Writer escritor = new OutputStreamWriter(out, "UTF-8");
+            volcar(escritor, numEventos);
+            escritor.flush();
+            out.getChannel().force(true);
+        } finally {
+            out.close();
+        }
+        if (!temporal.renameTo(fichero)) {
+            temporal.delete();
+            throw new IOException("No se ha podido renombrar " + temporal + " a " + fichero);
+        }
+    }
+
+    private static void volcarHistograma(Appendable destino, String nombre, Histograma histograma)
+            throws IOException {
+        destino.append(String.format(Locale.US, "%-10s %7d %9.2f %9.2f %9.2f %9.2f %9.2f%n", nombre,
+                histograma.cuenta(), histograma.media() / 1e6, histograma.percentil(50) / 1e6,
+                histograma.percentil(90) / 1e6, histograma.percentil(99) / 1e6, histograma.maximo() / 1e6));
+    }
+}
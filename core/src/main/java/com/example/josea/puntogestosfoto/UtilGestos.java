@@ -0,0 +1,244 @@
+/*
+    Copyright (C) 2016  José Miguel Navarro Moreno and José Antonio Larrubia García
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.example.josea.puntogestosfoto;
+
+/**
+ * Funciones de cálculo sobre trazos, equivalentes a las de android.gesture.GestureUtils para el modo
+ * que usa GestureLibrary por defecto (SEQUENCE_SENSITIVE y ORIENTATION_SENSITIVE), de forma que las
+ * puntuaciones coinciden con las de gestureLib.recognize y el umbral de 3 sigue teniendo sentido.
+ * También se puede vectorizar como ORIENTATION_INVARIANT, para reconocer trazos dibujados con cualquier giro.
+ *
+ * Ninguna función reserva memoria: todas escriben en los buffers que se les pasan.
+ */
+final class UtilGestos {
+    /**
+     * Número de puntos a los que se remuestrea cada trazo (SEQUENCE_SAMPLE_SIZE en Android).
+     */
+    static final int PUNTOS_MUESTRA = 16;
+
+    /**
+     * Longitud del vector de características de un trazo (x e y de cada punto).
+     */
+    static final int LONGITUD_VECTOR = PUNTOS_MUESTRA * 2;
+
+    /**
+     * Número de orientaciones que usa GestureStore.ORIENTATION_SENSITIVE al comparar.
+     */
+    static final int ORIENTACIONES_SENSIBLE = 2;
+
+    /**
+     * Número de orientaciones de GestureStore.ORIENTATION_INVARIANT: el trazo se gira hasta que la dirección del
+     * centroide al primer punto es 0, así dos trazos iguales con distinto giro dan el mismo vector y el giro
+     * que quede lo ajusta la distancia sin buscar nada (ver distanciaDesdeProductos).
+     */
+    static final int ORIENTACIONES_INVARIANTE = 1;
+
+    /**
+     * Orientaciones a las que se ajusta el trazo en modo sensible a la orientación.
+     */
+    private static final float[] ORIENTACIONES = {
+            0, (float) (Math.PI / 4), (float) (Math.PI / 2), (float) (Math.PI * 3 / 4),
+            (float) Math.PI, -0, (float) (-Math.PI / 4), (float) (-Math.PI / 2),
+            (float) (-Math.PI * 3 / 4), (float) -Math.PI
+    };
+
+    private UtilGestos() {
+    }
+
+    /**
+     * Función que calcula la longitud del recorrido de un trazo.
+     * @param puntos puntos intercalados (x, y) del trazo
+     * @param numValores número de valores válidos en puntos (el doble del número de puntos)
+     * @return longitud del trazo
+     */
+    static float longitud(float[] puntos, int numValores) {
+        float total = 0;
+        for (int i = 2; i < numValores; i += 2) {
+            total += (float) Math.hypot(puntos[i] - puntos[i - 2], puntos[i + 1] - puntos[i - 1]);
+        }
+        return total;
+    }
+
+    /**
+     * Función que remuestrea el trazo en puntos equidistantes a lo largo de su recorrido, igual que
+     * GestureUtils.temporalSampling.
+     * @param puntos puntos intercalados (x, y) del trazo
+     * @param numValores número de valores válidos en puntos
+     * @param destino buffer donde se escriben los puntos remuestreados, de longitud numMuestras * 2 como mínimo
+     * @param numMuestras número de puntos del resultado
+     */
+    static void muestreoTemporal(float[] puntos, int numValores, float[] destino, int numMuestras) {
+        final float incremento = longitud(puntos, numValores) / (numMuestras - 1);
+        final int longitudVector = numMuestras * 2;
+        final int cuenta = numValores / 2;
+
+        float distanciaAcumulada = 0;
+        float ultimoX = puntos[0];
+        float ultimoY = puntos[1];
+        float actualX = Float.MIN_VALUE;
+        float actualY = Float.MIN_VALUE;
+        int indice = 0;
+        destino[indice++] = ultimoX;
+        destino[indice++] = ultimoY;
+
+        int i = 0;
+        while (i < cuenta && indice < longitudVector) {
+            if (actualX == Float.MIN_VALUE) {
+                i++;
+                if (i >= cuenta) {
+                    break;
+                }
+                actualX = puntos[i * 2];
+                actualY = puntos[i * 2 + 1];
+            }
+            float dx = actualX - ultimoX;
+            float dy = actualY - ultimoY;
+            float distancia = (float) Math.hypot(dx, dy);
+            if (distanciaAcumulada + distancia >= incremento) {
+                float ratio = (incremento - distanciaAcumulada) / distancia;
+                float nx = ultimoX + ratio * dx;
+                float ny = ultimoY + ratio * dy;
+                destino[indice++] = nx;
+                destino[indice++] = ny;
+                ultimoX = nx;
+                ultimoY = ny;
+                distanciaAcumulada = 0;
+            } else {
+                ultimoX = actualX;
+                ultimoY = actualY;
+                actualX = Float.MIN_VALUE;
+                actualY = Float.MIN_VALUE;
+                distanciaAcumulada += distancia;
+            }
+        }
+
+        // Los redondeos pueden dejar puntos sin rellenar al final, se repite el último.
+        for (i = indice; i < longitudVector; i += 2) {
+            destino[i] = ultimoX;
+            destino[i + 1] = ultimoY;
+        }
+    }
+
+    /**
+     * Función que calcula el vector de características de un trazo tal y como lo hace Instance.createInstance:
+     * remuestreo, centrado en el centroide, ajuste a la orientación más cercana y normalización.
+     * @param puntos puntos intercalados (x, y) del trazo
+     * @param numValores número de valores válidos en puntos
+     * @param destino buffer de LONGITUD_VECTOR valores donde se escribe el vector
+     * @return false si el trazo no tiene recorrido y por tanto no se puede comparar
+     */
+    static boolean vectorizar(float[] puntos, int numValores, float[] destino) {
+        return vectorizar(puntos, numValores, destino, ORIENTACIONES_SENSIBLE);
+    }
+
+    /**
+     * Función que calcula el vector de características de un trazo para un modo de orientación.
+     * @param puntos puntos intercalados (x, y) del trazo
+     * @param numValores número de valores válidos en puntos
+     * @param destino buffer de LONGITUD_VECTOR valores donde se escribe el vector
+     * @param orientaciones ORIENTACIONES_SENSIBLE para ajustar a la orientación más cercana o
+     *                      ORIENTACIONES_INVARIANTE para girar el primer punto a la dirección 0
+     * @return false si el trazo no tiene recorrido y por tanto no se puede comparar
+     */
+    static boolean vectorizar(float[] puntos, int numValores, float[] destino, int orientaciones) {
+        if (numValores < 4 || longitud(puntos, numValores) == 0) {
+            return false;
+        }
+        muestreoTemporal(puntos, numValores, destino, PUNTOS_MUESTRA);
+
+        float centroX = 0;
+        float centroY = 0;
+        for (int i = 0; i < LONGITUD_VECTOR; i += 2) {
+            centroX += destino[i];
+            centroY += destino[i + 1];
+        }
+        centroX /= PUNTOS_MUESTRA;
+        centroY /= PUNTOS_MUESTRA;
+
+        float orientacion = (float) Math.atan2(destino[1] - centroY, destino[0] - centroX);
+        float ajuste = -orientacion;
+        if (orientaciones != ORIENTACIONES_INVARIANTE) {
+            for (float o : ORIENTACIONES) {
+                float delta = o - orientacion;
+                if (Math.abs(delta) < Math.abs(ajuste)) {
+                    ajuste = delta;
+                }
+            }
+        }
+
+        float cos = (float) Math.cos(ajuste);
+        float sin = (float) Math.sin(ajuste);
+        float magnitud = 0;
+        for (int i = 0; i < LONGITUD_VECTOR; i += 2) {
+            float x = destino[i] - centroX;
+            float y = destino[i + 1] - centroY;
+            float rx = x * cos - y * sin;
+            float ry = x * sin + y * cos;
+            destino[i] = rx;
+            destino[i + 1] = ry;
+            magnitud += rx * rx + ry * ry;
+        }
+
+        magnitud = (float) Math.sqrt(magnitud);
+        if (magnitud == 0) {
+            return false;
+        }
+        for (int i = 0; i < LONGITUD_VECTOR; i++) {
+            destino[i] /= magnitud;
+        }
+        return true;
+    }
+
+    /**
+     * Función que calcula la distancia coseno mínima entre dos vectores normalizados permitiendo una rotación,
+     * igual que GestureUtils.minimumCosineDistance, a partir de las sumas de productos ya calculadas
+     * (ver PlantillasGestos.productos).
+     * @param a suma de productos escalares
+     * @param b suma de productos cruzados
+     * @param orientaciones número de orientaciones permitidas
+     * @return distancia en radianes
+     */
+    static float distanciaDesdeProductos(float a, float b, int orientaciones) {
+        if (a == 0) {
+            return (float) Math.PI / 2;
+        }
+        final float tan = b / a;
+        final double angulo = Math.atan(tan);
+        double coseno;
+        if (orientaciones > 2 && Math.abs(angulo) >= Math.PI / orientaciones) {
+            coseno = a;
+        } else {
+            final double cos = Math.cos(angulo);
+            coseno = a * cos + b * cos * tan;
+        }
+        // Por redondeo el coseno puede pasar de 1 y acos devolvería NaN.
+        if (coseno > 1) {
+            coseno = 1;
+        }
+        return (float) Math.acos(coseno);
+    }
+
+    /**
+     * Función que convierte una distancia en la puntuación que devolvería GestureLibrary (la inversa).
+     * @param distancia distancia en radianes
+     * @return puntuación, mayor cuanto más parecidos
+     */
+    static double puntuacion(float distancia) {
+        return distancia == 0 ? Double.MAX_VALUE : 1 / (double) distancia;
+    }
+}
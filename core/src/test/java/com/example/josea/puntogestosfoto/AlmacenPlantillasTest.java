@@ -0,0 +1,138 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests del formato binario de plantillas y de su carga.
+ */
+public class AlmacenPlantillasTest {
+    @Rule
+    public TemporaryFolder carpeta = new TemporaryFolder();
+
+    /**
+     * Fuente que cuenta cuántas veces se ha tenido que convertir el fichero de gestos.
+     */
+    private static class FuenteContada implements AlmacenPlantillas.FuenteGestos {
+        int aperturas;
+
+        public InputStream abrir() throws IOException {
+            aperturas++;
+            return new FileInputStream(ReconocedorGestosTest.FICHERO_GESTOS);
+        }
+    }
+
+    @Test
+    public void lasPlantillasMapeadasPuntuanIgual() throws IOException {
+        PlantillasGestos memoria = PlantillasGestos.desdeGestos(ReconocedorGestosTest.leerGestos());
+        File fichero = carpeta.newFile("gestos.pgf");
+        AlmacenPlantillas.guardar(memoria, fichero);
+        PlantillasGestos mapeadas = AlmacenPlantillas.mapear(fichero);
+
+        assertEquals(memoria.tamano(), mapeadas.tamano());
+        assertEquals(memoria.nombre(0), mapeadas.nombre(0));
+
+        float[] trazo = ReconocedorGestosTest.transformar(ReconocedorGestosTest.leerGestos().get(0).trazos[0], 2, 10, 10);
+        Predicciones esperadas = new Predicciones(1);
+        Predicciones obtenidas = new Predicciones(1);
+        new ReconocedorGestos(memoria).reconocer(trazo, trazo.length, esperadas);
+        new ReconocedorGestos(mapeadas).reconocer(trazo, trazo.length, obtenidas);
+        assertEquals(esperadas.puntuacion(0), obtenidas.puntuacion(0), 0);
+    }
+
+    @Test
+    public void lasPlantillasEnterasSeGuardanYOcupanMenos() throws IOException {
+        PlantillasGestos floats = PlantillasGestos.desdeGestos(new GestosSinteticos(3).biblioteca(100, 5, null));
+        PlantillasGestos enteras = floats.conPrecision(PlantillasGestos.Precision.ENTERO16);
+        assertSame(floats, floats.conPrecision(PlantillasGestos.Precision.FLOAT));
+        File fichero = carpeta.newFile("gestos.pgf");
+        AlmacenPlantillas.guardar(enteras, fichero);
+        PlantillasGestos mapeadas = AlmacenPlantillas.mapear(fichero);
+
+        assertEquals(PlantillasGestos.Precision.ENTERO16, mapeadas.precision());
+        assertEquals(floats.tamano(), mapeadas.tamano());
+        assertEquals(floats.numEtiquetas(), mapeadas.numEtiquetas());
+        // Registros de 68 bytes en lugar de 132.
+        assertEquals(floats.tamano() * (132 - 68), floats.datos().remaining() - mapeadas.datos().remaining());
+
+        float[] original = new float[UtilGestos.LONGITUD_VECTOR];
+        float[] redondeado = new float[UtilGestos.LONGITUD_VECTOR];
+        for (int p = 0; p < floats.tamano(); p++) {
+            assertEquals(floats.etiqueta(p), mapeadas.etiqueta(p));
+            floats.vector(p, original);
+            mapeadas.vector(p, redondeado);
+            for (int i = 0; i < original.length; i++) {
+                assertEquals(original[i], redondeado[i], 1 / 65534f + 1e-7f);
+            }
+        }
+    }
+
+    @Test
+    public void soloConvierteLaPrimeraVez() throws IOException {
+        File fichero = new File(carpeta.getRoot(), "gestos.pgf");
+        FuenteContada fuente = new FuenteContada();
+
+        AlmacenPlantillas.cargar(fichero, 42, fuente);
+        PlantillasGestos plantillas = AlmacenPlantillas.cargar(fichero, 42, fuente);
+
+        assertEquals(1, fuente.aperturas);
+        assertEquals(42, plantillas.huella());
+        assertEquals(2, plantillas.tamano());
+    }
+
+    @Test
+    public void vuelveAConvertirSiCambiaLaHuella() throws IOException {
+        File fichero = new File(carpeta.getRoot(), "gestos.pgf");
+        FuenteContada fuente = new FuenteContada();
+
+        AlmacenPlantillas.cargar(fichero, 1, fuente);
+        PlantillasGestos plantillas = AlmacenPlantillas.cargar(fichero, 2, fuente);
+
+        assertEquals(2, fuente.aperturas);
+        assertEquals(2, AlmacenPlantillas.mapear(fichero).huella());
+        assertEquals(2, plantillas.tamano());
+    }
+
+    @Test
+    public void vuelveAConvertirSiCambianLasOrientaciones() throws IOException {
+        File fichero = new File(carpeta.getRoot(), "gestos.pgf");
+        FuenteContada fuente = new FuenteContada();
+
+        AlmacenPlantillas.cargar(fichero, 3, fuente);
+        PlantillasGestos plantillas = AlmacenPlantillas.cargar(fichero, 3, UtilGestos.ORIENTACIONES_INVARIANTE, fuente);
+        AlmacenPlantillas.cargar(fichero, 3, UtilGestos.ORIENTACIONES_INVARIANTE, fuente);
+
+        assertEquals(2, fuente.aperturas);
+        assertEquals(UtilGestos.ORIENTACIONES_INVARIANTE, plantillas.orientaciones());
+        assertEquals(UtilGestos.ORIENTACIONES_INVARIANTE, AlmacenPlantillas.mapear(fichero).orientaciones());
+    }
+
+    @Test
+    public void vuelveAConvertirSiElFicheroEstaTruncado() throws IOException {
+        File fichero = new File(carpeta.getRoot(), "gestos.pgf");
+        FuenteContada fuente = new FuenteContada();
+        AlmacenPlantillas.cargar(fichero, 7, fuente);
+
+        RandomAccessFile raf = new RandomAccessFile(fichero, "rw");
+        raf.setLength(raf.length() - 10);
+        raf.close();
+
+        PlantillasGestos plantillas = AlmacenPlantillas.cargar(fichero, 7, fuente);
+        assertEquals(2, fuente.aperturas);
+        assertEquals(2, plantillas.tamano());
+    }
+
+    @Test(expected = IOException.class)
+    public void rechazaFicherosQueNoSonDePlantillas() throws IOException {
+        AlmacenPlantillas.mapear(new File(ReconocedorGestosTest.FICHERO_GESTOS));
+    }
+}
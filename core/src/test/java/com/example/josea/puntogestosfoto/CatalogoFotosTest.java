@@ -0,0 +1,281 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests del catálogo de fotos, sobre todo de la recuperación de escrituras cortadas.
+ */
+public class CatalogoFotosTest {
+    @Rule
+    public TemporaryFolder carpeta = new TemporaryFolder();
+
+    private CatalogoFotos abrir(File fichero) throws IOException {
+        CatalogoFotos catalogo = new CatalogoFotos(fichero, false);
+        catalogo.abrir();
+        return catalogo;
+    }
+
+    private static CatalogoFotos.Foto anadir(CatalogoFotos catalogo, int n, long instante) throws IOException {
+        return catalogo.anadir("IMG_" + n + ".jpg", 1000 + n, instante + 5,
+                new MetadatosCaptura("gesto" + n, n / 10.0, instante), n % 2 == 0 ? 100 + n : -1, 2000);
+    }
+
+    private static void cortar(File fichero, long longitud) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(fichero, "rw");
+        try {
+            raf.setLength(longitud);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void escribirByte(File fichero, long posicion, int valor) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(fichero, "rw");
+        try {
+            raf.seek(posicion);
+            raf.write(valor);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static byte[] leer(File fichero) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(fichero, "r");
+        try {
+            byte[] datos = new byte[(int) raf.length()];
+            raf.readFully(datos);
+            return datos;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void escribir(File fichero, byte[] datos) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(fichero, "rw");
+        try {
+            raf.setLength(0);
+            raf.write(datos);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void assertMismaFoto(CatalogoFotos.Foto esperada, CatalogoFotos.Foto foto) {
+        assertNotNull(foto);
+        assertEquals(esperada.id, foto.id);
+        assertEquals(esperada.fichero, foto.fichero);
+        assertEquals(esperada.tamano, foto.tamano);
+        assertEquals(esperada.instanteCaptura, foto.instanteCaptura);
+        assertEquals(esperada.instanteGuardado, foto.instanteGuardado);
+        assertEquals(esperada.gesto, foto.gesto);
+        assertEquals(esperada.puntuacion, foto.puntuacion, 0);
+        assertEquals(esperada.inicioMiniatura, foto.inicioMiniatura);
+        assertEquals(esperada.longitudMiniatura, foto.longitudMiniatura);
+    }
+
+    @Test
+    public void consultaPorRangoDeTiempo() throws IOException {
+        CatalogoFotos catalogo = abrir(carpeta.newFile("catalogo.pgc"));
+        for (int i = 0; i < 10; i++) {
+            anadir(catalogo, i, 1000 * i);
+        }
+        List<CatalogoFotos.Foto> fotos = catalogo.entre(2000, 5000);
+        assertEquals(3, fotos.size());
+        assertEquals("IMG_2.jpg", fotos.get(0).fichero);
+        assertEquals("IMG_4.jpg", fotos.get(2).fichero);
+        assertEquals(10, catalogo.entre(Long.MIN_VALUE, Long.MAX_VALUE).size());
+        assertTrue(catalogo.entre(9001, 20000).isEmpty());
+        assertTrue(catalogo.entre(5000, 5000).isEmpty());
+        catalogo.cerrar();
+    }
+
+    @Test
+    public void guardaTodosLosCamposAlReabrir() throws IOException {
+        File fichero = carpeta.newFile("catalogo.pgc");
+        CatalogoFotos catalogo = abrir(fichero);
+        CatalogoFotos.Foto conGesto = anadir(catalogo, 2, 1234567890123L);
+        CatalogoFotos.Foto sinGesto = catalogo.anadir("ñandú.jpg", 77, 42, null, -1, 0);
+        catalogo.cerrar();
+
+        catalogo = abrir(fichero);
+        assertEquals(2, catalogo.tamano());
+        assertEquals(0, catalogo.bytesCortados());
+        assertMismaFoto(conGesto, catalogo.buscar(conGesto.id));
+        CatalogoFotos.Foto foto = catalogo.buscar(sinGesto.id);
+        assertMismaFoto(sinGesto, foto);
+        assertNull(foto.gesto);
+        assertTrue(Double.isNaN(foto.puntuacion));
+        assertEquals(42, foto.instanteCaptura);
+
+        // Los identificadores siguen después de los cargados.
+        assertTrue(anadir(catalogo, 3, 0).id > sinGesto.id);
+        catalogo.cerrar();
+    }
+
+    @Test
+    public void ordenaFotosQueLleganDesordenadas() throws IOException {
+        CatalogoFotos catalogo = abrir(carpeta.newFile("catalogo.pgc"));
+        long[] instantes = {500, 100, 300, 300, 900, 0};
+        for (int i = 0; i < instantes.length; i++) {
+            anadir(catalogo, i, instantes[i]);
+        }
+        List<CatalogoFotos.Foto> fotos = catalogo.entre(0, 1000);
+        for (int i = 1; i < fotos.size(); i++) {
+            assertTrue(fotos.get(i - 1).instanteCaptura <= fotos.get(i).instanteCaptura);
+        }
+        assertEquals(2, catalogo.entre(300, 301).size());
+        catalogo.cerrar();
+    }
+
+    @Test
+    public void recuperaLasFotosEnterasConCualquierCorte() throws IOException {
+        File fichero = carpeta.newFile("catalogo.pgc");
+        CatalogoFotos catalogo = abrir(fichero);
+        long[] finales = new long[4];
+        CatalogoFotos.Foto[] fotos = new CatalogoFotos.Foto[4];
+        finales[0] = catalogo.bytesFichero();
+        for (int i = 1; i < finales.length; i++) {
+            fotos[i] = anadir(catalogo, i, 1000 * i);
+            finales[i] = catalogo.bytesFichero();
+        }
+        catalogo.cerrar();
+        byte[] completo = leer(fichero);
+        assertEquals(finales[3], completo.length);
+
+        // Cada longitud posible de una escritura cortada a medias.
+        for (int longitud = 0; longitud <= completo.length; longitud++) {
+            escribir(fichero, completo);
+            cortar(fichero, longitud);
+            int enteras = 0;
+            while (enteras + 1 < finales.length && finales[enteras + 1] <= longitud) {
+                enteras++;
+            }
+            catalogo = abrir(fichero);
+            assertEquals("longitud " + longitud, enteras, catalogo.tamano());
+            for (int i = 1; i <= enteras; i++) {
+                assertMismaFoto(fotos[i], catalogo.buscar(fotos[i].id));
+            }
+            long esperado = Math.max(finales[enteras], CatalogoFotos.TAMANO_CABECERA);
+            assertEquals("longitud " + longitud, esperado, catalogo.bytesFichero());
+            assertEquals(esperado, fichero.length());
+
+            // Lo siguiente se escribe detrás de lo recuperado y se lee al reabrir.
+            CatalogoFotos.Foto nueva = anadir(catalogo, 9, 9000);
+            catalogo.cerrar();
+            catalogo = abrir(fichero);
+            assertEquals(enteras + 1, catalogo.tamano());
+            assertEquals(0, catalogo.bytesCortados());
+            assertMismaFoto(nueva, catalogo.buscar(nueva.id));
+            catalogo.cerrar();
+        }
+    }
+
+    @Test
+    public void cortaDesdeElPrimerRegistroConElCrcMal() throws IOException {
+        File fichero = carpeta.newFile("catalogo.pgc");
+        CatalogoFotos catalogo = abrir(fichero);
+        CatalogoFotos.Foto primera = anadir(catalogo, 1, 1000);
+        long finPrimera = catalogo.bytesFichero();
+        anadir(catalogo, 2, 2000);
+        anadir(catalogo, 3, 3000);
+        long total = catalogo.bytesFichero();
+        catalogo.cerrar();
+
+        // Un byte cambiado dentro del segundo registro.
+        escribirByte(fichero, finPrimera + 12, 0x55);
+        catalogo = abrir(fichero);
+        assertEquals(1, catalogo.tamano());
+        assertMismaFoto(primera, catalogo.buscar(primera.id));
+        assertEquals(total - finPrimera, catalogo.bytesCortados());
+        assertEquals(finPrimera, fichero.length());
+        catalogo.cerrar();
+    }
+
+    @Test
+    public void ficheroQueNoEsUnCatalogo() throws IOException {
+        File fichero = carpeta.newFile("catalogo.pgc");
+        escribir(fichero, "no es un catálogo".getBytes("UTF-8"));
+        CatalogoFotos catalogo = new CatalogoFotos(fichero, false);
+        try {
+            catalogo.abrir();
+            fail();
+        } catch (IOException e) {
+            // Esperada, el fichero no se toca.
+        }
+        assertEquals("no es un catálogo", new String(leer(fichero), "UTF-8"));
+    }
+
+    @Test
+    public void compactaSoloLasFotosQueQuedan() throws IOException {
+        File fichero = carpeta.newFile("catalogo.pgc");
+        CatalogoFotos catalogo = abrir(fichero);
+        CatalogoFotos.Foto[] fotos = new CatalogoFotos.Foto[3000];
+        for (int i = 0; i < fotos.length; i++) {
+            fotos[i] = anadir(catalogo, i, 10 * i);
+        }
+        assertFalse(catalogo.necesitaCompactar());
+        for (int i = 0; i < fotos.length; i++) {
+            if (i % 3 != 0) {
+                assertTrue(catalogo.eliminar(fotos[i].id));
+            }
+        }
+        assertFalse(catalogo.eliminar(fotos[1].id));
+        assertNull(catalogo.buscar(fotos[1].id));
+        assertEquals(1000, catalogo.tamano());
+        assertTrue(catalogo.necesitaCompactar());
+
+        long antes = catalogo.bytesFichero();
+        catalogo.compactar();
+        assertFalse(catalogo.necesitaCompactar());
+        assertTrue(catalogo.bytesFichero() < antes / 2);
+        assertEquals(catalogo.bytesFichero(), fichero.length());
+        assertFalse(new File(fichero.getPath() + ".tmp").exists());
+
+        // Se puede seguir añadiendo sobre el fichero compactado.
+        CatalogoFotos.Foto nueva = anadir(catalogo, 5, 5);
+        catalogo.cerrar();
+
+        catalogo = abrir(fichero);
+        assertEquals(1001, catalogo.tamano());
+        for (int i = 0; i < fotos.length; i++) {
+            if (i % 3 == 0) {
+                assertMismaFoto(fotos[i], catalogo.buscar(fotos[i].id));
+            } else {
+                assertNull(catalogo.buscar(fotos[i].id));
+            }
+        }
+        assertMismaFoto(nueva, catalogo.buscar(nueva.id));
+        assertEquals(2, catalogo.entre(0, 10).size());
+        catalogo.cerrar();
+    }
+
+    @Test
+    public void lasBajasSobrevivenAlReabrir() throws IOException {
+        File fichero = carpeta.newFile("catalogo.pgc");
+        CatalogoFotos catalogo = abrir(fichero);
+        CatalogoFotos.Foto borrada = anadir(catalogo, 1, 1000);
+        CatalogoFotos.Foto queda = anadir(catalogo, 2, 2000);
+        catalogo.eliminar(borrada.id);
+        catalogo.cerrar();
+
+        catalogo = abrir(fichero);
+        assertEquals(1, catalogo.tamano());
+        assertNull(catalogo.buscar(borrada.id));
+        assertMismaFoto(queda, catalogo.buscar(queda.id));
+        catalogo.cerrar();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void noSeAnadeSinAbrir() throws IOException {
+        new CatalogoFotos(new File(carpeta.getRoot(), "catalogo.pgc"), false).anadir("a.jpg", 1, 1, null, -1, 0);
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests de la compactación de las muestras de gestos.
+ */
+public class CompactadorGestosTest {
+    private static final int NOMBRES = 60;
+    private static final int MUESTRAS = 30;
+    private static final int ESTILOS = 3;
+
+    @Rule
+    public TemporaryFolder carpeta = new TemporaryFolder();
+
+    private static List<GestoGrabado> gestos;
+    private static final List<GestoGrabado> entrenamiento = new ArrayList<GestoGrabado>();
+    private static final List<GestoGrabado> prueba = new ArrayList<GestoGrabado>();
+
+    /**
+     * Crea una biblioteca en la que cada gesto se ha dibujado de varias formas distintas (estilos) y de cada una
+     * hay muchas muestras casi repetidas, así con una muestra por gesto se pierden aciertos y con una por
+     * estilo no.
+     */
+    @BeforeClass
+    public static void crearGestos() {
+        GestosSinteticos sinteticos = new GestosSinteticos(3);
+        gestos = new ArrayList<GestoGrabado>();
+        for (int n = 0; n < NOMBRES; n++) {
+            float[] prototipo = sinteticos.prototipo();
+            float[][] estilos = new float[ESTILOS][];
+            for (int e = 0; e < ESTILOS; e++) {
+                estilos[e] = sinteticos.variante(prototipo, 25, 0.3);
+            }
+            for (int i = 0; i < MUESTRAS; i++) {
+                float[] trazo = sinteticos.variante(estilos[i % ESTILOS], 3, 0.1);
+                gestos.add(new GestoGrabado("gesto" + n, n * MUESTRAS + i, new float[][]{trazo},
+                        new long[][]{new long[trazo.length / 2]}));
+            }
+        }
+        CompactadorGestos.dividir(gestos, 5, entrenamiento, prueba);
+    }
+
+    private static Map<String, Integer> contarPorNombre(List<GestoGrabado> gestos) {
+        Map<String, Integer> cuentas = new HashMap<String, Integer>();
+        for (GestoGrabado gesto : gestos) {
+            Integer cuenta = cuentas.get(gesto.nombre);
+            cuentas.put(gesto.nombre, cuenta == null ? 1 : cuenta + 1);
+        }
+        return cuentas;
+    }
+
+    @Test
+    public void losMedoidesSonLosCentrosDeLosGrupos() {
+        float[] posiciones = {0, 0.1f, 0.2f, 5, 5.1f, 5.2f, 5.3f, 5.4f};
+        float[][] distancias = new float[posiciones.length][posiciones.length];
+        for (int i = 0; i < posiciones.length; i++) {
+            for (int j = 0; j < posiciones.length; j++) {
+                distancias[i][j] = Math.abs(posiciones[i] - posiciones[j]);
+            }
+        }
+        int[] medoides = CompactadorGestos.medoides(distancias, 2);
+        Arrays.sort(medoides);
+        assertArrayEquals(new int[]{1, 5}, medoides);
+    }
+
+    @Test
+    public void apartaUnaDeCadaNMuestrasDeCadaGesto() {
+        assertEquals(gestos.size() / 5, prueba.size());
+        assertEquals(gestos.size() - prueba.size(), entrenamiento.size());
+        for (int cuenta : contarPorNombre(prueba).values()) {
+            assertEquals(MUESTRAS / 5, cuenta);
+        }
+    }
+
+    @Test
+    public void dejaComoMuchoElMaximoDeMuestrasDeCadaGesto() {
+        List<GestoGrabado> compactado = CompactadorGestos.compactar(entrenamiento, 4);
+        assertEquals(NOMBRES * 4, compactado.size());
+        for (int cuenta : contarPorNombre(compactado).values()) {
+            assertEquals(4, cuenta);
+        }
+        // Son muestras originales, en el orden en que estaban.
+        assertTrue(entrenamiento.containsAll(compactado));
+        for (int i = 1; i < compactado.size(); i++) {
+            if (compactado.get(i).nombre.equals(compactado.get(i - 1).nombre)) {
+                assertTrue(compactado.get(i).id > compactado.get(i - 1).id);
+            }
+        }
+    }
+
+    @Test
+    public void losGestosConPocasMuestrasSeQuedanEnteros() throws IOException {
+        List<GestoGrabado> reales = ReconocedorGestosTest.leerGestos();
+        assertEquals(reales, CompactadorGestos.compactar(reales, 1));
+    }
+
+    @Test
+    public void unaMuestraPorEstiloMantieneLosAciertos() {
+        CompactadorGestos.Evaluacion todas = CompactadorGestos.evaluar(entrenamiento, prueba);
+        CompactadorGestos.Evaluacion unaPorGesto =
+                CompactadorGestos.evaluar(CompactadorGestos.compactar(entrenamiento, 1), prueba);
+        CompactadorGestos.Evaluacion unaPorEstilo =
+                CompactadorGestos.evaluar(CompactadorGestos.compactar(entrenamiento, ESTILOS), prueba);
+
+        assertEquals(prueba.size(), todas.pruebas());
+        assertEquals(entrenamiento.size(), todas.plantillas);
+        assertEquals(NOMBRES * ESTILOS, unaPorEstilo.plantillas);
+        assertTrue(unaPorGesto.tasaAciertos() < todas.tasaAciertos() - 0.05);
+        assertEquals(todas.tasaAciertos(), unaPorEstilo.tasaAciertos(), 0.01);
+    }
+
+    @Test
+    public void elPresupuestoDaElMenorMaximoQueLoCumple() {
+        double objetivo = CompactadorGestos.evaluar(entrenamiento, prueba).tasaAciertos() - 0.01;
+        int maximo = CompactadorGestos.maximoParaPerdida(entrenamiento, prueba, 0.01);
+        assertTrue(maximo > 1 && maximo <= ESTILOS);
+        assertTrue(CompactadorGestos.evaluar(CompactadorGestos.compactar(entrenamiento, maximo), prueba)
+                .tasaAciertos() >= objetivo);
+        assertTrue(CompactadorGestos.evaluar(CompactadorGestos.compactar(entrenamiento, maximo - 1), prueba)
+                .tasaAciertos() < objetivo);
+    }
+
+    @Test
+    public void laHerramientaGuardaElFicheroCompactado() throws IOException {
+        File entrada = carpeta.newFile("gestures");
+        File salida = new File(carpeta.getRoot(), "compactado");
+        EscritorGestos.guardar(gestos, entrada);
+
+        // El informe de la herramienta se recoge en lugar de escribirlo en la salida de los tests.
+        ByteArrayOutputStream informe = new ByteArrayOutputStream();
+        PrintStream salidaEstandar = System.out;
+        System.setOut(new PrintStream(informe, true, "UTF-8"));
+        try {
+            CompactadorGestos.main(new String[]{entrada.getPath(), salida.getPath(), "--maximo", "2"});
+        } finally {
+            System.setOut(salidaEstandar);
+        }
+        assertTrue(informe.toString("UTF-8").contains("Como mucho 2 muestras por gesto"));
+
+        InputStream in = new FileInputStream(salida);
+        try {
+            List<GestoGrabado> leidos = LectorGestos.leer(in);
+            assertEquals(NOMBRES * 2, leidos.size());
+            for (int cuenta : contarPorNombre(leidos).values()) {
+                assertEquals(2, cuenta);
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests del encuadre de la vista previa dentro de su contenedor.
+ */
+public class EncuadreVistaTest {
+    private static void assertRectangulo(EncuadreVista encuadre, int izquierda, int arriba, int derecha, int abajo) {
+        assertEquals(izquierda, encuadre.izquierda());
+        assertEquals(arriba, encuadre.arriba());
+        assertEquals(derecha, encuadre.derecha());
+        assertEquals(abajo, encuadre.abajo());
+    }
+
+    @Test
+    public void centraConBandasSinDeformar() {
+        EncuadreVista encuadre = new EncuadreVista();
+
+        // Pantalla 16:9 con vista previa 4:3, bandas a los lados.
+        assertTrue(encuadre.ajustar(1920, 1080, 640, 480));
+        assertRectangulo(encuadre, 240, 0, 1680, 1080);
+
+        // Pantalla 4:3 con vista previa 16:9, bandas arriba y abajo.
+        assertTrue(encuadre.ajustar(1024, 768, 1280, 720));
+        assertRectangulo(encuadre, 0, 96, 1024, 672);
+
+        // Misma forma, ocupa todo.
+        assertTrue(encuadre.ajustar(1280, 720, 1920, 1080));
+        assertRectangulo(encuadre, 0, 0, 1280, 720);
+    }
+
+    @Test
+    public void sinVistaPreviaOcupaTodo() {
+        EncuadreVista encuadre = new EncuadreVista();
+        assertTrue(encuadre.ajustar(800, 480, 0, 0));
+        assertRectangulo(encuadre, 0, 0, 800, 480);
+
+        // Cuando llega el perfil se vuelve a calcular aunque el contenedor no cambie.
+        assertTrue(encuadre.ajustar(800, 480, 640, 480));
+        assertRectangulo(encuadre, 80, 0, 720, 480);
+    }
+
+    @Test
+    public void soloCalculaCuandoCambianLosTamanos() {
+        EncuadreVista encuadre = new EncuadreVista();
+        encuadre.ajustar(1920, 1080, 1280, 720);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(encuadre.ajustar(1920, 1080, 1280, 720));
+        }
+        assertEquals(1, encuadre.calculos());
+
+        // Otra vista previa con la misma forma: se calcula pero el rectángulo no cambia.
+        assertFalse(encuadre.ajustar(1920, 1080, 1920, 1080));
+        assertEquals(2, encuadre.calculos());
+        assertRectangulo(encuadre, 0, 0, 1920, 1080);
+
+        assertTrue(encuadre.ajustar(1080, 1920, 1920, 1080));
+        assertEquals(3, encuadre.calculos());
+    }
+}
@@ -0,0 +1,439 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests del escritor de fotos sobre un directorio temporal.
+ */
+public class EscritorFotosTest {
+    private File directorio;
+
+    /**
+     * Lotes recibidos por el escáner y fotos recibidas por el oyente.
+     */
+    private final List<String[]> lotes = Collections.synchronizedList(new ArrayList<String[]>());
+    private final List<File> guardadas = Collections.synchronizedList(new ArrayList<File>());
+    private final List<EscritorFotos.FotoGuardada> cabeceras =
+            Collections.synchronizedList(new ArrayList<EscritorFotos.FotoGuardada>());
+    private final List<byte[]> liberados = Collections.synchronizedList(new ArrayList<byte[]>());
+
+    /**
+     * Si no es null, el oyente espera a este cerrojo antes de seguir, para bloquear al escritor.
+     */
+    private volatile CountDownLatch bloqueo;
+
+    /**
+     * Ficheros de los errores recibidos, si se admiten; si no, un error hace fallar el test. Si lanzar no es
+     * null, el oyente lo lanza al recibir la siguiente foto guardada, y si lanzarAlEscanear no es null, el
+     * escáner lo lanza con el siguiente lote.
+     */
+    private final List<File> errores = Collections.synchronizedList(new ArrayList<File>());
+    private volatile boolean admitirErrores;
+    private volatile RuntimeException lanzar;
+    private volatile RuntimeException lanzarAlEscanear;
+
+    private final EscritorFotos.Escaner escaner = new EscritorFotos.Escaner() {
+        public void escanear(String[] rutas) {
+            RuntimeException error = lanzarAlEscanear;
+            if (error != null) {
+                lanzarAlEscanear = null;
+                throw error;
+            }
+            lotes.add(rutas);
+        }
+    };
+
+    private final EscritorFotos.Oyente oyente = new EscritorFotos.Oyente() {
+        public void fotoGuardada(EscritorFotos.FotoGuardada foto, long latenciaNanos) {
+            guardadas.add(foto.fichero);
+            cabeceras.add(foto);
+            RuntimeException error = lanzar;
+            if (error != null) {
+                lanzar = null;
+                throw error;
+            }
+            CountDownLatch cerrojo = bloqueo;
+            if (cerrojo != null) {
+                try {
+                    cerrojo.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        public void errorAlGuardar(File fichero, IOException e) {
+            if (admitirErrores) {
+                errores.add(fichero);
+                return;
+            }
+            fail("Error al guardar " + fichero + ": " + e);
+        }
+
+        public void datosLibres(byte[] datos) {
+            liberados.add(datos);
+        }
+    };
+
+    @Before
+    public void crearDirectorio() throws IOException {
+        directorio = File.createTempFile("fotos", "");
+        assertTrue(directorio.delete());
+        // El escritor debe crear el directorio.
+        directorio = new File(directorio, "app_gesto_foto");
+    }
+
+    @After
+    public void borrarDirectorio() {
+        File[] ficheros = directorio.listFiles();
+        if (ficheros != null) {
+            for (File f : ficheros) {
+                f.delete();
+            }
+        }
+        directorio.delete();
+        directorio.getParentFile().delete();
+    }
+
+    private static byte[] foto(int i, int tamano) {
+        byte[] datos = new byte[tamano];
+        Arrays.fill(datos, (byte) i);
+        return datos;
+    }
+
+    private static byte[] leer(File fichero) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(fichero, "r");
+        try {
+            byte[] datos = new byte[(int) f.length()];
+            f.readFully(datos);
+            return datos;
+        } finally {
+            f.close();
+        }
+    }
+
+    @Test
+    public void guardaTodasLasFotosConNombresDistintosYSinTemporales() throws Exception {
+        EscritorFotos escritor = new EscritorFotos(directorio, 64, 4, 10000, escaner, oyente);
+        escritor.iniciar();
+        // Se encolan seguidas, varias caen en el mismo milisegundo.
+        for (int i = 0; i < 10; i++) {
+            assertTrue(escritor.encolar(foto(i, 1000 + i), 1000 + i));
+        }
+        escritor.cerrar();
+        escritor.esperarFin();
+
+        assertEquals(10, escritor.guardadas());
+        assertEquals(0, escritor.errores());
+        assertEquals(10, liberados.size());
+        String[] nombres = directorio.list();
+        assertEquals(10, nombres.length);
+        long anterior = -1;
+        for (File f : guardadas) {
+            assertTrue(f.getName().endsWith(".jpg"));
+            long instante = Long.parseLong(f.getName().substring(0, f.getName().length() - 4));
+            assertTrue(instante > anterior);
+            anterior = instante;
+        }
+        for (int i = 0; i < 10; i++) {
+            byte[] datos = leer(guardadas.get(i));
+            assertEquals(1000 + i, datos.length);
+            assertEquals((byte) i, datos[0]);
+        }
+        assertTrue(escritor.latenciaMaximaMs() >= escritor.latenciaMediaMs());
+        assertTrue(escritor.latenciaMediaMs() >= escritor.escrituraMediaMs());
+    }
+
+    @Test
+    public void avisaALaGaleriaPorLotes() throws Exception {
+        EscritorFotos escritor = new EscritorFotos(directorio, 64, 4, 10000, escaner, oyente);
+        escritor.iniciar();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(escritor.encolar(foto(i, 10), 10));
+        }
+        escritor.cerrar();
+        escritor.esperarFin();
+
+        // Dos lotes completos y el resto al cerrar.
+        assertEquals(3, lotes.size());
+        assertEquals(4, lotes.get(0).length);
+        assertEquals(4, lotes.get(1).length);
+        assertEquals(2, lotes.get(2).length);
+    }
+
+    @Test
+    public void todasLasFormasDeEscribirDanElMismoFichero() throws Exception {
+        assertTrue(directorio.mkdirs());
+        byte[] datos = foto(7, 100000);
+        File fichero = new File(directorio, "foto.jpg");
+        for (EscritorFotos.Escritura escritura : EscritorFotos.Escritura.values()) {
+            for (boolean forzar : new boolean[]{false, true}) {
+                // Sustituye el contenido anterior, que es más largo.
+                EscritorFotos.escribir(fichero, foto(1, 200000), 200000, escritura, forzar);
+                EscritorFotos.escribir(fichero, datos, 90000, escritura, forzar);
+                assertArrayEquals(Arrays.copyOf(datos, 90000), leer(fichero));
+            }
+        }
+    }
+
+    @Test
+    public void guardaLosDatosDeLaCapturaDentroDeLaFoto() throws Exception {
+        byte[] jpeg = JpegsSinteticos.conExif(JpegsSinteticos.codificar(160, 120, 1), 6, null, ByteOrder.BIG_ENDIAN);
+        EscritorFotos escritor = new EscritorFotos(directorio, 64, 4, 10000, escaner, oyente);
+        escritor.iniciar();
+        assertTrue(escritor.encolarCaptura(jpeg, jpeg.length, 0, new MetadatosCaptura("rafaga", 3.5, 1234)));
+        // Lo que no es un JPEG se guarda tal cual.
+        assertTrue(escritor.encolarCaptura(foto(1, 10), 10, 0, new MetadatosCaptura("foto", 3.5, 1234)));
+        escritor.cerrar();
+        escritor.esperarFin();
+
+        byte[] guardada = leer(guardadas.get(0));
+        SegmentosJpeg segmentos = SegmentosJpeg.analizar(ByteBuffer.wrap(guardada));
+        assertEquals(6, segmentos.orientacion());
+        MetadatosCaptura leidos = MetadatosCaptura.leer(segmentos.xmp());
+        assertEquals("rafaga", leidos.gesto());
+        assertEquals(1234, leidos.instante());
+        // Después del segmento nuevo sigue la foto sin cambios.
+        int cola = jpeg.length - segmentos.bytesCabecera();
+        assertArrayEquals(Arrays.copyOfRange(jpeg, jpeg.length - cola, jpeg.length),
+                Arrays.copyOfRange(guardada, guardada.length - cola, guardada.length));
+        assertArrayEquals(foto(1, 10), leer(guardadas.get(1)));
+        assertEquals(2, liberados.size());
+    }
+
+    @Test
+    public void apuntaCadaFotoEnElCatalogo() throws Exception {
+        byte[] miniatura = JpegsSinteticos.codificar(32, 24, 2);
+        byte[] conExif = JpegsSinteticos.conExif(JpegsSinteticos.codificar(160, 120, 1), 1, miniatura,
+                ByteOrder.LITTLE_ENDIAN);
+        // Un XMP delante del EXIF: al cambiarlo por otro de otra longitud, la miniatura se mueve.
+        ByteBuffer xmp = new MetadatosCaptura("x", 1, 1).segmentoXmp();
+        byte[] conXmp = new byte[conExif.length + xmp.remaining()];
+        System.arraycopy(conExif, 0, conXmp, 0, 2);
+        xmp.get(conXmp, 2, xmp.remaining());
+        System.arraycopy(conExif, 2, conXmp, conXmp.length - conExif.length + 2, conExif.length - 2);
+
+        File fichero = new File(directorio, ".catalogo.pgc");
+        EscritorFotos escritor = new EscritorFotos(directorio, 64, 4, 10000, escaner, oyente, null,
+                new CatalogoFotos(fichero, false));
+        escritor.iniciar();
+        assertTrue(escritor.encolarCaptura(conExif, conExif.length, 0, new MetadatosCaptura("rafaga", 3.5, 1234)));
+        assertTrue(escritor.encolarCaptura(conXmp, conXmp.length, 0,
+                new MetadatosCaptura("un gesto bastante más largo", 2, 5678)));
+        assertTrue(escritor.encolar(conExif, conExif.length));
+        assertTrue(escritor.encolar(foto(1, 10), 10));
+        escritor.cerrar();
+        escritor.esperarFin();
+        assertEquals(0, escritor.errores());
+
+        CatalogoFotos catalogo = new CatalogoFotos(fichero, false);
+        catalogo.abrir();
+        List<CatalogoFotos.Foto> fotos = catalogo.entre(0, Long.MAX_VALUE);
+        assertEquals(4, fotos.size());
+        assertEquals("rafaga", fotos.get(0).gesto);
+        assertEquals(1234, fotos.get(0).instanteCaptura);
+        assertEquals(5678, fotos.get(1).instanteCaptura);
+        for (int i = 0; i < 3; i++) {
+            File foto = guardadas.get(i);
+            byte[] guardada = leer(foto);
+            CatalogoFotos.Foto apuntada = catalogo.buscar(i + 1);
+            assertEquals(foto.getName(), apuntada.fichero);
+            assertEquals(guardada.length, apuntada.tamano);
+            assertArrayEquals(miniatura, Arrays.copyOfRange(guardada, apuntada.inicioMiniatura,
+                    apuntada.inicioMiniatura + apuntada.longitudMiniatura));
+        }
+        assertEquals(10, catalogo.buscar(4).tamano);
+        assertEquals(-1, catalogo.buscar(4).inicioMiniatura);
+        assertNull(catalogo.buscar(4).gesto);
+        catalogo.cerrar();
+    }
+
+    @Test
+    public void pasaAlOyenteLaCabeceraDeCadaFoto() throws Exception {
+        byte[] miniatura = JpegsSinteticos.codificar(32, 24, 2);
+        byte[] jpeg = JpegsSinteticos.conExif(JpegsSinteticos.codificar(160, 120, 1), 6, miniatura,
+                ByteOrder.BIG_ENDIAN);
+        EscritorFotos escritor = new EscritorFotos(directorio, 64, 4, 10000, escaner, oyente);
+        escritor.iniciar();
+        assertTrue(escritor.encolar(jpeg, jpeg.length));
+        assertTrue(escritor.encolarCaptura(jpeg, jpeg.length, 0, new MetadatosCaptura("foto", 4, 1)));
+        assertTrue(escritor.encolar(foto(1, 10), 10));
+        escritor.cerrar();
+        escritor.esperarFin();
+
+        for (int i = 0; i < 2; i++) {
+            EscritorFotos.FotoGuardada foto = cabeceras.get(i);
+            assertEquals(160, foto.ancho);
+            assertEquals(120, foto.alto);
+            assertEquals(6, foto.orientacion);
+            assertEquals(foto.fichero.length(), foto.tamano);
+            // La miniatura se lee del fichero guardado, también si el XMP la ha movido.
+            assertArrayEquals(miniatura, foto.leerMiniatura());
+        }
+        EscritorFotos.FotoGuardada sinJpeg = cabeceras.get(2);
+        assertEquals(0, sinJpeg.ancho);
+        assertEquals(SegmentosJpeg.ORIENTACION_NORMAL, sinJpeg.orientacion);
+        assertEquals(10, sinJpeg.tamano);
+        assertNull(sinJpeg.leerMiniatura());
+    }
+
+    @Test
+    public void anotaLasEtapasDeCadaCapturaEnLaTraza() throws Exception {
+        TrazaCaptura traza = new TrazaCaptura(64);
+        EscritorFotos escritor = new EscritorFotos(directorio, 64, 2, 10000, escaner, oyente, traza);
+        escritor.iniciar();
+        int[] capturas = new int[3];
+        for (int i = 0; i < capturas.length; i++) {
+            capturas[i] = traza.nuevaCaptura();
+            traza.anotar(capturas[i], TrazaCaptura.Etapa.JPEG);
+            assertTrue(escritor.encolarCaptura(foto(i, 10), 10, capturas[i]));
+        }
+        // Las fotos sin captura no se trazan.
+        assertTrue(escritor.encolar(foto(3, 10), 10));
+        escritor.cerrar();
+        escritor.esperarFin();
+
+        assertEquals(3, traza.histograma(TrazaCaptura.Etapa.GUARDADA).cuenta());
+        assertEquals(3, traza.histograma(TrazaCaptura.Etapa.GALERIA).cuenta());
+        int[] capturasEventos = new int[16];
+        TrazaCaptura.Etapa[] etapas = new TrazaCaptura.Etapa[16];
+        int n = traza.eventos(capturasEventos, etapas, new long[16]);
+        assertEquals(9, n);
+        // La galería se avisa con el lote de dos fotos y, al cerrar, con las otras dos.
+        assertEquals(TrazaCaptura.Etapa.GALERIA, etapas[n - 1]);
+        assertEquals(capturas[2], capturasEventos[n - 1]);
+    }
+
+    @Test
+    public void avisaALaGaleriaAlPasarElTiempoDelLote() throws Exception {
+        EscritorFotos escritor = new EscritorFotos(directorio, 64, 100, 50, escaner, oyente);
+        escritor.iniciar();
+        assertTrue(escritor.encolar(foto(1, 10), 10));
+        assertTrue(escritor.encolar(foto(2, 10), 10));
+
+        long limite = System.currentTimeMillis() + 5000;
+        while (lotes.isEmpty() && System.currentTimeMillis() < limite) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, lotes.size());
+        assertEquals(2, lotes.get(0).length);
+
+        escritor.cerrar();
+        escritor.esperarFin();
+        assertEquals(1, lotes.size());
+    }
+
+    @Test
+    public void rechazaFotosConLaColaLlena() throws Exception {
+        bloqueo = new CountDownLatch(1);
+        EscritorFotos escritor = new EscritorFotos(directorio, 2, 1, 10000, escaner, oyente);
+        escritor.iniciar();
+
+        // La primera queda bloqueada en el oyente, las dos siguientes llenan la cola.
+        assertTrue(escritor.encolar(foto(0, 10), 10));
+        long limite = System.currentTimeMillis() + 5000;
+        while (guardadas.isEmpty() && System.currentTimeMillis() < limite) {
+            Thread.sleep(5);
+        }
+        assertTrue(escritor.encolar(foto(1, 10), 10));
+        assertTrue(escritor.encolar(foto(2, 10), 10));
+        assertEquals(2, escritor.profundidad());
+        assertFalse(escritor.encolar(foto(3, 10), 10));
+        assertFalse(escritor.encolar(foto(3, 10), 10, 20));
+
+        // Cerrar con la cola llena no espera, el hilo termina al vaciarla.
+        long antes = System.nanoTime();
+        escritor.cerrar();
+        assertTrue(System.nanoTime() - antes < 100 * 1000000L);
+        assertFalse(escritor.encolar(foto(4, 10), 10));
+        bloqueo.countDown();
+        bloqueo = null;
+        escritor.esperarFin();
+        assertEquals(3, escritor.guardadas());
+        assertEquals(3, directorio.list().length);
+    }
+
+    @Test
+    public void unErrorInesperadoNoParaElHilo() throws Exception {
+        admitirErrores = true;
+        lanzar = new IllegalStateException("fallo del oyente");
+        EscritorFotos escritor = new EscritorFotos(directorio, 64, 4, 10000, escaner, oyente);
+        escritor.iniciar();
+        byte[] primera = foto(1, 10);
+        assertTrue(escritor.encolar(primera, 10));
+        assertTrue(escritor.encolar(foto(2, 10), 10));
+        escritor.cerrar();
+        escritor.esperarFin();
+
+        // La foto está guardada aunque falle el oyente: se avisa del fallo pero no cuenta como error.
+        assertEquals(0, escritor.errores());
+        assertEquals(2, escritor.guardadas());
+        assertEquals(1, errores.size());
+        assertEquals(guardadas.get(0).getName(), errores.get(0).getName());
+        assertEquals(2, guardadas.size());
+        // Los datos se liberan aunque falle.
+        assertEquals(2, liberados.size());
+        assertSame(primera, liberados.get(0));
+    }
+
+    @Test
+    public void unFalloDelEscanerNoParaElHilo() throws Exception {
+        admitirErrores = true;
+        lanzarAlEscanear = new IllegalStateException("fallo del escáner");
+        EscritorFotos escritor = new EscritorFotos(directorio, 64, 1, 10000, escaner, oyente);
+        escritor.iniciar();
+        assertTrue(escritor.encolar(foto(1, 10), 10));
+        assertTrue(escritor.encolar(foto(2, 10), 10));
+        escritor.cerrar();
+        escritor.esperarFin();
+
+        assertEquals(2, escritor.guardadas());
+        assertEquals(0, escritor.errores());
+        assertEquals(Arrays.asList(directorio), errores);
+        // El primer lote se pierde, el segundo llega a la galería.
+        assertEquals(1, lotes.size());
+        assertEquals(guardadas.get(1).getAbsolutePath(), lotes.get(0)[0]);
+        assertEquals(2, liberados.size());
+    }
+
+    @Test
+    public void unGestoQueNoCabeEnElCatalogoNoImpideGuardar() throws Exception {
+        admitirErrores = true;
+        File fichero = new File(directorio, ".catalogo.pgc");
+        EscritorFotos escritor = new EscritorFotos(directorio, 64, 4, 10000, escaner, oyente, null,
+                new CatalogoFotos(fichero, false));
+        escritor.iniciar();
+        char[] largo = new char[5000];
+        Arrays.fill(largo, 'g');
+        assertTrue(escritor.encolarCaptura(foto(1, 10), 10, 0, new MetadatosCaptura(new String(largo), 4, 1)));
+        assertTrue(escritor.encolarCaptura(foto(2, 10), 10, 0, new MetadatosCaptura("foto", 4, 2)));
+        escritor.cerrar();
+        escritor.esperarFin();
+
+        // Las dos fotos quedan guardadas, solo la primera falta en el catálogo.
+        assertEquals(2, escritor.guardadas());
+        assertEquals(0, escritor.errores());
+        assertEquals(1, errores.size());
+        assertEquals(fichero, errores.get(0));
+        CatalogoFotos catalogo = new CatalogoFotos(fichero, false);
+        catalogo.abrir();
+        assertEquals(1, catalogo.tamano());
+        assertEquals("foto", catalogo.entre(0, Long.MAX_VALUE).get(0).gesto);
+        catalogo.cerrar();
+    }
+}
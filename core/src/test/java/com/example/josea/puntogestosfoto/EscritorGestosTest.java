@@ -0,0 +1,72 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests de la escritura del fichero de gestos.
+ */
+public class EscritorGestosTest {
+    @Rule
+    public TemporaryFolder carpeta = new TemporaryFolder();
+
+    private static byte[] leerBytes(File fichero) throws IOException {
+        InputStream in = new FileInputStream(fichero);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int leidos;
+            while ((leidos = in.read(buffer)) > 0) {
+                out.write(buffer, 0, leidos);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void reescribeElFicheroDeGestosIgual() throws IOException {
+        byte[] original = leerBytes(new File(ReconocedorGestosTest.FICHERO_GESTOS));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EscritorGestos.escribir(LectorGestos.leer(new ByteArrayInputStream(original)), out);
+        assertArrayEquals(original, out.toByteArray());
+    }
+
+    @Test
+    public void agrupaLasMuestrasPorNombre() throws IOException {
+        List<GestoGrabado> gestos = new ArrayList<GestoGrabado>();
+        float[] trazo = {0, 0, 10, 0, 10, 10};
+        long[] tiempos = {0, 10, 20};
+        gestos.add(new GestoGrabado("a", 1, new float[][]{trazo}, new long[][]{tiempos}));
+        gestos.add(new GestoGrabado("b", 2, new float[][]{trazo, trazo}, new long[][]{tiempos, tiempos}));
+        gestos.add(new GestoGrabado("a", 3, new float[][]{trazo}, new long[][]{tiempos}));
+
+        File fichero = carpeta.newFile("gestures");
+        EscritorGestos.guardar(gestos, fichero);
+        assertFalse(new File(fichero.getPath() + ".tmp").exists());
+
+        List<GestoGrabado> leidos = LectorGestos.leer(new ByteArrayInputStream(leerBytes(fichero)));
+        assertEquals(3, leidos.size());
+        assertEquals("a", leidos.get(0).nombre);
+        assertEquals(1, leidos.get(0).id);
+        assertEquals("a", leidos.get(1).nombre);
+        assertEquals(3, leidos.get(1).id);
+        assertEquals("b", leidos.get(2).nombre);
+        assertEquals(2, leidos.get(2).trazos.length);
+        assertArrayEquals(trazo, leidos.get(2).trazos[1], 0);
+        assertArrayEquals(tiempos, leidos.get(2).tiempos[1]);
+    }
+}
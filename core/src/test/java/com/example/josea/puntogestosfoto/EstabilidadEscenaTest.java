@@ -0,0 +1,133 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests del detector de escena quieta con fotogramas NV21 sintéticos.
+ */
+public class EstabilidadEscenaTest {
+    private static final int ANCHO = 320;
+    private static final int ALTO = 240;
+    private static final double UMBRAL = 4;
+
+    private final FotogramasSinteticos fotogramas = new FotogramasSinteticos(ANCHO, ALTO, 2, 1);
+
+    private EstabilidadEscena nuevo() {
+        return new EstabilidadEscena(ANCHO, ALTO, 8, UMBRAL, 3);
+    }
+
+    @Test
+    public void unaEscenaQuietaConRuidoEsEstable() {
+        EstabilidadEscena detector = nuevo();
+        byte[] fotograma = fotogramas.nuevo();
+        boolean[] estables = new boolean[5];
+        for (int i = 0; i < estables.length; i++) {
+            fotogramas.pintar(fotograma, 0, 0, 0);
+            estables[i] = detector.analizar(fotograma);
+        }
+        // El primero no tiene con qué compararse y hacen falta tres diferencias pequeñas seguidas.
+        assertArrayEquals(new boolean[]{false, false, false, true, true}, estables);
+        assertTrue(detector.ultimaDiferencia() < UMBRAL);
+        assertEquals(5, detector.analizados());
+    }
+
+    @Test
+    public void unaCamaraQueTiemblaNoEsEstable() {
+        EstabilidadEscena detector = nuevo();
+        byte[] fotograma = fotogramas.nuevo();
+        for (int i = 0; i < 10; i++) {
+            // Temblor de un par de píxeles entre fotogramas.
+            fotogramas.pintar(fotograma, i % 2 == 0 ? 1 : -1, i % 3 == 0 ? 0.75 : -0.75, 0);
+            assertFalse(detector.analizar(fotograma));
+            if (i > 0) {
+                assertTrue("Diferencia " + detector.ultimaDiferencia(), detector.ultimaDiferencia() > UMBRAL);
+            }
+        }
+    }
+
+    @Test
+    public void vuelveAEsperarSiLaCamaraSeMueveOtraVez() {
+        EstabilidadEscena detector = nuevo();
+        byte[] fotograma = fotogramas.nuevo();
+        for (int i = 0; i < 3; i++) {
+            fotogramas.pintar(fotograma, 0, 0, 0);
+            detector.analizar(fotograma);
+        }
+        fotogramas.pintar(fotograma, 5, 0, 0);
+        assertFalse(detector.analizar(fotograma));
+        for (int i = 0; i < 3; i++) {
+            fotogramas.pintar(fotograma, 5, 0, 0);
+            assertEquals(i == 2, detector.analizar(fotograma));
+        }
+    }
+
+    @Test
+    public void ignoraLosCambiosDeExposicion() {
+        EstabilidadEscena detector = nuevo();
+        byte[] fotograma = fotogramas.nuevo();
+        boolean estable = false;
+        for (int i = 0; i < 6; i++) {
+            fotogramas.pintar(fotograma, 0, 0, i * 6);
+            estable = detector.analizar(fotograma);
+        }
+        assertTrue(estable);
+    }
+
+    @Test
+    public void reiniciarOlvidaLosFotogramasAnteriores() {
+        EstabilidadEscena detector = nuevo();
+        byte[] fotograma = fotogramas.nuevo();
+        for (int i = 0; i < 5; i++) {
+            fotogramas.pintar(fotograma, 0, 0, 0);
+            detector.analizar(fotograma);
+        }
+        assertTrue(detector.estable());
+        detector.reiniciar();
+        assertFalse(detector.estable());
+        assertTrue(Double.isNaN(detector.ultimaDiferencia()));
+        assertEquals(0, detector.analizados());
+    }
+
+    @Test
+    public void leeUnPixelDeCadaPaso() {
+        assertEquals(40 * 30, nuevo().numMuestras());
+        assertEquals(3 * 2, new EstabilidadEscena(7, 5, 2, UMBRAL, 1).numMuestras());
+        assertEquals(ANCHO * ALTO * 3 / 2, EstabilidadEscena.bytesNv21(ANCHO, ALTO));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rechazaFotogramasPequenos() {
+        nuevo().analizar(new byte[ANCHO * ALTO - 1]);
+    }
+
+    @Test
+    public void analizarNoReservaMemoria() {
+        ThreadMXBean hilos = ManagementFactory.getThreadMXBean();
+        if (!(hilos instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean medidor = (com.sun.management.ThreadMXBean) hilos;
+        long id = Thread.currentThread().getId();
+        EstabilidadEscena detector = nuevo();
+        byte[][] anillo = {fotogramas.nuevo(), fotogramas.nuevo(), fotogramas.nuevo()};
+        for (int i = 0; i < anillo.length; i++) {
+            fotogramas.pintar(anillo[i], i, 0, 0);
+        }
+        for (int i = 0; i < 1000; i++) {
+            detector.analizar(anillo[i % anillo.length]);
+        }
+
+        long antes = medidor.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 1000; i++) {
+            detector.analizar(anillo[i % anillo.length]);
+        }
+        long reservados = medidor.getThreadAllocatedBytes(id) - antes;
+        // Solo lo que reserve la propia medida, nada por fotograma.
+        assertTrue("Reservados " + reservados + " bytes", reservados < 1000);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.josea.puntogestosfoto;
+
+import java.util.Random;
+
+/**
+ * Generador de fotogramas NV21 de una escena fija para los tests: una textura con bordes y degradados vista
+ * desde una cámara que puede moverse, con ruido del sensor y cambios de exposición.
+ */
+final class FotogramasSinteticos {
+    private final int ancho;
+    private final int alto;
+    private final double ruido;
+    private final Random aleatorio;
+
+    /**
+     * @param ancho ancho de los fotogramas
+     * @param alto alto de los fotogramas
+     * @param ruido desviación típica del ruido del sensor en niveles de luminancia
+     * @param semilla semilla del ruido
+     */
+    FotogramasSinteticos(int ancho, int alto, double ruido, long semilla) {
+        this.ancho = ancho;
+        this.alto = alto;
+        this.ruido = ruido;
+        this.aleatorio = new Random(semilla);
+    }
+
+    /**
+     * @return un fotograma nuevo del tamaño de la escena
+     */
+    byte[] nuevo() {
+        return new byte[EstabilidadEscena.bytesNv21(ancho, alto)];
+    }
+
+    /**
+     * Función que pinta la escena vista con la cámara desplazada.
+     * @param destino fotograma NV21 donde pintar
+     * @param dx desplazamiento horizontal de la cámara en píxeles
+     * @param dy desplazamiento vertical de la cámara en píxeles
+     * @param brillo nivel que se suma a toda la imagen, como hace la exposición automática
+     */
+    void pintar(byte[] destino, double dx, double dy, int brillo) {
+        for (int y = 0; y < alto; y++) {
+            for (int x = 0; x < ancho; x++) {
+                double v = escena(x + dx, y + dy) + brillo + aleatorio.nextGaussian() * ruido;
+                destino[y * ancho + x] = (byte) Math.max(0, Math.min(255, (int) Math.round(v)));
+            }
+        }
+        // Color al azar: el detector no debe mirar el plano VU.
+        for (int i = ancho * alto; i < destino.length; i++) {
+            destino[i] = (byte) aleatorio.nextInt(256);
+        }
+    }
+
+    /**
+     * Luminancia de la escena en un punto: rectángulos de 19x13 píxeles sobre ondas, con tamaños que no son
+     * múltiplo del paso del detector para que los bordes caigan en cualquier posición respecto a las muestras.
+     */
+    private static double escena(double x, double y) {
+        boolean cuadro = ((int) Math.floor(x / 19) + (int) Math.floor(y / 13)) % 2 == 0;
+        return 128 + (cuadro ? 40 : -40) + 30 * Math.sin(x / 5.3) * Math.cos(y / 7.1);
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.josea.puntogestosfoto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generador de gestos aleatorios para los tests y las medidas con bibliotecas grandes de plantillas.
+ * Cada gesto es una curva suave con giros aleatorios; las variantes de un gesto simulan al mismo usuario
+ * dibujándolo otra vez (escala, posición, un pequeño giro y ruido en cada punto).
+ */
+final class GestosSinteticos {
+    private final Random aleatorio;
+
+    GestosSinteticos(long semilla) {
+        aleatorio = new Random(semilla);
+    }
+
+    /**
+     * Función que crea un trazo prototipo nuevo.
+     * @return puntos intercalados del trazo
+     */
+    float[] prototipo() {
+        int puntos = 40 + aleatorio.nextInt(40);
+        float[] trazo = new float[puntos * 2];
+        double rumbo = aleatorio.nextDouble() * Math.PI * 2;
+        double giro = 0;
+        float x = 400, y = 300;
+        for (int i = 0; i < puntos; i++) {
+            trazo[i * 2] = x;
+            trazo[i * 2 + 1] = y;
+            if (i % 8 == 0) {
+                giro = (aleatorio.nextDouble() - 0.5) * 0.6;
+            }
+            rumbo += giro;
+            x += (float) (Math.cos(rumbo) * 8);
+            y += (float) (Math.sin(rumbo) * 8);
+        }
+        return trazo;
+    }
+
+    /**
+     * Función que crea una variante de un trazo, como si se hubiera vuelto a dibujar.
+     * @param trazo trazo original
+     * @param ruido desplazamiento máximo de cada punto en píxeles
+     * @param giroMaximo giro máximo del trazo completo en radianes
+     * @return puntos intercalados de la variante
+     */
+    float[] variante(float[] trazo, float ruido, double giroMaximo) {
+        float escala = 0.5f + aleatorio.nextFloat() * 1.5f;
+        float dx = aleatorio.nextFloat() * 300;
+        float dy = aleatorio.nextFloat() * 300;
+        double angulo = (aleatorio.nextDouble() * 2 - 1) * giroMaximo;
+        float cos = (float) Math.cos(angulo), sin = (float) Math.sin(angulo);
+
+        float[] resultado = new float[trazo.length];
+        for (int i = 0; i < trazo.length; i += 2) {
+            float x = trazo[i] * escala;
+            float y = trazo[i + 1] * escala;
+            resultado[i] = x * cos - y * sin + dx + (aleatorio.nextFloat() * 2 - 1) * ruido;
+            resultado[i + 1] = x * sin + y * cos + dy + (aleatorio.nextFloat() * 2 - 1) * ruido;
+        }
+        return resultado;
+    }
+
+    /**
+     * Función que crea una variante deformada de un trazo: además de girarlo y añadir ruido lo estira en un eje
+     * (dibujado más ancho o más alto) y lo dobla con una curva suave a lo largo del recorrido.
+     * @param trazo trazo original
+     * @param ruido desplazamiento máximo de cada punto en píxeles
+     * @param giroMaximo giro máximo del trazo completo en radianes
+     * @param aspectoMaximo cambio máximo del ancho respecto al alto, 0.2 es un 20%
+     * @param curvaturaMaxima desplazamiento máximo de la curva respecto al tamaño del trazo
+     * @return puntos intercalados de la variante
+     */
+    float[] deformar(float[] trazo, float ruido, double giroMaximo, double aspectoMaximo, double curvaturaMaxima) {
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < trazo.length; i += 2) {
+            minX = Math.min(minX, trazo[i]);
+            maxX = Math.max(maxX, trazo[i]);
+            minY = Math.min(minY, trazo[i + 1]);
+            maxY = Math.max(maxY, trazo[i + 1]);
+        }
+        float tamano = Math.max(maxX - minX, maxY - minY);
+        float aspecto = (float) (1 + (aleatorio.nextDouble() * 2 - 1) * aspectoMaximo);
+        float curva = (float) ((aleatorio.nextDouble() * 2 - 1) * curvaturaMaxima * tamano);
+        double fase = aleatorio.nextDouble() * Math.PI;
+
+        float[] estirado = new float[trazo.length];
+        int puntos = trazo.length / 2;
+        for (int i = 0; i < trazo.length; i += 2) {
+            double t = (double) (i / 2) / Math.max(1, puntos - 1);
+            float curvaX = (float) (curva * Math.sin(Math.PI * t + fase));
+            float curvaY = (float) (curva * Math.cos(Math.PI * t + fase));
+            estirado[i] = (trazo[i] - minX) * aspecto + curvaX;
+            estirado[i + 1] = trazo[i + 1] - minY + curvaY;
+        }
+        return variante(estirado, ruido, giroMaximo);
+    }
+
+    /**
+     * Función que crea una biblioteca de gestos con varias muestras de cada uno.
+     * @param numPlantillas número total de muestras
+     * @param muestrasPorGesto muestras de cada nombre de gesto
+     * @param prototipos lista donde se añaden los prototipos de cada nombre, puede ser null
+     * @return gestos de la biblioteca
+     */
+    List<GestoGrabado> biblioteca(int numPlantillas, int muestrasPorGesto, List<float[]> prototipos) {
+        List<GestoGrabado> gestos = new ArrayList<GestoGrabado>();
+        float[] prototipo = null;
+        for (int i = 0; i < numPlantillas; i++) {
+            if (i % muestrasPorGesto == 0) {
+                prototipo = prototipo();
+                if (prototipos != null) {
+                    prototipos.add(prototipo);
+                }
+            }
+            float[] trazo = variante(prototipo, 2, 0.1);
+            gestos.add(new GestoGrabado("gesto" + (i / muestrasPorGesto), i, new float[][]{trazo},
+                    new long[][]{new long[trazo.length / 2]}));
+        }
+        return gestos;
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests de la grabación y la lectura de trazas.
+ */
+public class GrabadorTrazasTest {
+    @Rule
+    public TemporaryFolder carpeta = new TemporaryFolder();
+
+    private static void grabar(GrabadorTrazas grabador, String etiqueta, long instante, float[]... trazos) {
+        grabador.empezarGesto(instante);
+        long tiempo = instante;
+        for (float[] trazo : trazos) {
+            grabador.empezarTrazo();
+            for (int i = 0; i < trazo.length; i += 2) {
+                grabador.anadirPunto(trazo[i], trazo[i + 1], tiempo);
+                tiempo += 16;
+            }
+        }
+        grabador.terminarGesto(etiqueta);
+    }
+
+    private static LectorTrazas leer(GrabadorTrazas grabador) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GrabadorTrazas.escribirCabecera(out);
+        grabador.volcar(out);
+        return new LectorTrazas(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    public void seLeeLoQueSeGraba() throws IOException {
+        float[] foto = ReconocedorGestosTest.leerGestos().get(0).trazos[0];
+        float[] negativo = {-3.5f, -1000.25f, 2000, -0.0625f, 0, 0};
+        GrabadorTrazas grabador = new GrabadorTrazas();
+        grabar(grabador, "foto", 123456789L, foto);
+        grabar(grabador, "ñandú", 5, negativo, foto);
+        grabar(grabador, "", 0, new float[]{1, 2});
+        assertEquals(3, grabador.gestosGrabados());
+
+        LectorTrazas lector = leer(grabador);
+        assertTrue(lector.siguiente());
+        assertEquals("foto", lector.etiqueta());
+        assertEquals(123456789L, lector.instante());
+        assertEquals(1, lector.numTrazos());
+        assertEquals(foto.length / 2, lector.numPuntos(0));
+        for (int i = 0; i < foto.length; i++) {
+            // Las coordenadas se guardan en dieciseisavos de píxel.
+            assertEquals(foto[i], lector.puntos()[i], 0.5 / GrabadorTrazas.ESCALA);
+        }
+        assertEquals(123456789L + 16, lector.tiempos()[1]);
+
+        assertTrue(lector.siguiente());
+        assertEquals("ñandú", lector.etiqueta());
+        assertEquals(2, lector.numTrazos());
+        assertEquals(3, lector.numPuntos(0));
+        assertEquals(3, lector.inicioTrazo(1));
+        assertEquals(foto.length / 2, lector.numPuntos(1));
+        assertArrayEquals(negativo, Arrays.copyOf(lector.puntos(), negativo.length), 0);
+        assertEquals(foto[0], lector.puntos()[6], 0.5 / GrabadorTrazas.ESCALA);
+        assertEquals(5 + 16 * 3, lector.tiempos()[3]);
+
+        assertTrue(lector.siguiente());
+        assertEquals("", lector.etiqueta());
+        assertEquals(1, lector.numPuntos(0));
+
+        assertFalse(lector.siguiente());
+        assertFalse(lector.truncado());
+    }
+
+    @Test
+    public void ocupaPocoMasDeTresBytesPorPunto() throws IOException {
+        float[] foto = ReconocedorGestosTest.leerGestos().get(0).trazos[0];
+        GrabadorTrazas grabador = new GrabadorTrazas();
+        grabar(grabador, "foto", System.currentTimeMillis(), foto);
+        // Con floats y tiempos largos, como el fichero de gestos, serían 16 bytes por punto.
+        assertTrue(grabador.pendientes() < foto.length / 2 * 6);
+    }
+
+    @Test
+    public void losGestosCanceladosOSinPuntosNoSeGraban() throws IOException {
+        GrabadorTrazas grabador = new GrabadorTrazas();
+        grabador.empezarGesto(0);
+        grabador.anadirPunto(1, 1, 0);
+        grabador.descartarGesto();
+        grabador.terminarGesto("foto");
+        grabador.empezarGesto(0);
+        grabador.terminarGesto("foto");
+        // Sin empezar el gesto los puntos se ignoran.
+        grabador.anadirPunto(1, 1, 0);
+        grabador.terminarGesto("foto");
+        assertEquals(0, grabador.gestosGrabados());
+        assertEquals(0, grabador.pendientes());
+        assertFalse(leer(grabador).siguiente());
+    }
+
+    @Test
+    public void seIgnoraUnGestoCortadoAlFinal() throws IOException {
+        GrabadorTrazas grabador = new GrabadorTrazas();
+        grabar(grabador, "foto", 0, new float[]{1, 2, 3, 4});
+        grabar(grabador, "rafaga", 0, new float[]{1, 2, 3, 4, 5, 6});
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GrabadorTrazas.escribirCabecera(out);
+        grabador.volcar(out);
+        byte[] datos = out.toByteArray();
+
+        LectorTrazas lector = new LectorTrazas(new ByteArrayInputStream(Arrays.copyOf(datos, datos.length - 3)));
+        assertTrue(lector.siguiente());
+        assertEquals("foto", lector.etiqueta());
+        assertFalse(lector.siguiente());
+        assertTrue(lector.truncado());
+    }
+
+    @Test(expected = IOException.class)
+    public void rechazaOtrosFicheros() throws IOException {
+        new LectorTrazas(new FileInputStream(ReconocedorGestosTest.FICHERO_GESTOS));
+    }
+
+    @Test
+    public void cadaVolcadoSeAnadeAlFichero() throws IOException {
+        File fichero = new File(carpeta.getRoot(), "trazas.pgt");
+        GrabadorTrazas grabador = new GrabadorTrazas();
+        grabar(grabador, "foto", 0, new float[]{1, 2, 3, 4});
+        grabador.volcar(fichero);
+        assertEquals(0, grabador.pendientes());
+        grabar(grabador, "rafaga", 0, new float[]{1, 2, 3, 4});
+        grabador.volcar(fichero);
+
+        InputStream in = new FileInputStream(fichero);
+        try {
+            LectorTrazas lector = new LectorTrazas(in);
+            assertTrue(lector.siguiente());
+            assertEquals("foto", lector.etiqueta());
+            assertTrue(lector.siguiente());
+            assertEquals("rafaga", lector.etiqueta());
+            assertFalse(lector.siguiente());
+        } finally {
+            in.close();
+        }
+    }
+}
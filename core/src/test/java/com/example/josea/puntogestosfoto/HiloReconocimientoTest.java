@@ -0,0 +1,272 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests del hilo de reconocimiento: el último trazo gana y al hilo principal solo llega la decisión final.
+ * El hilo principal se simula con una cola de tareas que ejecuta el propio test.
+ */
+public class HiloReconocimientoTest {
+    private static final double UMBRAL = 3.0;
+
+    private static List<GestoGrabado> gestos;
+    private static PlantillasGestos plantillas;
+
+    /**
+     * Tareas pasadas al hilo principal y decisiones recibidas ("nombre" o "nombre*" si fue mientras se dibujaba).
+     */
+    private final BlockingQueue<Runnable> principal = new LinkedBlockingQueue<Runnable>();
+    private final List<String> decisiones = new ArrayList<String>();
+    private final List<Integer> trazos = new ArrayList<Integer>();
+
+    @BeforeClass
+    public static void cargarGestos() throws IOException {
+        gestos = ReconocedorGestosTest.leerGestos();
+        plantillas = PlantillasGestos.desdeGestos(gestos);
+    }
+
+    private HiloReconocimiento nuevo() {
+        return new HiloReconocimiento(UMBRAL, new Executor() {
+            public void execute(Runnable tarea) {
+                principal.add(tarea);
+            }
+        }, new HiloReconocimiento.Oyente() {
+            public void gestoReconocido(int trazo, String nombre, double puntuacion, boolean mientrasSeDibuja,
+                                        long latenciaNanos) {
+                trazos.add(trazo);
+                decisiones.add(mientrasSeDibuja ? nombre + "*" : nombre);
+            }
+        });
+    }
+
+    private static void ponerReconocedores(HiloReconocimiento hilo, PlantillasGestos plantillas) {
+        hilo.ponerReconocedores(new ReconocedorGestos(new IndicePlantillas(plantillas), UMBRAL),
+                new ReconocedorIncremental(plantillas, UMBRAL, 1.0, 1.5, 2, 10));
+    }
+
+    /**
+     * Función que ejecuta la siguiente tarea del hilo principal.
+     * @return false si no ha llegado ninguna en el tiempo indicado
+     */
+    private boolean ejecutarSiguiente(long ms) throws InterruptedException {
+        Runnable tarea = principal.poll(ms, TimeUnit.MILLISECONDS);
+        if (tarea == null) {
+            return false;
+        }
+        tarea.run();
+        return true;
+    }
+
+    /**
+     * Función que dibuja un trazo punto a punto, con un punto cada 10 ms.
+     */
+    private static void dibujar(HiloReconocimiento hilo, float[] trazo, int numPuntos) {
+        hilo.empezarTrazo(0);
+        for (int i = 0; i < numPuntos; i++) {
+            hilo.anadirPunto(trazo[i * 2], trazo[i * 2 + 1], i * 10);
+        }
+    }
+
+    /**
+     * Función que espera a que el hilo termine todo y comprueba que no ha entregado nada más.
+     */
+    private void cerrarSinMasDecisiones(HiloReconocimiento hilo, int esperadas) throws InterruptedException {
+        hilo.cerrar();
+        hilo.esperarFin();
+        while (ejecutarSiguiente(0)) {
+            // Nada, solo se vacía la cola.
+        }
+        assertEquals(decisiones.toString(), esperadas, decisiones.size());
+    }
+
+    @Test
+    public void soloSeReconoceElUltimoTrazo() throws InterruptedException {
+        HiloReconocimiento hilo = nuevo();
+        ponerReconocedores(hilo, plantillas);
+        float[] foto = gestos.get(0).trazos[0];
+        float[] linea = {0, 0, 100, 100, 200, 200, 300, 300};
+        float[] rafaga = ReconocedorGestosTest.transformar(gestos.get(1).trazos[0], 0.8f, 30, 10);
+
+        // Los tres trazos llegan antes de que el hilo pueda atender ninguno.
+        dibujar(hilo, foto, foto.length / 2);
+        hilo.terminarTrazo(foto);
+        dibujar(hilo, linea, linea.length / 2);
+        hilo.terminarTrazo(linea);
+        dibujar(hilo, rafaga, rafaga.length / 2);
+        hilo.terminarTrazo(rafaga);
+        hilo.iniciar();
+
+        assertTrue(ejecutarSiguiente(5000));
+        assertEquals(Arrays.asList("rafaga"), decisiones);
+        cerrarSinMasDecisiones(hilo, 1);
+        assertEquals(2, hilo.descartados());
+        assertEquals(1, hilo.completos());
+    }
+
+    @Test
+    public void elTrazoSeCopia() throws InterruptedException {
+        HiloReconocimiento hilo = nuevo();
+        ponerReconocedores(hilo, plantillas);
+        float[] foto = gestos.get(0).trazos[0].clone();
+
+        hilo.empezarTrazo(0);
+        hilo.terminarTrazo(foto);
+        // Si el hilo usara el array original reconocería un trazo vacío.
+        Arrays.fill(foto, 0);
+        hilo.iniciar();
+
+        assertTrue(ejecutarSiguiente(5000));
+        assertEquals(Arrays.asList("foto"), decisiones);
+        cerrarSinMasDecisiones(hilo, 1);
+    }
+
+    @Test
+    public void reconoceConElReconocedorParalelo() throws InterruptedException {
+        HiloReconocimiento hilo = nuevo();
+        ReconocedorParalelo paralelo = new ReconocedorParalelo(plantillas, UMBRAL, 2);
+        hilo.ponerReconocedores(paralelo, new ReconocedorIncremental(plantillas, UMBRAL, 1.0, 1.5, 2, 10));
+        hilo.iniciar();
+
+        hilo.empezarTrazo(0);
+        hilo.terminarTrazo(gestos.get(1).trazos[0]);
+        assertTrue(ejecutarSiguiente(5000));
+        assertEquals(Arrays.asList("rafaga"), decisiones);
+        cerrarSinMasDecisiones(hilo, 1);
+        paralelo.cerrar();
+    }
+
+    @Test
+    public void decideMientrasSeDibujaUnaSolaVez() throws InterruptedException {
+        HiloReconocimiento hilo = nuevo();
+        ponerReconocedores(hilo, plantillas);
+        hilo.iniciar();
+        float[] foto = ReconocedorGestosTest.transformar(gestos.get(0).trazos[0], 0.8f, 20, 30);
+
+        dibujar(hilo, foto, foto.length / 2);
+        assertTrue(ejecutarSiguiente(5000));
+        assertEquals(Arrays.asList("foto*"), decisiones);
+
+        // Al levantar el dedo ya no se vuelve a decidir; el trazo siguiente no es ningún gesto.
+        hilo.terminarTrazo(foto);
+        float[] linea = {0, 0, 100, 100, 200, 200, 300, 300};
+        dibujar(hilo, linea, linea.length / 2);
+        hilo.terminarTrazo(linea);
+        long limite = System.currentTimeMillis() + 5000;
+        while (hilo.atendidos() < 2 && System.currentTimeMillis() < limite) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, hilo.completos());
+        cerrarSinMasDecisiones(hilo, 1);
+    }
+
+    @Test
+    public void noEntregaLaDecisionSiElTrazoSiguienteYaHaEmpezado() throws InterruptedException {
+        HiloReconocimiento hilo = nuevo();
+        ponerReconocedores(hilo, plantillas);
+        hilo.iniciar();
+
+        int primero = hilo.empezarTrazo(0);
+        hilo.terminarTrazo(gestos.get(0).trazos[0]);
+        // La decisión queda en la cola del hilo principal y el trazo siguiente empieza antes de atenderla.
+        Runnable decision = principal.poll(5000, TimeUnit.MILLISECONDS);
+        assertNotNull(decision);
+        int segundo = hilo.empezarTrazo(0);
+        assertTrue(segundo != primero);
+        decision.run();
+        assertTrue(decisiones.isEmpty());
+        assertEquals(1, hilo.descartados());
+
+        // La del trazo nuevo sí se entrega, con su identificador.
+        hilo.terminarTrazo(gestos.get(1).trazos[0]);
+        assertTrue(ejecutarSiguiente(5000));
+        assertEquals(Arrays.asList("rafaga"), decisiones);
+        assertEquals(Arrays.asList(segundo), trazos);
+        cerrarSinMasDecisiones(hilo, 1);
+    }
+
+    @Test
+    public void reconoceLoDibujadoAntesDeCargarLasPlantillas() throws InterruptedException {
+        HiloReconocimiento hilo = nuevo();
+        hilo.iniciar();
+        float[] foto = gestos.get(0).trazos[0];
+
+        dibujar(hilo, foto, foto.length / 2);
+        hilo.terminarTrazo(foto);
+        assertFalse(ejecutarSiguiente(50));
+        ponerReconocedores(hilo, plantillas);
+
+        assertTrue(ejecutarSiguiente(5000));
+        assertEquals(Arrays.asList("foto"), decisiones);
+        cerrarSinMasDecisiones(hilo, 1);
+    }
+
+    /**
+     * Con las plantillas de la aplicación y con 10.000 sintéticas, trazo a trazo como si se dibujaran, llegan
+     * decisiones para la mayoría. El tiempo de cada llamada del hilo principal, frente al de reconocer en él, y
+     * la latencia de las decisiones se miden en HiloReconocimientoBenchmark.
+     */
+    @Test
+    public void decideConPocasYConMuchasPlantillas() throws InterruptedException {
+        List<float[]> trazos = new ArrayList<float[]>();
+        for (int i = 0; i < 100; i++) {
+            GestoGrabado gesto = gestos.get(i % gestos.size());
+            trazos.add(ReconocedorGestosTest.transformar(gesto.trazos[0], 0.6f + i % 5 * 0.1f, i, 2 * i));
+        }
+        reconocerUnoAUno(plantillas, trazos);
+
+        List<float[]> prototipos = new ArrayList<float[]>();
+        GestosSinteticos sinteticos = new GestosSinteticos(17);
+        PlantillasGestos muchas = PlantillasGestos.desdeGestos(sinteticos.biblioteca(10000, 5, prototipos));
+        trazos.clear();
+        for (int i = 0; i < 100; i++) {
+            trazos.add(sinteticos.variante(prototipos.get(i * 7 % prototipos.size()), 4, 0.35));
+        }
+        reconocerUnoAUno(muchas, trazos);
+    }
+
+    private void reconocerUnoAUno(PlantillasGestos plantillas, List<float[]> trazos) throws InterruptedException {
+        decisiones.clear();
+        HiloReconocimiento hilo = nuevo();
+        ponerReconocedores(hilo, plantillas);
+        hilo.iniciar();
+
+        for (float[] trazo : trazos) {
+            long atendidos = hilo.atendidos();
+            hilo.empezarTrazo(0);
+            for (int i = 0; i < trazo.length / 2; i++) {
+                hilo.anadirPunto(trazo[i * 2], trazo[i * 2 + 1], i * 10);
+                // Así el hilo principal también atiende las decisiones entre movimientos del dedo.
+                ejecutarSiguiente(0);
+            }
+            hilo.terminarTrazo(trazo);
+            // Se espera a que el trazo quede resuelto antes del siguiente; su decisión, si la hay, ya está en cola.
+            long limite = System.currentTimeMillis() + 5000;
+            while (hilo.atendidos() == atendidos && System.currentTimeMillis() < limite) {
+                Thread.sleep(0, 100000);
+            }
+            while (ejecutarSiguiente(0)) {
+                // Nada, solo se vacía la cola.
+            }
+        }
+        hilo.cerrar();
+        hilo.esperarFin();
+        while (ejecutarSiguiente(0)) {
+            // Nada, solo se vacía la cola.
+        }
+
+        assertTrue(plantillas.tamano() + " plantillas: " + decisiones.size() + " decisiones",
+                decisiones.size() > trazos.size() / 2);
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests del histograma de duraciones.
+ */
+public class HistogramaTest {
+    /**
+     * Error relativo máximo de los percentiles por el tamaño de las cubetas.
+     */
+    private static final double ERROR = 1.0 / 16;
+
+    @Test
+    public void lasCubetasSonContiguasYCubrenTodoElRango() {
+        assertEquals(0, Histograma.cubeta(0));
+        assertEquals(15, Histograma.cubeta(15));
+        long anterior = -1;
+        for (int i = 0; Histograma.limiteSuperior(i) < Long.MAX_VALUE; i++) {
+            long limite = Histograma.limiteSuperior(i);
+            assertTrue(limite > anterior);
+            assertEquals(i, Histograma.cubeta(limite));
+            assertEquals(i, Histograma.cubeta(anterior + 1));
+            anterior = limite;
+        }
+        assertEquals(Long.MAX_VALUE, Histograma.limiteSuperior(Histograma.cubeta(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void losPercentilesTienenErrorAcotado() {
+        Random aleatorio = new Random(1);
+        Histograma histograma = new Histograma();
+        long[] valores = new long[100000];
+        for (int i = 0; i < valores.length; i++) {
+            // Duraciones de 10 us a 10 s con distribución logarítmica.
+            valores[i] = (long) Math.pow(10, 4 + aleatorio.nextDouble() * 6);
+            histograma.anotar(valores[i]);
+        }
+        Arrays.sort(valores);
+
+        for (double p : new double[]{1, 50, 90, 99, 99.9}) {
+            long exacto = valores[(int) Math.ceil(p / 100 * valores.length) - 1];
+            long estimado = histograma.percentil(p);
+            assertTrue(p + ": " + estimado + " < " + exacto, estimado >= exacto);
+            assertTrue(p + ": " + estimado + " >> " + exacto, estimado <= exacto * (1 + ERROR));
+        }
+        assertEquals(valores[valores.length - 1], histograma.maximo());
+        assertEquals(valores[valores.length - 1], histograma.percentil(100));
+        assertEquals(valores.length, histograma.cuenta());
+    }
+
+    @Test
+    public void sinValoresTodoEsCero() {
+        Histograma histograma = new Histograma();
+        assertEquals(0, histograma.percentil(50));
+        assertEquals(0, histograma.media(), 0);
+        histograma.anotar(-5);
+        assertEquals(0, histograma.maximo());
+        assertEquals(1, histograma.cuenta());
+    }
+
+    @Test
+    public void variosHilosNoPierdenValores() throws InterruptedException {
+        final Histograma histograma = new Histograma();
+        final int porHilo = 100000;
+        Thread[] hilos = new Thread[4];
+        for (int h = 0; h < hilos.length; h++) {
+            final int desplazamiento = h;
+            hilos[h] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < porHilo; i++) {
+                        histograma.anotar(i + desplazamiento);
+                    }
+                }
+            });
+            hilos[h].start();
+        }
+        for (Thread hilo : hilos) {
+            hilo.join();
+        }
+
+        assertEquals(hilos.length * porHilo, histograma.cuenta());
+        assertEquals(porHilo - 1 + hilos.length - 1, histograma.maximo());
+        assertEquals((porHilo - 1) / 2.0 + (hilos.length - 1) / 2.0, histograma.media(), 1e-6);
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests del índice de plantillas y medida de cómo escala con el número de plantillas.
+ */
+public class IndicePlantillasTest {
+    private static final double UMBRAL = 3.0;
+
+    /**
+     * Tolerancias tan grandes que el índice devuelve todas las plantillas, para probar solo la cascada de cotas.
+     */
+    private static final float[] SIN_FILTRO = {100, 100, 100, 100};
+
+    @Test
+    public void laCascadaDaLasMismasPuntuacionesQueLaBusquedaLineal() {
+        List<float[]> prototipos = new ArrayList<float[]>();
+        GestosSinteticos sinteticos = new GestosSinteticos(3);
+        PlantillasGestos plantillas = PlantillasGestos.desdeGestos(sinteticos.biblioteca(500, 5, prototipos));
+        ReconocedorGestos lineal = new ReconocedorGestos(plantillas);
+        ReconocedorGestos podado = new ReconocedorGestos(new IndicePlantillas(plantillas, SIN_FILTRO), UMBRAL);
+        Predicciones esperadas = new Predicciones(5);
+        Predicciones obtenidas = new Predicciones(5);
+
+        for (int i = 0; i < 200; i++) {
+            float[] trazo = sinteticos.variante(prototipos.get(i % prototipos.size()), 4, 0.35);
+            lineal.reconocer(trazo, trazo.length, esperadas);
+            podado.reconocer(trazo, trazo.length, obtenidas);
+
+            int validas = 0;
+            while (validas < esperadas.tamano() && esperadas.puntuacion(validas) >= UMBRAL) {
+                validas++;
+            }
+            assertEquals(validas, obtenidas.tamano());
+            for (int j = 0; j < validas; j++) {
+                assertEquals(esperadas.etiqueta(j), obtenidas.etiqueta(j));
+                assertEquals(esperadas.puntuacion(j), obtenidas.puntuacion(j), 0);
+            }
+            assertTrue(podado.ultimasComparadas() <= podado.ultimosCandidatos());
+        }
+    }
+
+    @Test
+    public void elIndiceNoPierdeLosGestosReconocidos() {
+        List<float[]> prototipos = new ArrayList<float[]>();
+        GestosSinteticos sinteticos = new GestosSinteticos(5);
+        PlantillasGestos plantillas = PlantillasGestos.desdeGestos(sinteticos.biblioteca(2000, 5, prototipos));
+        ReconocedorGestos lineal = new ReconocedorGestos(plantillas);
+        ReconocedorGestos podado = new ReconocedorGestos(new IndicePlantillas(plantillas), UMBRAL);
+        Predicciones esperadas = new Predicciones(1);
+        Predicciones obtenidas = new Predicciones(1);
+
+        int reconocidos = 0;
+        for (int i = 0; i < 500; i++) {
+            float[] trazo = sinteticos.variante(prototipos.get(i % prototipos.size()), 4, 0.35);
+            lineal.reconocer(trazo, trazo.length, esperadas);
+            if (esperadas.puntuacion(0) <= UMBRAL) {
+                continue;
+            }
+            reconocidos++;
+            podado.reconocer(trazo, trazo.length, obtenidas);
+            assertEquals(1, obtenidas.tamano());
+            assertEquals(esperadas.etiqueta(0), obtenidas.etiqueta(0));
+        }
+        assertTrue(reconocidos > 400);
+    }
+
+    @Test
+    public void reconoceElGestoDeLaAplicacionConIndice() throws Exception {
+        PlantillasGestos plantillas = PlantillasGestos.desdeGestos(ReconocedorGestosTest.leerGestos());
+        ReconocedorGestos reconocedor = new ReconocedorGestos(new IndicePlantillas(plantillas), UMBRAL);
+        Predicciones predicciones = new Predicciones(1);
+        float[] trazo = ReconocedorGestosTest.transformar(ReconocedorGestosTest.leerGestos().get(0).trazos[0], 0.7f, 40, 90);
+
+        assertEquals(1, reconocedor.reconocer(trazo, trazo.length, predicciones));
+        assertEquals("foto", predicciones.nombre(0));
+
+        float[] linea = {0, 0, 100, 100, 200, 200, 300, 300};
+        assertEquals(0, reconocedor.reconocer(linea, linea.length, predicciones));
+    }
+
+    /**
+     * Con los gestos de la aplicación dibujados más anchos o más altos, doblados, girados y con ruido, el
+     * reconocedor con índice debe decidir lo mismo que la búsqueda lineal: con las dos plantillas de la
+     * aplicación, y con ellas entre miles de sintéticas para que se use la primera etapa del índice.
+     */
+    @Test
+    public void elIndiceDecideLoMismoQueLaBusquedaLinealConTrazosDeformados() throws Exception {
+        List<GestoGrabado> aplicacion = ReconocedorGestosTest.leerGestos();
+        List<GestoGrabado> mezcla = new ArrayList<GestoGrabado>(aplicacion);
+        mezcla.addAll(new GestosSinteticos(7).biblioteca(2000, 5, null));
+
+        for (List<GestoGrabado> biblioteca : Arrays.asList(aplicacion, mezcla)) {
+            PlantillasGestos plantillas = PlantillasGestos.desdeGestos(biblioteca);
+            ReconocedorGestos lineal = new ReconocedorGestos(plantillas);
+            ReconocedorGestos podado = new ReconocedorGestos(new IndicePlantillas(plantillas), UMBRAL);
+            Predicciones esperadas = new Predicciones(1);
+            Predicciones obtenidas = new Predicciones(1);
+            GestosSinteticos sinteticos = new GestosSinteticos(11);
+
+            int reconocidos = 0;
+            for (int i = 0; i < 2000; i++) {
+                float[] original = aplicacion.get(i % aplicacion.size()).trazos[0];
+                float[] trazo = sinteticos.deformar(original, 3, 0.3, i < 1000 ? 0.2 : 0.3, 0.1);
+                lineal.reconocer(trazo, trazo.length, esperadas);
+                podado.reconocer(trazo, trazo.length, obtenidas);
+                if (esperadas.puntuacion(0) > UMBRAL) {
+                    reconocidos++;
+                    assertEquals("trazo " + i, 1, obtenidas.tamano());
+                    assertEquals("trazo " + i, esperadas.etiqueta(0), obtenidas.etiqueta(0));
+                    assertEquals(esperadas.puntuacion(0), obtenidas.puntuacion(0), 0);
+                } else {
+                    assertEquals("trazo " + i, 0, obtenidas.tamano());
+                }
+            }
+            assertTrue(reconocidos > 1500);
+        }
+    }
+
+    /**
+     * De 10 a 10.000 plantillas: desde 1000 las plantillas comparadas por completo deben ser una fracción pequeña
+     * del total. Los tiempos, con búsqueda lineal y con índice, se miden en EscalaBenchmark.
+     */
+    @Test
+    public void escalaDeDiezADiezMilPlantillas() {
+        final int consultas = 300;
+        for (int n = 10; n <= 10000; n *= 10) {
+            List<float[]> prototipos = new ArrayList<float[]>();
+            GestosSinteticos sinteticos = new GestosSinteticos(n);
+            PlantillasGestos plantillas = PlantillasGestos.desdeGestos(sinteticos.biblioteca(n, 5, prototipos));
+            ReconocedorGestos podado = new ReconocedorGestos(new IndicePlantillas(plantillas), UMBRAL);
+            Predicciones predicciones = new Predicciones(3);
+
+            long comparadas = 0;
+            for (int i = 0; i < consultas; i++) {
+                float[] trazo = sinteticos.variante(prototipos.get(i % prototipos.size()), 4, 0.35);
+                podado.reconocer(trazo, trazo.length, predicciones);
+                assertTrue(podado.ultimasComparadas() <= podado.ultimosCandidatos());
+                comparadas += podado.ultimasComparadas();
+            }
+            if (n >= 1000) {
+                assertTrue(n + " plantillas: " + comparadas / consultas + " comparadas", comparadas / consultas < n / 10);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.josea.puntogestosfoto;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Generador de JPEG como los de la cámara para los tests: la imagen codificada con ImageIO y, delante, un
+ * segmento EXIF con la orientación y una miniatura en lugar del JFIF de ImageIO.
+ */
+final class JpegsSinteticos {
+    private JpegsSinteticos() {
+    }
+
+    /**
+     * Función que codifica una imagen con degradados y ruido, para que el JPEG tenga un tamaño realista.
+     * @param ancho ancho en píxeles
+     * @param alto alto en píxeles
+     * @param semilla semilla del ruido
+     * @return JPEG con el segmento JFIF de ImageIO
+     * @throws IOException si ImageIO no puede codificar
+     */
+    static byte[] codificar(int ancho, int alto, long semilla) throws IOException {
+        Random aleatorio = new Random(semilla);
+        BufferedImage imagen = new BufferedImage(ancho, alto, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < alto; y++) {
+            for (int x = 0; x < ancho; x++) {
+                int r = (x * 255 / ancho + aleatorio.nextInt(32)) & 0xFF;
+                int g = (y * 255 / alto + aleatorio.nextInt(32)) & 0xFF;
+                int b = aleatorio.nextInt(256);
+                imagen.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        if (!ImageIO.write(imagen, "jpg", salida)) {
+            throw new IOException("No hay codificador JPEG");
+        }
+        return salida.toByteArray();
+    }
+
+    /**
+     * Función que pone un segmento EXIF al principio de un JPEG y quita su segmento JFIF.
+     * @param jpeg JPEG de codificar
+     * @param orientacion orientación EXIF
+     * @param miniatura JPEG de la miniatura, null para no poner IFD1
+     * @param orden orden de bytes del EXIF
+     * @return JPEG con EXIF
+     */
+    static byte[] conExif(byte[] jpeg, int orientacion, byte[] miniatura, ByteOrder orden) {
+        int longitudIfd1 = miniatura == null ? 0 : 2 + 2 * 12 + 4;
+        int tamanoTiff = 8 + 2 + 12 + 4 + longitudIfd1 + (miniatura == null ? 0 : miniatura.length);
+        ByteBuffer tiff = ByteBuffer.allocate(tamanoTiff).order(orden);
+        tiff.putShort(orden == ByteOrder.LITTLE_ENDIAN ? (short) 0x4949 : (short) 0x4D4D).putShort((short) 42);
+        tiff.putInt(8);
+        // IFD0 con la orientación y el enlace al IFD1.
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) orientacion).putShort((short) 0);
+        tiff.putInt(miniatura == null ? 0 : 26);
+        if (miniatura != null) {
+            tiff.putShort((short) 2);
+            tiff.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(26 + longitudIfd1);
+            tiff.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(miniatura.length);
+            tiff.putInt(0);
+            tiff.put(miniatura);
+        }
+
+        // Se salta el JFIF (APP0) que pone ImageIO, la cámara no lo pone.
+        int resto = 2;
+        if ((jpeg[2] & 0xFF) == 0xFF && (jpeg[3] & 0xFF) == 0xE0) {
+            resto = 4 + ((jpeg[4] & 0xFF) << 8 | (jpeg[5] & 0xFF));
+        }
+        int longitudSegmento = 2 + 6 + tamanoTiff;
+        ByteBuffer resultado = ByteBuffer.allocate(2 + 2 + longitudSegmento + jpeg.length - resto);
+        resultado.put((byte) 0xFF).put((byte) 0xD8);
+        resultado.put((byte) 0xFF).put((byte) 0xE1).putShort((short) longitudSegmento);
+        resultado.put(new byte[]{'E', 'x', 'i', 'f', 0, 0}).put(tiff.array());
+        resultado.put(jpeg, resto, jpeg.length - resto);
+        return resultado.array();
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests de los datos de la captura guardados como XMP.
+ */
+public class MetadatosCapturaTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * @return paquete XMP del segmento, sin marcador, longitud ni identificador
+     */
+    private static ByteBuffer paquete(ByteBuffer segmento) {
+        ByteBuffer paquete = segmento.duplicate();
+        paquete.position(paquete.position() + 4 + SegmentosJpeg.ID_XMP.length);
+        return paquete.slice();
+    }
+
+    @Test
+    public void elSegmentoEsUnApp1ConXmp() {
+        ByteBuffer segmento = new MetadatosCaptura("foto", 3.25, 0).segmentoXmp();
+        assertEquals(0xFF, segmento.get(0) & 0xFF);
+        assertEquals(SegmentosJpeg.APP1, segmento.get(1) & 0xFF);
+        assertEquals(segmento.remaining() - 2, segmento.getShort(2) & 0xFFFF);
+        String texto = UTF8.decode(paquete(segmento)).toString();
+        assertTrue(texto.startsWith("<?xpacket begin=\"\uFEFF\""));
+        assertTrue(texto.contains("xmp:CreateDate=\"1970-01-01T00:00:00.000Z\""));
+        assertTrue(texto.contains("pgf:Puntuacion=\"3.250\""));
+    }
+
+    @Test
+    public void seLeeLoQueSeEscribe() {
+        String nombre = "cámara <\"rápida\"> & 'ráfaga'";
+        ByteBuffer segmento = new MetadatosCaptura(nombre, 4.125, 1476789012345L).segmentoXmp();
+        MetadatosCaptura leidos = MetadatosCaptura.leer(paquete(segmento));
+        assertEquals(nombre, leidos.gesto());
+        assertEquals(4.125, leidos.puntuacion(), 1e-9);
+        assertEquals(1476789012345L, leidos.instante());
+    }
+
+    @Test
+    public void ignoraElXmpDeOtrosProgramas() {
+        String otro = "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\"><rdf:RDF><rdf:Description xmp:Rating=\"5\"/></rdf:RDF>"
+                + "</x:xmpmeta>";
+        assertNull(MetadatosCaptura.leer(ByteBuffer.wrap(otro.getBytes(UTF8))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rechazaUnSegmentoDemasiadoLargo() {
+        StringBuilder nombre = new StringBuilder();
+        while (nombre.length() < 70000) {
+            nombre.append("gesto");
+        }
+        new MetadatosCaptura(nombre.toString(), 3, 0).segmentoXmp();
+    }
+}
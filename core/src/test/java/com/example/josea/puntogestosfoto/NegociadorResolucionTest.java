@@ -0,0 +1,191 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests del negociador de resolución con listas de capacidades con la forma de Camera.Parameters.flatten()
+ * de móviles de gama alta (16:9), media (4:3) y baja.
+ */
+public class NegociadorResolucionTest {
+    private static final String CARPETA_CAPACIDADES = "src/test/resources/capacidades/";
+
+    @Rule
+    public TemporaryFolder carpeta = new TemporaryFolder();
+
+    static NegociadorResolucion.Capacidades leerCapacidades(String nombre) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(CARPETA_CAPACIDADES + nombre + ".txt"), "UTF-8"));
+        try {
+            return NegociadorResolucion.Capacidades.desde(new ParametrosCamara(in.readLine()));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static double aspecto(int ancho, int alto) {
+        return (double) ancho / alto;
+    }
+
+    /**
+     * Comprobaciones comunes: la vista previa tiene casi la forma de la vista (Preview la centra con bandas),
+     * la foto la de la vista previa y es la mayor de esa forma, y el rango de FPS llega a 30.
+     */
+    private static void comprobarPerfil(NegociadorResolucion.Capacidades capacidades,
+                                        NegociadorResolucion.Perfil perfil, int ancho, int alto) {
+        double aspectoVista = aspecto(perfil.anchoVista, perfil.altoVista);
+        assertEquals(0, Math.log(aspectoVista / aspecto(ancho, alto)), 0.2);
+        assertEquals(0, Math.log(aspecto(perfil.anchoFoto, perfil.altoFoto) / aspectoVista),
+                NegociadorResolucion.TOLERANCIA_ASPECTO);
+        int[] fotos = capacidades.tamanosFoto;
+        for (int j = 0; j < fotos.length; j += 2) {
+            if (Math.abs(Math.log(aspecto(fotos[j], fotos[j + 1]) / aspectoVista))
+                    <= NegociadorResolucion.TOLERANCIA_ASPECTO) {
+                assertTrue(fotos[j] + "x" + fotos[j + 1],
+                        (long) fotos[j] * fotos[j + 1] <= (long) perfil.anchoFoto * perfil.altoFoto);
+            }
+        }
+        assertEquals(30000, perfil.fpsMaximo);
+    }
+
+    @Test
+    public void eligeConfiguracionesCoherentesEnCadaMovil() throws IOException {
+        String[] moviles = {"gama_alta_16x9", "gama_media_4x3", "gama_baja"};
+        int[][] vistas = {{1920, 1080}, {1280, 800}, {800, 480}, {640, 480}};
+        for (String movil : moviles) {
+            NegociadorResolucion.Capacidades capacidades = leerCapacidades(movil);
+            for (int[] vista : vistas) {
+                NegociadorResolucion.Perfil perfil = NegociadorResolucion.elegir(capacidades, vista[0], vista[1]);
+                assertNotNull(movil + " " + vista[0] + "x" + vista[1], perfil);
+                if (!movil.equals("gama_baja")) {
+                    comprobarPerfil(capacidades, perfil, vista[0], vista[1]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void enGamaAltaUsaVistaPanoramicaYFotoDeLaMismaForma() throws IOException {
+        NegociadorResolucion.Perfil perfil = NegociadorResolucion.elegir(leerCapacidades("gama_alta_16x9"), 1920, 1080);
+
+        assertEquals(16.0 / 9, aspecto(perfil.anchoVista, perfil.altoVista), 0.01);
+        assertTrue(perfil.altoVista >= 720);
+        assertEquals(16.0 / 9, aspecto(perfil.anchoFoto, perfil.altoFoto), 0.01);
+        // El rango amplio deja bajar los FPS con poca luz.
+        assertEquals(7000, perfil.fpsMinimo);
+    }
+
+    @Test
+    public void enGamaBajaSeQuedaConLoQueHay() throws IOException {
+        NegociadorResolucion.Perfil perfil = NegociadorResolucion.elegir(leerCapacidades("gama_baja"), 800, 480);
+
+        assertEquals(640, perfil.anchoVista);
+        assertEquals(480, perfil.altoVista);
+        assertEquals(1600, perfil.anchoFoto);
+        assertEquals(1200, perfil.altoFoto);
+        assertEquals(5000, perfil.fpsMinimo);
+        assertEquals(30000, perfil.fpsMaximo);
+    }
+
+    @Test
+    public void sinLimiteUsaLaFotoMasGrandeYConLimiteSeAcercaAEl() throws IOException {
+        NegociadorResolucion.Capacidades capacidades = leerCapacidades("gama_alta_16x9");
+
+        NegociadorResolucion.Perfil completa = NegociadorResolucion.elegir(capacidades, 1920, 1080);
+        assertEquals(4160, completa.anchoFoto);
+        assertEquals(2340, completa.altoFoto);
+
+        NegociadorResolucion.Perfil limitada = NegociadorResolucion.elegir(capacidades, 1920, 1080, 5000000);
+        assertEquals(2592, limitada.anchoFoto);
+        assertEquals(1458, limitada.altoFoto);
+        // La vista previa no depende del límite.
+        assertEquals(completa.anchoVista, limitada.anchoVista);
+    }
+
+    @Test
+    public void unPerfilConOtroLimiteNoSeReutiliza() throws IOException {
+        File fichero = new File(carpeta.getRoot(), "perfiles.properties");
+        NegociadorResolucion.Capacidades capacidades = leerCapacidades("gama_alta_16x9");
+        NegociadorResolucion limitado = new NegociadorResolucion(fichero, 5000000);
+        NegociadorResolucion.Perfil perfil = limitado.negociar(0, capacidades, 1920, 1080);
+        limitado.guardar();
+
+        NegociadorResolucion completo = new NegociadorResolucion(fichero);
+        completo.cargar();
+        assertFalse(perfil.equals(completo.negociar(0, capacidades, 1920, 1080)));
+        assertEquals(1, completo.calculados());
+    }
+
+    @Test
+    public void noPasaDeLoQueDaElSensor() {
+        NegociadorResolucion.Capacidades capacidades = new NegociadorResolucion.Capacidades(
+                new int[] {1920, 1080}, new int[] {1920, 1080}, new int[] {60000, 60000, 15000, 30000});
+
+        assertEquals(30000, NegociadorResolucion.elegir(capacidades, 1920, 1080).fpsMaximo);
+    }
+
+    @Test
+    public void sinListasDejaLosValoresPorDefecto() {
+        NegociadorResolucion.Capacidades capacidades = new NegociadorResolucion.Capacidades(
+                new int[] {640, 480}, new int[0], new int[0]);
+        NegociadorResolucion.Perfil perfil = NegociadorResolucion.elegir(capacidades, 800, 600);
+
+        assertEquals(640, perfil.anchoVista);
+        assertEquals(0, perfil.anchoFoto);
+        assertEquals(0, perfil.fpsMaximo);
+        assertNull(NegociadorResolucion.elegir(new NegociadorResolucion.Capacidades(new int[0], new int[0],
+                new int[0]), 800, 600));
+        assertNull(NegociadorResolucion.elegir(capacidades, 0, 0));
+    }
+
+    @Test
+    public void recuerdaLosPerfilesEnMemoriaYEnElFichero() throws IOException {
+        File fichero = new File(carpeta.getRoot(), "perfiles.properties");
+        NegociadorResolucion.Capacidades capacidades = leerCapacidades("gama_media_4x3");
+
+        NegociadorResolucion primero = new NegociadorResolucion(fichero);
+        primero.cargar();
+        NegociadorResolucion.Perfil perfil = primero.negociar(0, capacidades, 1280, 800);
+        assertSame(perfil, primero.negociar(0, capacidades, 1280, 800));
+        assertEquals(1, primero.calculados());
+        assertTrue(primero.cambiado());
+        primero.guardar();
+        assertFalse(primero.cambiado());
+
+        // Siguiente arranque: no recorre las listas.
+        NegociadorResolucion segundo = new NegociadorResolucion(fichero);
+        segundo.cargar();
+        assertEquals(perfil.aTexto(), segundo.negociar(0, capacidades, 1280, 800).aTexto());
+        assertEquals(0, segundo.calculados());
+
+        // Otra cámara, otro tamaño de vista u otras capacidades no usan ese perfil.
+        segundo.negociar(1, capacidades, 1280, 800);
+        segundo.negociar(0, capacidades, 800, 480);
+        segundo.negociar(0, leerCapacidades("gama_baja"), 1280, 800);
+        assertEquals(3, segundo.calculados());
+    }
+
+    @Test
+    public void elPerfilSeGuardaComoTexto() {
+        NegociadorResolucion.Perfil perfil = new NegociadorResolucion.Perfil(1280, 720, 2592, 1458, 7000, 30000);
+
+        assertEquals("1280x720;2592x1458;7000,30000", perfil.aTexto());
+        NegociadorResolucion.Perfil leido = NegociadorResolucion.Perfil.desdeTexto(perfil.aTexto());
+        assertEquals(2592, leido.anchoFoto);
+        assertEquals(7000, leido.fpsMinimo);
+        assertEquals(perfil, leido);
+        assertEquals(perfil.hashCode(), leido.hashCode());
+        assertFalse(perfil.equals(new NegociadorResolucion.Perfil(1280, 720, 2592, 1458, 15000, 30000)));
+        assertNull(NegociadorResolucion.Perfil.desdeTexto("1280x720"));
+        assertNull(NegociadorResolucion.Perfil.desdeTexto("ax720;1x1;1,1"));
+    }
+}
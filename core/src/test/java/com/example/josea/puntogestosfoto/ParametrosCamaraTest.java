@@ -0,0 +1,76 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests de la copia de los parámetros de la cámara con un texto como el de Camera.Parameters.flatten().
+ */
+public class ParametrosCamaraTest {
+    private static final String APLANADOS = "preview-size=640x480;preview-size-values=1280x720,800x480,640x480,320x240;"
+            + "picture-size=2048x1536;picture-size-values=2048x1536,1600x1200,640x480;focus-mode=infinity;"
+            + "focus-mode-values=auto,infinity,continuous-picture;preview-fps-range=15000,30000;jpeg-quality=95";
+
+    @Test
+    public void leeLosValoresYLasListas() {
+        ParametrosCamara parametros = new ParametrosCamara(APLANADOS);
+
+        assertEquals("640x480", parametros.valor(ParametrosCamara.TAMANO_VISTA_PREVIA));
+        assertEquals("15000,30000", parametros.valor("preview-fps-range"));
+        assertNull(parametros.valor("no-existe"));
+        assertEquals(Arrays.asList("auto", "infinity", "continuous-picture"),
+                parametros.lista(ParametrosCamara.MODOS_ENFOQUE));
+        assertArrayEquals(new int[] {1280, 720, 800, 480, 640, 480, 320, 240},
+                parametros.tamanos(ParametrosCamara.TAMANOS_VISTA_PREVIA));
+        assertEquals(0, parametros.tamanos("no-existe").length);
+        assertEquals(APLANADOS, parametros.aplanar());
+    }
+
+    @Test
+    public void soloHayCambiosSiCambiaAlgunValor() {
+        ParametrosCamara parametros = new ParametrosCamara(APLANADOS);
+
+        parametros.ponerTamano(ParametrosCamara.TAMANO_VISTA_PREVIA, 640, 480);
+        parametros.poner(ParametrosCamara.MODO_ENFOQUE, "infinity");
+        assertFalse(parametros.hayCambios());
+
+        parametros.poner(ParametrosCamara.MODO_ENFOQUE, "auto");
+        assertTrue(parametros.hayCambios());
+        // Volver al valor de la cámara anula el cambio.
+        parametros.poner(ParametrosCamara.MODO_ENFOQUE, "infinity");
+        assertFalse(parametros.hayCambios());
+    }
+
+    @Test
+    public void aplicaTodosLosCambiosJuntos() {
+        ParametrosCamara parametros = new ParametrosCamara(APLANADOS);
+        parametros.poner(ParametrosCamara.MODO_ENFOQUE, "auto");
+        parametros.ponerTamano(ParametrosCamara.TAMANO_VISTA_PREVIA, 1280, 720);
+        parametros.ponerTamano(ParametrosCamara.TAMANO_VISTA_PREVIA, 800, 480);
+        assertEquals(2, parametros.numCambios());
+        assertEquals("800x480", parametros.valor(ParametrosCamara.TAMANO_VISTA_PREVIA));
+
+        String aplicados = parametros.aplicarCambios();
+
+        assertFalse(parametros.hayCambios());
+        assertEquals(APLANADOS.replace("preview-size=640x480", "preview-size=800x480")
+                .replace("focus-mode=infinity", "focus-mode=auto"), aplicados);
+        // Lo aplicado pasa a ser el valor de la cámara.
+        parametros.poner(ParametrosCamara.MODO_ENFOQUE, "auto");
+        assertFalse(parametros.hayCambios());
+    }
+
+    @Test
+    public void descartarCambiosDejaLosValoresDeLaCamara() {
+        ParametrosCamara parametros = new ParametrosCamara(APLANADOS);
+        parametros.poner("jpeg-quality", "80");
+        parametros.descartarCambios();
+
+        assertFalse(parametros.hayCambios());
+        assertEquals("95", parametros.valor("jpeg-quality"));
+        assertEquals(APLANADOS, parametros.aplanar());
+    }
+}
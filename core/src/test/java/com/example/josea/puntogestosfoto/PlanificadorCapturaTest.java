@@ -0,0 +1,151 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests del planificador de la cuenta atrás con un reloj virtual.
+ */
+public class PlanificadorCapturaTest {
+    private static final long[] CUENTA_ATRAS = {3000, 2000, 1000};
+
+    private TemporizadorVirtual temporizador;
+
+    /**
+     * Eventos recibidos por el oyente, como texto con el instante virtual: "t3@0", "c1@6000"...
+     */
+    private List<String> eventos;
+
+    private final PlanificadorCaptura.Oyente oyente = new PlanificadorCaptura.Oyente() {
+        public void tic(int restantes) {
+            eventos.add("t" + restantes + "@" + temporizador.ahora());
+        }
+
+        public void capturar(int fotos) {
+            eventos.add("c" + fotos + "@" + temporizador.ahora());
+        }
+    };
+
+    @Before
+    public void preparar() {
+        temporizador = new TemporizadorVirtual();
+        eventos = new ArrayList<String>();
+    }
+
+    private PlanificadorCaptura nuevo(PlanificadorCaptura.Politica politica) {
+        return new PlanificadorCaptura(temporizador, oyente, CUENTA_ATRAS, politica);
+    }
+
+    private List<String> lista(String... valores) {
+        List<String> resultado = new ArrayList<String>();
+        for (String v : valores) {
+            resultado.add(v);
+        }
+        return resultado;
+    }
+
+    @Test
+    public void cuentaAtrasConLosMismosTiemposQueAntes() {
+        PlanificadorCaptura planificador = nuevo(PlanificadorCaptura.Politica.IGNORAR);
+        planificador.solicitar(1);
+        temporizador.avanzar(10000);
+
+        assertEquals(lista("t3@0", "t2@3000", "t1@5000", "c1@6000"), eventos);
+        assertTrue(planificador.capturando());
+        assertFalse(planificador.enCuentaAtras());
+        assertEquals(0, temporizador.pendientes());
+    }
+
+    @Test
+    public void juntaLasPeticionesDuranteLaCuentaAtras() {
+        PlanificadorCaptura planificador = nuevo(PlanificadorCaptura.Politica.IGNORAR);
+        PlanificadorCaptura.Token primero = planificador.solicitar(1);
+        // Varias predicciones del mismo trazo y otro trazo a mitad de la cuenta.
+        assertSame(primero, planificador.solicitar(1));
+        temporizador.avanzar(4000);
+        assertSame(primero, planificador.solicitar(20));
+        temporizador.avanzar(10000);
+
+        assertEquals(lista("t3@0", "t2@3000", "t1@5000", "c1@6000"), eventos);
+        assertEquals(3, planificador.peticiones());
+        assertEquals(2, planificador.ignoradas());
+        assertEquals(1, planificador.capturas());
+    }
+
+    @Test
+    public void reiniciaLaCuentaAtrasSiLaPoliticaLoPide() {
+        PlanificadorCaptura planificador = nuevo(PlanificadorCaptura.Politica.REINICIAR);
+        PlanificadorCaptura.Token primero = planificador.solicitar(1);
+        temporizador.avanzar(4000);
+        PlanificadorCaptura.Token segundo = planificador.solicitar(20);
+        temporizador.avanzar(10000);
+
+        assertFalse(primero.activo());
+        assertNotSame(primero, segundo);
+        assertEquals(lista("t3@0", "t2@3000", "t3@4000", "t2@7000", "t1@9000", "c20@10000"), eventos);
+        assertEquals(1, planificador.reinicios());
+        assertEquals(1, planificador.capturas());
+    }
+
+    @Test
+    public void cancelarDetieneLaCuentaAtras() {
+        PlanificadorCaptura planificador = nuevo(PlanificadorCaptura.Politica.IGNORAR);
+        PlanificadorCaptura.Token token = planificador.solicitar(1);
+        temporizador.avanzar(3500);
+
+        assertTrue(token.cancelar());
+        assertFalse(token.cancelar());
+        temporizador.avanzar(10000);
+        assertEquals(lista("t3@0", "t2@3000"), eventos);
+        assertEquals(0, temporizador.pendientes());
+
+        // Después de cancelar se puede pedir otra.
+        planificador.solicitar(1);
+        assertTrue(planificador.enCuentaAtras());
+    }
+
+    @Test
+    public void esperaAQueTermineLaCapturaAnterior() {
+        PlanificadorCaptura planificador = nuevo(PlanificadorCaptura.Politica.IGNORAR);
+        planificador.solicitar(20);
+        temporizador.avanzar(6000);
+        assertEquals("c20@6000", eventos.get(eventos.size() - 1));
+
+        // La ráfaga sigue cuando termina la siguiente cuenta atrás.
+        planificador.solicitar(1);
+        temporizador.avanzar(8000);
+        assertEquals("t1@11000", eventos.get(eventos.size() - 1));
+        assertEquals(1, planificador.capturas());
+        assertTrue(planificador.enCuentaAtras());
+
+        temporizador.avanzar(500);
+        planificador.capturaTerminada();
+        assertEquals("c1@14500", eventos.get(eventos.size() - 1));
+        assertEquals(2, planificador.capturas());
+        assertTrue(planificador.capturando());
+
+        planificador.capturaTerminada();
+        assertFalse(planificador.capturando());
+        assertEquals(2, planificador.capturas());
+    }
+
+    @Test
+    public void cancelarTodoOlvidaLaCapturaEnMarcha() {
+        PlanificadorCaptura planificador = nuevo(PlanificadorCaptura.Politica.IGNORAR);
+        planificador.solicitar(1);
+        temporizador.avanzar(6000);
+        planificador.solicitar(1);
+        planificador.cancelarTodo();
+
+        assertFalse(planificador.capturando());
+        assertFalse(planificador.enCuentaAtras());
+        planificador.solicitar(1);
+        temporizador.avanzar(6000);
+        assertEquals(2, planificador.capturas());
+    }
+}
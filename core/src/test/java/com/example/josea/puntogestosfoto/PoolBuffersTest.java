@@ -0,0 +1,115 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests del pool de buffers de la ráfaga.
+ */
+public class PoolBuffersTest {
+    private static final int G = PoolBuffers.GRANULARIDAD;
+
+    @Test
+    public void reutilizaLosBuffersDevueltos() {
+        PoolBuffers pool = new PoolBuffers(10 * G);
+        byte[] primero = pool.obtener(3 * G - 100);
+        assertEquals(3 * G, primero.length);
+        pool.devolver(primero);
+
+        // Una foto algo mayor cabe en el mismo buffer gracias al redondeo.
+        byte[] segundo = pool.obtener(3 * G - 10);
+        assertSame(primero, segundo);
+        assertEquals(1, pool.creados());
+    }
+
+    @Test
+    public void noPasaDelPresupuesto() {
+        PoolBuffers pool = new PoolBuffers(10 * G);
+        byte[] a = pool.obtener(4 * G);
+        byte[] b = pool.obtener(4 * G);
+        assertNotNull(a);
+        assertNotNull(b);
+        assertFalse(pool.hayHueco(4 * G));
+        assertNull(pool.obtener(4 * G));
+        assertTrue(pool.hayHueco(2 * G));
+
+        pool.devolver(a);
+        assertTrue(pool.hayHueco(4 * G));
+        assertSame(a, pool.obtener(4 * G));
+        assertEquals(8 * G, pool.maximoEnUso());
+        assertTrue(pool.reservados() <= 10 * G);
+    }
+
+    @Test
+    public void descartaLibresPequenosParaUnoGrande() {
+        PoolBuffers pool = new PoolBuffers(10 * G);
+        byte[] a = pool.obtener(3 * G);
+        byte[] b = pool.obtener(3 * G);
+        byte[] c = pool.obtener(3 * G);
+        pool.devolver(a);
+        pool.devolver(b);
+
+        // Con 9 bloques reservados no cabe uno de 6 sin soltar los libres.
+        assertTrue(pool.hayHueco(6 * G));
+        byte[] grande = pool.obtener(6 * G);
+        assertNotNull(grande);
+        assertEquals(9 * G, pool.enUso());
+        assertTrue(pool.reservados() <= 10 * G);
+        pool.devolver(c);
+        pool.devolver(grande);
+        assertEquals(0, pool.enUso());
+    }
+
+    @Test
+    public void ignoraLosBuffersAjenosYRepetidos() {
+        PoolBuffers pool = new PoolBuffers(4 * G);
+        byte[] propio = pool.obtener(G);
+        pool.devolver(new byte[G]);
+        assertEquals(G, pool.enUso());
+        pool.devolver(propio);
+        pool.devolver(propio);
+        assertEquals(0, pool.enUso());
+    }
+
+    /**
+     * Ráfaga simulada de 20 fotos con escritura más lenta que la cámara: la memoria en vuelo no pasa del
+     * presupuesto y se reutilizan los buffers.
+     */
+    @Test
+    public void rafagaConEscritorLento() throws Exception {
+        final PoolBuffers pool = new PoolBuffers(8L * 1024 * 1024);
+        final BlockingQueue<byte[]> escritura = new ArrayBlockingQueue<byte[]>(8);
+        Thread escritor = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    for (int i = 0; i < 20; i++) {
+                        byte[] datos = escritura.take();
+                        Thread.sleep(5);
+                        pool.devolver(datos);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        escritor.start();
+
+        int tamanoJpeg = 2500 * 1024;
+        for (int i = 0; i < 20; i++) {
+            byte[] buffer;
+            while ((buffer = pool.obtener(tamanoJpeg + i * 1000)) == null) {
+                Thread.sleep(1);
+            }
+            escritura.put(buffer);
+        }
+        escritor.join();
+
+        assertTrue(pool.maximoEnUso() <= 8L * 1024 * 1024);
+        assertTrue(pool.creados() < 20);
+        assertEquals(0, pool.enUso());
+    }
+}
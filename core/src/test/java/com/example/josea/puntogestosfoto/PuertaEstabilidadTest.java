@@ -0,0 +1,138 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests de la espera a que la escena quede quieta antes de disparar, con un reloj virtual.
+ */
+public class PuertaEstabilidadTest {
+    private static final int ANCHO = 160;
+    private static final int ALTO = 120;
+    private static final long ESPERA_MAXIMA = 1500;
+    private static final long MS_POR_FOTOGRAMA = 33;
+
+    private TemporizadorVirtual temporizador;
+    private FotogramasSinteticos fotogramas;
+    private PuertaEstabilidad puerta;
+
+    /**
+     * Aperturas recibidas como texto con el instante virtual: "estable 4@132", "agotada 45@1500"...
+     */
+    private List<String> eventos;
+
+    private final PuertaEstabilidad.Oyente oyente = new PuertaEstabilidad.Oyente() {
+        public void abierta(boolean estable, int fotogramas) {
+            eventos.add((estable ? "estable " : "agotada ") + fotogramas + "@" + temporizador.ahora());
+        }
+    };
+
+    @Before
+    public void preparar() {
+        temporizador = new TemporizadorVirtual();
+        fotogramas = new FotogramasSinteticos(ANCHO, ALTO, 2, 7);
+        eventos = new ArrayList<String>();
+        puerta = new PuertaEstabilidad(temporizador, new EstabilidadEscena(ANCHO, ALTO, 4, 4, 3), 3);
+    }
+
+    /**
+     * Función que simula la cámara: entrega fotogramas en los buffers del anillo mientras se los devuelvan.
+     * @param temblores desplazamiento de cada fotograma, el último se repite
+     * @return fotogramas entregados
+     */
+    private int entregar(double[] temblores) {
+        byte[][] buffers = puerta.buffers();
+        int entregados = 0;
+        while (puerta.esperando()) {
+            byte[] buffer = buffers[entregados % buffers.length];
+            double temblor = temblores[Math.min(entregados, temblores.length - 1)];
+            fotogramas.pintar(buffer, temblor, -temblor, 0);
+            entregados++;
+            if (!puerta.fotograma(buffer)) {
+                break;
+            }
+            temporizador.avanzar(MS_POR_FOTOGRAMA);
+        }
+        return entregados;
+    }
+
+    @Test
+    public void abreCuandoLaEscenaSeQuedaQuieta() {
+        puerta.esperar(oyente, ESPERA_MAXIMA);
+        int entregados = entregar(new double[]{0, 4, -3, 5, -2, 0});
+        assertEquals(9, entregados);
+        assertEquals(1, eventos.size());
+        assertEquals("estable 9@" + 8 * MS_POR_FOTOGRAMA, eventos.get(0));
+        assertEquals(1, puerta.estables());
+        assertEquals(0, temporizador.pendientes());
+    }
+
+    @Test
+    public void abrePorTiempoSiLaCamaraNoParaDeMoverse() {
+        puerta.esperar(oyente, ESPERA_MAXIMA);
+        double[] temblores = new double[100];
+        for (int i = 0; i < temblores.length; i++) {
+            temblores[i] = i % 2 == 0 ? 4 : -4;
+        }
+        entregar(temblores);
+        assertEquals(1, eventos.size());
+        assertTrue(eventos.get(0), eventos.get(0).startsWith("agotada "));
+        assertTrue(eventos.get(0), eventos.get(0).endsWith("@" + ESPERA_MAXIMA));
+        assertEquals(1, puerta.agotadas());
+        assertFalse(puerta.esperando());
+    }
+
+    @Test
+    public void sinFotogramasAbrePorTiempo() {
+        puerta.esperar(oyente, ESPERA_MAXIMA);
+        temporizador.avanzar(ESPERA_MAXIMA - 1);
+        assertTrue(eventos.isEmpty());
+        temporizador.avanzar(1);
+        assertEquals("agotada 0@" + ESPERA_MAXIMA, eventos.get(0));
+    }
+
+    @Test
+    public void noAvisaDosVecesNiDespuesDeCancelar() {
+        puerta.esperar(oyente, ESPERA_MAXIMA);
+        entregar(new double[]{0});
+        assertEquals(1, eventos.size());
+        assertFalse(puerta.fotograma(puerta.buffers()[0]));
+        temporizador.avanzar(10 * ESPERA_MAXIMA);
+        assertEquals(1, eventos.size());
+
+        puerta.esperar(oyente, ESPERA_MAXIMA);
+        puerta.cancelar();
+        temporizador.avanzar(10 * ESPERA_MAXIMA);
+        assertEquals(1, eventos.size());
+        assertFalse(puerta.fotograma(puerta.buffers()[0]));
+    }
+
+    @Test
+    public void cadaEsperaEmpiezaDeCero() {
+        puerta.esperar(oyente, ESPERA_MAXIMA);
+        entregar(new double[]{0});
+        // Los fotogramas de la espera anterior no cuentan para la siguiente.
+        puerta.esperar(oyente, ESPERA_MAXIMA);
+        assertEquals(4, entregar(new double[]{0}));
+        assertEquals(2, puerta.estables());
+    }
+
+    @Test
+    public void reservaElAnilloUnaVez() {
+        byte[][] buffers = puerta.buffers();
+        assertEquals(3, buffers.length);
+        for (byte[] buffer : buffers) {
+            assertEquals(ANCHO * ALTO * 3 / 2, buffer.length);
+        }
+        puerta.esperar(oyente, ESPERA_MAXIMA);
+        entregar(new double[]{0});
+        assertSame(buffers, puerta.buffers());
+        assertTrue(puerta.sirve(ANCHO, ALTO));
+        assertFalse(puerta.sirve(ALTO, ANCHO));
+    }
+}
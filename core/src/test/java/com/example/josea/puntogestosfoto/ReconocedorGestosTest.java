@@ -0,0 +1,283 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests del reconocedor de gestos en la JVM, usando el mismo fichero de gestos que la aplicación.
+ */
+public class ReconocedorGestosTest {
+    /**
+     * Fichero de gestos de la aplicación, relativo al directorio del módulo core.
+     */
+    static final String FICHERO_GESTOS = "../app/src/main/res/raw/gestures";
+
+    private static List<GestoGrabado> gestos;
+    private static PlantillasGestos plantillas;
+
+    @BeforeClass
+    public static void cargarGestos() throws IOException {
+        gestos = leerGestos();
+        plantillas = PlantillasGestos.desdeGestos(gestos);
+    }
+
+    /**
+     * Función que lee el fichero de gestos de la aplicación, usada también por otros tests.
+     */
+    static List<GestoGrabado> leerGestos() throws IOException {
+        InputStream in = new FileInputStream(FICHERO_GESTOS);
+        try {
+            return LectorGestos.leer(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Función que escala, traslada y reduce un trazo como si se hubiera dibujado en otra parte de la pantalla.
+     */
+    static float[] transformar(float[] trazo, float escala, float dx, float dy) {
+        float[] resultado = new float[trazo.length];
+        for (int i = 0; i < trazo.length; i += 2) {
+            resultado[i] = trazo[i] * escala + dx;
+            resultado[i + 1] = trazo[i + 1] * escala + dy;
+        }
+        return resultado;
+    }
+
+    /**
+     * Función que gira un trazo alrededor del origen.
+     */
+    static float[] girar(float[] trazo, double angulo) {
+        float cos = (float) Math.cos(angulo), sin = (float) Math.sin(angulo);
+        float[] resultado = new float[trazo.length];
+        for (int i = 0; i < trazo.length; i += 2) {
+            resultado[i] = trazo[i] * cos - trazo[i + 1] * sin;
+            resultado[i + 1] = trazo[i] * sin + trazo[i + 1] * cos;
+        }
+        return resultado;
+    }
+
+    @Test
+    public void leeElFicheroDeGestos() {
+        assertEquals(2, gestos.size());
+        assertEquals("foto", gestos.get(0).nombre);
+        assertEquals(1, gestos.get(0).trazos.length);
+        assertEquals(177 * 2, gestos.get(0).trazos[0].length);
+        assertEquals("rafaga", gestos.get(1).nombre);
+        assertEquals(1, gestos.get(1).trazos.length);
+        assertEquals(2, plantillas.tamano());
+    }
+
+    @Test
+    public void reconoceLaPropiaPlantilla() {
+        Predicciones predicciones = new Predicciones(3);
+        float[] trazo = gestos.get(0).trazos[0];
+
+        assertEquals(2, new ReconocedorGestos(plantillas).reconocer(trazo, trazo.length, predicciones));
+        assertEquals("foto", predicciones.nombre(0));
+        assertTrue(predicciones.puntuacion(0) > 100);
+        // El gesto de ráfaga debe quedar lejos del umbral para no confundirlos.
+        assertEquals("rafaga", predicciones.nombre(1));
+        assertTrue(predicciones.puntuacion(1) < 1.5);
+    }
+
+    @Test
+    public void reconoceElGestoDeRafaga() {
+        Predicciones predicciones = new Predicciones(1);
+        float[] trazo = transformar(gestos.get(1).trazos[0], 0.6f, 50, 80);
+
+        new ReconocedorGestos(plantillas).reconocer(trazo, trazo.length, predicciones);
+        assertEquals("rafaga", predicciones.nombre(0));
+        assertTrue(predicciones.puntuacion(0) > 3.0);
+    }
+
+    @Test
+    public void reconoceElGestoEscaladoYTrasladado() {
+        Predicciones predicciones = new Predicciones(3);
+        float[] trazo = transformar(gestos.get(0).trazos[0], 0.5f, 300, -40);
+
+        new ReconocedorGestos(plantillas).reconocer(trazo, trazo.length, predicciones);
+        assertTrue(predicciones.puntuacion(0) > 3.0);
+    }
+
+    @Test
+    public void rechazaUnaLineaRecta() {
+        Predicciones predicciones = new Predicciones(3);
+        float[] linea = {0, 0, 100, 100, 200, 200, 300, 300};
+
+        new ReconocedorGestos(plantillas).reconocer(linea, linea.length, predicciones);
+        assertTrue(predicciones.puntuacion(0) < 3.0);
+    }
+
+    @Test
+    public void ignoraTrazosSinRecorrido() {
+        Predicciones predicciones = new Predicciones(3);
+        float[] punto = {10, 10, 10, 10};
+
+        assertEquals(0, new ReconocedorGestos(plantillas).reconocer(punto, punto.length, predicciones));
+    }
+
+    @Test
+    public void guardaLasMejoresPrediccionesOrdenadas() {
+        Predicciones predicciones = new Predicciones(2);
+        predicciones.reiniciar(plantillas);
+        predicciones.ofrecer(0, 1.0);
+        predicciones.ofrecer(0, 5.0);
+        predicciones.ofrecer(0, 3.0);
+        predicciones.ofrecer(0, 0.5);
+
+        assertEquals(2, predicciones.tamano());
+        assertEquals(5.0, predicciones.puntuacion(0), 0);
+        assertEquals(3.0, predicciones.puntuacion(1), 0);
+    }
+
+    @Test
+    public void noReservaMemoriaAlReconocer() {
+        com.sun.management.ThreadMXBean hilos = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long hilo = Thread.currentThread().getId();
+        ReconocedorGestos reconocedor = new ReconocedorGestos(plantillas);
+        Predicciones predicciones = new Predicciones(3);
+        float[] trazo = gestos.get(0).trazos[0];
+
+        for (int i = 0; i < 20000; i++) {
+            reconocedor.reconocer(trazo, trazo.length, predicciones);
+        }
+        long antes = hilos.getThreadAllocatedBytes(hilo);
+        for (int i = 0; i < 1000; i++) {
+            reconocedor.reconocer(trazo, trazo.length, predicciones);
+        }
+        long despues = hilos.getThreadAllocatedBytes(hilo);
+
+        // Se deja margen por si la propia medición reserva algo.
+        assertTrue("Bytes reservados: " + (despues - antes), despues - antes < 1024);
+    }
+
+    @Test
+    public void reconoceElGestoGiradoSoloEnModoInvariante() throws IOException {
+        PlantillasGestos invariantes = PlantillasGestos.desdeGestos(gestos, 0, UtilGestos.ORIENTACIONES_INVARIANTE);
+        assertEquals(UtilGestos.ORIENTACIONES_INVARIANTE, invariantes.orientaciones());
+        Predicciones sensible = new Predicciones(2);
+        Predicciones invariante = new Predicciones(2);
+        for (int g = 0; g < gestos.size(); g++) {
+            for (int grados = 0; grados < 360; grados += 30) {
+                float[] trazo = transformar(girar(gestos.get(g).trazos[0], Math.toRadians(grados)), 0.7f, 200, 300);
+                new ReconocedorGestos(invariantes).reconocer(trazo, trazo.length, invariante);
+                String mensaje = gestos.get(g).nombre + " girado " + grados + " grados";
+                assertEquals(mensaje, gestos.get(g).nombre, invariante.nombre(0));
+                assertTrue(mensaje, invariante.puntuacion(0) > 3.0);
+                // El otro gesto sigue lejos del umbral aunque se admita cualquier giro.
+                assertTrue(mensaje, invariante.puntuacion(1) < 2.0);
+
+                new ReconocedorGestos(plantillas).reconocer(trazo, trazo.length, sensible);
+                if (grados == 180) {
+                    assertFalse(mensaje, sensible.puntuacion(0) > 3.0 && gestos.get(g).nombre.equals(sensible.nombre(0)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Aciertos con trazos girados hasta 0, 30, 90 y 180 grados, con y sin invarianza al giro. El coste de cada
+     * modo se mide en ReconocimientoBenchmark.
+     */
+    @Test
+    public void comparaPrecisionConYSinInvarianzaAlGiro() {
+        GestosSinteticos generador = new GestosSinteticos(20);
+        List<float[]> prototipos = new ArrayList<float[]>();
+        List<GestoGrabado> biblioteca = generador.biblioteca(300, 5, prototipos);
+        PlantillasGestos[] modos = {
+                PlantillasGestos.desdeGestos(biblioteca, 0, UtilGestos.ORIENTACIONES_SENSIBLE),
+                PlantillasGestos.desdeGestos(biblioteca, 0, UtilGestos.ORIENTACIONES_INVARIANTE)
+        };
+        int[] girosMaximos = {0, 30, 90, 180};
+        int pruebas = 600;
+        Predicciones predicciones = new Predicciones(1);
+
+        for (int giro : girosMaximos) {
+            List<float[]> trazos = new ArrayList<float[]>();
+            for (int i = 0; i < pruebas; i++) {
+                trazos.add(generador.variante(prototipos.get(i % prototipos.size()), 2, Math.toRadians(giro)));
+            }
+            double[] aciertosPorModo = new double[modos.length];
+            for (int m = 0; m < modos.length; m++) {
+                ReconocedorGestos reconocedor = new ReconocedorGestos(modos[m]);
+                int aciertos = 0;
+                for (int i = 0; i < pruebas; i++) {
+                    float[] trazo = trazos.get(i);
+                    if (reconocedor.reconocer(trazo, trazo.length, predicciones) > 0
+                            && predicciones.puntuacion(0) >= 3.0
+                            && predicciones.nombre(0).equals("gesto" + (i % prototipos.size()))) {
+                        aciertos++;
+                    }
+                }
+                aciertosPorModo[m] = (double) aciertos / pruebas;
+            }
+            assertTrue("giro " + giro + ": " + aciertosPorModo[1], aciertosPorModo[1] > 0.95);
+            if (giro == 180) {
+                assertTrue("giro 180 sensible: " + aciertosPorModo[0], aciertosPorModo[0] < 0.8);
+            }
+        }
+    }
+
+    @Test
+    public void lasPlantillasEnterasPuntuanCasiIgualQueLasFloat() {
+        GestosSinteticos generador = new GestosSinteticos(21);
+        List<float[]> prototipos = new ArrayList<float[]>();
+        PlantillasGestos floats = PlantillasGestos.desdeGestos(generador.biblioteca(2000, 4, prototipos));
+        PlantillasGestos enteras = floats.conPrecision(PlantillasGestos.Precision.ENTERO16);
+        ReconocedorGestos[] reconocedores = {
+                new ReconocedorGestos(floats), new ReconocedorGestos(enteras),
+                new ReconocedorGestos(new IndicePlantillas(floats), 3.0),
+                new ReconocedorGestos(new IndicePlantillas(enteras), 3.0)
+        };
+        Predicciones[] predicciones = {new Predicciones(1), new Predicciones(1)};
+        float[] muestra = new float[UtilGestos.LONGITUD_VECTOR];
+        float[] productos = new float[2];
+        float[] productosEnteros = new float[2];
+
+        float maximaProductos = 0;
+        float maximaDistancia = 0;
+        int distintas = 0;
+        for (int i = 0; i < 400; i++) {
+            // La mitad de los trazos no se parecen a ninguna plantilla, para tener distancias de todo tipo.
+            float[] trazo = i % 2 == 0 ? generador.variante(prototipos.get(i % prototipos.size()), 3, 0.2)
+                    : generador.prototipo();
+            UtilGestos.vectorizar(trazo, trazo.length, muestra);
+            for (int p = 0; p < floats.tamano(); p++) {
+                float distancia = floats.distancia(p, muestra, productos);
+                float distanciaEnteros = enteras.distancia(p, muestra, productosEnteros);
+                maximaProductos = Math.max(maximaProductos, Math.max(Math.abs(productos[0] - productosEnteros[0]),
+                        Math.abs(productos[1] - productosEnteros[1])));
+                // La distancia solo importa cerca del umbral. Junto a 0 acos amplifica el redondeo, y con el
+                // producto escalar cerca de 0 la distancia salta al cambiar de signo, también con floats.
+                if (distancia > 0.2f && distancia < 1 && Math.abs(productos[0]) > 0.01f) {
+                    maximaDistancia = Math.max(maximaDistancia, Math.abs(distancia - distanciaEnteros));
+                }
+            }
+            for (int r = 0; r < reconocedores.length; r += 2) {
+                int n0 = reconocedores[r].reconocer(trazo, trazo.length, predicciones[0]);
+                int n1 = reconocedores[r + 1].reconocer(trazo, trazo.length, predicciones[1]);
+                boolean acepta0 = n0 > 0 && predicciones[0].puntuacion(0) >= 3.0;
+                boolean acepta1 = n1 > 0 && predicciones[1].puntuacion(0) >= 3.0;
+                if (acepta0 != acepta1 || (acepta0 && !predicciones[0].nombre(0).equals(predicciones[1].nombre(0)))) {
+                    distintas++;
+                }
+            }
+        }
+        // Cada valor tiene un error menor que 1/65534 y el vector del trazo tiene norma 1.
+        assertTrue("error en los productos " + maximaProductos,
+                maximaProductos < Math.sqrt(UtilGestos.LONGITUD_VECTOR) / 65534 + 1e-6);
+        assertTrue("error en la distancia " + maximaDistancia, maximaDistancia < 1e-3f);
+        assertEquals(0, distintas);
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests del reconocimiento mientras se dibuja el trazo, reproduciendo los puntos con sus tiempos originales.
+ */
+public class ReconocedorIncrementalTest {
+    private static GestoGrabado foto;
+    private static PlantillasGestos plantillas;
+
+    @BeforeClass
+    public static void cargarGestos() throws IOException {
+        List<GestoGrabado> gestos = ReconocedorGestosTest.leerGestos();
+        foto = gestos.get(0);
+        plantillas = PlantillasGestos.desdeGestos(gestos);
+    }
+
+    private static ReconocedorIncremental nuevo(PlantillasGestos plantillas) {
+        return new ReconocedorIncremental(plantillas, 3.0, 1.0, 1.2, 2, 10);
+    }
+
+    /**
+     * Función que reproduce un trazo hasta un número de puntos.
+     * @return índice del punto con el que se decidió, -1 si no se decidió
+     */
+    private static int reproducir(ReconocedorIncremental reconocedor, float[] trazo, long[] tiempos, int numPuntos) {
+        reconocedor.empezar(tiempos[0]);
+        for (int i = 0; i < numPuntos; i++) {
+            if (reconocedor.anadirPunto(trazo[i * 2], trazo[i * 2 + 1], tiempos[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void decideAntesDeLevantarElDedo() {
+        float[] trazo = ReconocedorGestosTest.transformar(foto.trazos[0], 0.8f, 20, 30);
+        long[] tiempos = foto.tiempos[0];
+        int puntos = tiempos.length;
+        ReconocedorIncremental reconocedor = nuevo(plantillas);
+
+        int decision = reproducir(reconocedor, trazo, tiempos, puntos);
+
+        assertTrue(decision >= 0);
+        assertEquals("foto", plantillas.nombre(reconocedor.etiquetaDecidida()));
+        assertTrue(reconocedor.puntuacionDecidida() > 3.0);
+        long total = tiempos[puntos - 1] - tiempos[0];
+        assertTrue(decision < puntos - 1);
+        assertTrue(reconocedor.tiempoHastaDecision() <= total);
+    }
+
+    @Test
+    public void noDecideConMedioGesto() {
+        long[] tiempos = foto.tiempos[0];
+        ReconocedorIncremental reconocedor = nuevo(plantillas);
+
+        assertEquals(-1, reproducir(reconocedor, foto.trazos[0], tiempos, tiempos.length / 2));
+        assertEquals(-1, reconocedor.etiquetaDecidida());
+    }
+
+    @Test
+    public void podaLasPlantillasQueNoSeParecen() {
+        List<float[]> prototipos = new ArrayList<float[]>();
+        GestosSinteticos sinteticos = new GestosSinteticos(11);
+        PlantillasGestos muchas = PlantillasGestos.desdeGestos(sinteticos.biblioteca(500, 5, prototipos));
+        ReconocedorIncremental reconocedor = nuevo(muchas);
+        float[] trazo = sinteticos.variante(prototipos.get(7), 2, 0.1);
+        long[] tiempos = new long[trazo.length / 2];
+        for (int i = 0; i < tiempos.length; i++) {
+            tiempos[i] = i * 10;
+        }
+
+        int decision = reproducir(reconocedor, trazo, tiempos, tiempos.length);
+
+        assertTrue(reconocedor.plantillasVivas() < muchas.tamano() / 2);
+        if (decision >= 0) {
+            assertEquals("gesto7", muchas.nombre(reconocedor.etiquetaDecidida()));
+        }
+    }
+
+    @Test
+    public void noDecideConOtroGesto() {
+        GestosSinteticos sinteticos = new GestosSinteticos(13);
+        ReconocedorIncremental reconocedor = nuevo(plantillas);
+        for (int i = 0; i < 50; i++) {
+            float[] trazo = sinteticos.prototipo();
+            long[] tiempos = new long[trazo.length / 2];
+            assertEquals(-1, reproducir(reconocedor, trazo, tiempos, tiempos.length));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests del reconocimiento en paralelo por fragmentos, comparado con la búsqueda lineal.
+ */
+public class ReconocedorParaleloTest {
+    private static final double UMBRAL = 3.0;
+
+    private static PlantillasGestos plantillas;
+    private static final List<float[]> trazos = new ArrayList<float[]>();
+
+    /**
+     * Biblioteca de 3000 plantillas con 5 muestras de cada gesto. La mayoría de los trazos son variantes de
+     * algún gesto y el resto no se parecen a ninguno.
+     */
+    @BeforeClass
+    public static void crearPlantillas() {
+        List<float[]> prototipos = new ArrayList<float[]>();
+        GestosSinteticos sinteticos = new GestosSinteticos(7);
+        plantillas = PlantillasGestos.desdeGestos(sinteticos.biblioteca(3000, 5, prototipos));
+        for (int i = 0; i < 150; i++) {
+            trazos.add(i % 5 == 4 ? sinteticos.prototipo()
+                    : sinteticos.variante(prototipos.get(i * 7 % prototipos.size()), 4, 0.35));
+        }
+    }
+
+    private static void comprobarIgualALaLineal(int numHilos, int capacidad) {
+        ReconocedorGestos lineal = new ReconocedorGestos(plantillas);
+        ReconocedorParalelo paralelo = new ReconocedorParalelo(plantillas, UMBRAL, numHilos);
+        Predicciones esperadas = new Predicciones(capacidad);
+        Predicciones obtenidas = new Predicciones(capacidad);
+        try {
+            for (float[] trazo : trazos) {
+                lineal.reconocer(trazo, trazo.length, esperadas);
+                paralelo.reconocer(trazo, trazo.length, obtenidas);
+
+                int validas = 0;
+                while (validas < esperadas.tamano() && esperadas.puntuacion(validas) >= UMBRAL) {
+                    validas++;
+                }
+                assertEquals(validas, obtenidas.tamano());
+                for (int j = 0; j < validas; j++) {
+                    assertEquals(esperadas.etiqueta(j), obtenidas.etiqueta(j));
+                    assertEquals(esperadas.puntuacion(j), obtenidas.puntuacion(j), 0);
+                }
+            }
+        } finally {
+            paralelo.cerrar();
+        }
+    }
+
+    @Test
+    public void daLasMismasPrediccionesQueLaBusquedaLineal() {
+        for (int numHilos = 1; numHilos <= 4; numHilos++) {
+            comprobarIgualALaLineal(numHilos, 1);
+            comprobarIgualALaLineal(numHilos, 3);
+        }
+    }
+
+    @Test
+    public void lasCotasCompartidasEvitanComparaciones() {
+        ReconocedorParalelo paralelo = new ReconocedorParalelo(plantillas, UMBRAL, 4);
+        Predicciones predicciones = new Predicciones(1);
+        long comparadas = 0;
+        try {
+            for (float[] trazo : trazos) {
+                paralelo.reconocer(trazo, trazo.length, predicciones);
+                comparadas += paralelo.ultimasComparadas();
+            }
+        } finally {
+            paralelo.cerrar();
+        }
+        assertEquals(4, paralelo.numFragmentos());
+        assertTrue(comparadas < (long) plantillas.tamano() * trazos.size() / 4);
+    }
+
+    @Test
+    public void unTrazoSinRecorridoNoDaPredicciones() {
+        ReconocedorParalelo paralelo = new ReconocedorParalelo(plantillas, UMBRAL, 2);
+        Predicciones predicciones = new Predicciones(3);
+        try {
+            assertEquals(0, paralelo.reconocer(new float[]{10, 10, 10, 10}, 4, predicciones));
+        } finally {
+            paralelo.cerrar();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests de la reproducción de trazas con el fichero de gestos de la aplicación: variantes de sus gestos con la
+ * etiqueta de cada uno, trazos al azar que no debían hacer nada y algunos sin etiqueta.
+ */
+public class ReproductorTrazasTest {
+    private static final int VARIANTES = 300;
+    private static final double[] UMBRALES = {1, 3, 1e6};
+
+    private static PlantillasGestos plantillas;
+    private static byte[] trazas;
+
+    @BeforeClass
+    public static void grabarTrazas() throws IOException {
+        List<GestoGrabado> gestos = ReconocedorGestosTest.leerGestos();
+        plantillas = PlantillasGestos.desdeGestos(gestos);
+        GestosSinteticos sinteticos = new GestosSinteticos(11);
+        GrabadorTrazas grabador = new GrabadorTrazas();
+        long instante = 0;
+        for (int i = 0; i < VARIANTES; i++) {
+            for (GestoGrabado gesto : gestos) {
+                grabar(grabador, gesto.nombre, instante++, sinteticos.variante(gesto.trazos[0], 4, 0.35));
+            }
+            grabar(grabador, "ninguno", instante++, sinteticos.prototipo());
+            if (i % 10 == 0) {
+                grabar(grabador, "", instante++, sinteticos.prototipo());
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GrabadorTrazas.escribirCabecera(out);
+        grabador.volcar(out);
+        trazas = out.toByteArray();
+    }
+
+    private static void grabar(GrabadorTrazas grabador, String etiqueta, long instante, float[] trazo) {
+        grabador.empezarGesto(instante);
+        for (int i = 0; i < trazo.length; i += 2) {
+            grabador.anadirPunto(trazo[i], trazo[i + 1], instante + i * 8);
+        }
+        grabador.terminarGesto(etiqueta);
+    }
+
+    private static ReproductorTrazas reproducir(HiloReconocimiento.ReconocedorTrazo reconocedor) throws IOException {
+        ReproductorTrazas reproductor = new ReproductorTrazas(plantillas, reconocedor, UMBRALES);
+        reproductor.reproducir(new LectorTrazas(new ByteArrayInputStream(trazas)));
+        return reproductor;
+    }
+
+    @Test
+    public void cuentaLosGestosPorEtiqueta() throws IOException {
+        ReproductorTrazas reproductor = reproducir(new ReconocedorGestos(plantillas));
+        assertEquals(VARIANTES * 3 + VARIANTES / 10, reproductor.gestos());
+        assertEquals(VARIANTES * 2, reproductor.positivos());
+        assertEquals(VARIANTES, reproductor.negativos());
+        assertEquals(reproductor.gestos(), reproductor.latencias().cuenta());
+        assertTrue(reproductor.gestosPorSegundo() > 0);
+    }
+
+    @Test
+    public void laPrecisionSubeYLaExhaustividadBajaConElUmbral() throws IOException {
+        ReproductorTrazas reproductor = reproducir(new ReconocedorGestos(plantillas));
+        // Con un umbral muy bajo se aceptan también los trazos al azar.
+        assertEquals(1, reproductor.exhaustividad(0), 0);
+        assertTrue(reproductor.precision(0) < 0.9);
+        // Con el de la aplicación no.
+        assertEquals(1, reproductor.precision(1), 0);
+        assertTrue(reproductor.exhaustividad(1) > 0.95);
+        // Y con uno inalcanzable no se acepta nada.
+        assertEquals(1, reproductor.precision(2), 0);
+        assertEquals(0, reproductor.exhaustividad(2), 0);
+    }
+
+    @Test
+    public void conElIndiceDaLoMismoQueConLaBusquedaLinealDesdeElUmbralDeLaAplicacion() throws IOException {
+        ReproductorTrazas lineal = reproducir(new ReconocedorGestos(plantillas));
+        ReproductorTrazas indice = reproducir(new ReconocedorGestos(new IndicePlantillas(plantillas), UMBRALES[0]));
+        for (int u = 1; u < UMBRALES.length; u++) {
+            assertEquals(lineal.precision(u), indice.precision(u), 0);
+            assertEquals(lineal.exhaustividad(u), indice.exhaustividad(u), 0);
+        }
+        // Las tolerancias del índice se midieron para el umbral 3: con uno mucho más bajo descarta trazos al azar
+        // que la búsqueda lineal aceptaría.
+        assertTrue(indice.precision(0) >= lineal.precision(0));
+    }
+
+    @Test
+    public void elInformeTieneUnaLineaPorUmbral() throws IOException {
+        StringBuilder informe = new StringBuilder();
+        reproducir(new ReconocedorGestos(plantillas)).informe(informe);
+        String[] lineas = informe.toString().split("\n");
+        assertEquals(3 + UMBRALES.length, lineas.length);
+        assertTrue(lineas[1].contains("p99"));
+        assertTrue(lineas[3 + 1].trim().startsWith("3.00"));
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests de la lectura de la cabecera de un JPEG y de la inserción de segmentos.
+ */
+public class SegmentosJpegTest {
+    private static byte[] imagen;
+    private static byte[] miniatura;
+
+    @BeforeClass
+    public static void codificar() throws IOException {
+        imagen = JpegsSinteticos.codificar(320, 240, 1);
+        miniatura = JpegsSinteticos.codificar(40, 30, 2);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static byte[] unir(ByteBuffer[] partes) {
+        int total = 0;
+        for (ByteBuffer parte : partes) {
+            total += parte.remaining();
+        }
+        ByteBuffer resultado = ByteBuffer.allocate(total);
+        for (ByteBuffer parte : partes) {
+            resultado.put(parte.duplicate());
+        }
+        return resultado.array();
+    }
+
+    private static BufferedImage decodificar(byte[] jpeg) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(jpeg));
+    }
+
+    @Test
+    public void leeTamanoOrientacionYMiniaturaEnLosDosOrdenes() {
+        for (ByteOrder orden : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            byte[] jpeg = JpegsSinteticos.conExif(imagen, 6, miniatura, orden);
+            SegmentosJpeg segmentos = SegmentosJpeg.analizar(ByteBuffer.wrap(jpeg));
+            assertEquals(320, segmentos.ancho());
+            assertEquals(240, segmentos.alto());
+            assertTrue(segmentos.tieneExif());
+            assertEquals(6, segmentos.orientacion());
+            ByteBuffer vista = segmentos.miniatura();
+            assertArrayEquals(miniatura, bytes(vista));
+            // La miniatura es una vista del array de la foto, no una copia.
+            assertSame(jpeg, vista.array());
+            assertNull(segmentos.xmp());
+        }
+    }
+
+    @Test
+    public void sinExifDaLaOrientacionNormal() {
+        SegmentosJpeg segmentos = SegmentosJpeg.analizar(ByteBuffer.wrap(imagen));
+        assertEquals(320, segmentos.ancho());
+        assertEquals(240, segmentos.alto());
+        assertFalse(segmentos.tieneExif());
+        assertEquals(SegmentosJpeg.ORIENTACION_NORMAL, segmentos.orientacion());
+        assertNull(segmentos.miniatura());
+
+        SegmentosJpeg sinMiniatura = SegmentosJpeg.analizar(ByteBuffer.wrap(
+                JpegsSinteticos.conExif(imagen, 3, null, ByteOrder.BIG_ENDIAN)));
+        assertEquals(3, sinMiniatura.orientacion());
+        assertNull(sinMiniatura.miniatura());
+    }
+
+    @Test
+    public void noLeeLosDatosDeLaImagen() {
+        byte[] jpeg = JpegsSinteticos.conExif(imagen, 6, miniatura, ByteOrder.BIG_ENDIAN);
+        int cabecera = SegmentosJpeg.analizar(ByteBuffer.wrap(jpeg)).bytesCabecera();
+        assertTrue(cabecera < jpeg.length / 4);
+        // Basta con la cabecera y el segmento SOS, el resto puede no estar.
+        int sos = 2 + ((jpeg[cabecera + 2] & 0xFF) << 8 | (jpeg[cabecera + 3] & 0xFF));
+        SegmentosJpeg segmentos = SegmentosJpeg.analizar(ByteBuffer.wrap(jpeg, 0, cabecera + sos));
+        assertEquals(320, segmentos.ancho());
+        assertEquals(6, segmentos.orientacion());
+    }
+
+    @Test
+    public void respetaLaPosicionYElLimiteDelBuffer() {
+        byte[] jpeg = JpegsSinteticos.conExif(imagen, 8, miniatura, ByteOrder.LITTLE_ENDIAN);
+        byte[] conRelleno = new byte[jpeg.length + 200];
+        System.arraycopy(jpeg, 0, conRelleno, 100, jpeg.length);
+        ByteBuffer buffer = ByteBuffer.wrap(conRelleno, 100, jpeg.length);
+        SegmentosJpeg segmentos = SegmentosJpeg.analizar(buffer);
+        assertEquals(100, buffer.position());
+        assertEquals(100 + jpeg.length, buffer.limit());
+        assertEquals(8, segmentos.orientacion());
+        assertArrayEquals(miniatura, bytes(segmentos.miniatura()));
+        assertArrayEquals(jpeg, unir(segmentos.conSegmento(ByteBuffer.allocate(0))));
+    }
+
+    @Test
+    public void ignoraUnExifMalFormado() {
+        byte[] jpeg = JpegsSinteticos.conExif(imagen, 6, miniatura, ByteOrder.BIG_ENDIAN);
+        // Posición del IFD0 fuera del segmento.
+        jpeg[4 + 2 + 6 + 4] = 0x7F;
+        SegmentosJpeg segmentos = SegmentosJpeg.analizar(ByteBuffer.wrap(jpeg));
+        assertFalse(segmentos.tieneExif());
+        assertEquals(SegmentosJpeg.ORIENTACION_NORMAL, segmentos.orientacion());
+        assertNull(segmentos.miniatura());
+        assertEquals(320, segmentos.ancho());
+    }
+
+    @Test
+    public void rechazaLoQueNoEsUnJpeg() {
+        byte[] basura = new byte[1000];
+        new Random(1).nextBytes(basura);
+        byte[][] casos = {basura, new byte[0], Arrays.copyOf(imagen, 100), Arrays.copyOf(imagen, 3)};
+        for (byte[] caso : casos) {
+            try {
+                SegmentosJpeg.analizar(ByteBuffer.wrap(caso));
+                fail("Se ha aceptado un JPEG no válido de " + caso.length + " bytes");
+            } catch (IllegalArgumentException e) {
+                // Correcto.
+            }
+        }
+    }
+
+    @Test
+    public void insertaElSegmentoDetrasDelExifSinTocarLaImagen() throws IOException {
+        byte[] jpeg = JpegsSinteticos.conExif(imagen, 6, miniatura, ByteOrder.BIG_ENDIAN);
+        ByteBuffer xmp = new MetadatosCaptura("foto", 4.5, 1000).segmentoXmp();
+        ByteBuffer[] partes = SegmentosJpeg.analizar(ByteBuffer.wrap(jpeg)).conSegmento(xmp);
+        assertEquals(3, partes.length);
+        assertSame(jpeg, partes[0].array());
+        assertSame(jpeg, partes[2].array());
+        byte[] resultado = unir(partes);
+        assertEquals(jpeg.length + xmp.remaining(), resultado.length);
+
+        SegmentosJpeg segmentos = SegmentosJpeg.analizar(ByteBuffer.wrap(resultado));
+        assertEquals(6, segmentos.orientacion());
+        assertArrayEquals(miniatura, bytes(segmentos.miniatura()));
+        assertEquals("foto", MetadatosCaptura.leer(segmentos.xmp()).gesto());
+        // El EXIF sigue siendo el primer segmento.
+        assertEquals(0xE1, resultado[3] & 0xFF);
+        assertEquals('E', resultado[6]);
+
+        BufferedImage original = decodificar(jpeg);
+        BufferedImage conXmp = decodificar(resultado);
+        for (int y = 0; y < original.getHeight(); y += 7) {
+            for (int x = 0; x < original.getWidth(); x += 7) {
+                assertEquals(original.getRGB(x, y), conXmp.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void sustituyeElXmpQueYaHabia() {
+        byte[] jpeg = JpegsSinteticos.conExif(imagen, 1, null, ByteOrder.BIG_ENDIAN);
+        byte[] primero = unir(SegmentosJpeg.analizar(ByteBuffer.wrap(jpeg))
+                .conSegmento(new MetadatosCaptura("uno", 3, 1).segmentoXmp()));
+        ByteBuffer segundoXmp = new MetadatosCaptura("dos", 5, 2).segmentoXmp();
+        byte[] segundo = unir(SegmentosJpeg.analizar(ByteBuffer.wrap(primero)).conSegmento(segundoXmp));
+
+        assertEquals(jpeg.length + segundoXmp.remaining(), segundo.length);
+        MetadatosCaptura leidos = MetadatosCaptura.leer(SegmentosJpeg.analizar(ByteBuffer.wrap(segundo)).xmp());
+        assertEquals("dos", leidos.gesto());
+        assertEquals(2, leidos.instante());
+    }
+}
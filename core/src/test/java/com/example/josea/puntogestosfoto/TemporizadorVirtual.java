@@ -0,0 +1,75 @@
+package com.example.josea.puntogestosfoto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Temporizador con un reloj virtual para los tests: las tareas solo se ejecutan al avanzar el reloj.
+ */
+class TemporizadorVirtual implements PlanificadorCaptura.Temporizador {
+    private static final class Programada {
+        final Runnable tarea;
+        final long instante;
+        final long orden;
+
+        Programada(Runnable tarea, long instante, long orden) {
+            this.tarea = tarea;
+            this.instante = instante;
+            this.orden = orden;
+        }
+    }
+
+    private final List<Programada> pendientes = new ArrayList<Programada>();
+    private long ahora;
+    private long siguienteOrden;
+
+    public void programar(Runnable tarea, long retraso) {
+        pendientes.add(new Programada(tarea, ahora + retraso, siguienteOrden++));
+    }
+
+    public void cancelar(Runnable tarea) {
+        for (int i = pendientes.size() - 1; i >= 0; i--) {
+            if (pendientes.get(i).tarea == tarea) {
+                pendientes.remove(i);
+            }
+        }
+    }
+
+    /**
+     * @return milisegundos virtuales transcurridos
+     */
+    long ahora() {
+        return ahora;
+    }
+
+    /**
+     * @return tareas programadas pendientes
+     */
+    int pendientes() {
+        return pendientes.size();
+    }
+
+    /**
+     * Función que avanza el reloj ejecutando en orden las tareas que vencen, incluidas las que estas programen.
+     * @param ms milisegundos a avanzar
+     */
+    void avanzar(long ms) {
+        long fin = ahora + ms;
+        while (true) {
+            Programada siguiente = null;
+            for (Programada p : pendientes) {
+                if (p.instante <= fin && (siguiente == null || p.instante < siguiente.instante
+                        || (p.instante == siguiente.instante && p.orden < siguiente.orden))) {
+                    siguiente = p;
+                }
+            }
+            if (siguiente == null) {
+                break;
+            }
+            pendientes.remove(siguiente);
+            ahora = siguiente.instante;
+            siguiente.tarea.run();
+        }
+        ahora = fin;
+    }
+}
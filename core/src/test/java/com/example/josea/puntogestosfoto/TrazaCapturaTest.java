@@ -0,0 +1,166 @@
+package com.example.josea.puntogestosfoto;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests de la traza de capturas con instantes inventados, en nanosegundos.
+ */
+public class TrazaCapturaTest {
+    private static final long MS = 1000000;
+
+    /**
+     * Función que anota todas las etapas de una captura con las duraciones indicadas en milisegundos.
+     */
+    private static int captura(TrazaCaptura traza, long inicio, long... duraciones) {
+        int captura = traza.nuevaCaptura();
+        TrazaCaptura.Etapa[] etapas = TrazaCaptura.Etapa.values();
+        long instante = inicio;
+        traza.anotar(captura, etapas[0], instante);
+        for (int i = 0; i < duraciones.length; i++) {
+            instante += duraciones[i] * MS;
+            traza.anotar(captura, etapas[i + 1], instante);
+        }
+        return captura;
+    }
+
+    @Test
+    public void cadaEtapaSeMideDesdeLaAnterior() {
+        TrazaCaptura traza = new TrazaCaptura(256);
+        for (int i = 0; i < 100; i++) {
+            // Reconocido, disparo (cuenta atrás), obturador, jpeg, guardada y galería.
+            captura(traza, i * 10000 * MS, 2, 3000, 80 + i, 300, 40, 500);
+        }
+
+        assertEquals(100, traza.histograma(TrazaCaptura.Etapa.RECONOCIDO).cuenta());
+        assertEquals(0, traza.histograma(TrazaCaptura.Etapa.TRAZO).cuenta());
+        assertEquals(2 * MS, traza.histograma(TrazaCaptura.Etapa.RECONOCIDO).maximo());
+        assertEquals(179 * MS, traza.histograma(TrazaCaptura.Etapa.OBTURADOR).maximo());
+        long p50 = traza.histograma(TrazaCaptura.Etapa.OBTURADOR).percentil(50);
+        assertTrue(p50 >= 129 * MS && p50 <= 129 * MS * 17 / 16);
+        assertEquals((3922 + 99) * MS, traza.total().maximo());
+        assertEquals(100, traza.total().cuenta());
+    }
+
+    @Test
+    public void lasEtapasSinAnteriorNoSeMiden() {
+        TrazaCaptura traza = new TrazaCaptura(16);
+        // Foto de una ráfaga, empieza en el disparo.
+        int captura = traza.nuevaCaptura();
+        traza.anotar(captura, TrazaCaptura.Etapa.DISPARO, 0);
+        traza.anotar(captura, TrazaCaptura.Etapa.OBTURADOR, 50 * MS);
+        traza.anotar(captura, TrazaCaptura.Etapa.GALERIA, 900 * MS);
+        // Las capturas no válidas se ignoran.
+        traza.anotar(0, TrazaCaptura.Etapa.TRAZO, 0);
+
+        assertEquals(0, traza.histograma(TrazaCaptura.Etapa.DISPARO).cuenta());
+        assertEquals(1, traza.histograma(TrazaCaptura.Etapa.OBTURADOR).cuenta());
+        assertEquals(0, traza.histograma(TrazaCaptura.Etapa.GALERIA).cuenta());
+        assertEquals(0, traza.total().cuenta());
+        assertEquals(3, traza.eventosAnotados());
+    }
+
+    @Test
+    public void elBufferGuardaLosUltimosEventosEnOrden() {
+        TrazaCaptura traza = new TrazaCaptura(100);
+        assertEquals(128, traza.capacidad());
+        for (int i = 0; i < 50; i++) {
+            captura(traza, i * 10000 * MS, 1, 1, 1, 1, 1, 1);
+        }
+        // Las capturas antiguas salen del buffer pero siguen en los histogramas.
+        assertEquals(50, traza.histograma(TrazaCaptura.Etapa.GALERIA).cuenta());
+
+        int[] capturas = new int[200];
+        TrazaCaptura.Etapa[] etapas = new TrazaCaptura.Etapa[200];
+        long[] instantes = new long[200];
+        int n = traza.eventos(capturas, etapas, instantes);
+        assertEquals(128, n);
+        for (int i = 1; i < n; i++) {
+            assertTrue(instantes[i] > instantes[i - 1]);
+        }
+        assertEquals(TrazaCaptura.Etapa.GALERIA, etapas[n - 1]);
+        assertEquals(capturas[n - 1], capturas[n - 7]);
+        assertEquals(TrazaCaptura.Etapa.TRAZO, etapas[n - 7]);
+
+        // Con menos sitio se copian solo los más recientes.
+        n = traza.eventos(new int[3], etapas, instantes);
+        assertEquals(3, n);
+        assertEquals(TrazaCaptura.Etapa.JPEG, etapas[0]);
+        assertEquals(TrazaCaptura.Etapa.GALERIA, etapas[2]);
+    }
+
+    @Test
+    public void variosHilosAnotanSinPerderEventos() throws InterruptedException {
+        final TrazaCaptura traza = new TrazaCaptura(1 << 16);
+        final int porHilo = 5000;
+        Thread[] hilos = new Thread[4];
+        for (int h = 0; h < hilos.length; h++) {
+            hilos[h] = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < porHilo; i++) {
+                        int captura = traza.nuevaCaptura();
+                        traza.anotar(captura, TrazaCaptura.Etapa.JPEG);
+                        traza.anotar(captura, TrazaCaptura.Etapa.GUARDADA);
+                    }
+                }
+            });
+            hilos[h].start();
+        }
+        for (Thread hilo : hilos) {
+            hilo.join();
+        }
+
+        int total = hilos.length * porHilo * 2;
+        int[] capturas = new int[total];
+        TrazaCaptura.Etapa[] etapas = new TrazaCaptura.Etapa[total];
+        assertEquals(total, traza.eventos(capturas, etapas, new long[total]));
+        Set<Integer> distintas = new HashSet<Integer>();
+        for (int captura : capturas) {
+            distintas.add(captura);
+        }
+        assertEquals(hilos.length * porHilo, distintas.size());
+        // Si un hilo se queda parado entre sus dos anotaciones mientras los demás empiezan CAPTURAS_EN_CURSO
+        // capturas, su hueco se reutiliza y esa medida se pierde; en el buffer sigue estando.
+        long medidas = traza.histograma(TrazaCaptura.Etapa.GUARDADA).cuenta();
+        assertTrue(medidas > hilos.length * porHilo * 0.99);
+        assertTrue(medidas <= hilos.length * porHilo);
+    }
+
+    @Test
+    public void vuelcaLosHistogramasYLosEventos() throws IOException {
+        TrazaCaptura traza = new TrazaCaptura(64);
+        captura(traza, 0, 2, 3000, 80, 300, 40, 500);
+        StringBuilder texto = new StringBuilder();
+        traza.volcar(texto, 3);
+
+        String volcado = texto.toString();
+        assertTrue(volcado, volcado.contains("OBTURADOR"));
+        assertTrue(volcado, volcado.contains("TOTAL"));
+        assertTrue(volcado, volcado.contains("3922.00"));
+        assertTrue(volcado, volcado.contains("ultimos 3 eventos"));
+        assertFalse(volcado, volcado.contains(" TRAZO\n"));
+
+        File fichero = File.createTempFile("traza", ".txt");
+        try {
+            traza.volcar(fichero, 0);
+            FileInputStream in = new FileInputStream(fichero);
+            byte[] datos = new byte[(int) fichero.length()];
+            try {
+                assertEquals(datos.length, in.read(datos));
+            } finally {
+                in.close();
+            }
+            assertTrue(new String(datos, "UTF-8").startsWith("etapa(ms)"));
+            assertFalse(new File(fichero.getPath() + ".tmp").exists());
+        } finally {
+            fichero.delete();
+        }
+    }
+}